@@ -0,0 +1,100 @@
+package com.example.surfacerecordingdemo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free queue for many producer threads and one consumer thread.
+ * <p>
+ * A ring of slots, each with a sequence number saying whose turn it is: producers claim a slot
+ * by advancing the tail with a compare-and-set, fill it, then publish it by bumping its
+ * sequence; the consumer takes a slot once its sequence shows it is filled and hands it back a
+ * lap later.  Nothing is allocated per element, and a full queue rejects rather than blocks.
+ *
+ * @param <E> Element type.
+ */
+public class BoundedMpscQueue<E> {
+    private final int mMask;
+    private final AtomicReferenceArray<E> mElements;
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mTail = new AtomicLong();
+    // Written only by the consumer; volatile so size() works from any thread.
+    private volatile long mHead;
+
+    /**
+     * @param capacity Maximum number of elements; rounded up to a power of two.
+     */
+    public BoundedMpscQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mElements = new AtomicReferenceArray<>(size);
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds an element.  (Call from any thread.)
+     *
+     * @return false if the queue is full.
+     */
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        while (true) {
+            long tail = mTail.get();
+            int index = (int) tail & mMask;
+            long delta = mSequences.get(index) - tail;
+            if (delta == 0) {
+                if (mTail.compareAndSet(tail, tail + 1)) {
+                    mElements.lazySet(index, element);
+                    mSequences.set(index, tail + 1);
+                    return true;
+                }
+            } else if (delta < 0) {
+                return false;       // the consumer has not freed this slot yet
+            }
+            // Otherwise another producer took the slot first; retry with the new tail.
+        }
+    }
+
+    /**
+     * Removes the oldest element.  (Call from the consumer thread only.)
+     *
+     * @return The element, or null if the queue is empty or the next producer is still
+     *     filling its slot.
+     */
+    public E poll() {
+        long head = mHead;
+        int index = (int) head & mMask;
+        if (mSequences.get(index) != head + 1) {
+            return null;
+        }
+        E element = mElements.get(index);
+        mElements.lazySet(index, null);
+        mSequences.set(index, head + mMask + 1);
+        mHead = head + 1;
+        return element;
+    }
+
+    /**
+     * Returns the number of elements queued.  Approximate while producers are adding.
+     */
+    public int size() {
+        long size = mTail.get() - mHead;
+        return size < 0 ? 0 : (int) Math.min(size, mMask + 1);
+    }
+
+    public int capacity() {
+        return mMask + 1;
+    }
+}
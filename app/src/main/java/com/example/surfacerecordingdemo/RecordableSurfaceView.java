@@ -2,6 +2,7 @@ package com.example.surfacerecordingdemo;
 
 import android.content.Context;
 import android.media.MediaCodec;
+import android.media.MediaFormat;
 import android.media.MediaRecorder;
 import android.opengl.EGL14;
 import android.opengl.EGLConfig;
@@ -15,15 +16,30 @@ import android.os.Build;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.Surface;
+import android.view.Display;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
+import com.example.surfacerecordingdemo.recording.Benchmark;
+import com.example.surfacerecordingdemo.recording.RecordCallback;
+import com.example.surfacerecordingdemo.recording.VideoSizePolicy;
+import com.example.surfacerecordingdemo.recording.VideoSpec;
+import com.example.surfacerecordingdemo.recording.gles.Drawable2d;
+import com.example.surfacerecordingdemo.recording.gles.GlUtil;
+import com.example.surfacerecordingdemo.recording.gles.Texture2dProgram;
+import com.example.surfacerecordingdemo.recording.gles.TextureFramebuffer;
+import com.example.surfacerecordingdemo.recording.hardware.HWVideoEncoderCore;
+
 import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
-import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Used to record video of the content of a SurfaceView, backed by a GL render loop.
@@ -52,6 +68,17 @@ public class RecordableSurfaceView extends SurfaceView {
      */
     public static int RENDERMODE_CONTINUOUSLY = GLSurfaceView.RENDERMODE_CONTINUOUSLY;
 
+    /**
+     * Records through {@link MediaRecorder}.
+     */
+    public static final int BACKEND_MEDIA_RECORDER = 0;
+
+    /**
+     * Records through {@link MediaCodec} and the muxer stage shared with screen recordings,
+     * which allows changing the bitrate while recording.
+     */
+    public static final int BACKEND_MEDIA_CODEC = 1;
+
     private Surface mSurface;
 
     private AtomicInteger mRenderMode = new AtomicInteger(RENDERMODE_CONTINUOUSLY);
@@ -81,6 +108,88 @@ public class RecordableSurfaceView extends SurfaceView {
 
     private AtomicBoolean mRenderRequested = new AtomicBoolean(false);
 
+    private AtomicBoolean mRenderOnce = new AtomicBoolean(false);
+
+    /**
+     * Paces the render thread; exists while the render thread runs.
+     */
+    private volatile VsyncScheduler mVsyncScheduler;
+
+    /**
+     * Longest the render thread waits for vsync before running queued events anyway, e.g.
+     * while the display is off.
+     */
+    private static final long FRAME_WAIT_TIMEOUT_NANOS = 100 * 1000000L;
+
+    /**
+     * Maximum number of events waiting for the render thread.
+     */
+    private static final int EVENT_QUEUE_CAPACITY = 256;
+
+    /**
+     * Frame rate and bitrate asked of the encoder; lowered by {@link VideoSizePolicy} where
+     * the device can't sustain them.
+     */
+    private static final int FRAME_RATE = 30;
+
+    private static final int BIT_RATE = 1000 * 1000 * 4;
+
+    // Recorder settings from initRecorder, reused to prepare warm recorders.
+    private int mFrameRate;
+
+    private int mBitRate;
+
+    private int mOrientationHint;
+
+    private MediaRecorder.OnErrorListener mErrorListener;
+
+    private MediaRecorder.OnInfoListener mInfoListener;
+
+    private File mPendingDir;
+
+    private volatile boolean mKeepRecorderWarm = false;
+
+    /**
+     * The file the prepared or running recorder writes into.
+     */
+    private File mRecorderFile;
+
+    /**
+     * Where the current recording ends up; differs from mRecorderFile for warm recorders.
+     * Cleared when a recording stops, so each recording names its own file.
+     */
+    private File mOutputFile;
+
+    private ExecutorService mPrepareExecutor;
+
+    private int mBackend = BACKEND_MEDIA_RECORDER;
+
+    private HWVideoEncoderCore mEncoderCore;
+
+    private RecordCallback mRecordCallback;
+
+    private volatile Benchmark mBenchmark;
+
+    private Future<File> mPrepareResult;
+
+    /**
+     * Render thread time per frame for running queued events; the rest wait for the next
+     * frame.
+     */
+    private static final long EVENT_BUDGET_NANOS = 4 * 1000000L;
+
+    /**
+     * Events run between checks of the event time budget.
+     */
+    private static final int EVENT_BATCH_SIZE = 8;
+
+    private final BoundedMpscQueue<Runnable> mEventQueue =
+            new BoundedMpscQueue<>(EVENT_QUEUE_CAPACITY);
+
+    private AtomicLong mRejectedEventCount = new AtomicLong();
+
+    private volatile long mEventDrainNanos;
+
     /**
      * @param context -
      */
@@ -196,6 +305,10 @@ public class RecordableSurfaceView extends SurfaceView {
     @SuppressWarnings({"UnusedDeclaration"})
     public void setRenderMode(int mode) {
         mRenderMode.set(mode);
+        VsyncScheduler scheduler = mVsyncScheduler;
+        if (scheduler != null) {
+            scheduler.setContinuous(mode == RENDERMODE_CONTINUOUSLY);
+        }
     }
 
     /**
@@ -209,6 +322,34 @@ public class RecordableSurfaceView extends SurfaceView {
     @SuppressWarnings({"UnusedDeclaration"})
     public void requestRender() {
         mRenderRequested.set(true);
+        VsyncScheduler scheduler = mVsyncScheduler;
+        if (scheduler != null) {
+            scheduler.requestFrame();
+        }
+    }
+
+    /**
+     * @return true if the scene is rendered once per frame while recording
+     * @see RecordableSurfaceView#setRenderOnce(boolean)
+     */
+    @SuppressWarnings({"UnusedDeclaration"})
+    public boolean isRenderOnce() {
+        return mRenderOnce.get();
+    }
+
+    /**
+     * Set whether to render the scene once per frame while recording. When enabled,
+     * {@link RendererCallbacks#onDrawFrame()} draws into an offscreen texture the size of the
+     * view, which is then drawn onto the display and, scaled, onto the video surface, so the
+     * scene costs the same while recording as without. When disabled (the default) the scene
+     * is rendered twice, once per surface, each at its own resolution.
+     * <p>
+     * The renderer must draw into whatever framebuffer is bound when onDrawFrame is called,
+     * rather than binding framebuffer 0. May be called from any thread.
+     */
+    @SuppressWarnings({"UnusedDeclaration"})
+    public void setRenderOnce(boolean renderOnce) {
+        mRenderOnce.set(renderOnce);
     }
 
     /**
@@ -259,11 +400,41 @@ public class RecordableSurfaceView extends SurfaceView {
                              MediaRecorder.OnInfoListener infoListener)
             throws IOException {
 
-        MediaRecorder mediaRecorder = new MediaRecorder();
+        // Fit the request to what the encoder can sustain on this device.
+        VideoSpec spec = new VideoSizePolicy(getContext(), MediaFormat.MIMETYPE_VIDEO_AVC)
+                .select(desiredWidth, desiredHeight, FRAME_RATE, BIT_RATE);
+
+        mDesiredHeight = spec.getHeight();
+        mDesiredWidth = spec.getWidth();
+        mFrameRate = spec.getFrameRate();
+        mBitRate = spec.getBitRate();
+        mOrientationHint = orientationHint;
+        mErrorListener = errorListener;
+        mInfoListener = infoListener;
+        mPendingDir = saveToFile.getAbsoluteFile().getParentFile();
+
+        if (mBackend == BACKEND_MEDIA_CODEC) {
+            mEncoderCore = createEncoderCore(saveToFile);
+        } else {
+            MediaRecorder mediaRecorder = new MediaRecorder();
+            configureRecorder(mediaRecorder, saveToFile);
+            mediaRecorder.prepare();
+
+            mMediaRecorder = mediaRecorder;
+        }
+        mRecorderFile = saveToFile;
+        mOutputFile = saveToFile;
+
+    }
+
+    /**
+     * Applies the settings from initRecorder to a new or reset {@link MediaRecorder}.
+     */
+    private void configureRecorder(MediaRecorder mediaRecorder, File outputFile) {
 
-        mediaRecorder.setOnInfoListener(infoListener);
+        mediaRecorder.setOnInfoListener(mInfoListener);
 
-        mediaRecorder.setOnErrorListener(errorListener);
+        mediaRecorder.setOnErrorListener(mErrorListener);
 
         mediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
         mediaRecorder.setInputSurface(mSurface);
@@ -274,78 +445,176 @@ public class RecordableSurfaceView extends SurfaceView {
 //        mediaRecorder.setAudioSamplingRate(44100);
 //        mediaRecorder.setAudioEncodingBitRate(96000);
 
-        mediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.DEFAULT);
+        // Must match the codec VideoSizePolicy sizes for.
+        mediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
 
-        mediaRecorder.setVideoEncodingBitRate(1000 * 1000 * 4);
-        mediaRecorder.setVideoFrameRate(30);
+        mediaRecorder.setVideoEncodingBitRate(mBitRate);
+        mediaRecorder.setVideoFrameRate(mFrameRate);
 
-        if(desiredWidth > desiredHeight){
-            float desiredAspect = 1080.0f / 2280.0f;
+        mediaRecorder.setVideoSize(mDesiredWidth, mDesiredHeight);
 
-            if(desiredWidth > 2280 || desiredHeight > 1080){
-                float aspect = (float) desiredHeight / desiredWidth;
-                if(aspect > desiredAspect){
-                    desiredHeight = 1080;
-                    desiredWidth = (int) Math.floor(desiredHeight / aspect);
-                } else {
-                    desiredWidth = 2280;
-                    desiredHeight = (int) Math.floor(desiredWidth * aspect);
-                }
-            }
-        } else {
-            float desiredAspect = 2280.0f / 1080.0f;
+        mediaRecorder.setOrientationHint(mOrientationHint);
 
-            if(desiredWidth > 1080 || desiredHeight > 2280){
-                float aspect = (float) desiredHeight / desiredWidth;
-                if(aspect > desiredAspect){
-                    desiredHeight = 2280;
-                    desiredWidth = (int) Math.floor(desiredHeight / aspect);
-                } else {
-                    desiredWidth = 1080;
-                    desiredHeight = (int) Math.floor(desiredWidth * aspect);
-                }
-            }
-        }
-
-        mDesiredHeight = desiredHeight;
-        mDesiredWidth = desiredWidth;
+        mediaRecorder.setOutputFile(outputFile.getPath());
+    }
 
+    /**
+     * Creates a {@link MediaCodec} encoder reading the persistent surface, with the settings
+     * from initRecorder.
+     */
+    private HWVideoEncoderCore createEncoderCore(File outputFile) throws IOException {
+        try {
+            HWVideoEncoderCore encoderCore = new HWVideoEncoderCore(getContext(), mSurface,
+                    mDesiredWidth, mDesiredHeight, mBitRate, mFrameRate, outputFile, false, null);
+            encoderCore.setRecordCallback(mRecordCallback);
+            return encoderCore;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Could not create encoder", e);
+        }
+    }
 
-        mediaRecorder.setVideoSize(mDesiredWidth, mDesiredHeight);
+    /**
+     * @return the recording back-end
+     * @see RecordableSurfaceView#setRecorderBackend(int)
+     */
+    @SuppressWarnings({"UnusedDeclaration"})
+    public int getRecorderBackend() {
+        return mBackend;
+    }
 
-        mediaRecorder.setOrientationHint(orientationHint);
+    /**
+     * Set how recordings are encoded: {@link RecordableSurfaceView#BACKEND_MEDIA_RECORDER} (the
+     * default) or {@link RecordableSurfaceView#BACKEND_MEDIA_CODEC}. Takes effect at the next
+     * {@link #initRecorder}.
+     * <p>
+     * The MediaCodec back-end encodes the same persistent surface in asynchronous mode and
+     * writes through the muxer used for screen recordings, so frames keep the vsync times the
+     * render thread gives them, {@link #setBitRate(int)} works while recording, and results are
+     * reported to the {@link RecordCallback}.
+     */
+    @SuppressWarnings({"UnusedDeclaration"})
+    public void setRecorderBackend(int backend) {
+        mBackend = backend;
+    }
 
-        mediaRecorder.setOutputFile(saveToFile.getPath());
-        mediaRecorder.prepare();
+    /**
+     * Set the callback told about finished recordings. Only used by the MediaCodec back-end.
+     */
+    @SuppressWarnings({"UnusedDeclaration"})
+    public void setRecordCallback(RecordCallback recordCallback) {
+        mRecordCallback = recordCallback;
+        if (mEncoderCore != null) {
+            mEncoderCore.setRecordCallback(recordCallback);
+        }
+    }
 
-        mMediaRecorder = mediaRecorder;
+    /**
+     * Change the video bitrate of the running recording. Only the MediaCodec back-end supports
+     * this.
+     *
+     * @return false if the bitrate can't be changed
+     */
+    @SuppressWarnings({"UnusedDeclaration"})
+    public boolean setBitRate(int bitRate) {
+        HWVideoEncoderCore encoderCore = mEncoderCore;
+        if (encoderCore == null) {
+            return false;
+        }
+        encoderCore.setBitRate(bitRate);
+        return true;
+    }
 
+    /**
+     * @return true if the recorder is kept prepared between recordings
+     * @see RecordableSurfaceView#setKeepRecorderWarm(boolean)
+     */
+    @SuppressWarnings({"UnusedDeclaration"})
+    public boolean isKeepRecorderWarm() {
+        return mKeepRecorderWarm;
     }
 
+    /**
+     * Keep the {@link MediaRecorder} prepared between recordings, so back-to-back recordings
+     * start without another {@link #initRecorder} / prepare cycle.
+     * <p>
+     * When enabled, {@link #stopRecording()} resets the recorder and, on a background thread,
+     * prepares it again with the same settings, writing into a pending file next to the last
+     * output. {@link #startRecording(File)} then only has to call
+     * {@link MediaRecorder#start()}, and the pending file is renamed to the requested file when
+     * that recording stops. Call {@link #releaseRecorder()} when no more recordings are
+     * expected, to free the encoder and delete the pending file.
+     */
+    @SuppressWarnings({"UnusedDeclaration"})
+    public void setKeepRecorderWarm(boolean keepWarm) {
+        mKeepRecorderWarm = keepWarm;
+    }
 
     /**
+     * Starts recording into the file given to {@link #initRecorder}.  A recorder kept warm by
+     * {@link #setKeepRecorderWarm(boolean)} has no destination after the first recording, so
+     * later ones must use {@link #startRecording(File)}.
+     *
      * @return true if the recording started successfully and false if not
+     * @throws IllegalStateException if a warm recorder has no file to record to
      * @see MediaRecorder#start()
      */
     public boolean startRecording() {
+        if (!awaitRecorderPrepared()) {
+            return false;
+        }
+        if (mOutputFile == null) {
+            throw new IllegalStateException(
+                    "No file to record to; use startRecording(File) with a warm recorder");
+        }
+        if (mBenchmark == null) {
+            mBenchmark = Benchmark.create(getContext());
+        }
+        if (mEncoderCore != null) {
+            // Already started; the muxer starts with the first frame.
+            mEncoderCore.setBenchmark(mBenchmark);
+            mBenchmark.start();
+            mIsRecording.set(true);
+            return true;
+        }
         boolean success = true;
         try {
             mMediaRecorder.start();
+            mBenchmark.start();
             mIsRecording.set(true);
         } catch (IllegalStateException e) {
             success = false;
             mIsRecording.set(false);
             mMediaRecorder.reset();
             mMediaRecorder.release();
+            mMediaRecorder = null;
         }
         return success;
     }
 
+    /**
+     * Starts recording into the given file, using the recorder prepared by
+     * {@link #initRecorder} or, in warm mode, by the previous {@link #stopRecording()}.
+     *
+     * @param saveToFile the File object the recording is saved to once stopped. Assumes the
+     *                   calling program has permission to write to this file
+     * @return true if the recording started successfully and false if not
+     * @see RecordableSurfaceView#setKeepRecorderWarm(boolean)
+     */
+    public boolean startRecording(File saveToFile) {
+        mOutputFile = saveToFile;
+        return startRecording();
+    }
+
     /**
      * Stops the {@link MediaRecorder} and sets the internal state of this object to 'Not
      * recording'
      * It is important to call this before attempting to play back the video that has been
      * recorded.
+     * <p>
+     * With the MediaCodec backend this blocks until the encoder has written the frames it
+     * still holds, normally a few frame times.
      *
      * @return true if the recording stopped successfully and false if not
      * @throws IllegalStateException if not recording when called
@@ -353,14 +622,47 @@ public class RecordableSurfaceView extends SurfaceView {
     public boolean stopRecording() throws IllegalStateException {
         if (mIsRecording.get()) {
             boolean success = true;
-            try {
-                mMediaRecorder.stop();
-                mMediaRecorder.reset();
+            boolean keepWarm = mKeepRecorderWarm;
+            if (mEncoderCore != null) {
+                // Stop feeding the surface first.  drainEncoder(true) then signals end of
+                // stream and blocks until the encoder has output it, so the frames it still
+                // holds are written before release() stops the muxer.
                 mIsRecording.set(false);
-            } catch (RuntimeException e) {
-                success = false;
-            } finally {
-                mMediaRecorder.release();
+                mEncoderCore.drainEncoder(true);
+                mEncoderCore.release();
+                mEncoderCore = null;
+            } else {
+                try {
+                    mMediaRecorder.stop();
+                    mMediaRecorder.reset();
+                } catch (RuntimeException e) {
+                    success = false;
+                    keepWarm = false;
+                } finally {
+                    mIsRecording.set(false);
+                    if (!keepWarm && mMediaRecorder != null) {
+                        mMediaRecorder.release();
+                        mMediaRecorder = null;
+                    }
+                }
+            }
+            mBenchmark.stop();
+
+            if (!mRecorderFile.equals(mOutputFile)) {
+                if (success) {
+                    success = moveRecording(mRecorderFile, mOutputFile);
+                } else {
+                    // Nothing usable was recorded; don't leave the pending file behind.
+                    //noinspection ResultOfMethodCallIgnored
+                    mRecorderFile.delete();
+                }
+            }
+            mRecorderFile = null;
+            // The next recording must name its own file, or it would replace this one.
+            mOutputFile = null;
+
+            if (keepWarm) {
+                prepareNextRecorder();
             }
             return success;
         } else {
@@ -369,6 +671,102 @@ public class RecordableSurfaceView extends SurfaceView {
 
     }
 
+    /**
+     * Releases a recorder kept warm by {@link #setKeepRecorderWarm(boolean)} and deletes its
+     * pending file. Does nothing while recording.
+     */
+    @SuppressWarnings({"UnusedDeclaration"})
+    public void releaseRecorder() {
+        if (mIsRecording.get()) {
+            return;
+        }
+        awaitRecorderPrepared();
+        if (mMediaRecorder != null) {
+            mMediaRecorder.release();
+            mMediaRecorder = null;
+        }
+        if (mEncoderCore != null) {
+            mEncoderCore.release();
+            mEncoderCore = null;
+        }
+        if (mRecorderFile != null && !mRecorderFile.equals(mOutputFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            mRecorderFile.delete();
+        }
+        mRecorderFile = null;
+        if (mPrepareExecutor != null) {
+            mPrepareExecutor.shutdown();
+            mPrepareExecutor = null;
+        }
+    }
+
+    /**
+     * Prepares the reset recorder again, off the calling thread, writing into a new pending
+     * file.
+     */
+    private void prepareNextRecorder() {
+        if (mPrepareExecutor == null) {
+            mPrepareExecutor = Executors.newSingleThreadExecutor();
+        }
+        final MediaRecorder mediaRecorder = mMediaRecorder;
+        mPrepareResult = mPrepareExecutor.submit(() -> {
+            File pending = File.createTempFile("pending-", ".mp4", mPendingDir);
+            if (mediaRecorder != null) {
+                configureRecorder(mediaRecorder, pending);
+                mediaRecorder.prepare();
+            } else {
+                mEncoderCore = createEncoderCore(pending);
+            }
+            return pending;
+        });
+    }
+
+    /**
+     * Waits for a background prepare, if one is running.
+     *
+     * @return true if a prepared recorder is ready to start
+     */
+    private boolean awaitRecorderPrepared() {
+        Future<File> result = mPrepareResult;
+        if (result != null) {
+            mPrepareResult = null;
+            try {
+                mRecorderFile = result.get();
+            } catch (ExecutionException | InterruptedException e) {
+                Log.e(TAG, "Could not prepare the next recording", e);
+                if (mMediaRecorder != null) {
+                    mMediaRecorder.release();
+                    mMediaRecorder = null;
+                }
+                return false;
+            }
+        }
+        return mMediaRecorder != null || mEncoderCore != null;
+    }
+
+    private static boolean moveRecording(File from, File to) {
+        //noinspection ResultOfMethodCallIgnored
+        to.delete();
+        if (from.renameTo(to)) {
+            return true;
+        }
+        Log.w(TAG, "Could not move recording " + from + " to " + to);
+        return false;
+    }
+
+    /**
+     * Returns the number of display frames the render thread passed over because the previous
+     * frame was still rendering. Frames are rendered on vsync, so a frame that runs over
+     * budget makes the next one wait for the following vsync rather than render late.
+     *
+     * @return skipped frames since the render thread started, or 0 if it is not running
+     */
+    @SuppressWarnings({"UnusedDeclaration"})
+    public long getSkippedFrameCount() {
+        VsyncScheduler scheduler = mVsyncScheduler;
+        return scheduler != null ? scheduler.getSkippedFrames() : 0;
+    }
+
     /**
      * Returns the reference (if any) to the {@link RendererCallbacks}
      *
@@ -397,14 +795,54 @@ public class RecordableSurfaceView extends SurfaceView {
 
 
     /**
-     * Queue a runnable to be run on the GL rendering thread.
+     * Queue a runnable to be run on the GL rendering thread. May be called from any thread.
+     * <p>
+     * Events run between frames, up to a fixed time budget per frame; any left over run after
+     * the next frame.
      *
      * @param runnable - the runnable to queue
+     * @return false if the render thread has not been set up or too many events are waiting,
+     * in which case the runnable will not run
      */
-    public void queueEvent(Runnable runnable) {
-        if (mARRenderThread != null) {
-            mARRenderThread.mRunnableQueue.add(runnable);
+    public boolean queueEvent(Runnable runnable) {
+        if (mARRenderThread == null) {
+            return false;
         }
+        if (!mEventQueue.offer(runnable)) {
+            mRejectedEventCount.incrementAndGet();
+            Log.w(TAG, "Event queue full, dropping " + runnable);
+            return false;
+        }
+        VsyncScheduler scheduler = mVsyncScheduler;
+        if (scheduler != null) {
+            scheduler.wake();
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of events queued for the render thread
+     */
+    @SuppressWarnings({"UnusedDeclaration"})
+    public int getQueuedEventCount() {
+        return mEventQueue.size();
+    }
+
+    /**
+     * @return the number of events rejected by {@link #queueEvent(Runnable)} because the queue
+     * was full
+     */
+    @SuppressWarnings({"UnusedDeclaration"})
+    public long getRejectedEventCount() {
+        return mRejectedEventCount.get();
+    }
+
+    /**
+     * @return the time, in nanoseconds, the render thread last spent running queued events
+     */
+    @SuppressWarnings({"UnusedDeclaration"})
+    public long getEventDrainTimeNanos() {
+        return mEventDrainNanos;
     }
 
     /**
@@ -449,7 +887,9 @@ public class RecordableSurfaceView extends SurfaceView {
 
         /**
          * Render call. Called twice when recording: first for screen display, second for video
-         * file.
+         * file. Called once when recording in render-once mode.
+         *
+         * @see RecordableSurfaceView#setRenderOnce(boolean)
          */
         void onDrawFrame();
     }
@@ -465,7 +905,15 @@ public class RecordableSurfaceView extends SurfaceView {
 
         EGLSurface mEGLSurfaceMedia;
 
-        LinkedList<Runnable> mRunnableQueue = new LinkedList<>();
+        // Render-once mode: the offscreen scene target, and what draws it onto each surface.
+        TextureFramebuffer mSceneBuffer;
+
+        Texture2dProgram mBlitProgram;
+
+        Drawable2d mBlitRect;
+
+        // Vsync time of the frame being rendered, used as its presentation time.
+        long mFrameTimeNanos;
 
         int[] config = {
                 EGL14.EGL_RED_SIZE, 8,
@@ -540,6 +988,13 @@ public class RecordableSurfaceView extends SurfaceView {
                 mRendererCallbacksWeakReference.get().onContextCreated();
             }
 
+            Display display = getDisplay();
+            VsyncScheduler scheduler =
+                    new VsyncScheduler(display != null ? display.getRefreshRate() : 0f);
+            scheduler.setContinuous(mRenderMode.get() == RENDERMODE_CONTINUOUSLY);
+            scheduler.start();
+            mVsyncScheduler = scheduler;
+
             mLoop.set(true);
 
             while (mLoop.get()) {
@@ -551,13 +1006,14 @@ public class RecordableSurfaceView extends SurfaceView {
                     //has requested and if not, just continue
                     if (mRenderMode.get() == RENDERMODE_WHEN_DIRTY) {
 
-                        if (mRenderRequested.get()) {
+                        if (mFrameTimeNanos != 0 && mRenderRequested.get()) {
                             mRenderRequested.set(false);
                             shouldRender = true;
                         }
 
                     } else {
-                        shouldRender = true;
+                        // Woken early (queued event or timeout) rather than by vsync.
+                        shouldRender = mFrameTimeNanos != 0;
                     }
 
                     if (mSizeChange.get()) {
@@ -581,14 +1037,20 @@ public class RecordableSurfaceView extends SurfaceView {
                             mRendererCallbacksWeakReference.get().onPreDrawFrame();
                         }
 
-                        if (mRendererCallbacksWeakReference != null
-                                && mRendererCallbacksWeakReference.get() != null) {
-                            mRendererCallbacksWeakReference.get().onDrawFrame();
-                        }
+                        if (mIsRecording.get() && mRenderOnce.get()) {
+                            drawSceneOnce();
+                        } else {
+                            releaseSceneBuffer();
 
-                        EGL14.eglSwapBuffers(mEGLDisplay, mEGLSurface);
+                            if (mRendererCallbacksWeakReference != null
+                                    && mRendererCallbacksWeakReference.get() != null) {
+                                mRendererCallbacksWeakReference.get().onDrawFrame();
+                            }
+
+                            EGL14.eglSwapBuffers(mEGLDisplay, mEGLSurface);
+                        }
 
-                        if (mIsRecording.get()) {
+                        if (mIsRecording.get() && !mRenderOnce.get()) {
                             EGL14.eglMakeCurrent(mEGLDisplay, mEGLSurfaceMedia, mEGLSurfaceMedia,
                                     mEGLContext);
                             if (mRendererCallbacksWeakReference != null
@@ -597,27 +1059,32 @@ public class RecordableSurfaceView extends SurfaceView {
                                 mRendererCallbacksWeakReference.get().onDrawFrame();
                                 GLES20.glViewport(0, 0, mWidth, mHeight);
                             }
+                            EGLExt.eglPresentationTimeANDROID(mEGLDisplay, mEGLSurfaceMedia,
+                                    mFrameTimeNanos);
                             EGL14.eglSwapBuffers(mEGLDisplay, mEGLSurfaceMedia);
+                            tickBenchmark();
                             EGL14.eglMakeCurrent(mEGLDisplay, mEGLSurface, mEGLSurface,
                                     mEGLContext);
                         }
                     }
 
-                    while (mRunnableQueue.size() > 0) {
-                        Runnable event = mRunnableQueue.remove();
-                        event.run();
-                    }
+                    drainEvents(scheduler);
                 }
 
                 try {
-                    Thread.sleep((long) (1f / 60f * 1000f));
+                    mFrameTimeNanos = scheduler.awaitFrame(FRAME_WAIT_TIMEOUT_NANOS);
                 } catch (InterruptedException intex) {
+                    mVsyncScheduler = null;
+                    scheduler.stop();
+
                     if (mRendererCallbacksWeakReference != null
                             && mRendererCallbacksWeakReference.get() != null) {
                         mRendererCallbacksWeakReference.get().onSurfaceDestroyed();
                     }
 
                     if (mEGLDisplay != null) {
+                        releaseSceneBuffer();
+
                         EGL14.eglMakeCurrent(mEGLDisplay, EGL14.EGL_NO_SURFACE,
                                 EGL14.EGL_NO_SURFACE,
                                 EGL14.EGL_NO_CONTEXT);
@@ -643,6 +1110,115 @@ public class RecordableSurfaceView extends SurfaceView {
         }
 
 
+        /**
+         * Runs queued events until the queue is empty or the frame's event budget is spent.
+         * The clock is read once per batch rather than once per event.
+         */
+        void drainEvents(VsyncScheduler scheduler) {
+            long start = System.nanoTime();
+            long elapsed = 0;
+            while (elapsed < EVENT_BUDGET_NANOS) {
+                int ran = 0;
+                Runnable event;
+                while (ran < EVENT_BATCH_SIZE && (event = mEventQueue.poll()) != null) {
+                    event.run();
+                    ran++;
+                }
+                elapsed = System.nanoTime() - start;
+                if (ran < EVENT_BATCH_SIZE) {
+                    break;      // queue empty
+                }
+            }
+            if (mEventQueue.size() > 0) {
+                // Over budget; come back for the rest before the next vsync if time allows.
+                scheduler.wake();
+            }
+            mEventDrainNanos = elapsed;
+        }
+
+        /**
+         * Renders the scene into mSceneBuffer, then draws it onto the display surface and the
+         * media surface.  Leaves the display surface current with a full-view viewport.
+         */
+        void drawSceneOnce() {
+            if (mSceneBuffer != null
+                    && (mSceneBuffer.getWidth() != mWidth || mSceneBuffer.getHeight() != mHeight)) {
+                releaseSceneBuffer();
+            }
+            if (mSceneBuffer == null) {
+                // The window config asks for a depth buffer, so give the scene one here too.
+                mSceneBuffer = new TextureFramebuffer(mWidth, mHeight, true);
+                mBlitProgram = new Texture2dProgram(Texture2dProgram.ProgramType.TEXTURE_2D);
+                mBlitRect = new Drawable2d(Drawable2d.Prefab.FULL_RECTANGLE);
+            }
+
+            mSceneBuffer.bind();
+            if (mRendererCallbacksWeakReference != null
+                    && mRendererCallbacksWeakReference.get() != null) {
+                mRendererCallbacksWeakReference.get().onDrawFrame();
+            }
+            TextureFramebuffer.unbind();
+
+            // The scene may have left depth testing on; the blits must not depend on it.
+            boolean depthTest = GLES20.glIsEnabled(GLES20.GL_DEPTH_TEST);
+            GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+
+            GLES20.glViewport(0, 0, mWidth, mHeight);
+            blitScene();
+            EGL14.eglSwapBuffers(mEGLDisplay, mEGLSurface);
+
+            EGL14.eglMakeCurrent(mEGLDisplay, mEGLSurfaceMedia, mEGLSurfaceMedia, mEGLContext);
+            GLES20.glViewport(0, 0, mDesiredWidth, mDesiredHeight);
+            blitScene();
+            EGLExt.eglPresentationTimeANDROID(mEGLDisplay, mEGLSurfaceMedia, mFrameTimeNanos);
+            EGL14.eglSwapBuffers(mEGLDisplay, mEGLSurfaceMedia);
+            tickBenchmark();
+            EGL14.eglMakeCurrent(mEGLDisplay, mEGLSurface, mEGLSurface, mEGLContext);
+            GLES20.glViewport(0, 0, mWidth, mHeight);
+
+            if (depthTest) {
+                GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+            }
+        }
+
+        /**
+         * Draws the scene texture over the whole viewport.
+         */
+        private void blitScene() {
+            // Texture2dProgram blends, so start from an opaque background.
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            mBlitProgram.draw(GlUtil.IDENTITY_MATRIX, mBlitRect.getVertexArray(), 0,
+                    mBlitRect.getVertexCount(), mBlitRect.getCoordsPerVertex(),
+                    mBlitRect.getVertexStride(), GlUtil.IDENTITY_MATRIX,
+                    mBlitRect.getTexCoordArray(), mSceneBuffer.getTextureId(),
+                    mBlitRect.getTexCoordStride());
+        }
+
+        /**
+         * Counts a frame sent to the media surface.
+         */
+        private void tickBenchmark() {
+            Benchmark benchmark = mBenchmark;
+            if (benchmark != null) {
+                benchmark.tick();
+            }
+        }
+
+        /**
+         * Frees the render-once resources.  The GL context must be current.
+         */
+        void releaseSceneBuffer() {
+            if (mSceneBuffer != null) {
+                mSceneBuffer.release();
+                mSceneBuffer = null;
+            }
+            if (mBlitProgram != null) {
+                mBlitProgram.release();
+                mBlitProgram = null;
+            }
+            mBlitRect = null;
+        }
+
         @Override
         public void surfaceRedrawNeeded(SurfaceHolder surfaceHolder) {
 
@@ -669,6 +1245,11 @@ public class RecordableSurfaceView extends SurfaceView {
                 mSizeChange.set(true);
             }
 
+            VsyncScheduler scheduler = mVsyncScheduler;
+            if (scheduler != null) {
+                scheduler.wake();
+            }
+
 
         }
 
@@ -2,11 +2,20 @@ package com.screencastomatic.app.recording.recorder
 
 import android.content.Intent
 import android.media.projection.MediaProjection
+import com.example.surfacerecordingdemo.recording.RecordingStats
+import kotlinx.coroutines.flow.Flow
 import java.io.File
 
 interface ScreenRecorder {
     var isRecording: Boolean
 
+    /**
+     * Live statistics for the session, across pauses: byte and frame totals cover every
+     * segment recorded since start(), while rates and latencies are the current segment's.
+     * Conflated: a slow collector only ever sees the newest snapshot.
+     */
+    val recordingStats: Flow<RecordingStats>
+
     fun prepare(intent: Intent)
     fun start(callback: Callback)
     fun stop()
@@ -0,0 +1,195 @@
+package com.example.surfacerecordingdemo;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Choreographer;
+
+/**
+ * Wakes a render thread on display vsync.
+ * <p>
+ * {@link Choreographer} only delivers callbacks on a Looper thread, so it runs on a small
+ * HandlerThread of its own and hands each vsync timestamp to the render thread, which blocks in
+ * {@link #awaitFrame(long)}.  Only the newest vsync is kept: a render thread that runs over
+ * budget picks up the latest one on its next wait, and the vsyncs it missed are counted as
+ * skipped rather than rendered late, one after another.
+ * <p>
+ * In continuous mode a callback is posted for every vsync.  Otherwise (for
+ * {@link RecordableSurfaceView#RENDERMODE_WHEN_DIRTY}) callbacks are posted only on
+ * {@link #requestFrame()}, so an idle view costs nothing.
+ */
+class VsyncScheduler implements Choreographer.FrameCallback {
+    private static final long DEFAULT_FRAME_PERIOD_NANOS = 1000000000L / 60;
+
+    private final Object mLock = new Object();
+    private final long mFramePeriodNanos;
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private Choreographer mChoreographer;
+
+    // ----- guarded by mLock -----
+    private long mLatestVsyncNanos;
+    private long mConsumedVsyncNanos;
+    private long mSkippedFrames;
+    private boolean mContinuous = true;
+    private boolean mCallbackPosted;
+    private boolean mWakeRequested;
+
+    /**
+     * @param refreshRate Display refresh rate in Hz, or 0 if unknown.
+     */
+    VsyncScheduler(float refreshRate) {
+        mFramePeriodNanos = refreshRate > 0f
+                ? (long) (1000000000L / refreshRate) : DEFAULT_FRAME_PERIOD_NANOS;
+    }
+
+    /**
+     * Starts the callback thread.
+     */
+    void start() {
+        mThread = new HandlerThread("VsyncScheduler");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(() -> {
+            mChoreographer = Choreographer.getInstance();
+            postCallback();
+        });
+    }
+
+    /**
+     * Stops the callback thread.  Any thread blocked in {@link #awaitFrame(long)} returns on
+     * its timeout.
+     */
+    void stop() {
+        if (mThread != null) {
+            mHandler.post(() -> {
+                if (mChoreographer != null) {
+                    mChoreographer.removeFrameCallback(this);
+                }
+            });
+            mThread.quitSafely();
+            mThread = null;
+        }
+    }
+
+    /**
+     * Selects between a callback every vsync and callbacks only on request.  (Call from any
+     * thread.)
+     */
+    void setContinuous(boolean continuous) {
+        synchronized (mLock) {
+            if (mContinuous == continuous) {
+                return;
+            }
+            mContinuous = continuous;
+        }
+        if (continuous) {
+            requestFrame();
+        }
+    }
+
+    /**
+     * Asks for the render thread to be woken on the next vsync.  (Call from any thread.)
+     */
+    void requestFrame() {
+        synchronized (mLock) {
+            if (mCallbackPosted) {
+                return;
+            }
+            mCallbackPosted = true;
+        }
+        Handler handler = mHandler;
+        if (handler != null) {
+            handler.post(this::postCallback);
+        }
+    }
+
+    /**
+     * Wakes the render thread without waiting for vsync, e.g. to run queued events.  The
+     * wait returns 0 rather than a frame time.  (Call from any thread.)
+     */
+    void wake() {
+        synchronized (mLock) {
+            mWakeRequested = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until a vsync newer than the last one returned.  (Call from the render thread.)
+     *
+     * @param timeoutNanos Longest time to wait, so the caller can still run its housekeeping
+     *     while the display is off and vsync stops.
+     * @return The vsync time, in the {@link System#nanoTime()} time base, or 0 if the wait
+     *     ended through {@link #wake()} or the timeout.
+     */
+    long awaitFrame(long timeoutNanos) throws InterruptedException {
+        synchronized (mLock) {
+            long deadline = System.nanoTime() + timeoutNanos;
+            while (mLatestVsyncNanos == mConsumedVsyncNanos && !mWakeRequested) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return 0;
+                }
+                mLock.wait(remaining / 1000000L, (int) (remaining % 1000000L));
+            }
+            mWakeRequested = false;
+            if (mLatestVsyncNanos == mConsumedVsyncNanos) {
+                return 0;
+            }
+            if (mConsumedVsyncNanos != 0) {
+                long missed = (mLatestVsyncNanos - mConsumedVsyncNanos
+                        + mFramePeriodNanos / 2) / mFramePeriodNanos - 1;
+                if (missed > 0) {
+                    mSkippedFrames += missed;
+                }
+            }
+            mConsumedVsyncNanos = mLatestVsyncNanos;
+            return mLatestVsyncNanos;
+        }
+    }
+
+    /**
+     * Returns the display frame period.
+     */
+    long getFramePeriodNanos() {
+        return mFramePeriodNanos;
+    }
+
+    /**
+     * Returns the number of vsyncs passed over because the render thread was still busy.
+     */
+    long getSkippedFrames() {
+        synchronized (mLock) {
+            return mSkippedFrames;
+        }
+    }
+
+    // Choreographer.FrameCallback, on the callback thread.
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        boolean repost;
+        synchronized (mLock) {
+            mCallbackPosted = false;
+            mLatestVsyncNanos = frameTimeNanos;
+            mLock.notifyAll();
+            repost = mContinuous;
+            if (repost) {
+                mCallbackPosted = true;
+            }
+        }
+        if (repost) {
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    private void postCallback() {
+        if (mChoreographer == null) {
+            return;     // the initial post will pick up the request
+        }
+        synchronized (mLock) {
+            mCallbackPosted = true;
+        }
+        mChoreographer.removeFrameCallback(this);
+        mChoreographer.postFrameCallback(this);
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.surfacerecordingdemo.recording;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits a block of captured audio into equal chunks small enough for the audio encoder's
+ * input buffers, copying it out of the caller's buffer (which the capture side reuses).
+ * <p>
+ * All chunks of a block share one backing array, so a block costs one copy and one
+ * allocation however many chunks it makes.  Bytes left over when the size doesn't divide
+ * evenly are dropped.  Called on the audio capture thread for every block, so it must keep
+ * pace with capture.
+ */
+public class AudioChunker {
+    /**
+     * Receives each chunk, in order.
+     */
+    public interface Sink {
+        void onChunk(ByteBuffer chunk, int size, boolean endOfStream, long presentationTimeUs);
+    }
+
+    private final int mChunkCount;
+
+    public AudioChunker(int chunkCount) {
+        if (chunkCount < 1) {
+            throw new IllegalArgumentException("chunkCount " + chunkCount);
+        }
+        mChunkCount = chunkCount;
+    }
+
+    /**
+     * Reads size bytes from the buffer's position and hands them to the sink as chunks, each
+     * positioned at 0 with its limit at the chunk size.
+     */
+    public void split(ByteBuffer buffer, int size, boolean endOfStream, long presentationTimeUs,
+            Sink sink) {
+        int chunkSize = size / mChunkCount;
+        byte[] block = new byte[chunkSize * mChunkCount];
+        buffer.get(block);
+        for (int i = 0; i < mChunkCount; i++) {
+            sink.onChunk(ByteBuffer.wrap(block, i * chunkSize, chunkSize).slice(), chunkSize,
+                    endOfStream, presentationTimeUs);
+        }
+    }
+}
@@ -2,24 +2,67 @@ package com.example.surfacerecordingdemo.recording
 
 import android.content.Context
 import android.os.Environment
+import android.util.Log
 import com.example.surfacerecordingdemo.BuildConfig
 import com.example.surfacerecordingdemo.R
+import com.example.surfacerecordingdemo.recording.metrics.BenchmarkRingFile
+import com.example.surfacerecordingdemo.recording.metrics.LatencyHistogram
+import com.example.surfacerecordingdemo.recording.metrics.PipelineTrace
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.launch
 import java.io.BufferedWriter
 import java.io.File
+import java.io.FileOutputStream
 import java.io.FileWriter
+import java.io.IOException
 import java.text.SimpleDateFormat
 import java.util.*
 
-data class Checkpoint(val recordingTimeSeconds: Long, val deltaTimeMillis: Long)
+/**
+ * Pipeline stages whose cost is measured separately from the whole frame.
+ */
+enum class Stage(val label: String) {
+    DOWNSCALE("downscale"),
+
+    /** All GL work for one frame, from the first draw until the GPU has finished. */
+    DRAW("draw"),
+
+    /** From a frame's presentation time until the encoder outputs it. */
+    ENCODE("encode"),
+
+    /** One MediaMuxer.writeSampleData call, audio or video. */
+    MUXER_WRITE("muxer_write"),
+
+    /** From an audio chunk being queued until the audio encoder takes it. */
+    AUDIO_QUEUE("audio_queue"),
+
+    /** GPU time of the main (cropped, possibly downscaled) draw, from timer queries. */
+    GPU_DRAW("gpu_draw"),
+
+    /** GPU time of the watermark draw. */
+    GPU_WATERMARK("gpu_watermark"),
+
+    /** GPU time spent in eglSwapBuffers. */
+    GPU_SWAP("gpu_swap")
+}
 
 interface Benchmark {
+    /**
+     * False when measurements are thrown away, so callers can skip work done only to
+     * measure (e.g. waiting for the GPU to finish).
+     */
+    val isEnabled: Boolean
+
     fun start()
     fun tick()
     fun stop()
 
+    /**
+     * Records how long a stage took for the current frame.  May be called from any thread.
+     */
+    fun stage(stage: Stage, durationNanos: Long)
+
     companion object {
         @JvmStatic
         fun create(context: Context): Benchmark {
@@ -32,47 +75,112 @@ interface Benchmark {
     }
 }
 
+/**
+ * Keeps a [LatencyHistogram] of frame intervals (one per [tick]) and of each [Stage], so every
+ * frame counts towards the percentiles however long the recording runs, in fixed memory.  A
+ * summary of count, mean, p50, p90, p99 and max per metric is logged and written as CSV on
+ * [stop].
+ *
+ * Every sample is also streamed as it's recorded into a [BenchmarkRingFile] (the last
+ * [RING_CAPACITY] samples, in fixed memory), which outlives a crash mid-session; convert it with
+ * [com.example.surfacerecordingdemo.recording.metrics.BenchmarkRingConverter].
+ *
+ * Also traces the pipeline with [PipelineTrace] while recording, saving the last
+ * [TRACE_CAPACITY] events next to the CSV for
+ * [com.example.surfacerecordingdemo.recording.metrics.TraceConverter].
+ */
 class DefaultBenchmark(private val context: Context) : Benchmark {
-    private var startMs = 0L
-    private var lastMs = 0L
-    private val checkpoints = mutableListOf<Checkpoint>()
+    private var lastTickNanos = 0L
+    private val frameIntervals = LatencyHistogram()
+    private val stageHistograms = Array(Stage.values().size) { LatencyHistogram() }
+    private val traceBuffer by lazy { PipelineTrace.createBuffer(TRACE_CAPACITY) }
+    @Volatile
+    private var ringFile: BenchmarkRingFile? = null
+
+    override val isEnabled = true
 
     override fun start() {
-        startMs = System.currentTimeMillis()
+        lastTickNanos = 0L
+        frameIntervals.reset()
+        stageHistograms.forEach { it.reset() }
+        traceBuffer.clear()
+        PipelineTrace.enable(traceBuffer)
+        ringFile = openRingFile()
     }
 
     override fun tick() {
-        if (lastMs == 0L) {
-            lastMs = System.currentTimeMillis()
-            return
-        }
-
-        val currentMs = System.currentTimeMillis()
-        val recordingTimeSeconds = (currentMs - startMs) / 1000
-        val deltaTimeMillis = currentMs - lastMs
-
-        if (checkpoints.isEmpty() || recordingTimeSeconds != checkpoints.last().recordingTimeSeconds) {
-            val checkpoint = Checkpoint(recordingTimeSeconds, deltaTimeMillis)
-            checkpoints.add(checkpoint)
+        val now = System.nanoTime()
+        if (lastTickNanos != 0L) {
+            frameIntervals.record(now - lastTickNanos)
+            ringFile?.record(METRIC_FRAME_INTERVAL, now - lastTickNanos)
         }
+        lastTickNanos = now
+    }
 
-        lastMs = currentMs
+    override fun stage(stage: Stage, durationNanos: Long) {
+        stageHistograms[stage.ordinal].record(durationNanos)
+        ringFile?.record(METRIC_FIRST_STAGE + stage.ordinal, durationNanos)
     }
 
     override fun stop() {
+        // Summarise now, before a following start() resets the histograms.
+        val rows = mutableListOf(summarize("frame_interval", frameIntervals))
+        for (stage in Stage.values()) {
+            val histogram = stageHistograms[stage.ordinal]
+            if (histogram.count > 0) {
+                rows.add(summarize(stage.label, histogram))
+            }
+        }
+        rows.forEach { Log.d(TAG, it) }
+        PipelineTrace.disable()
+        ringFile?.let {
+            ringFile = null
+            try {
+                it.close()
+            } catch (e: IOException) {
+                Log.w(TAG, "Couldn't close benchmark ring file", e)
+            }
+        }
+
         GlobalScope.launch(Dispatchers.IO) {
-            val outputFile = createOutputFile()
+            val stoppedAt = Date(System.currentTimeMillis())
+            val outputFile = createOutputFile(stoppedAt, "csv")
+            FileOutputStream(createOutputFile(stoppedAt, "trace")).buffered().use {
+                traceBuffer.writeTo(it)
+            }
             BufferedWriter(FileWriter(outputFile, true)).use { writer ->
-                writer.append("Recording time (s),deltaTime (ms)${System.lineSeparator()}")
-                for (checkpoint in checkpoints) {
-                    writer.append("${checkpoint.recordingTimeSeconds},${checkpoint.deltaTimeMillis}")
+                writer.append("Metric,count,mean (us),p50 (us),p90 (us),p99 (us),max (us)")
+                writer.append(System.lineSeparator())
+                for (row in rows) {
+                    writer.append(row)
                     writer.append(System.lineSeparator())
                 }
             }
         }
     }
 
-    private fun createOutputFile(): File {
+    private fun openRingFile(): BenchmarkRingFile? {
+        val metrics = arrayOf("frame_interval") + Stage.values().map { it.label }
+        return try {
+            BenchmarkRingFile(createOutputFile(Date(System.currentTimeMillis()), "ring"), metrics,
+                RING_CAPACITY, RING_FLUSH_INTERVAL_MS)
+        } catch (e: IOException) {
+            Log.w(TAG, "Couldn't create benchmark ring file; keeping the summary only", e)
+            null
+        }
+    }
+
+    private fun summarize(label: String, histogram: LatencyHistogram): String {
+        return listOf(
+            histogram.mean,
+            histogram.getValueAtPercentile(50.0),
+            histogram.getValueAtPercentile(90.0),
+            histogram.getValueAtPercentile(99.0),
+            histogram.max
+        ).joinToString(",", prefix = "$label,${histogram.count},") { (it / 1000).toString() }
+    }
+
+    private fun createOutputFile(date: Date, extension: String): File {
         val dir = File(
             Environment.getExternalStorageDirectory(),
             "${context.getString(R.string.app_name)}/Benchmarks"
@@ -81,12 +189,28 @@ class DefaultBenchmark(private val context: Context) : Benchmark {
             dir.mkdirs()
         }
         val dateFormat = SimpleDateFormat("yyyy-MM-dd_HH:mm:ss", Locale.getDefault())
-        val filename = "Benchmark_${dateFormat.format(Date(System.currentTimeMillis()))}.csv"
+        val filename = "Benchmark_${dateFormat.format(date)}.$extension"
         return File(dir, filename)
     }
+
+    companion object {
+        private const val TAG = "Benchmark"
+
+        /** About 1.4 MB; a few thousand frames at six stages per frame. */
+        private const val TRACE_CAPACITY = 65536
+
+        /** 4 MB; about ten minutes at 30 fps with every stage measured. */
+        private const val RING_CAPACITY = 131072
+        private const val RING_FLUSH_INTERVAL_MS = 2000L
+
+        private const val METRIC_FRAME_INTERVAL = 0
+        private const val METRIC_FIRST_STAGE = 1
+    }
 }
 
 class DummyBenchmark : Benchmark {
+    override val isEnabled = false
+
     override fun start() {
     }
 
@@ -95,4 +219,7 @@ class DummyBenchmark : Benchmark {
 
     override fun tick() {
     }
+
+    override fun stage(stage: Stage, durationNanos: Long) {
+    }
 }
\ No newline at end of file
@@ -0,0 +1,178 @@
+package com.example.surfacerecordingdemo.recording;
+
+import com.example.surfacerecordingdemo.recording.gles.MvpMath;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread-safe crop / zoom state for the recorded frame.
+ * <p>
+ * Any thread may request a new crop, either immediately or as an animated pan/zoom.  Requests
+ * are published as immutable objects through an {@link AtomicReference}, so the encoder
+ * thread never sees a half-written rect and never takes a lock.  Once per frame the encoder
+ * thread calls {@link #update(long)}, which interpolates the current transition and builds a
+ * texture-coordinate matrix; {@link MainFrameRect} multiplies it into the SurfaceTexture
+ * transform, so cropping costs a uniform update rather than rewriting a vertex buffer.
+ * <p>
+ * Crop values are fractions (0-1) of the source cut from each edge, as in {@link EncoderConfig}.
+ */
+public class CropController {
+    /**
+     * An immutable crop.
+     */
+    public static final class Crop {
+        public final float left;
+        public final float top;
+        public final float right;
+        public final float bottom;
+
+        public Crop(float left, float top, float right, float bottom) {
+            this.left = clamp(left);
+            this.top = clamp(top);
+            this.right = clamp(right);
+            this.bottom = clamp(bottom);
+        }
+
+        private static float clamp(float value) {
+            return value < 0f ? 0f : (value > 1f ? 1f : value);
+        }
+
+        @Override
+        public String toString() {
+            return "Crop[l=" + left + " t=" + top + " r=" + right + " b=" + bottom + "]";
+        }
+    }
+
+    /**
+     * A request to move to a crop over some time.  The start point and start time are not
+     * known to the requesting thread; the encoder thread fills them in when it first sees
+     * the request.
+     */
+    private static final class Transition {
+        final Crop target;
+        final long durationNanos;
+
+        Transition(Crop target, long durationNanos) {
+            this.target = target;
+            this.durationNanos = durationNanos;
+        }
+    }
+
+    private final AtomicReference<Transition> mRequest;
+
+    // ----- accessed exclusively by encoder thread -----
+    private Transition mActive;
+    private long mStartNanos;
+    private float mFromLeft, mFromTop, mFromRight, mFromBottom;
+    private float mLeft, mTop, mRight, mBottom;
+    private final float[] mCropMatrix = new float[16];
+
+    public CropController(Crop initial) {
+        mRequest = new AtomicReference<>(new Transition(initial, 0));
+        MvpMath.setIdentity(mCropMatrix);
+    }
+
+    /**
+     * Jumps to a crop on the next frame.  (Call from any thread.)
+     */
+    public void setCrop(Crop crop) {
+        mRequest.set(new Transition(crop, 0));
+    }
+
+    /**
+     * Pans/zooms from whatever is on screen to a crop, eased in and out over the given time.
+     * A new request replaces one still in progress, starting from where that one had got to.
+     * (Call from any thread.)
+     */
+    public void animateTo(Crop crop, long durationMillis) {
+        mRequest.set(new Transition(crop, Math.max(0L, durationMillis) * 1000000L));
+    }
+
+    /**
+     * Advances the crop to the given frame time and rebuilds the matrix.  (Call from the
+     * encoder thread, once per frame.)
+     *
+     * @param frameTimeNanos Timestamp of the frame about to be drawn.
+     */
+    public void update(long frameTimeNanos) {
+        Transition request = mRequest.get();
+        if (request != mActive) {
+            boolean first = mActive == null;
+            mActive = request;
+            mStartNanos = frameTimeNanos;
+            if (first) {
+                // Nothing on screen yet to animate from.
+                mLeft = request.target.left;
+                mTop = request.target.top;
+                mRight = request.target.right;
+                mBottom = request.target.bottom;
+            }
+            mFromLeft = mLeft;
+            mFromTop = mTop;
+            mFromRight = mRight;
+            mFromBottom = mBottom;
+        }
+
+        Crop target = mActive.target;
+        float t = 1f;
+        if (mActive.durationNanos > 0) {
+            t = (frameTimeNanos - mStartNanos) / (float) mActive.durationNanos;
+            t = t < 0f ? 0f : (t > 1f ? 1f : t);
+            t = t * t * (3f - 2f * t);      // smoothstep
+        }
+        mLeft = mFromLeft + (target.left - mFromLeft) * t;
+        mTop = mFromTop + (target.top - mFromTop) * t;
+        mRight = mFromRight + (target.right - mFromRight) * t;
+        mBottom = mFromBottom + (target.bottom - mFromBottom) * t;
+
+        // Maps the 0-1 texture coordinates of a full rect onto the cropped region: s runs
+        // from left to 1-right, and t from bottom to 1-top.
+        mCropMatrix[0] = getWidthFraction();
+        mCropMatrix[5] = getHeightFraction();
+        mCropMatrix[12] = mLeft;
+        mCropMatrix[13] = mBottom;
+    }
+
+    /**
+     * Returns the matrix for the crop as of the last {@link #update(long)}.  To avoid
+     * allocations this returns internal state; the caller must not modify it.
+     */
+    public float[] getCropMatrix() {
+        return mCropMatrix;
+    }
+
+    /**
+     * Fraction of the source cut from the left edge as of the last {@link #update(long)}.
+     */
+    public float getLeft() {
+        return mLeft;
+    }
+
+    /**
+     * Fraction of the source cut from the top edge as of the last {@link #update(long)}.
+     */
+    public float getTop() {
+        return mTop;
+    }
+
+    /**
+     * Fraction of the source width visible as of the last {@link #update(long)}.
+     */
+    public float getWidthFraction() {
+        return Math.max(0f, 1f - mLeft - mRight);
+    }
+
+    /**
+     * Fraction of the source height visible as of the last {@link #update(long)}.
+     */
+    public float getHeightFraction() {
+        return Math.max(0f, 1f - mTop - mBottom);
+    }
+
+    /**
+     * Returns the most recently requested crop, which may still be animating.
+     */
+    public Crop getTarget() {
+        return mRequest.get().target;
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.surfacerecordingdemo.recording;
+
+/**
+ * Decides how far to scale recording back when the device runs hot or the pipeline can't keep
+ * up.
+ * <p>
+ * Each {@link #evaluate} looks at a sample of the thermal status, the recent frame interval
+ * and the encoder backlog, and moves at most one step along the {@link Level} ladder.  Levels
+ * are cumulative: each one keeps every degradation below it.  Stepping down is quick (every
+ * sample at severe thermal status, or a couple of stressed samples in a row); stepping back up
+ * needs a longer run of calm samples, so the level doesn't flap around a threshold.
+ * <p>
+ * Privacy masks are never part of the ladder: they're drawn at every level.
+ * <p>
+ * Evaluate from one thread; the level may be read from any thread.
+ */
+public class DegradationPolicy {
+    // Mirrors of PowerManager.THERMAL_STATUS_*, so the policy runs without Android.
+    public static final int THERMAL_STATUS_NONE = 0;
+    public static final int THERMAL_STATUS_LIGHT = 1;
+    public static final int THERMAL_STATUS_MODERATE = 2;
+    public static final int THERMAL_STATUS_SEVERE = 3;
+
+    /** Consecutive stressed samples before stepping down. */
+    static final int STRESSED_SAMPLES_TO_DEGRADE = 2;
+    /** Consecutive calm samples before stepping back up. */
+    static final int CALM_SAMPLES_TO_RECOVER = 5;
+    /** Frames drawn but not yet encoded beyond which the encoder counts as falling behind. */
+    static final long STRESSED_BACKLOG = 8;
+    static final long CALM_BACKLOG = 2;
+
+    public enum Level {
+        NONE,
+        /** Cap the frame rate below the configured one. */
+        REDUCED_FRAME_RATE,
+        /** Ask the codec for a lower bitrate. */
+        REDUCED_BIT_RATE,
+        /** Scale with a single bilinear tap rather than the Lanczos filter. */
+        CHEAP_SCALING,
+        /** Stop drawing the watermark, timestamp and caption. */
+        NO_OVERLAYS
+    }
+
+    public interface Listener {
+        /**
+         * Called from {@link #evaluate} when the level changes.
+         *
+         * @param reason What tipped it, for the log.
+         */
+        void onLevelChanged(Level from, Level to, String reason);
+    }
+
+    private static final Level[] LEVELS = Level.values();
+
+    private final Listener mListener;
+    private volatile Level mLevel = Level.NONE;
+    private int mStressedSamples;
+    private int mCalmSamples;
+
+    public DegradationPolicy(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Takes one sample and steps the level if it calls for it.
+     *
+     * @param thermalStatus        One of the THERMAL_STATUS_ constants (higher values count as
+     *                             severe).
+     * @param frameIntervalNanos   A high percentile of recent frame-to-frame intervals, or 0
+     *                             if unknown.
+     * @param targetIntervalNanos  The interval frames should be drawn at, or 0 if unpaced.
+     * @param encoderBacklog       Frames drawn but not yet output by the encoder.
+     * @return The level after this sample.
+     */
+    public Level evaluate(int thermalStatus, long frameIntervalNanos, long targetIntervalNanos,
+            long encoderBacklog) {
+        boolean slow = targetIntervalNanos > 0
+                && frameIntervalNanos > targetIntervalNanos * 3 / 2;
+        boolean onPace = targetIntervalNanos <= 0
+                || frameIntervalNanos <= targetIntervalNanos * 11 / 10;
+
+        if (thermalStatus >= THERMAL_STATUS_SEVERE) {
+            mCalmSamples = 0;
+            mStressedSamples = 0;
+            step(1, "thermal status " + thermalStatus);
+        } else if (thermalStatus >= THERMAL_STATUS_MODERATE || slow
+                || encoderBacklog > STRESSED_BACKLOG) {
+            mCalmSamples = 0;
+            if (++mStressedSamples >= STRESSED_SAMPLES_TO_DEGRADE) {
+                mStressedSamples = 0;
+                step(1, describe(thermalStatus, frameIntervalNanos, targetIntervalNanos,
+                        encoderBacklog));
+            }
+        } else if (thermalStatus <= THERMAL_STATUS_LIGHT && onPace
+                && encoderBacklog <= CALM_BACKLOG) {
+            mStressedSamples = 0;
+            if (++mCalmSamples >= CALM_SAMPLES_TO_RECOVER) {
+                mCalmSamples = 0;
+                step(-1, "calm for " + CALM_SAMPLES_TO_RECOVER + " samples");
+            }
+        } else {
+            // Neither stressed nor calm: hold, and make either direction start counting again.
+            mStressedSamples = 0;
+            mCalmSamples = 0;
+        }
+        return mLevel;
+    }
+
+    public Level getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Returns to {@link Level#NONE} without notifying, e.g. when a new recording starts.
+     */
+    public void reset() {
+        mLevel = Level.NONE;
+        mStressedSamples = 0;
+        mCalmSamples = 0;
+    }
+
+    private void step(int direction, String reason) {
+        int next = mLevel.ordinal() + direction;
+        if (next < 0 || next >= LEVELS.length) {
+            return;
+        }
+        Level from = mLevel;
+        mLevel = LEVELS[next];
+        mListener.onLevelChanged(from, mLevel, reason);
+    }
+
+    private static String describe(int thermalStatus, long frameIntervalNanos,
+            long targetIntervalNanos, long encoderBacklog) {
+        return "thermal status " + thermalStatus + ", frame interval "
+                + frameIntervalNanos / 1000 + "us (target " + targetIntervalNanos / 1000
+                + "us), encoder backlog " + encoderBacklog;
+    }
+}
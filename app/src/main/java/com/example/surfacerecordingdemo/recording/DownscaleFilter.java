@@ -0,0 +1,120 @@
+package com.example.surfacerecordingdemo.recording;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import com.example.surfacerecordingdemo.recording.gles.Drawable2d;
+import com.example.surfacerecordingdemo.recording.gles.GlUtil;
+import com.example.surfacerecordingdemo.recording.gles.ResampleProgram;
+import com.example.surfacerecordingdemo.recording.gles.TextureFramebuffer;
+
+/**
+ * Two-pass separable Lanczos downscale of the captured frame.
+ * <p>
+ * The first pass filters horizontally from the external texture into an intermediate
+ * framebuffer that already has the output width; the second pass filters vertically from
+ * there onto the current surface.  Used by {@link MainFrameRect} in place of its single
+ * bilinear draw when the encoder size is well below the source size.
+ */
+public class DownscaleFilter {
+    /**
+     * Default output / source ratio below which the filter is used.  Above it, bilinear
+     * sampling still hits almost every source texel and the extra pass is not worth it.
+     */
+    public static final float DEFAULT_THRESHOLD = 0.9f;
+
+    private final Drawable2d mFullRect = new Drawable2d(Drawable2d.Prefab.FULL_RECTANGLE);
+    private final float[] mIntermediateTexMatrix = new float[16];
+    private ResampleProgram mHorizontal;
+    private ResampleProgram mVertical;
+    private TextureFramebuffer mIntermediate;
+
+    private final int mSrcWidth;
+    private final int mSrcHeight;
+    private final int mDstWidth;
+    private final int mDstHeight;
+
+    /**
+     * Returns true if drawing srcWidth x srcHeight into dstWidth x dstHeight shrinks the
+     * image enough to need the filter.
+     */
+    public static boolean isNeeded(int srcWidth, int srcHeight, int dstWidth, int dstHeight,
+                                   float threshold) {
+        float scale = Math.min(dstWidth / (float) srcWidth, dstHeight / (float) srcHeight);
+        return scale < threshold;
+    }
+
+    /**
+     * Creates programs and the intermediate framebuffer.  The EGL context must be current.
+     * <p>
+     * The crop may change from frame to frame, so taps and the intermediate height are sized
+     * for the uncropped source, the largest reduction the filter can be asked for.
+     *
+     * @param srcWidth Width of the whole source texture.
+     * @param srcHeight Height of the whole source texture.
+     * @param dstWidth Width of the surface drawn to.
+     * @param dstHeight Height of the surface drawn to.
+     */
+    public DownscaleFilter(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        mSrcWidth = srcWidth;
+        mSrcHeight = srcHeight;
+        mDstWidth = dstWidth;
+        mDstHeight = dstHeight;
+
+        mHorizontal = new ResampleProgram(true, dstWidth / (float) srcWidth);
+        mVertical = new ResampleProgram(false, dstHeight / (float) srcHeight);
+        mIntermediate = new TextureFramebuffer(dstWidth, srcHeight, false);
+        Matrix.setIdentityM(mIntermediateTexMatrix, 0);
+    }
+
+    /**
+     * Releases resources.
+     * <p>
+     * See {@link MainFrameRect#release(boolean)} for the meaning of doEglCleanup.
+     */
+    public void release(boolean doEglCleanup) {
+        if (doEglCleanup) {
+            mHorizontal.release();
+            mVertical.release();
+            mIntermediate.release();
+        }
+        mHorizontal = null;
+        mVertical = null;
+        mIntermediate = null;
+    }
+
+    /**
+     * Draws the external texture onto the current surface.  Leaves the viewport covering
+     * the surface.
+     *
+     * @param texMatrix Texture matrix, including the crop.
+     * @param rect Full-viewport rect to draw.
+     * @param cropWidth Fraction of the source width selected by texMatrix.
+     * @param cropHeight Fraction of the source height selected by texMatrix.
+     */
+    public void drawFrame(int textureId, float[] texMatrix, Drawable2d rect,
+                          float cropWidth, float cropHeight) {
+        // Only as many intermediate rows as the crop has source rows are used, so the
+        // vertical pass sees the source at its native row spacing.
+        int rows = Math.max(1, Math.min(mSrcHeight, Math.round(mSrcHeight * cropHeight)));
+        mIntermediate.bind();
+        GLES20.glViewport(0, 0, mDstWidth, rows);
+        mHorizontal.draw(GlUtil.IDENTITY_MATRIX, rect.getVertexArray(), 0,
+                rect.getVertexCount(), rect.getCoordsPerVertex(), rect.getVertexStride(),
+                texMatrix, rect.getTexCoordArray(), textureId, rect.getTexCoordStride(),
+                true, mSrcWidth, mDstWidth / (mSrcWidth * cropWidth), 1f);
+
+        // Rows past the crop still hold an earlier, taller crop (or were never written), so
+        // the vertical taps are clamped to the rows just drawn.
+        TextureFramebuffer.unbind();
+        GLES20.glViewport(0, 0, mDstWidth, mDstHeight);
+        float validRows = rows / (float) mSrcHeight;
+        mIntermediateTexMatrix[5] = validRows;
+        mVertical.draw(GlUtil.IDENTITY_MATRIX, mFullRect.getVertexArray(), 0,
+                mFullRect.getVertexCount(), mFullRect.getCoordsPerVertex(),
+                mFullRect.getVertexStride(), mIntermediateTexMatrix,
+                mFullRect.getTexCoordArray(), mIntermediate.getTextureId(),
+                mFullRect.getTexCoordStride(), false, mSrcHeight, mDstHeight / (float) rows,
+                validRows);
+    }
+}
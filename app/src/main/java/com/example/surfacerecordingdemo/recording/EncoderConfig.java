@@ -17,6 +17,32 @@ public class EncoderConfig {
     public final Boolean mEnableWatermark;
     public boolean mEnableAudio;
     public final int mDelayMs;
+    /** Burns the wall-clock time into the bottom left corner of every frame. */
+    public boolean mEnableTimestamp;
+    /**
+     * Stamps each frame's number and capture time into its top left corner, so the :tools
+     * module's FrameCodeAnalyzer can measure latency and drops from the recorded file.
+     * Diagnostic only.
+     */
+    public boolean mStampFrameCodes;
+    /**
+     * Encoder size / cropped source size below which frames are downscaled with a Lanczos
+     * filter instead of bilinear sampling.  0 disables the filter.
+     */
+    public float mDownscaleThreshold = DownscaleFilter.DEFAULT_THRESHOLD;
+    /**
+     * Frame rate the encoder is configured for.  Frames arriving faster (a 60 or 120 Hz display)
+     * are paced down to it before they are drawn; 0 draws every frame.
+     */
+    public int mFrameRate = DEFAULT_FRAME_RATE;
+    /**
+     * How often TextureMovieEncoder#getRecordingStats() publishes a snapshot while recording;
+     * 0 disables it.
+     */
+    public long mStatsIntervalMs = DEFAULT_STATS_INTERVAL_MS;
+
+    public static final int DEFAULT_FRAME_RATE = 24;
+    public static final long DEFAULT_STATS_INTERVAL_MS = 1000;
 
     public EncoderConfig(File outputFile, int width, int height,
                          float topCropped, float bottomCropped, float leftCropped, float rightCropped,
@@ -43,7 +69,7 @@ public class EncoderConfig {
     public String toString() {
         return "EncoderConfig: " + mWidth + "x" + mHeight
                 + ", Crop with: " + mTopCropped + " and " + mBottomCropped
-                + "@" + mBitRate +
+                + "@" + mBitRate + ", " + mFrameRate + " fps" +
                 " to '" + mOutputFile.toString() + "' ctxt=" + mEglContext;
     }
 }
@@ -0,0 +1,55 @@
+package com.example.surfacerecordingdemo.recording;
+
+import android.opengl.GLES20;
+
+import com.example.surfacerecordingdemo.recording.metrics.FrameCode;
+
+/**
+ * Draws a {@link FrameCode} into the top left corner of the surface, for measuring latency
+ * and drops from the recorded file.
+ * <p>
+ * The cells are drawn with scissored clears rather than a program, so there's nothing to
+ * compile or release and the cost is a handful of fill-only clears per frame.  The clear
+ * color is restored afterwards.  Must be used on the GL thread.
+ */
+public class FrameCodeRect {
+    private final int mSurfaceHeight;
+    private final int mCellSize;
+    private final float[] mClearColor = new float[4];
+
+    public FrameCodeRect(int surfaceWidth, int surfaceHeight) {
+        mSurfaceHeight = surfaceHeight;
+        mCellSize = FrameCode.cellSize(surfaceWidth, surfaceHeight);
+    }
+
+    /**
+     * @param frameNumber    Frames drawn before this one in the recording.
+     * @param timestampNanos The frame's capture (presentation) time.
+     */
+    public void drawFrame(long frameNumber, long timestampNanos) {
+        long code = FrameCode.encode(frameNumber, timestampNanos / 1000);
+        int codeHeight = FrameCode.ROWS * mCellSize;
+
+        GLES20.glGetFloatv(GLES20.GL_COLOR_CLEAR_VALUE, mClearColor, 0);
+        GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+        GLES20.glScissor(0, mSurfaceHeight - codeHeight, FrameCode.COLUMNS * mCellSize,
+                codeHeight);
+        GLES20.glClearColor(0f, 0f, 0f, 1f);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+
+        GLES20.glClearColor(1f, 1f, 1f, 1f);
+        for (int bit = 0; bit < FrameCode.BITS; bit++) {
+            if (FrameCode.isSet(code, bit)) {
+                int column = bit % FrameCode.COLUMNS;
+                int row = bit / FrameCode.COLUMNS;
+                // GL's origin is the bottom left; row 0 is the top.
+                GLES20.glScissor(column * mCellSize, mSurfaceHeight - (row + 1) * mCellSize,
+                        mCellSize, mCellSize);
+                GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            }
+        }
+
+        GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+        GLES20.glClearColor(mClearColor[0], mClearColor[1], mClearColor[2], mClearColor[3]);
+    }
+}
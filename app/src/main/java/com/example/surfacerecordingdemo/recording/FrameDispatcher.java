@@ -0,0 +1,113 @@
+package com.example.surfacerecordingdemo.recording;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the newest frame timestamp and transform matrix from the thread that learns about new
+ * frames to the encoder thread, without allocating and without letting a backlog build up.
+ * <p>
+ * Three preallocated {@link Frame} slots form a triple buffer: the producer fills its back
+ * slot and swaps it with the shared middle slot; the consumer swaps its front slot with the
+ * middle when the middle holds something new.  Each side only ever touches its own slot, so
+ * neither takes a lock, and a frame the consumer didn't get to before the next one was
+ * published is replaced (latest wins) and counted as coalesced.
+ * <p>
+ * Every frame carries a sequence number, so the consumer can tell how many frames arrived
+ * since the one it last saw, e.g. to release that many buffers from a SurfaceTexture.
+ * <p>
+ * The consumer is woken by a signal the caller sends (e.g. a Handler message); at most one
+ * signal is outstanding, however many frames are published before the consumer runs.
+ * <p>
+ * One producer thread and one consumer thread.
+ */
+public class FrameDispatcher {
+    /**
+     * A reusable frame slot.  Valid for the consumer until its next {@link #poll()}.
+     */
+    public static final class Frame {
+        public final float[] transform = new float[16];
+        public long timestampNanos;
+        /** 1 for the first frame published after {@link #clear()}, then counting up. */
+        public long sequence;
+    }
+
+    private static final int INDEX_MASK = 3;
+    private static final int DIRTY = 4;
+
+    private final Frame[] mSlots = {new Frame(), new Frame(), new Frame()};
+    private final AtomicInteger mMiddle = new AtomicInteger(0);
+    private final AtomicBoolean mSignalPending = new AtomicBoolean();
+
+    // ----- producer only -----
+    private int mBack = 1;
+    private long mSequence;
+    private volatile long mCoalescedFrames;
+
+    // ----- consumer only -----
+    private int mFront = 2;
+
+    /**
+     * Returns the slot to fill for the next frame.  (Producer.)
+     */
+    public Frame claim() {
+        return mSlots[mBack];
+    }
+
+    /**
+     * Makes the slot returned by {@link #claim()} the newest frame, replacing one the consumer
+     * has not taken yet.  (Producer.)
+     *
+     * @return true if the caller must signal the consumer.
+     */
+    public boolean publish() {
+        mSlots[mBack].sequence = ++mSequence;
+        int previous = mMiddle.getAndSet(mBack | DIRTY);
+        mBack = previous & INDEX_MASK;
+        if ((previous & DIRTY) != 0) {
+            mCoalescedFrames++;
+        }
+        return mSignalPending.compareAndSet(false, true);
+    }
+
+    /**
+     * Acknowledges the signal.  Call before polling, so a frame published while handling
+     * this one signals again.  (Consumer.)
+     */
+    public void beginDrain() {
+        mSignalPending.set(false);
+    }
+
+    /**
+     * Returns the newest frame if one was published since the last poll, or null.
+     * (Consumer.)
+     */
+    public Frame poll() {
+        if ((mMiddle.get() & DIRTY) == 0) {
+            return null;
+        }
+        int previous = mMiddle.getAndSet(mFront);
+        mFront = previous & INDEX_MASK;
+        return mSlots[mFront];
+    }
+
+    /**
+     * Forgets all frames and restarts the sequence.  Only call while neither side is
+     * running, e.g. before recording starts.
+     */
+    public void clear() {
+        mMiddle.set(0);
+        mBack = 1;
+        mFront = 2;
+        mSequence = 0;
+        mCoalescedFrames = 0;
+        mSignalPending.set(false);
+    }
+
+    /**
+     * Returns the number of frames replaced by a newer one before the consumer took them.
+     */
+    public long getCoalescedFrames() {
+        return mCoalescedFrames;
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.surfacerecordingdemo.recording;
+
+import com.example.surfacerecordingdemo.recording.metrics.FrameAccounting;
+import com.example.surfacerecordingdemo.recording.metrics.PipelineTrace;
+
+/**
+ * The encoder thread's half of frame delivery: takes the newest frame from a
+ * {@link FrameDispatcher}, latches it, drops it if it's off cadence or not wanted, and hands the
+ * rest to a {@link Renderer}, counting every frame lost on the way in {@link FrameAccounting}.
+ * <p>
+ * SurfaceTexture and GL sit behind {@link Texture} and {@link Renderer}, so the same loop runs
+ * off the device with fakes.  Encoder thread only.
+ */
+public class FrameLoop {
+    /**
+     * The SurfaceTexture frames are latched from.
+     */
+    public interface Texture {
+        /** Latches the next queued buffer, if there is one. */
+        void updateTexImage();
+
+        /** Returns the latched buffer's timestamp. */
+        long getTimestamp();
+
+        /** Returns the latched buffer's texture coordinate transform. */
+        void getTransformMatrix(float[] matrix);
+    }
+
+    public interface Renderer {
+        /**
+         * Draws the latched frame into the encoder.
+         *
+         * @param timestampNanos The latched buffer's timestamp.
+         * @param transform      Only valid for the duration of the call.
+         */
+        void drawFrame(long timestampNanos, float[] transform);
+    }
+
+    private final FrameDispatcher mDispatcher;
+    private final FrameAccounting mAccounting;
+    private final float[] mTransform = new float[16];
+    private long mLatchedSequence;
+    private long mLostFrames;
+
+    public FrameLoop(FrameDispatcher dispatcher, FrameAccounting accounting) {
+        mDispatcher = dispatcher;
+        mAccounting = accounting;
+    }
+
+    /**
+     * Latches and renders the newest frame.  Frames replaced before we got here are counted
+     * as coalesced by the dispatcher and never drawn.
+     *
+     * @param recording False to latch without drawing, e.g. while paused.
+     * @param pacer     Decides which frames keep to the target frame rate.
+     */
+    public void drain(Texture texture, boolean recording, FramePacer pacer, Renderer renderer) {
+        mDispatcher.beginDrain();
+        FrameDispatcher.Frame frame = mDispatcher.poll();
+        if (frame == null) {
+            return;
+        }
+        // Each frame that arrived queued a buffer in the SurfaceTexture; release all but the
+        // newest, which stays latched for drawing.  A call that doesn't move the timestamp on
+        // found no buffer: the queue dropped that frame while we were late.
+        long frameId = PipelineTrace.frameId(frame.timestampNanos);
+        PipelineTrace.begin(PipelineTrace.Stage.DISPATCH, frameId);
+        long announced = frame.sequence - mLatchedSequence;
+        long latched = 0;
+        long latchedTimestamp = texture.getTimestamp();
+        for (long i = 0; i < announced; i++) {
+            texture.updateTexImage();
+            long timestamp = texture.getTimestamp();
+            if (timestamp != latchedTimestamp) {
+                latched++;
+                latchedTimestamp = timestamp;
+            }
+        }
+        mLatchedSequence = frame.sequence;
+        PipelineTrace.end(PipelineTrace.Stage.DISPATCH, frameId);
+
+        mAccounting.onDropped(FrameAccounting.Drop.LATE_LATCH, announced - latched);
+        if (latched == 0) {
+            mLostFrames += announced;
+            return;     // nothing new to draw
+        }
+        mAccounting.onDropped(FrameAccounting.Drop.COALESCED, latched - 1);
+        mLostFrames += announced - 1;
+        if (!recording) {
+            mAccounting.onDropped(FrameAccounting.Drop.NOT_RECORDING);
+            return;
+        }
+        // Off-cadence frames are dropped here, after latching (so the SurfaceTexture keeps
+        // flowing) but before anything is drawn.  The frame's time is the latched buffer's:
+        // whoever announced it could only see the buffer latched before it.
+        if (pacer.accept(latchedTimestamp)) {
+            texture.getTransformMatrix(mTransform);
+            renderer.drawFrame(latchedTimestamp, mTransform);
+        } else {
+            mAccounting.onDropped(FrameAccounting.Drop.PACED);
+        }
+    }
+
+    /**
+     * Takes the newest frame without latching it, for when the texture can't be touched, e.g.
+     * once the encoder has stopped and its EGL context may be gone.  Every frame announced
+     * since the last one latched is counted as not recorded.
+     */
+    public void discard() {
+        mDispatcher.beginDrain();
+        FrameDispatcher.Frame frame = mDispatcher.poll();
+        if (frame == null) {
+            return;
+        }
+        mAccounting.onDropped(FrameAccounting.Drop.NOT_RECORDING,
+                frame.sequence - mLatchedSequence);
+        mLatchedSequence = frame.sequence;
+    }
+
+    /**
+     * Returns the number of frames lost to coalescing or late latching since the last call.
+     */
+    public long takeLostFrames() {
+        long lost = mLostFrames;
+        mLostFrames = 0;
+        return lost;
+    }
+
+    /**
+     * Starts over for a new recording, whose frames are numbered from the start again.
+     */
+    public void reset() {
+        mLatchedSequence = 0;
+        mLostFrames = 0;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.surfacerecordingdemo.recording;
+
+/**
+ * Thins a stream of frames down to a target frame rate.
+ * <p>
+ * Accepted frames follow an ideal cadence of one per 1/frameRate: each accepted frame moves the
+ * next due time on by exactly one interval, so the output averages the target rate however
+ * fast the input runs.  A frame counts as on time if it arrives no more than a quarter interval
+ * before it's due, which keeps timestamp jitter from dropping frames when the input already
+ * runs at the target rate.  After a gap (a pause, a static screen) the cadence restarts from
+ * the next frame rather than letting a burst catch up.
+ * <p>
+ * Call {@link #accept(long)} from one thread; the rates may be read from any thread.
+ */
+public class FramePacer {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private long mIntervalNanos;
+    private long mToleranceNanos;
+    private long mNextDueNanos;
+
+    private volatile long mInputFrames;
+    private volatile long mOutputFrames;
+    private volatile long mFirstTimestampNanos;
+    private volatile long mLastTimestampNanos;
+
+    /**
+     * @param frameRate Target frames per second; 0 or less accepts every frame.
+     */
+    public FramePacer(int frameRate) {
+        setFrameRate(frameRate);
+    }
+
+    /**
+     * Changes the target rate, keeping the counts.  The new interval applies from the next
+     * accepted frame.  (Pacing thread.)
+     *
+     * @param frameRate Target frames per second; 0 or less accepts every frame.
+     */
+    public void setFrameRate(int frameRate) {
+        mIntervalNanos = frameRate > 0 ? NANOS_PER_SECOND / frameRate : 0;
+        mToleranceNanos = mIntervalNanos / 4;
+    }
+
+    /**
+     * Returns the target interval between accepted frames, or 0 if unpaced.
+     */
+    public long getIntervalNanos() {
+        return mIntervalNanos;
+    }
+
+    /**
+     * Returns true if the frame should be encoded, false to drop it.
+     *
+     * @param timestampNanos The frame's timestamp; must not go backwards.
+     */
+    public boolean accept(long timestampNanos) {
+        if (mInputFrames == 0) {
+            mFirstTimestampNanos = timestampNanos;
+        }
+        mLastTimestampNanos = timestampNanos;
+        mInputFrames++;
+
+        if (mIntervalNanos > 0 && mOutputFrames > 0) {
+            if (timestampNanos < mNextDueNanos - mToleranceNanos) {
+                return false;
+            }
+            mNextDueNanos += mIntervalNanos;
+            if (mNextDueNanos <= timestampNanos) {
+                mNextDueNanos = timestampNanos + mIntervalNanos;      // fell behind; resync
+            }
+        } else {
+            mNextDueNanos = timestampNanos + mIntervalNanos;
+        }
+        mOutputFrames++;
+        return true;
+    }
+
+    /**
+     * Forgets the cadence and the counts, e.g. when a new recording starts.  (Pacing thread.)
+     */
+    public void reset() {
+        mInputFrames = 0;
+        mOutputFrames = 0;
+        mFirstTimestampNanos = 0;
+        mLastTimestampNanos = 0;
+        mNextDueNanos = 0;
+    }
+
+    public long getInputFrames() {
+        return mInputFrames;
+    }
+
+    public long getOutputFrames() {
+        return mOutputFrames;
+    }
+
+    public long getDroppedFrames() {
+        return mInputFrames - mOutputFrames;
+    }
+
+    /**
+     * Returns the average rate frames arrived at since the last reset, or 0 if unknown.
+     */
+    public float getInputFrameRate() {
+        return rate(mInputFrames);
+    }
+
+    /**
+     * Returns the average rate frames were accepted at since the last reset, or 0 if unknown.
+     */
+    public float getOutputFrameRate() {
+        return rate(mOutputFrames);
+    }
+
+    private float rate(long frames) {
+        long elapsed = mLastTimestampNanos - mFirstTimestampNanos;
+        if (frames < 2 || elapsed <= 0) {
+            return 0f;
+        }
+        return (frames - 1) * (float) NANOS_PER_SECOND / elapsed;
+    }
+}
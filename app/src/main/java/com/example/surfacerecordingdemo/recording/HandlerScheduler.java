@@ -0,0 +1,24 @@
+package com.example.surfacerecordingdemo.recording;
+
+import android.os.Handler;
+
+/**
+ * Runs {@link RecorderStateMachine} transitions on a Handler's thread.
+ */
+public class HandlerScheduler implements RecorderStateMachine.Scheduler {
+    private final Handler mHandler;
+
+    public HandlerScheduler(Handler handler) {
+        mHandler = handler;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        mHandler.post(task);
+    }
+
+    @Override
+    public void executeDelayed(Runnable task, long delayMillis) {
+        mHandler.postDelayed(task, delayMillis);
+    }
+}
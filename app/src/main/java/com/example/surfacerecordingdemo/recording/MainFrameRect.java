@@ -16,9 +16,9 @@
 
 package com.example.surfacerecordingdemo.recording;
 
-
 import com.example.surfacerecordingdemo.recording.gles.Drawable2d;
 import com.example.surfacerecordingdemo.recording.gles.GlUtil;
+import com.example.surfacerecordingdemo.recording.gles.MvpMath;
 import com.example.surfacerecordingdemo.recording.gles.Texture2dProgram;
 
 /**
@@ -28,17 +28,25 @@ import com.example.surfacerecordingdemo.recording.gles.Texture2dProgram;
  * In this demo, we'll cut the status bar and navigation bar of the screen
  */
 public class MainFrameRect {
-    private final CroppedDrawable2d mRectDrawable;
+    private final Drawable2d mRectDrawable;
+    private final CropController mCropController;
+    private final float[] mTexMatrix = new float[16];
     private Texture2dProgram mProgram;
+    private DownscaleFilter mDownscaleFilter;
+    private PrivacyMaskFrameRect mPrivacyMask;
+    private FrameCodeRect mFrameCode;
 
     /**
      * Prepares the object.
      *
      * @param program The program to use.  FullFrameRect takes ownership, and will release
      *     the program when no longer needed.
+     * @param cropController Source of the crop.  Its matrix is applied on every draw, so
+     *     the caller must {@link CropController#update(long)} it once per frame first.
      */
-    public MainFrameRect(Texture2dProgram program) {
-        mRectDrawable = new CroppedDrawable2d(Drawable2d.Prefab.FULL_RECTANGLE);
+    public MainFrameRect(Texture2dProgram program, CropController cropController) {
+        mRectDrawable = new Drawable2d(Drawable2d.Prefab.FULL_RECTANGLE);
+        mCropController = cropController;
         mProgram = program;
     }
 
@@ -57,6 +65,14 @@ public class MainFrameRect {
             }
             mProgram = null;
         }
+        if (mDownscaleFilter != null) {
+            mDownscaleFilter.release(doEglCleanup);
+            mDownscaleFilter = null;
+        }
+        if (mPrivacyMask != null) {
+            mPrivacyMask.release(doEglCleanup);
+            mPrivacyMask = null;
+        }
     }
 
     /**
@@ -77,31 +93,55 @@ public class MainFrameRect {
     }
 
     /**
-     * @param bottomCropped defines the bottom area to be cut. from 0f-1f.
+     * Draws through a two-pass filter instead of a single bilinear pass.  Use when the
+     * surface is much smaller than the source.  MainFrameRect takes ownership of the filter.
+     *
+     * @param filter The filter, or null to go back to the plain program.
      */
-    public void setBottomCropped(float bottomCropped) {
-        mRectDrawable.setBottomCropped(bottomCropped);
+    public void setDownscaleFilter(DownscaleFilter filter) {
+        if (mDownscaleFilter != null) {
+            mDownscaleFilter.release(true);
+        }
+        mDownscaleFilter = filter;
     }
 
     /**
-     * @param topCropped defines the top area to be cut. from 0f-1f.
+     * Returns true if frames are drawn through a {@link DownscaleFilter}.
      */
-    public void setTopCropped(float topCropped) {
-        mRectDrawable.setTopCropped(topCropped);
+    public boolean isDownscaling() {
+        return mDownscaleFilter != null;
     }
 
     /**
-     * @param leftCropped defines the left area to be cut. from 0f-1f.
+     * Pixelates masked regions after every frame, in the same pass.  MainFrameRect takes
+     * ownership of the mask.
+     *
+     * @param mask The mask, or null to draw frames unmasked.
      */
-    public void setLeftCropped(float leftCropped) {
-        mRectDrawable.setLeftCropped(leftCropped);
+    public void setPrivacyMask(PrivacyMaskFrameRect mask) {
+        if (mPrivacyMask != null) {
+            mPrivacyMask.release(true);
+        }
+        mPrivacyMask = mask;
     }
 
     /**
-     * @param rightCropped defines the right area to be cut. from 0f-1f.
+     * Stamps a machine-readable frame number and capture time into the top left corner of
+     * every frame, for measuring the recording with FrameCodeAnalyzer.
+     *
+     * @param frameCode The stamp, or null to stop stamping.
      */
-    public void setRightCropped(float rightCropped) {
-        mRectDrawable.setRightCropped(rightCropped);
+    public void setFrameCode(FrameCodeRect frameCode) {
+        mFrameCode = frameCode;
+    }
+
+    /**
+     * Draws the frame code, if one is set.  Call after everything else, so nothing covers it.
+     */
+    public void drawFrameCode(long frameNumber, long timestampNanos) {
+        if (mFrameCode != null) {
+            mFrameCode.drawFrame(frameNumber, timestampNanos);
+        }
     }
 
     /**
@@ -115,11 +155,23 @@ public class MainFrameRect {
      * Draws a viewport-filling rect, texturing it with the specified texture object.
      */
     public void drawFrame(int textureId, float[] texMatrix) {
-        // Use the identity matrix for MVP so our 2x2 FULL_RECTANGLE covers the viewport.
-        mProgram.draw(GlUtil.IDENTITY_MATRIX, mRectDrawable.getVertexArray(), 0,
-                mRectDrawable.getVertexCount(), mRectDrawable.getCoordsPerVertex(),
-                mRectDrawable.getVertexStride(),
-                texMatrix, mRectDrawable.getTexCoordArray(), textureId,
-                mRectDrawable.getTexCoordStride());
+        // Crop first, then apply the SurfaceTexture transform.
+        MvpMath.multiply(mTexMatrix, texMatrix, mCropController.getCropMatrix());
+
+        if (mDownscaleFilter != null) {
+            mDownscaleFilter.drawFrame(textureId, mTexMatrix, mRectDrawable,
+                    mCropController.getWidthFraction(), mCropController.getHeightFraction());
+        } else {
+            // Use the identity matrix for MVP so our 2x2 FULL_RECTANGLE covers the viewport.
+            mProgram.draw(GlUtil.IDENTITY_MATRIX, mRectDrawable.getVertexArray(), 0,
+                    mRectDrawable.getVertexCount(), mRectDrawable.getCoordsPerVertex(),
+                    mRectDrawable.getVertexStride(),
+                    mTexMatrix, mRectDrawable.getTexCoordArray(), textureId,
+                    mRectDrawable.getTexCoordStride());
+        }
+
+        if (mPrivacyMask != null) {
+            mPrivacyMask.drawFrame(textureId, mTexMatrix, mCropController);
+        }
     }
 }
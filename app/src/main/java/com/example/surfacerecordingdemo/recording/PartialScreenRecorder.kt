@@ -14,7 +14,15 @@ import android.util.Size
 import android.view.Surface
 import com.example.surfacerecordingdemo.R
 import com.example.surfacerecordingdemo.recording.hardware.HWTextureMovieEncoder
+import com.example.surfacerecordingdemo.recording.metrics.FrameStats
 import com.screencastomatic.app.recording.recorder.ScreenRecorder
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.conflate
+import kotlinx.coroutines.flow.emptyFlow
+import kotlinx.coroutines.flow.flatMapLatest
 import java.io.File
 
 class PartialScreenRecorder(private val context: Context, private val projection: MediaProjection) :
@@ -24,12 +32,32 @@ class PartialScreenRecorder(private val context: Context, private val projection
     }
 
     private var mediaRecorder: TextureMovieEncoder? = null
+        set(value) {
+            field = value
+            if (value != null) {
+                segments.value = segments.value + value
+            }
+        }
+    // Each resume records with a new encoder.  All of the session's are kept, as an earlier
+    // one may still publish its final snapshot after the next has started.
+    private val segments = MutableStateFlow<List<TextureMovieEncoder>>(emptyList())
     private var callback: ScreenRecorder.Callback? = null
     private var virtualDisplay: VirtualDisplay? = null
     private var files = mutableListOf<File>()
 
     override var isRecording = false
 
+    @OptIn(ExperimentalCoroutinesApi::class)
+    override val recordingStats: Flow<RecordingStats> = segments.flatMapLatest { encoders ->
+        if (encoders.isEmpty()) {
+            emptyFlow()
+        } else {
+            combine(encoders.map { it.recordingStats }) { stats ->
+                stats.reduce { earlier, later -> later.continuing(earlier) }
+            }
+        }
+    }.conflate()
+
     override fun prepare(intent: Intent) {
     }
 
@@ -51,7 +79,8 @@ class PartialScreenRecorder(private val context: Context, private val projection
             override fun onRecordSuccess(
                 files: List<File>,
                 coverPath: String?,
-                duration: Long
+                duration: Long,
+                frameStats: FrameStats
             ) {
                 callback(files)
             }
@@ -71,6 +100,7 @@ class PartialScreenRecorder(private val context: Context, private val projection
             files.forEach { it.delete() }
         }
         files = mutableListOf()
+        segments.value = emptyList()
 
         mediaRecorder = null
         callback = null
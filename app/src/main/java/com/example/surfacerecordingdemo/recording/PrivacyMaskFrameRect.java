@@ -0,0 +1,114 @@
+package com.example.surfacerecordingdemo.recording;
+
+import android.opengl.GLES20;
+
+import com.example.surfacerecordingdemo.recording.gles.Drawable2d;
+import com.example.surfacerecordingdemo.recording.gles.GlUtil;
+import com.example.surfacerecordingdemo.recording.gles.Texture2dProgram;
+
+/**
+ * Pixelates the regions listed in a {@link PrivacyMasks} on top of the frame
+ * {@link MainFrameRect} has just drawn.
+ * <p>
+ * Each region is drawn as the full-viewport rect with a scissor box around it, so fragments
+ * outside the box are rejected before shading and the cost follows the masked area rather
+ * than the frame size.  The pixelate shader reads the same external texture with the same
+ * texture matrix, so no copy of the frame is needed.
+ */
+public class PrivacyMaskFrameRect {
+    /** Default block edge, in output pixels. */
+    public static final int DEFAULT_BLOCK_SIZE = 16;
+
+    private final Drawable2d mRectDrawable = new Drawable2d(Drawable2d.Prefab.FULL_RECTANGLE);
+    private final PrivacyMasks mMasks;
+    private final int mViewportWidth;
+    private final int mViewportHeight;
+    private Texture2dProgram mProgram;
+    private int mBlockSize = DEFAULT_BLOCK_SIZE;
+
+    /**
+     * Prepares the object.  The EGL context must be current.
+     *
+     * @param masks Source of the regions, read on every draw.
+     * @param viewportWidth Width of the surface drawn to.
+     * @param viewportHeight Height of the surface drawn to.
+     */
+    public PrivacyMaskFrameRect(PrivacyMasks masks, int viewportWidth, int viewportHeight) {
+        mMasks = masks;
+        mViewportWidth = viewportWidth;
+        mViewportHeight = viewportHeight;
+        mProgram = new Texture2dProgram(Texture2dProgram.ProgramType.TEXTURE_EXT_PIXELATE);
+    }
+
+    /**
+     * Releases resources.
+     * <p>
+     * See {@link MainFrameRect#release(boolean)} for the meaning of doEglCleanup.
+     */
+    public void release(boolean doEglCleanup) {
+        if (mProgram != null) {
+            if (doEglCleanup) {
+                mProgram.release();
+            }
+            mProgram = null;
+        }
+    }
+
+    /**
+     * Sets the edge of each pixelation block, in output pixels.
+     */
+    public void setBlockSize(int blockSize) {
+        mBlockSize = Math.max(1, blockSize);
+    }
+
+    /**
+     * Draws the masks.
+     *
+     * @param texMatrix Texture matrix used for the frame, including the crop.
+     * @param crop Crop the frame was drawn with, to map screen rects into the output.
+     */
+    public void drawFrame(int textureId, float[] texMatrix, CropController crop) {
+        float[] rects = mMasks.get();
+        if (rects.length == 0) {
+            return;
+        }
+
+        float cropWidth = crop.getWidthFraction();
+        float cropHeight = crop.getHeightFraction();
+        if (cropWidth <= 0f || cropHeight <= 0f) {
+            return;
+        }
+        // Texture coordinates advance by cropWidth / viewportWidth per output pixel.
+        mProgram.setPixelSize(mBlockSize * cropWidth / mViewportWidth,
+                mBlockSize * cropHeight / mViewportHeight);
+
+        GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+        for (int i = 0; i + PrivacyMasks.STRIDE <= rects.length; i += PrivacyMasks.STRIDE) {
+            // Screen fractions -> output pixels, rounded outwards so edges stay covered.
+            int left = clamp((float) Math.floor(
+                    (rects[i] - crop.getLeft()) / cropWidth * mViewportWidth), mViewportWidth);
+            int right = clamp((float) Math.ceil(
+                    (rects[i + 2] - crop.getLeft()) / cropWidth * mViewportWidth), mViewportWidth);
+            int top = clamp((float) Math.floor(
+                    (rects[i + 1] - crop.getTop()) / cropHeight * mViewportHeight), mViewportHeight);
+            int bottom = clamp((float) Math.ceil(
+                    (rects[i + 3] - crop.getTop()) / cropHeight * mViewportHeight), mViewportHeight);
+            if (right <= left || bottom <= top) {
+                continue;       // empty, or outside the crop
+            }
+
+            // GL puts the origin at the bottom left.
+            GLES20.glScissor(left, mViewportHeight - bottom, right - left, bottom - top);
+            mProgram.draw(GlUtil.IDENTITY_MATRIX, mRectDrawable.getVertexArray(), 0,
+                    mRectDrawable.getVertexCount(), mRectDrawable.getCoordsPerVertex(),
+                    mRectDrawable.getVertexStride(),
+                    texMatrix, mRectDrawable.getTexCoordArray(), textureId,
+                    mRectDrawable.getTexCoordStride());
+        }
+        GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+    }
+
+    private static int clamp(float value, int max) {
+        return value < 0f ? 0 : (value > max ? max : (int) value);
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.surfacerecordingdemo.recording;
+
+import android.graphics.RectF;
+
+import java.util.List;
+
+/**
+ * Thread-safe list of screen regions to hide in the recording.
+ * <p>
+ * Rects are fractions (0-1) of the captured screen with the origin at the top left, the same
+ * space the app lays its views out in, so a mask keeps covering its content while the crop
+ * pans or zooms.  Each update is copied into a new array and published with a single volatile
+ * write; the encoder thread reads whichever array is current without locking.
+ */
+public class PrivacyMasks {
+    /** Floats per rect in {@link #get()}: left, top, right, bottom. */
+    public static final int STRIDE = 4;
+
+    private static final float[] NONE = new float[0];
+
+    private volatile float[] mRects = NONE;
+
+    /**
+     * Replaces the masked regions, starting with the next frame.  (Call from any thread.)
+     *
+     * @param rects Regions to mask, or null / empty to mask nothing.
+     */
+    public void set(List<RectF> rects) {
+        if (rects == null || rects.isEmpty()) {
+            mRects = NONE;
+            return;
+        }
+        float[] packed = new float[rects.size() * STRIDE];
+        int offset = 0;
+        for (RectF rect : rects) {
+            packed[offset++] = rect.left;
+            packed[offset++] = rect.top;
+            packed[offset++] = rect.right;
+            packed[offset++] = rect.bottom;
+        }
+        mRects = packed;
+    }
+
+    /**
+     * Returns the current rects, {@link #STRIDE} floats each.  The array is never modified
+     * after publication; the caller must not modify it either.
+     */
+    public float[] get() {
+        return mRects;
+    }
+}
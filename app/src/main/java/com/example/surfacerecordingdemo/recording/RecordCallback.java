@@ -1,5 +1,7 @@
 package com.example.surfacerecordingdemo.recording;
 
+import com.example.surfacerecordingdemo.recording.metrics.FrameStats;
+
 import java.io.File;
 import java.util.List;
 
@@ -9,7 +11,11 @@ import java.util.List;
 public interface RecordCallback {
     void onRecordStarted();
 
-    void onRecordSuccess(List<File> files, String coverPath, long duration);
+    /**
+     * @param frameStats Frames captured, drawn, encoded and written, and those lost on the
+     *     way, by cause.
+     */
+    void onRecordSuccess(List<File> files, String coverPath, long duration, FrameStats frameStats);
 
     void onRecordFailed(Throwable e, long duration);
 }
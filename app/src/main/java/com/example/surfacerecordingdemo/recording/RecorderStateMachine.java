@@ -0,0 +1,206 @@
+package com.example.surfacerecordingdemo.recording;
+
+/**
+ * Control flow of a recording, independent of GL, codecs and Android threading.
+ * <p>
+ * A recording moves through
+ * <pre>
+ *   IDLE -> PREPARING -> RECORDING <-> PAUSED
+ *                |            |           |
+ *                +------------+-----------+--> DRAINING -> RELEASED
+ * </pre>
+ * and any failure goes straight to RELEASED.  Commands may be issued from any thread; each one
+ * is run on the {@link Scheduler}, which must run tasks one at a time in order, so every
+ * transition and every {@link Pipeline} call happens on that one thread and a command that
+ * doesn't apply in the current state (stop twice, pause before recording, ...) is ignored
+ * rather than racing.  {@link #getState()} may be read from any thread.
+ * <p>
+ * All real work is behind {@link Pipeline}, so the machine can be driven on a plain JVM with a
+ * fake pipeline and a direct or queued scheduler.
+ *
+ * @param <C> Configuration handed to {@link Pipeline#prepare(Object)}.
+ */
+public class RecorderStateMachine<C> {
+    public enum State {
+        IDLE, PREPARING, RECORDING, PAUSED, DRAINING, RELEASED
+    }
+
+    /**
+     * Runs tasks one at a time, in the order submitted.
+     */
+    public interface Scheduler {
+        void execute(Runnable task);
+
+        void executeDelayed(Runnable task, long delayMillis);
+    }
+
+    /**
+     * The work behind each transition.  Called on the scheduler thread only.
+     */
+    public interface Pipeline<C> {
+        /**
+         * Creates the encoder, surfaces and anything else frames need.  (IDLE -> PREPARING)
+         */
+        void prepare(C config) throws Exception;
+
+        /**
+         * Frames from here on are recorded.  (PREPARING -> RECORDING)
+         */
+        void start() throws Exception;
+
+        /**
+         * Finishes the recording, e.g. signals end of stream and flushes the muxer.
+         * (-> DRAINING)
+         */
+        void drain() throws Exception;
+
+        /**
+         * Frees everything prepare() created.  Called once, even after a failure; must cope
+         * with a partial prepare().  (-> RELEASED)
+         */
+        void release();
+    }
+
+    public interface Listener {
+        /**
+         * Called on the scheduler thread after each transition.
+         */
+        void onStateChanged(State from, State to);
+
+        /**
+         * Called on the scheduler thread when a pipeline step throws.  The machine then
+         * releases the pipeline.
+         */
+        void onError(Throwable error);
+    }
+
+    private final Scheduler mScheduler;
+    private final Pipeline<C> mPipeline;
+    private final Listener mListener;
+    private volatile State mState = State.IDLE;
+
+    public RecorderStateMachine(Scheduler scheduler, Pipeline<C> pipeline, Listener listener) {
+        mScheduler = scheduler;
+        mPipeline = pipeline;
+        mListener = listener;
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    /**
+     * Returns true from the start request until the pipeline is released.
+     */
+    public boolean isActive() {
+        State state = mState;
+        return state != State.IDLE && state != State.RELEASED;
+    }
+
+    /**
+     * Prepares the pipeline, then starts recording after a delay.  (Call from any thread.)
+     *
+     * @param delayMillis Time between prepare and start, e.g. to let a countdown finish.
+     */
+    public void start(final C config, final long delayMillis) {
+        mScheduler.execute(() -> handleStart(config, delayMillis));
+    }
+
+    /**
+     * Stops drawing frames into the recording until {@link #resume()}.  (Call from any thread.)
+     */
+    public void pause() {
+        mScheduler.execute(() -> {
+            if (mState == State.RECORDING) {
+                moveTo(State.PAUSED);
+            }
+        });
+    }
+
+    /**
+     * Resumes a paused recording.  (Call from any thread.)
+     */
+    public void resume() {
+        mScheduler.execute(() -> {
+            if (mState == State.PAUSED) {
+                moveTo(State.RECORDING);
+            }
+        });
+    }
+
+    /**
+     * Finishes the recording and releases the pipeline.  A recording still waiting out its
+     * start delay is stopped without ever starting.  (Call from any thread.)
+     */
+    public void stop() {
+        mScheduler.execute(this::handleStop);
+    }
+
+    private void handleStart(C config, long delayMillis) {
+        if (mState != State.IDLE) {
+            return;
+        }
+        moveTo(State.PREPARING);
+        try {
+            mPipeline.prepare(config);
+        } catch (Exception e) {
+            fail(e);
+            return;
+        }
+        mScheduler.executeDelayed(this::handleStarted, Math.max(0L, delayMillis));
+    }
+
+    private void handleStarted() {
+        if (mState != State.PREPARING) {
+            return;     // stopped during the delay
+        }
+        try {
+            mPipeline.start();
+        } catch (Exception e) {
+            fail(e);
+            return;
+        }
+        moveTo(State.RECORDING);
+    }
+
+    private void handleStop() {
+        switch (mState) {
+            case IDLE:
+                release();
+                break;
+            case PREPARING:
+            case RECORDING:
+            case PAUSED:
+                moveTo(State.DRAINING);
+                try {
+                    mPipeline.drain();
+                } catch (Exception e) {
+                    mListener.onError(e);
+                }
+                release();
+                break;
+            default:
+                break;      // already stopping or stopped
+        }
+    }
+
+    private void fail(Throwable error) {
+        mListener.onError(error);
+        release();
+    }
+
+    private void release() {
+        try {
+            mPipeline.release();
+        } catch (RuntimeException e) {
+            mListener.onError(e);
+        }
+        moveTo(State.RELEASED);
+    }
+
+    private void moveTo(State state) {
+        State from = mState;
+        mState = state;
+        mListener.onStateChanged(from, state);
+    }
+}
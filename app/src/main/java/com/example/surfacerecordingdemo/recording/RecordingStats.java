@@ -0,0 +1,103 @@
+package com.example.surfacerecordingdemo.recording;
+
+import com.example.surfacerecordingdemo.recording.metrics.FrameStats;
+
+import java.util.Locale;
+
+/**
+ * An immutable snapshot of a recording in progress, from {@link RecordingStatsSampler}.
+ * <p>
+ * Rates, latencies and the maximum cover the interval since the previous snapshot; byte and
+ * frame counts cover the whole recording.
+ */
+public final class RecordingStats {
+    public static final RecordingStats EMPTY = new RecordingStats(0, 0f, 0, 0, 0, 0, 0,
+            FrameStats.EMPTY, DegradationPolicy.Level.NONE);
+
+    private final long mElapsedNanos;
+    private final float mEncodedFrameRate;
+    private final long mBitRate;
+    private final long mBytesWritten;
+    private final long mAverageLatencyNanos;
+    private final long mMaxLatencyNanos;
+    private final int mAudioQueueDepth;
+    private final FrameStats mFrames;
+    private final DegradationPolicy.Level mDegradationLevel;
+
+    RecordingStats(long elapsedNanos, float encodedFrameRate, long bitRate, long bytesWritten,
+            long averageLatencyNanos, long maxLatencyNanos, int audioQueueDepth,
+            FrameStats frames, DegradationPolicy.Level degradationLevel) {
+        mElapsedNanos = elapsedNanos;
+        mEncodedFrameRate = encodedFrameRate;
+        mBitRate = bitRate;
+        mBytesWritten = bytesWritten;
+        mAverageLatencyNanos = averageLatencyNanos;
+        mMaxLatencyNanos = maxLatencyNanos;
+        mAudioQueueDepth = audioQueueDepth;
+        mFrames = frames;
+        mDegradationLevel = degradationLevel;
+    }
+
+    /** Time since recording started, pauses included. */
+    public long getElapsedNanos() {
+        return mElapsedNanos;
+    }
+
+    /** Video frames written to the file per second. */
+    public float getEncodedFrameRate() {
+        return mEncodedFrameRate;
+    }
+
+    /** Audio and video written to the file, in bits per second. */
+    public long getBitRate() {
+        return mBitRate;
+    }
+
+    /** Audio and video written to the file so far, before container overhead. */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /** Mean time from a video frame's capture until it was written, or 0 if none was. */
+    public long getAverageLatencyNanos() {
+        return mAverageLatencyNanos;
+    }
+
+    public long getMaxLatencyNanos() {
+        return mMaxLatencyNanos;
+    }
+
+    /** Audio chunks waiting for the audio encoder. */
+    public int getAudioQueueDepth() {
+        return mAudioQueueDepth;
+    }
+
+    /** Frame counts and drops by cause, for the whole recording. */
+    public FrameStats getFrames() {
+        return mFrames;
+    }
+
+    public DegradationPolicy.Level getDegradationLevel() {
+        return mDegradationLevel;
+    }
+
+    /**
+     * Returns these stats as the continuation of an earlier segment of the same session, e.g.
+     * before a pause.  Totals and elapsed time include the earlier segment's (the gap between
+     * them excluded); rates, latencies, queue depth and level are this segment's.
+     */
+    public RecordingStats continuing(RecordingStats earlier) {
+        return new RecordingStats(earlier.mElapsedNanos + mElapsedNanos, mEncodedFrameRate,
+                mBitRate, earlier.mBytesWritten + mBytesWritten, mAverageLatencyNanos,
+                mMaxLatencyNanos, mAudioQueueDepth, earlier.mFrames.plus(mFrames),
+                mDegradationLevel);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%.1f fps, %d kbps, %d bytes, latency avg %d ms max %d ms, audio queue %d, %s, %s",
+                mEncodedFrameRate, mBitRate / 1000, mBytesWritten, mAverageLatencyNanos / 1000000,
+                mMaxLatencyNanos / 1000000, mAudioQueueDepth, mDegradationLevel, mFrames);
+    }
+}
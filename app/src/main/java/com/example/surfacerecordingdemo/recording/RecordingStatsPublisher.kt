@@ -0,0 +1,22 @@
+package com.example.surfacerecordingdemo.recording
+
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+
+/**
+ * Hands [RecordingStats] snapshots to the host app.
+ *
+ * A [StateFlow] only ever holds the newest snapshot, so a collector that falls behind skips
+ * to it instead of queueing old ones, and [publish] never suspends or blocks the encoder
+ * thread.
+ */
+class RecordingStatsPublisher {
+    private val _stats = MutableStateFlow(RecordingStats.EMPTY)
+
+    val stats: StateFlow<RecordingStats> = _stats.asStateFlow()
+
+    fun publish(stats: RecordingStats) {
+        _stats.value = stats
+    }
+}
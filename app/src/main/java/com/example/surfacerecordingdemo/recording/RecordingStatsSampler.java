@@ -0,0 +1,69 @@
+package com.example.surfacerecordingdemo.recording;
+
+import com.example.surfacerecordingdemo.recording.metrics.FrameAccounting;
+import com.example.surfacerecordingdemo.recording.metrics.RecordingCounters;
+
+/**
+ * Turns the pipeline's running totals into {@link RecordingStats} snapshots, with rates over
+ * the interval between samples.
+ * <p>
+ * Only reads atomics, so sampling never holds up the threads that update them.  Sample from
+ * one thread.
+ */
+public class RecordingStatsSampler {
+    private final RecordingCounters mCounters;
+    private final FrameAccounting mAccounting;
+    private final DegradationPolicy mPolicy;
+    private long mStartNanos;
+    private long mLastNanos;
+    private long mLastBytes;
+    private long mLastFrames;
+    private long mLastLatencySumNanos;
+
+    public RecordingStatsSampler(RecordingCounters counters, FrameAccounting accounting,
+            DegradationPolicy policy) {
+        mCounters = counters;
+        mAccounting = accounting;
+        mPolicy = policy;
+    }
+
+    /**
+     * Starts the first interval.  Call as recording starts.
+     */
+    public void start(long nowNanos) {
+        mStartNanos = nowNanos;
+        mLastNanos = nowNanos;
+        mLastBytes = mCounters.getBytesWritten();
+        mLastFrames = mCounters.getVideoFramesWritten();
+        mLastLatencySumNanos = mCounters.getLatencySumNanos();
+        mCounters.takeMaxLatencyNanos();
+    }
+
+    /**
+     * Returns a snapshot covering the time since the last one, and starts the next interval.
+     */
+    public RecordingStats sample(long nowNanos) {
+        long bytes = mCounters.getBytesWritten();
+        long frames = mCounters.getVideoFramesWritten();
+        long latencySumNanos = mCounters.getLatencySumNanos();
+        long intervalNanos = nowNanos - mLastNanos;
+        long intervalFrames = frames - mLastFrames;
+
+        float frameRate = 0f;
+        long bitRate = 0;
+        if (intervalNanos > 0) {
+            frameRate = intervalFrames * 1e9f / intervalNanos;
+            bitRate = (bytes - mLastBytes) * 8 * 1000000000L / intervalNanos;
+        }
+        long averageLatencyNanos = intervalFrames > 0
+                ? (latencySumNanos - mLastLatencySumNanos) / intervalFrames : 0;
+
+        mLastNanos = nowNanos;
+        mLastBytes = bytes;
+        mLastFrames = frames;
+        mLastLatencySumNanos = latencySumNanos;
+        return new RecordingStats(nowNanos - mStartNanos, frameRate, bitRate, bytes,
+                averageLatencyNanos, mCounters.takeMaxLatencyNanos(),
+                mCounters.getAudioQueueDepth(), mAccounting.snapshot(), mPolicy.getLevel());
+    }
+}
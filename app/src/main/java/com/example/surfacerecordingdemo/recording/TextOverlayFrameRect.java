@@ -0,0 +1,254 @@
+package com.example.surfacerecordingdemo.recording;
+
+import android.graphics.Typeface;
+import android.opengl.Matrix;
+
+import com.example.surfacerecordingdemo.recording.gles.GlUtil;
+import com.example.surfacerecordingdemo.recording.gles.GlyphAtlas;
+import com.example.surfacerecordingdemo.recording.gles.Texture2dProgram;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+
+/**
+ * Draws short strings of text (timestamps, captions) on top of the recorded frame.
+ * <p>
+ * Glyphs come from a {@link GlyphAtlas} that is rasterized once per typeface and size.  Every
+ * label owns a fixed range of a shared vertex buffer; when its text changes the quads are
+ * rewritten in place, and unchanged labels are drawn straight from the buffer.  Nothing is
+ * allocated per frame.
+ * <p>
+ * Positions are in pixels of the viewport, with (0,0) at the top left.  All methods must be
+ * called on the thread that owns the EGL context.
+ */
+public class TextOverlayFrameRect {
+    private static final int SIZEOF_FLOAT = 4;
+    private static final int COORDS_PER_VERTEX = 2;
+    private static final int VERTEX_STRIDE = COORDS_PER_VERTEX * SIZEOF_FLOAT;
+    // A quad is 4 strip vertices; consecutive quads are joined by 2 degenerate vertices.
+    private static final int VERTICES_PER_GLYPH = 6;
+    private static final int FLOATS_PER_GLYPH = VERTICES_PER_GLYPH * COORDS_PER_VERTEX;
+
+    private final Texture2dProgram mProgram;
+    private final float[] mMvpMatrix = new float[16];
+    private final FloatBuffer mVertexArray;
+    private final FloatBuffer mTexCoordArray;
+    private final int mMaxGlyphs;
+    private int mUsedGlyphs;
+
+    private final HashMap<String, GlyphAtlas> mAtlases = new HashMap<>();
+    private Label[] mLabels = new Label[4];
+    private int mLabelCount;
+
+    // Scratch space for laying out one label before it is copied into the buffers.
+    private float[] mPosScratch = new float[0];
+    private float[] mTexScratch = new float[0];
+
+    private static class Label {
+        GlyphAtlas atlas;
+        float x;
+        float baseline;
+        int firstGlyph;
+        int capacity;
+        char[] text;
+        int length;
+        int vertexCount;
+        boolean dirty;
+    }
+
+    /**
+     * Prepares the overlay.  The EGL context must be current.
+     *
+     * @param program The program to use.  TextOverlayFrameRect takes ownership, and will
+     *     release the program when no longer needed.
+     * @param viewportWidth Width of the surface the text is drawn on.
+     * @param viewportHeight Height of the surface the text is drawn on.
+     * @param maxGlyphs Total number of characters all labels may hold.
+     */
+    public TextOverlayFrameRect(Texture2dProgram program, int viewportWidth, int viewportHeight,
+                                int maxGlyphs) {
+        mProgram = program;
+        mMaxGlyphs = maxGlyphs;
+        mVertexArray = allocateFloatBuffer(maxGlyphs * FLOATS_PER_GLYPH);
+        mTexCoordArray = allocateFloatBuffer(maxGlyphs * FLOATS_PER_GLYPH);
+        Matrix.orthoM(mMvpMatrix, 0, 0, viewportWidth, viewportHeight, 0, -1, 1);
+    }
+
+    /**
+     * Releases resources.
+     * <p>
+     * See {@link MainFrameRect#release(boolean)} for the meaning of doEglCleanup.
+     */
+    public void release(boolean doEglCleanup) {
+        if (doEglCleanup) {
+            for (GlyphAtlas atlas : mAtlases.values()) {
+                atlas.release();
+            }
+            mProgram.release();
+        }
+        mAtlases.clear();
+        mLabelCount = 0;
+    }
+
+    /**
+     * Reserves room for a line of text.
+     *
+     * @param typeface Typeface, or null for the default one.
+     * @param textSize Text size in pixels.  Labels with the same typeface and size share an atlas.
+     * @param x Left edge of the text.
+     * @param baseline Baseline of the text.
+     * @param maxChars Longest text the label will show; longer text is truncated.
+     * @return The label handle, to pass to {@link #setText}.
+     */
+    public int addLabel(Typeface typeface, float textSize, float x, float baseline, int maxChars) {
+        if (mUsedGlyphs + maxChars > mMaxGlyphs) {
+            throw new IllegalArgumentException("Out of glyph space: " + mUsedGlyphs + "+"
+                    + maxChars + " > " + mMaxGlyphs);
+        }
+
+        String key = String.valueOf(typeface) + "@" + textSize;
+        GlyphAtlas atlas = mAtlases.get(key);
+        if (atlas == null) {
+            atlas = new GlyphAtlas(typeface, textSize);
+            mAtlases.put(key, atlas);
+        }
+
+        Label label = new Label();
+        label.atlas = atlas;
+        label.x = x;
+        label.baseline = baseline;
+        label.firstGlyph = mUsedGlyphs;
+        label.capacity = maxChars;
+        label.text = new char[maxChars];
+        mUsedGlyphs += maxChars;
+
+        if (mPosScratch.length < maxChars * FLOATS_PER_GLYPH) {
+            mPosScratch = new float[maxChars * FLOATS_PER_GLYPH];
+            mTexScratch = new float[maxChars * FLOATS_PER_GLYPH];
+        }
+
+        if (mLabelCount == mLabels.length) {
+            Label[] labels = new Label[mLabels.length * 2];
+            System.arraycopy(mLabels, 0, labels, 0, mLabelCount);
+            mLabels = labels;
+        }
+        mLabels[mLabelCount] = label;
+        return mLabelCount++;
+    }
+
+    /**
+     * Returns the height of one line of text for the given size, useful to stack labels.
+     */
+    public int getLineHeight(Typeface typeface, float textSize) {
+        GlyphAtlas atlas = mAtlases.get(String.valueOf(typeface) + "@" + textSize);
+        return atlas != null ? atlas.getCellHeight() : (int) Math.ceil(textSize * 1.2f);
+    }
+
+    /**
+     * Updates a label.  Does nothing if the text did not change.
+     *
+     * @param text The text, or null to hide the label.
+     */
+    public void setText(int labelId, CharSequence text) {
+        Label label = mLabels[labelId];
+        int length = text == null ? 0 : Math.min(text.length(), label.capacity);
+        boolean changed = length != label.length;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (label.text[i] != c) {
+                label.text[i] = c;
+                changed = true;
+            }
+        }
+        if (changed) {
+            label.length = length;
+            label.dirty = true;
+        }
+    }
+
+    /**
+     * Updates a label from a character array.  Does nothing if the text did not change.
+     */
+    public void setText(int labelId, char[] text, int length) {
+        Label label = mLabels[labelId];
+        length = Math.min(length, label.capacity);
+        boolean changed = length != label.length;
+        for (int i = 0; i < length; i++) {
+            if (label.text[i] != text[i]) {
+                label.text[i] = text[i];
+                changed = true;
+            }
+        }
+        if (changed) {
+            label.length = length;
+            label.dirty = true;
+        }
+    }
+
+    /**
+     * Draws every non-empty label, re-laying out only the ones whose text changed.
+     */
+    public void drawFrame() {
+        for (int i = 0; i < mLabelCount; i++) {
+            Label label = mLabels[i];
+            if (label.dirty) {
+                layout(label);
+            }
+            if (label.vertexCount == 0) {
+                continue;
+            }
+            mProgram.draw(mMvpMatrix, mVertexArray, label.firstGlyph * VERTICES_PER_GLYPH,
+                    label.vertexCount, COORDS_PER_VERTEX, VERTEX_STRIDE,
+                    GlUtil.IDENTITY_MATRIX, mTexCoordArray, label.atlas.getTextureId(),
+                    VERTEX_STRIDE);
+        }
+    }
+
+    private void layout(Label label) {
+        float[] pos = mPosScratch;
+        float[] tex = mTexScratch;
+        float penX = label.x;
+        int offset = 0;
+        for (int i = 0; i < label.length; i++) {
+            int quad = offset;
+            if (i > 0) {
+                // Leave room for the degenerate vertices joining this quad to the previous one.
+                quad += 2 * COORDS_PER_VERTEX;
+            }
+            penX += label.atlas.writeQuad(GlyphAtlas.glyphIndex(label.text[i]),
+                    Math.round(penX), label.baseline, pos, tex, quad);
+            if (i > 0) {
+                // Repeat the last vertex of the previous quad and the first of this one.
+                copyVertex(pos, tex, offset - COORDS_PER_VERTEX, offset);
+                copyVertex(pos, tex, quad, offset + COORDS_PER_VERTEX);
+            }
+            offset = quad + 4 * COORDS_PER_VERTEX;
+        }
+
+        int start = label.firstGlyph * FLOATS_PER_GLYPH;
+        mVertexArray.position(start);
+        mVertexArray.put(pos, 0, offset);
+        mVertexArray.position(0);
+        mTexCoordArray.position(start);
+        mTexCoordArray.put(tex, 0, offset);
+        mTexCoordArray.position(0);
+
+        label.vertexCount = offset / COORDS_PER_VERTEX;
+        label.dirty = false;
+    }
+
+    private static void copyVertex(float[] pos, float[] tex, int from, int to) {
+        pos[to] = pos[from];
+        pos[to + 1] = pos[from + 1];
+        tex[to] = tex[from];
+        tex[to + 1] = tex[from + 1];
+    }
+
+    private static FloatBuffer allocateFloatBuffer(int count) {
+        ByteBuffer bb = ByteBuffer.allocateDirect(count * SIZEOF_FLOAT);
+        bb.order(ByteOrder.nativeOrder());
+        return bb.asFloatBuffer();
+    }
+}
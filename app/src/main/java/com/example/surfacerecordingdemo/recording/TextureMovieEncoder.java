@@ -3,13 +3,22 @@ package com.example.surfacerecordingdemo.recording;
 import android.graphics.RectF;
 
 import java.nio.ByteBuffer;
+import java.util.List;
+
+import kotlinx.coroutines.flow.StateFlow;
 
 public interface TextureMovieEncoder {
     public void updateCropRect(RectF rect);
+    public void animateCropRect(RectF rect, long durationMillis);
+    public void setOverlayText(String text);
+    public void setPrivacyMasks(List<RectF> rects);
     public void setEncoderCallback(EncoderCallback encoderCallback);
     public void setRecordCallback(RecordCallback recordCallback);
     public void startRecording(EncoderConfig config);
     public void audioFrameAvailable(ByteBuffer buffer, int size, boolean endOfStream);
+    public void pauseRecording();
+    public void resumeRecording();
     public void stopRecording();
     public boolean isRecording();
+    public StateFlow<RecordingStats> getRecordingStats();
 }
@@ -0,0 +1,66 @@
+package com.example.surfacerecordingdemo.recording;
+
+import java.util.Calendar;
+
+/**
+ * Formats wall-clock time as "yyyy-MM-dd HH:mm:ss" into a reusable character array.
+ * <p>
+ * Meant to be called once per frame: the text is only rebuilt when the second changes, and
+ * nothing is allocated after construction.  Not thread-safe.
+ */
+public class TimestampFormatter {
+    public static final int LENGTH = 19;
+
+    private final Calendar mCalendar = Calendar.getInstance();
+    private final char[] mChars = new char[LENGTH];
+    private long mLastSecond = Long.MIN_VALUE;
+
+    /**
+     * Updates the text for the given time.
+     *
+     * @return true if the text changed.
+     */
+    public boolean update(long wallClockMillis) {
+        long second = wallClockMillis / 1000L;
+        if (second == mLastSecond) {
+            return false;
+        }
+        mLastSecond = second;
+        mCalendar.setTimeInMillis(wallClockMillis);
+
+        put(0, mCalendar.get(Calendar.YEAR), 4);
+        mChars[4] = '-';
+        put(5, mCalendar.get(Calendar.MONTH) + 1, 2);
+        mChars[7] = '-';
+        put(8, mCalendar.get(Calendar.DAY_OF_MONTH), 2);
+        mChars[10] = ' ';
+        put(11, mCalendar.get(Calendar.HOUR_OF_DAY), 2);
+        mChars[13] = ':';
+        put(14, mCalendar.get(Calendar.MINUTE), 2);
+        mChars[16] = ':';
+        put(17, mCalendar.get(Calendar.SECOND), 2);
+        return true;
+    }
+
+    /**
+     * Forgets the last formatted time, so the next {@link #update(long)} reports a change.
+     */
+    public void reset() {
+        mLastSecond = Long.MIN_VALUE;
+    }
+
+    /**
+     * Returns the formatted text.  To avoid allocations this is internal state; the caller
+     * must not modify it.
+     */
+    public char[] getChars() {
+        return mChars;
+    }
+
+    private void put(int offset, int value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            mChars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
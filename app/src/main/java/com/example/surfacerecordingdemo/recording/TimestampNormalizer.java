@@ -0,0 +1,55 @@
+package com.example.surfacerecordingdemo.recording;
+
+/**
+ * Gives one muxer track's samples presentation times the muxer accepts.
+ * <p>
+ * Samples are restamped with the current time unless the producer's times are kept (e.g.
+ * a surface whose frames were stamped with eglPresentationTimeANDROID), and in either case
+ * never go backwards or repeat: MediaMuxer rejects a track whose times decrease.
+ * <p>
+ * The clock is injected so tests can step time.  One per track, used from that track's drain
+ * thread.
+ */
+public class TimestampNormalizer {
+    /**
+     * Monotonic time source.
+     */
+    public interface Clock {
+        long nanoTime();
+    }
+
+    public static final Clock SYSTEM_CLOCK = System::nanoTime;
+
+    private final Clock mClock;
+    private final boolean mKeepTimes;
+    private long mLastUs = Long.MIN_VALUE;
+
+    /**
+     * @param keepTimes True to keep the times samples arrive with, false to restamp them.
+     */
+    public TimestampNormalizer(Clock clock, boolean keepTimes) {
+        mClock = clock;
+        mKeepTimes = keepTimes;
+    }
+
+    /**
+     * Returns the time to mux a sample at.
+     *
+     * @param presentationTimeUs The time it came out of the encoder with.
+     */
+    public long normalize(long presentationTimeUs) {
+        long timeUs = mKeepTimes ? presentationTimeUs : mClock.nanoTime() / 1000;
+        if (timeUs <= mLastUs) {
+            timeUs = mLastUs + 1;
+        }
+        mLastUs = timeUs;
+        return timeUs;
+    }
+
+    /**
+     * Forgets the last time, e.g. for a new track.
+     */
+    public void reset() {
+        mLastUs = Long.MIN_VALUE;
+    }
+}
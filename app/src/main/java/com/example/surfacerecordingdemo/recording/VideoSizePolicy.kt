@@ -0,0 +1,121 @@
+package com.example.surfacerecordingdemo.recording
+
+import android.content.Context
+import android.media.MediaCodecInfo
+import android.media.MediaFormat
+import android.os.Build
+import android.util.Log
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+
+/**
+ * Size, frame rate and bitrate to configure a video encoder with.
+ */
+data class VideoSpec(val width: Int, val height: Int, val frameRate: Int, val bitRate: Int)
+
+/**
+ * Picks the largest video size the device's encoder can sustain at a frame rate.
+ *
+ * Starting from the requested size, candidates shrink in steps that keep the aspect ratio and
+ * respect the encoder's width / height alignment, until one is both supported
+ * ([MediaCodecInfo.VideoCapabilities.areSizeAndRateSupported]) and, where the device publishes
+ * measured performance, achievable at the requested rate
+ * ([MediaCodecInfo.VideoCapabilities.getAchievableFrameRatesFor]).  Bitrate and frame rate are
+ * clamped to the encoder's ranges.
+ *
+ * Results are cached in SharedPreferences, keyed by [Build.FINGERPRINT] so they are worked out
+ * again after a system update.
+ */
+class VideoSizePolicy(context: Context, private val mimeType: String = MediaFormat.MIMETYPE_VIDEO_AVC) {
+    private val prefs = context.applicationContext
+        .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+
+    fun select(width: Int, height: Int, frameRate: Int, bitRate: Int): VideoSpec {
+        val key = "${Build.FINGERPRINT}/$mimeType/${width}x$height@$frameRate/$bitRate"
+        prefs.getString(key, null)?.let { cached ->
+            parse(cached)?.let { return it }
+        }
+
+        val spec = compute(width, height, frameRate, bitRate)
+        Log.d(TAG, "Selected $spec for ${width}x$height@$frameRate")
+        prefs.edit().putString(key, format(spec)).apply()
+        return spec
+    }
+
+    private fun compute(width: Int, height: Int, frameRate: Int, bitRate: Int): VideoSpec {
+        val caps = CodecUtils.selectCodec(mimeType)
+            ?.getCapabilitiesForType(mimeType)
+            ?.videoCapabilities
+            ?: return VideoSpec(evenDown(width), evenDown(height), frameRate, bitRate)
+
+        val rate = caps.supportedFrameRates.clamp(frameRate)
+        val widthAlignment = caps.widthAlignment
+        val heightAlignment = caps.heightAlignment
+        val fitScale = min(1.0, min(
+            caps.supportedWidths.upper / width.toDouble(),
+            caps.supportedHeights.upper / height.toDouble()))
+
+        var fallback: VideoSpec? = null
+        var scale = fitScale
+        while (true) {
+            val w = alignDown((width * scale).roundToInt(), widthAlignment)
+            val h = alignDown((height * scale).roundToInt(), heightAlignment)
+            if (w < MIN_EDGE || h < MIN_EDGE) {
+                break
+            }
+            if (caps.isSizeSupported(w, h)) {
+                val spec = VideoSpec(w, h, rate, caps.bitrateRange.clamp(bitRate))
+                if (caps.areSizeAndRateSupported(w, h, rate.toDouble()) && isAchievable(caps, w, h, rate)) {
+                    return spec
+                }
+                if (fallback == null) {
+                    fallback = spec
+                }
+            }
+            scale *= STEP
+        }
+
+        // Nothing sustains the rate; take the largest size the encoder accepts at all.
+        return fallback ?: VideoSpec(evenDown(width), evenDown(height), rate, bitRate)
+    }
+
+    /**
+     * Performance points are only published for some sizes; no data counts as achievable,
+     * leaving the decision to areSizeAndRateSupported.
+     */
+    private fun isAchievable(caps: MediaCodecInfo.VideoCapabilities, width: Int, height: Int, rate: Int): Boolean {
+        val achievable = try {
+            caps.getAchievableFrameRatesFor(width, height)
+        } catch (e: IllegalArgumentException) {
+            null
+        } ?: return true
+        return achievable.upper >= rate
+    }
+
+    private fun alignDown(value: Int, alignment: Int): Int {
+        val a = max(2, alignment)
+        return value / a * a
+    }
+
+    private fun evenDown(value: Int): Int = value and 1.inv()
+
+    private fun format(spec: VideoSpec): String =
+        "${spec.width},${spec.height},${spec.frameRate},${spec.bitRate}"
+
+    private fun parse(value: String): VideoSpec? {
+        val parts = value.split(',').mapNotNull { it.toIntOrNull() }
+        return if (parts.size == 4) VideoSpec(parts[0], parts[1], parts[2], parts[3]) else null
+    }
+
+    companion object {
+        private const val TAG = "VideoSizePolicy"
+        private const val PREFS_NAME = "video_size_policy"
+
+        /** Each candidate is this fraction of the previous one along each edge. */
+        private const val STEP = 0.9
+
+        /** Smallest edge worth recording. */
+        private const val MIN_EDGE = 144
+    }
+}
@@ -212,104 +212,15 @@ public class GlUtil {
                                                 @NonNull PointF size,
                                                 @NonNull PointF position,
                                                 float rotation) {
-        // Let's use features of VP matrix to extract frame aspect ratio and orientation from it
-        // for 90 and 270 degree rotations (portrait orientation) top left element will be zero
-        boolean isPortraitVideo = vpMatrix[0] == 0;
-
-        // orthogonal projection matrix is basically a scaling matrix, which scales along X axis.
-        // 0 and 180 degree rotations keep the scaling factor in top left element (they don't move it)
-        // 90 and 270 degree rotations move it to one position right in top row
-        // Inverting scaling factor gives us the aspect ratio.
-        // Scale can be negative if video is flipped, so we use absolute value.
-        float videoAspectRatio;
-        if (isPortraitVideo) {
-            videoAspectRatio = 1 / Math.abs(vpMatrix[4]);
-        } else {
-            videoAspectRatio = 1 / Math.abs(vpMatrix[0]);
-        }
-
-        // Size is respective to video frame, and frame will later be scaled by perspective and view matrices.
-        // So we have to adjust the scale accordingly.
-        float scaleX;
-        float scaleY;
-        if (isPortraitVideo) {
-            scaleX = size.x;
-            scaleY = size.y * videoAspectRatio;
-        } else {
-            scaleX = size.x * videoAspectRatio;
-            scaleY = size.y;
-        }
-
-        // Position values are in relative (0, 1) range, which means they have to be mapped from (-1, 1) range
-        // and adjusted for aspect ratio.
-        float translateX;
-        float translateY;
-        if (isPortraitVideo) {
-            translateX = position.x * 2 - 1;
-            translateY = (1 - position.y * 2) * videoAspectRatio;
-        } else {
-            translateX = (position.x * 2 - 1) * videoAspectRatio;
-            translateY = 1 - position.y * 2;
-        }
-
-        // Matrix operations in OpenGL are done in reverse. So here we scale (and flip vertically) first, then rotate
-        // around the center, and then translate into desired position.
-        float[] modelMatrix = new float[16];
-        Matrix.setIdentityM(modelMatrix, 0);
-        Matrix.translateM(modelMatrix, 0, translateX, translateY, 0);
-        Matrix.rotateM(modelMatrix, 0, rotation, 0, 0, 1);
-        Matrix.scaleM(modelMatrix, 0, scaleX, scaleY, 1);
-
-        // last, we multiply the model matrix by the view matrix to get final MVP matrix for an overlay
-        float[] mvpMatrix = new float[16];
-        Matrix.multiplyMM(mvpMatrix, 0, vpMatrix, 0, modelMatrix, 0);
-
-        return mvpMatrix;
+        return MvpMath.createFilterMvpMatrix(vpMatrix, size.x, size.y, position.x, position.y,
+                rotation);
     }
 
+    /**
+     * Returns the VP matrix for a video frame of the given rotation and aspect ratio, as taken
+     * by {@link #createFilterMvpMatrix}.
+     */
     public static float[] initMvpMatrix(int rotation, float videoAspectRatio) {
-        float[] projectionMatrix = new float[16];
-        Matrix.setIdentityM(projectionMatrix, 0);
-        Matrix.orthoM(projectionMatrix, 0, -videoAspectRatio, videoAspectRatio, -1, 1, -1, 1);
-
-        // rotate the camera to match video frame rotation
-        float[] viewMatrix = new float[16];
-        Matrix.setIdentityM(viewMatrix, 0);
-        float upX;
-        float upY;
-        switch (rotation) {
-            case 0:
-                upX = 0;
-                upY = 1;
-                break;
-            case 90:
-                upX = 1;
-                upY = 0;
-                break;
-            case 180:
-                upX = 0;
-                upY = -1;
-                break;
-            case 270:
-                upX = -1;
-                upY = 0;
-                break;
-            default:
-                // this should never happen, but if it does, use trig as a last resort
-                upX = (float) Math.sin(rotation / Math.PI);
-                upY = (float) Math.cos(rotation / Math.PI);
-                break;
-        }
-        Matrix.setLookAtM(viewMatrix, 0,
-                0, 0, 1,
-                0, 0, 0,
-                upX, upY, 0);
-
-        float[] mvpMatrix = new float[16];
-
-        Matrix.setIdentityM(mvpMatrix, 0);
-        Matrix.multiplyMM(mvpMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
-
-        return mvpMatrix;
+        return MvpMath.initMvpMatrix(rotation, videoAspectRatio);
     }
 }
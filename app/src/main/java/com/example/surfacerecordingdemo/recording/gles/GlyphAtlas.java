@@ -0,0 +1,198 @@
+package com.example.surfacerecordingdemo.recording.gles;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.util.Log;
+
+/**
+ * Texture holding pre-rasterized glyphs for one typeface and text size.
+ * <p>
+ * The printable ASCII range is drawn into a single bitmap once, with a dark outline so the
+ * text stays readable on any content, and uploaded to a GL texture.  Afterwards text is drawn
+ * by emitting one textured quad per character; nothing is rasterized per frame.
+ * <p>
+ * Must be created and released with the same EGL context current.
+ */
+public class GlyphAtlas {
+    private static final String TAG = GlUtil.TAG;
+
+    public static final char FIRST_CHAR = ' ';
+    public static final char LAST_CHAR = '~';
+    private static final char FALLBACK_CHAR = '?';
+    private static final int GLYPH_COUNT = LAST_CHAR - FIRST_CHAR + 1;
+
+    private static final int ATLAS_WIDTH = 512;
+
+    private int mTextureId;
+    private final float mTextSize;
+    private final int mPadding;
+    private final int mCellHeight;
+    private final float mAscent;    // negative, distance from baseline to the top of a cell
+
+    // Per-glyph metrics, indexed by (char - FIRST_CHAR).
+    private final float[] mAdvance = new float[GLYPH_COUNT];
+    private final int[] mCellWidth = new int[GLYPH_COUNT];
+    private final float[] mU0 = new float[GLYPH_COUNT];
+    private final float[] mV0 = new float[GLYPH_COUNT];
+    private final float[] mU1 = new float[GLYPH_COUNT];
+    private final float[] mV1 = new float[GLYPH_COUNT];
+
+    /**
+     * Rasterizes the glyphs and uploads them.  The EGL context must be current.
+     *
+     * @param typeface The typeface to use, or null for the default one.
+     * @param textSize Text size, in pixels of the target surface.
+     */
+    public GlyphAtlas(Typeface typeface, float textSize) {
+        mTextSize = textSize;
+
+        Paint fill = new Paint(Paint.ANTI_ALIAS_FLAG);
+        fill.setTypeface(typeface);
+        fill.setTextSize(textSize);
+        fill.setColor(Color.WHITE);
+
+        Paint outline = new Paint(fill);
+        outline.setStyle(Paint.Style.STROKE);
+        outline.setStrokeWidth(Math.max(1f, textSize / 12f));
+        outline.setColor(Color.BLACK);
+
+        Paint.FontMetrics fm = fill.getFontMetrics();
+        mPadding = (int) Math.ceil(outline.getStrokeWidth()) + 1;
+        mCellHeight = (int) Math.ceil(fm.bottom - fm.top) + 2 * mPadding;
+        mAscent = fm.top - mPadding;
+
+        // Lay the cells out in rows to find out how tall the atlas needs to be.
+        char[] ch = new char[1];
+        int[] cellX = new int[GLYPH_COUNT];
+        int[] cellY = new int[GLYPH_COUNT];
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < GLYPH_COUNT; i++) {
+            ch[0] = (char) (FIRST_CHAR + i);
+            mAdvance[i] = fill.measureText(ch, 0, 1);
+            mCellWidth[i] = (int) Math.ceil(mAdvance[i]) + 2 * mPadding;
+            if (x + mCellWidth[i] > ATLAS_WIDTH) {
+                x = 0;
+                y += mCellHeight;
+            }
+            cellX[i] = x;
+            cellY[i] = y;
+            x += mCellWidth[i];
+        }
+        int atlasHeight = nextPowerOfTwo(y + mCellHeight);
+
+        Bitmap bitmap = Bitmap.createBitmap(ATLAS_WIDTH, atlasHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        for (int i = 0; i < GLYPH_COUNT; i++) {
+            ch[0] = (char) (FIRST_CHAR + i);
+            float baseline = cellY[i] + mPadding - fm.top;
+            canvas.drawText(ch, 0, 1, cellX[i] + mPadding, baseline, outline);
+            canvas.drawText(ch, 0, 1, cellX[i] + mPadding, baseline, fill);
+
+            mU0[i] = cellX[i] / (float) ATLAS_WIDTH;
+            mV0[i] = cellY[i] / (float) atlasHeight;
+            mU1[i] = (cellX[i] + mCellWidth[i]) / (float) ATLAS_WIDTH;
+            mV1[i] = (cellY[i] + mCellHeight) / (float) atlasHeight;
+        }
+
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        GlUtil.checkGlError("glGenTextures");
+        mTextureId = textures[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+        GlUtil.checkGlError("texImage2D");
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        bitmap.recycle();
+
+        Log.d(TAG, "Created glyph atlas " + ATLAS_WIDTH + "x" + atlasHeight
+                + " for size " + textSize);
+    }
+
+    /**
+     * Deletes the texture.  The EGL context used to create the atlas must be current.
+     */
+    public void release() {
+        if (mTextureId != 0) {
+            GLES20.glDeleteTextures(1, new int[] {mTextureId}, 0);
+            mTextureId = 0;
+        }
+    }
+
+    public int getTextureId() {
+        return mTextureId;
+    }
+
+    public float getTextSize() {
+        return mTextSize;
+    }
+
+    /**
+     * Returns the height, in pixels, of the quad emitted for every glyph.
+     */
+    public int getCellHeight() {
+        return mCellHeight;
+    }
+
+    /**
+     * Maps a character to its glyph index.  Characters outside the atlas map to '?'.
+     */
+    public static int glyphIndex(char c) {
+        if (c < FIRST_CHAR || c > LAST_CHAR) {
+            c = FALLBACK_CHAR;
+        }
+        return c - FIRST_CHAR;
+    }
+
+    /**
+     * Writes the quad for one glyph as a 4-vertex triangle strip (bottom left, bottom right,
+     * top left, top right), in pixel coordinates with Y pointing down.
+     *
+     * @param glyph Glyph index, from {@link #glyphIndex(char)}.
+     * @param penX Horizontal pen position.
+     * @param baseline Baseline position.
+     * @param pos Destination for 8 position floats, starting at offset.
+     * @param tex Destination for 8 texture coordinate floats, starting at offset.
+     * @return The pen advance for this glyph.
+     */
+    public float writeQuad(int glyph, float penX, float baseline,
+                           float[] pos, float[] tex, int offset) {
+        float x0 = penX - mPadding;
+        float x1 = x0 + mCellWidth[glyph];
+        float y0 = baseline + mAscent;
+        float y1 = y0 + mCellHeight;
+
+        pos[offset] = x0;       pos[offset + 1] = y1;
+        pos[offset + 2] = x1;   pos[offset + 3] = y1;
+        pos[offset + 4] = x0;   pos[offset + 5] = y0;
+        pos[offset + 6] = x1;   pos[offset + 7] = y0;
+
+        tex[offset] = mU0[glyph];       tex[offset + 1] = mV1[glyph];
+        tex[offset + 2] = mU1[glyph];   tex[offset + 3] = mV1[glyph];
+        tex[offset + 4] = mU0[glyph];   tex[offset + 5] = mV0[glyph];
+        tex[offset + 6] = mU1[glyph];   tex[offset + 7] = mV0[glyph];
+
+        return mAdvance[glyph];
+    }
+
+    private static int nextPowerOfTwo(int value) {
+        int result = 1;
+        while (result < value) {
+            result <<= 1;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.surfacerecordingdemo.recording.gles;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+/**
+ * Measures how long the GPU spends on sections of a frame, with GL_EXT_disjoint_timer_query.
+ * <p>
+ * Each frame's sections get their own query objects from a ring several frames deep, and
+ * results are only read back once the GPU reports them available, so timing never waits for
+ * the GPU.  If the GPU falls further behind than the ring, the oldest frame's results are
+ * discarded rather than waited for; results from a frame during which the GPU reported a
+ * disjoint event (e.g. a frequency change) are discarded too.
+ * <p>
+ * Needs a GLES 3 context (see {@link EglCore#FLAG_TRY_GLES3}) exposing the extension; check
+ * {@link #isSupported(EglCore)} first.  Sections may not nest.  Must be created, used and
+ * released with the same EGL context current.
+ */
+public class GpuTimer {
+    private static final String TAG = GlUtil.TAG;
+
+    /** Query target from GL_EXT_disjoint_timer_query. */
+    public static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    /** Reads back whether a disjoint event happened since the last read. */
+    public static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    private static final String EXTENSION = "GL_EXT_disjoint_timer_query";
+
+    /**
+     * Receives section timings, on the GL thread, a few frames after they were recorded.
+     */
+    public interface Listener {
+        void onGpuTime(int section, long nanos);
+    }
+
+    private final int mSectionCount;
+    private final int mDepth;
+    private final Listener mListener;
+    private final int[] mQueries;
+    // Per ring slot and section: whether a query was issued and not yet read back.
+    private final boolean[] mIssued;
+    private final boolean[] mPending;
+    private final int[] mValue = new int[1];
+    private int mHead;      // oldest slot with results still to read
+    private int mCurrent;   // slot for the frame being recorded
+    private long mDiscardedFrames;
+
+    public static boolean isSupported(EglCore eglCore) {
+        if (eglCore.getGlVersion() < 3) {
+            return false;
+        }
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        return extensions != null && extensions.contains(EXTENSION);
+    }
+
+    /**
+     * @param sectionCount Number of sections timed per frame.
+     * @param depth        Frames in flight before results are discarded.
+     */
+    public GpuTimer(int sectionCount, int depth, Listener listener) {
+        mSectionCount = sectionCount;
+        mDepth = depth;
+        mListener = listener;
+        mQueries = new int[sectionCount * depth];
+        mIssued = new boolean[sectionCount * depth];
+        mPending = new boolean[depth];
+        GLES30.glGenQueries(mQueries.length, mQueries, 0);
+        GlUtil.checkGlError("glGenQueries");
+        // Reading the flag clears it, so start from a clean slate.
+        GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, mValue, 0);
+    }
+
+    /**
+     * Reports whatever results have come in, and readies a slot for the new frame.
+     */
+    public void beginFrame() {
+        collect();
+        if (mPending[mCurrent]) {
+            // The GPU is a whole ring behind; don't wait for it.
+            discard(mCurrent);
+            mDiscardedFrames++;
+            mHead = (mCurrent + 1) % mDepth;
+        }
+    }
+
+    public void begin(int section) {
+        int index = mCurrent * mSectionCount + section;
+        GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, mQueries[index]);
+        mIssued[index] = true;
+    }
+
+    public void end(int section) {
+        GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+    }
+
+    /**
+     * Marks the frame's queries as issued.  Results are reported from a later
+     * {@link #beginFrame()}.
+     */
+    public void endFrame() {
+        mPending[mCurrent] = true;
+        mCurrent = (mCurrent + 1) % mDepth;
+    }
+
+    /**
+     * Returns the number of frames whose results were dropped because the GPU lagged more than
+     * the ring's depth.
+     */
+    public long getDiscardedFrames() {
+        return mDiscardedFrames;
+    }
+
+    /**
+     * Deletes the query objects.
+     *
+     * @param doEglCleanup Set if the EGL context is current and the queries should be deleted;
+     *     clear if the context has already gone away.
+     */
+    public void release(boolean doEglCleanup) {
+        if (doEglCleanup) {
+            GLES30.glDeleteQueries(mQueries.length, mQueries, 0);
+        }
+    }
+
+    private void collect() {
+        while (mPending[mHead]) {
+            int base = mHead * mSectionCount;
+            for (int section = 0; section < mSectionCount; section++) {
+                if (mIssued[base + section]) {
+                    GLES30.glGetQueryObjectuiv(mQueries[base + section],
+                            GLES30.GL_QUERY_RESULT_AVAILABLE, mValue, 0);
+                    if (mValue[0] == GLES20.GL_FALSE) {
+                        return;     // not ready yet; later frames won't be either
+                    }
+                }
+            }
+
+            GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, mValue, 0);
+            boolean disjoint = mValue[0] != 0;
+            for (int section = 0; section < mSectionCount && !disjoint; section++) {
+                if (mIssued[base + section]) {
+                    GLES30.glGetQueryObjectuiv(mQueries[base + section],
+                            GLES30.GL_QUERY_RESULT, mValue, 0);
+                    mListener.onGpuTime(section, mValue[0] & 0xffffffffL);
+                }
+            }
+            if (disjoint) {
+                Log.d(TAG, "GPU timer disjoint; dropping a frame of results");
+            }
+            discard(mHead);
+            mHead = (mHead + 1) % mDepth;
+        }
+    }
+
+    private void discard(int slot) {
+        mPending[slot] = false;
+        for (int section = 0; section < mSectionCount; section++) {
+            mIssued[slot * mSectionCount + section] = false;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.surfacerecordingdemo.recording.gles;
+
+/**
+ * The 4x4 matrix math behind overlay MVP matrices and the crop texture matrix, in plain Java.
+ * <p>
+ * Matrices are column-major float[16] arrays, as with android.opengl.Matrix, whose methods
+ * these match.  Working without the platform class means the math can be measured and tested
+ * off the device, and it avoids a JNI call per operation on older releases.  Results are
+ * written to caller-supplied arrays, so nothing here allocates apart from the temporary
+ * arrays of {@link #createFilterMvpMatrix} and {@link #initMvpMatrix}.
+ */
+public final class MvpMath {
+    private MvpMath() {}    // do not instantiate
+
+    public static void setIdentity(float[] m) {
+        for (int i = 0; i < 16; i++) {
+            m[i] = i % 5 == 0 ? 1f : 0f;
+        }
+    }
+
+    /**
+     * result = lhs * rhs.  result must not be either input.
+     */
+    public static void multiply(float[] result, float[] lhs, float[] rhs) {
+        for (int col = 0; col < 4; col++) {
+            float r0 = rhs[col * 4];
+            float r1 = rhs[col * 4 + 1];
+            float r2 = rhs[col * 4 + 2];
+            float r3 = rhs[col * 4 + 3];
+            for (int row = 0; row < 4; row++) {
+                result[col * 4 + row] = lhs[row] * r0 + lhs[4 + row] * r1
+                        + lhs[8 + row] * r2 + lhs[12 + row] * r3;
+            }
+        }
+    }
+
+    /**
+     * Post-multiplies m by a translation, in place.
+     */
+    public static void translate(float[] m, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            m[12 + i] += m[i] * x + m[4 + i] * y + m[8 + i] * z;
+        }
+    }
+
+    /**
+     * Post-multiplies m by a scale, in place.
+     */
+    public static void scale(float[] m, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            m[i] *= x;
+            m[4 + i] *= y;
+            m[8 + i] *= z;
+        }
+    }
+
+    /**
+     * Post-multiplies m by a counter-clockwise rotation about the Z axis, in place.
+     */
+    public static void rotateZ(float[] m, float degrees) {
+        double radians = Math.toRadians(degrees);
+        float c = (float) Math.cos(radians);
+        float s = (float) Math.sin(radians);
+        for (int i = 0; i < 4; i++) {
+            float x = m[i];
+            float y = m[4 + i];
+            m[i] = x * c + y * s;
+            m[4 + i] = y * c - x * s;
+        }
+    }
+
+    /**
+     * Sets m to an orthographic projection.
+     */
+    public static void ortho(float[] m, float left, float right, float bottom, float top,
+            float near, float far) {
+        setIdentity(m);
+        m[0] = 2f / (right - left);
+        m[5] = 2f / (top - bottom);
+        m[10] = -2f / (far - near);
+        m[12] = -(right + left) / (right - left);
+        m[13] = -(top + bottom) / (top - bottom);
+        m[14] = -(far + near) / (far - near);
+    }
+
+    /**
+     * Sets m to a view matrix looking from eye towards center, with the given up direction.
+     */
+    public static void lookAt(float[] m, float eyeX, float eyeY, float eyeZ,
+            float centerX, float centerY, float centerZ, float upX, float upY, float upZ) {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        float rlf = 1f / length(fx, fy, fz);
+        fx *= rlf;
+        fy *= rlf;
+        fz *= rlf;
+
+        // s = f x up
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        float rls = 1f / length(sx, sy, sz);
+        sx *= rls;
+        sy *= rls;
+        sz *= rls;
+
+        // u = s x f
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+
+        m[0] = sx;
+        m[1] = ux;
+        m[2] = -fx;
+        m[3] = 0f;
+        m[4] = sy;
+        m[5] = uy;
+        m[6] = -fy;
+        m[7] = 0f;
+        m[8] = sz;
+        m[9] = uz;
+        m[10] = -fz;
+        m[11] = 0f;
+        m[12] = 0f;
+        m[13] = 0f;
+        m[14] = 0f;
+        m[15] = 1f;
+        translate(m, -eyeX, -eyeY, -eyeZ);
+    }
+
+    /**
+     * @see GlUtil#createFilterMvpMatrix
+     */
+    public static float[] createFilterMvpMatrix(float[] vpMatrix, float sizeX, float sizeY,
+            float positionX, float positionY, float rotation) {
+        // Let's use features of VP matrix to extract frame aspect ratio and orientation from it
+        // for 90 and 270 degree rotations (portrait orientation) top left element will be zero
+        boolean isPortraitVideo = vpMatrix[0] == 0;
+
+        // orthogonal projection matrix is basically a scaling matrix, which scales along X axis.
+        // 0 and 180 degree rotations keep the scaling factor in top left element (they don't move it)
+        // 90 and 270 degree rotations move it to one position right in top row
+        // Inverting scaling factor gives us the aspect ratio.
+        // Scale can be negative if video is flipped, so we use absolute value.
+        float videoAspectRatio;
+        if (isPortraitVideo) {
+            videoAspectRatio = 1 / Math.abs(vpMatrix[4]);
+        } else {
+            videoAspectRatio = 1 / Math.abs(vpMatrix[0]);
+        }
+
+        // Size is respective to video frame, and frame will later be scaled by perspective and view matrices.
+        // So we have to adjust the scale accordingly.
+        float scaleX;
+        float scaleY;
+        if (isPortraitVideo) {
+            scaleX = sizeX;
+            scaleY = sizeY * videoAspectRatio;
+        } else {
+            scaleX = sizeX * videoAspectRatio;
+            scaleY = sizeY;
+        }
+
+        // Position values are in relative (0, 1) range, which means they have to be mapped from (-1, 1) range
+        // and adjusted for aspect ratio.
+        float translateX;
+        float translateY;
+        if (isPortraitVideo) {
+            translateX = positionX * 2 - 1;
+            translateY = (1 - positionY * 2) * videoAspectRatio;
+        } else {
+            translateX = (positionX * 2 - 1) * videoAspectRatio;
+            translateY = 1 - positionY * 2;
+        }
+
+        // Matrix operations in OpenGL are done in reverse. So here we scale (and flip vertically) first, then rotate
+        // around the center, and then translate into desired position.
+        float[] modelMatrix = new float[16];
+        setIdentity(modelMatrix);
+        translate(modelMatrix, translateX, translateY, 0);
+        rotateZ(modelMatrix, rotation);
+        scale(modelMatrix, scaleX, scaleY, 1);
+
+        // last, we multiply the model matrix by the view matrix to get final MVP matrix for an overlay
+        float[] mvpMatrix = new float[16];
+        multiply(mvpMatrix, vpMatrix, modelMatrix);
+        return mvpMatrix;
+    }
+
+    /**
+     * @see GlUtil#initMvpMatrix
+     */
+    public static float[] initMvpMatrix(int rotation, float videoAspectRatio) {
+        float[] projectionMatrix = new float[16];
+        ortho(projectionMatrix, -videoAspectRatio, videoAspectRatio, -1, 1, -1, 1);
+
+        // rotate the camera to match video frame rotation
+        float upX;
+        float upY;
+        switch (rotation) {
+            case 0:
+                upX = 0;
+                upY = 1;
+                break;
+            case 90:
+                upX = 1;
+                upY = 0;
+                break;
+            case 180:
+                upX = 0;
+                upY = -1;
+                break;
+            case 270:
+                upX = -1;
+                upY = 0;
+                break;
+            default:
+                // this should never happen, but if it does, use trig as a last resort
+                upX = (float) Math.sin(rotation / Math.PI);
+                upY = (float) Math.cos(rotation / Math.PI);
+                break;
+        }
+        float[] viewMatrix = new float[16];
+        lookAt(viewMatrix, 0, 0, 1, 0, 0, 0, upX, upY, 0);
+
+        float[] mvpMatrix = new float[16];
+        multiply(mvpMatrix, projectionMatrix, viewMatrix);
+        return mvpMatrix;
+    }
+
+    private static float length(float x, float y, float z) {
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+}
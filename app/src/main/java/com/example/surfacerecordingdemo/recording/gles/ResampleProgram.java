@@ -0,0 +1,209 @@
+package com.example.surfacerecordingdemo.recording.gles;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.nio.FloatBuffer;
+
+/**
+ * GL program that resamples a texture along one axis with a Lanczos-2 filter.
+ * <p>
+ * Plain bilinear sampling only looks at the 2x2 texels nearest to each output pixel, so once
+ * the output is noticeably smaller than the source, text and thin lines alias and shimmer.
+ * This program widens the kernel by the inverse of the scale factor so every source texel
+ * contributes.  Running it once horizontally and once vertically (through an intermediate
+ * framebuffer) gives a separable 2D filter at a cost of 2 * taps samples per pixel instead
+ * of taps squared.
+ * <p>
+ * The number of taps is baked into the shader, so a program is built for one scale factor.
+ */
+public class ResampleProgram {
+    private static final String TAG = GlUtil.TAG;
+
+    /** Lobes of the windowed sinc; 2 keeps ringing low on sharp UI edges. */
+    private static final int LOBES = 2;
+    /** Cap on taps per side, to bound the cost of extreme reductions. */
+    private static final int MAX_RADIUS = 8;
+
+    // Same as the Texture2dProgram vertex shader.
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;\n" +
+            "uniform mat4 uTexMatrix;\n" +
+            "attribute vec4 aPosition;\n" +
+            "attribute vec4 aTextureCoord;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "void main() {\n" +
+            "    gl_Position = uMVPMatrix * aPosition;\n" +
+            "    vTextureCoord = (uTexMatrix * aTextureCoord).xy;\n" +
+            "}\n";
+
+    // uAxis selects the filter direction in texture space.  uSrcSize is the source size, in
+    // texels, along that axis, and uScale is output size / source size (at most 1).  Taps are
+    // placed on source texel centers so the filter phase is exact.  uMaxCoord is where valid
+    // texels end along the axis; taps past either end repeat the edge texel instead of
+    // reading whatever the texture holds there.
+    private static final String FRAGMENT_SHADER_BODY =
+            "varying vec2 vTextureCoord;\n" +
+            "uniform vec2 uAxis;\n" +
+            "uniform float uSrcSize;\n" +
+            "uniform float uScale;\n" +
+            "uniform float uMaxCoord;\n" +
+            "const float PI = 3.14159265;\n" +
+            "float lanczos(float x) {\n" +
+            "    x = abs(x);\n" +
+            "    if (x < 0.0001) return 1.0;\n" +
+            "    if (x >= float(LOBES)) return 0.0;\n" +
+            "    float px = PI * x;\n" +
+            "    return float(LOBES) * sin(px) * sin(px / float(LOBES)) / (px * px);\n" +
+            "}\n" +
+            "void main() {\n" +
+            "    float pos = dot(vTextureCoord, uAxis) * uSrcSize;\n" +
+            "    float first = floor(pos - 0.5) + 0.5;\n" +
+            "    vec4 sum = vec4(0.0);\n" +
+            "    float weights = 0.0;\n" +
+            "    float halfTexel = 0.5 / uSrcSize;\n" +
+            "    vec2 across = vTextureCoord - uAxis * dot(vTextureCoord, uAxis);\n" +
+            "    for (int i = 1 - RADIUS; i <= RADIUS; i++) {\n" +
+            "        float delta = first + float(i) - pos;\n" +
+            "        float w = lanczos(delta * uScale);\n" +
+            "        float along = clamp((pos + delta) / uSrcSize, halfTexel, uMaxCoord - halfTexel);\n" +
+            "        sum += texture2D(sTexture, across + uAxis * along) * w;\n" +
+            "        weights += w;\n" +
+            "    }\n" +
+            "    gl_FragColor = sum / weights;\n" +
+            "}\n";
+
+    private final int mRadius;
+    private final int mTextureTarget;
+    private int mProgramHandle;
+    private int muMVPMatrixLoc;
+    private int muTexMatrixLoc;
+    private int muAxisLoc;
+    private int muSrcSizeLoc;
+    private int muScaleLoc;
+    private int muMaxCoordLoc;
+    private int maPositionLoc;
+    private int maTextureCoordLoc;
+
+    /**
+     * Prepares the program in the current EGL context.
+     *
+     * @param externalTexture true to sample a GL_TEXTURE_EXTERNAL_OES (e.g. from SurfaceTexture),
+     *     false for a GL_TEXTURE_2D.
+     * @param scale Output size / source size along the filtered axis.
+     */
+    public ResampleProgram(boolean externalTexture, float scale) {
+        mRadius = radiusFor(scale);
+        String fragmentShader;
+        if (externalTexture) {
+            mTextureTarget = GLES11Ext.GL_TEXTURE_EXTERNAL_OES;
+            fragmentShader = "#extension GL_OES_EGL_image_external : require\n" +
+                    shaderDefines(mRadius) +
+                    "uniform samplerExternalOES sTexture;\n" +
+                    FRAGMENT_SHADER_BODY;
+        } else {
+            mTextureTarget = GLES20.GL_TEXTURE_2D;
+            fragmentShader = shaderDefines(mRadius) +
+                    "uniform sampler2D sTexture;\n" +
+                    FRAGMENT_SHADER_BODY;
+        }
+        mProgramHandle = GlUtil.createProgram(VERTEX_SHADER, fragmentShader);
+        if (mProgramHandle == 0) {
+            throw new RuntimeException("Unable to create program");
+        }
+        Log.d(TAG, "Created resample program " + mProgramHandle + " (radius " + mRadius + ")");
+
+        maPositionLoc = GLES20.glGetAttribLocation(mProgramHandle, "aPosition");
+        GlUtil.checkLocation(maPositionLoc, "aPosition");
+        maTextureCoordLoc = GLES20.glGetAttribLocation(mProgramHandle, "aTextureCoord");
+        GlUtil.checkLocation(maTextureCoordLoc, "aTextureCoord");
+        muMVPMatrixLoc = GLES20.glGetUniformLocation(mProgramHandle, "uMVPMatrix");
+        GlUtil.checkLocation(muMVPMatrixLoc, "uMVPMatrix");
+        muTexMatrixLoc = GLES20.glGetUniformLocation(mProgramHandle, "uTexMatrix");
+        GlUtil.checkLocation(muTexMatrixLoc, "uTexMatrix");
+        muAxisLoc = GLES20.glGetUniformLocation(mProgramHandle, "uAxis");
+        GlUtil.checkLocation(muAxisLoc, "uAxis");
+        muSrcSizeLoc = GLES20.glGetUniformLocation(mProgramHandle, "uSrcSize");
+        GlUtil.checkLocation(muSrcSizeLoc, "uSrcSize");
+        muScaleLoc = GLES20.glGetUniformLocation(mProgramHandle, "uScale");
+        GlUtil.checkLocation(muScaleLoc, "uScale");
+        muMaxCoordLoc = GLES20.glGetUniformLocation(mProgramHandle, "uMaxCoord");
+        GlUtil.checkLocation(muMaxCoordLoc, "uMaxCoord");
+    }
+
+    private static String shaderDefines(int radius) {
+        return "#define LOBES " + LOBES + "\n" +
+                "#define RADIUS " + radius + "\n" +
+                "precision highp float;\n";
+    }
+
+    /**
+     * Number of taps on each side of the output pixel needed for the given scale factor.
+     */
+    public static int radiusFor(float scale) {
+        if (scale <= 0f || scale > 1f) {
+            scale = 1f;
+        }
+        return Math.min(MAX_RADIUS, (int) Math.ceil(LOBES / scale));
+    }
+
+    /**
+     * Releases the program.  The EGL context used to create it must be current.
+     */
+    public void release() {
+        Log.d(TAG, "deleting program " + mProgramHandle);
+        GLES20.glDeleteProgram(mProgramHandle);
+        mProgramHandle = -1;
+    }
+
+    /**
+     * Issues the draw call for one filter pass.
+     *
+     * @param horizontal true to filter along the texture S axis, false for T.
+     * @param srcSize Source size in texels along the filtered axis.
+     * @param scale Output size / source size along the filtered axis.
+     * @param maxCoord Texture coordinate along the filtered axis where valid texels end, 1
+     *     for the whole texture.  Taps past it repeat the last valid texel.
+     * @see Texture2dProgram#draw for the remaining parameters.
+     */
+    public void draw(float[] mvpMatrix, FloatBuffer vertexBuffer, int firstVertex,
+                     int vertexCount, int coordsPerVertex, int vertexStride,
+                     float[] texMatrix, FloatBuffer texBuffer, int textureId, int texStride,
+                     boolean horizontal, int srcSize, float scale, float maxCoord) {
+        GlUtil.checkGlError("draw start");
+
+        GLES20.glUseProgram(mProgramHandle);
+        GlUtil.checkGlError("glUseProgram");
+
+        // The output is opaque; there is nothing underneath to blend with.
+        GLES20.glDisable(GLES20.GL_BLEND);
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(mTextureTarget, textureId);
+
+        GLES20.glUniformMatrix4fv(muMVPMatrixLoc, 1, false, mvpMatrix, 0);
+        GLES20.glUniformMatrix4fv(muTexMatrixLoc, 1, false, texMatrix, 0);
+        GLES20.glUniform2f(muAxisLoc, horizontal ? 1f : 0f, horizontal ? 0f : 1f);
+        GLES20.glUniform1f(muSrcSizeLoc, srcSize);
+        GLES20.glUniform1f(muScaleLoc, Math.min(1f, scale));
+        GLES20.glUniform1f(muMaxCoordLoc, maxCoord);
+        GlUtil.checkGlError("glUniform");
+
+        GLES20.glEnableVertexAttribArray(maPositionLoc);
+        GLES20.glVertexAttribPointer(maPositionLoc, coordsPerVertex,
+                GLES20.GL_FLOAT, false, vertexStride, vertexBuffer);
+        GLES20.glEnableVertexAttribArray(maTextureCoordLoc);
+        GLES20.glVertexAttribPointer(maTextureCoordLoc, 2,
+                GLES20.GL_FLOAT, false, texStride, texBuffer);
+        GlUtil.checkGlError("glVertexAttribPointer");
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, firstVertex, vertexCount);
+        GlUtil.checkGlError("glDrawArrays");
+
+        GLES20.glDisableVertexAttribArray(maPositionLoc);
+        GLES20.glDisableVertexAttribArray(maTextureCoordLoc);
+        GLES20.glBindTexture(mTextureTarget, 0);
+        GLES20.glUseProgram(0);
+    }
+}
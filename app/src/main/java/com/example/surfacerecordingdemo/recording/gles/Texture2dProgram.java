@@ -29,7 +29,7 @@ public class Texture2dProgram {
     private static final String TAG = GlUtil.TAG;
 
     public enum ProgramType {
-        TEXTURE_2D, TEXTURE_EXT, TEXTURE_EXT_BW, TEXTURE_EXT_FILT
+        TEXTURE_2D, TEXTURE_EXT, TEXTURE_EXT_BW, TEXTURE_EXT_FILT, TEXTURE_EXT_PIXELATE
     }
 
     // Simple vertex shader, used for all programs.
@@ -113,6 +113,19 @@ public class Texture2dProgram {
             "    gl_FragColor = sum;\n" +
             "}\n";
 
+    // Fragment shader that replaces each block of uPixelSize (in texture coordinates) with the
+    // color at its center.  One texture fetch per pixel, so it is as cheap as a plain copy.
+    private static final String FRAGMENT_SHADER_EXT_PIXELATE =
+            "#extension GL_OES_EGL_image_external : require\n" +
+            "precision highp float;\n" +
+            "varying vec2 vTextureCoord;\n" +
+            "uniform samplerExternalOES sTexture;\n" +
+            "uniform vec2 uPixelSize;\n" +
+            "void main() {\n" +
+            "    vec2 block = (floor(vTextureCoord / uPixelSize) + 0.5) * uPixelSize;\n" +
+            "    gl_FragColor = texture2D(sTexture, block);\n" +
+            "}\n";
+
     private ProgramType mProgramType;
 
     // Handles to the GL program and various components of it.
@@ -122,6 +135,7 @@ public class Texture2dProgram {
     private int muKernelLoc;
     private int muTexOffsetLoc;
     private int muColorAdjustLoc;
+    private int muPixelSizeLoc;
     private int maPositionLoc;
     private int maTextureCoordLoc;
 
@@ -130,6 +144,8 @@ public class Texture2dProgram {
     private float[] mKernel = new float[KERNEL_SIZE];
     private float[] mTexOffset;
     private float mColorAdjust;
+    private float mPixelWidth = 1f / 64;
+    private float mPixelHeight = 1f / 64;
 
 
     /**
@@ -155,6 +171,10 @@ public class Texture2dProgram {
                 mTextureTarget = GLES11Ext.GL_TEXTURE_EXTERNAL_OES;
                 mProgramHandle = GlUtil.createProgram(VERTEX_SHADER, FRAGMENT_SHADER_EXT_FILT);
                 break;
+            case TEXTURE_EXT_PIXELATE:
+                mTextureTarget = GLES11Ext.GL_TEXTURE_EXTERNAL_OES;
+                mProgramHandle = GlUtil.createProgram(VERTEX_SHADER, FRAGMENT_SHADER_EXT_PIXELATE);
+                break;
             default:
                 throw new RuntimeException("Unhandled type " + programType);
         }
@@ -190,6 +210,8 @@ public class Texture2dProgram {
             setKernel(new float[] {0f, 0f, 0f,  0f, 1f, 0f,  0f, 0f, 0f}, 0f);
             setTexSize(256, 256);
         }
+        // -1 when this is not the pixelate program.
+        muPixelSizeLoc = GLES20.glGetUniformLocation(mProgramHandle, "uPixelSize");
     }
 
     /**
@@ -269,6 +291,17 @@ public class Texture2dProgram {
         //Log.d(TAG, "filt size: " + width + "x" + height + ": " + Arrays.toString(mTexOffset));
     }
 
+    /**
+     * Sets the block size used by the pixelate program.
+     *
+     * @param width Block width, in texture coordinates.
+     * @param height Block height, in texture coordinates.
+     */
+    public void setPixelSize(float width, float height) {
+        mPixelWidth = width;
+        mPixelHeight = height;
+    }
+
     /**
      * Issues the draw call.  Does the full setup on every call.
      *
@@ -335,6 +368,11 @@ public class Texture2dProgram {
             GLES20.glUniform1f(muColorAdjustLoc, mColorAdjust);
         }
 
+        // Populate the block size, if present.
+        if (muPixelSizeLoc >= 0) {
+            GLES20.glUniform2f(muPixelSizeLoc, mPixelWidth, mPixelHeight);
+        }
+
         // Draw the rect.
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, firstVertex, vertexCount);
         GlUtil.checkGlError("glDrawArrays");
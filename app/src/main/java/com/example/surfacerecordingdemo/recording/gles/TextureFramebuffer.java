@@ -0,0 +1,122 @@
+package com.example.surfacerecordingdemo.recording.gles;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Off-screen render target: a framebuffer object with an RGBA texture as its color
+ * attachment, and optionally a 16-bit depth buffer.
+ * <p>
+ * Must be created, used and released with the same EGL context current.
+ */
+public class TextureFramebuffer {
+    private static final String TAG = GlUtil.TAG;
+
+    private int mFramebuffer;
+    private int mTextureId;
+    private int mDepthBuffer;
+    private final int mWidth;
+    private final int mHeight;
+
+    public TextureFramebuffer(int width, int height, boolean withDepth) {
+        mWidth = width;
+        mHeight = height;
+
+        int[] values = new int[1];
+        GLES20.glGenTextures(1, values, 0);
+        GlUtil.checkGlError("glGenTextures");
+        mTextureId = values[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GlUtil.checkGlError("glTexImage2D");
+
+        GLES20.glGenFramebuffers(1, values, 0);
+        GlUtil.checkGlError("glGenFramebuffers");
+        mFramebuffer = values[0];
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mTextureId, 0);
+
+        if (withDepth) {
+            GLES20.glGenRenderbuffers(1, values, 0);
+            mDepthBuffer = values[0];
+            GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, mDepthBuffer);
+            GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER, GLES20.GL_DEPTH_COMPONENT16,
+                    width, height);
+            GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT,
+                    GLES20.GL_RENDERBUFFER, mDepthBuffer);
+            GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, 0);
+        }
+
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            release();
+            throw new RuntimeException("Framebuffer not complete, status=0x"
+                    + Integer.toHexString(status));
+        }
+        Log.d(TAG, "Created framebuffer " + width + "x" + height);
+    }
+
+    /**
+     * Directs rendering into this framebuffer and sets the viewport to cover it.
+     */
+    public void bind() {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        GLES20.glViewport(0, 0, mWidth, mHeight);
+    }
+
+    /**
+     * Directs rendering back to the window surface.  The caller restores the viewport.
+     */
+    public static void unbind() {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * Deletes the GL objects.  The EGL context used to create them must be current.
+     */
+    public void release() {
+        int[] values = new int[1];
+        if (mFramebuffer != 0) {
+            values[0] = mFramebuffer;
+            GLES20.glDeleteFramebuffers(1, values, 0);
+            mFramebuffer = 0;
+        }
+        if (mDepthBuffer != 0) {
+            values[0] = mDepthBuffer;
+            GLES20.glDeleteRenderbuffers(1, values, 0);
+            mDepthBuffer = 0;
+        }
+        if (mTextureId != 0) {
+            values[0] = mTextureId;
+            GLES20.glDeleteTextures(1, values, 0);
+            mTextureId = 0;
+        }
+    }
+
+    /**
+     * Returns the color texture, a GL_TEXTURE_2D.
+     */
+    public int getTextureId() {
+        return mTextureId;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.surfacerecordingdemo.recording.hardware;
+
+import com.example.surfacerecordingdemo.recording.Benchmark;
+import com.example.surfacerecordingdemo.recording.FrameDispatcher;
+import com.example.surfacerecordingdemo.recording.FrameLoop;
+import com.example.surfacerecordingdemo.recording.FramePacer;
+import com.example.surfacerecordingdemo.recording.RecorderStateMachine;
+import com.example.surfacerecordingdemo.recording.Stage;
+import com.example.surfacerecordingdemo.recording.TimestampNormalizer;
+import com.example.surfacerecordingdemo.recording.metrics.FrameAccounting;
+import com.example.surfacerecordingdemo.recording.metrics.LatencyHistogram;
+import com.example.surfacerecordingdemo.recording.metrics.PipelineTrace;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The encoder thread's side of a {@link HWTextureMovieEncoder} recording: frames announced
+ * from the SurfaceTexture callback are latched through a {@link FrameLoop} and drawn into the
+ * encoder's input surface, presented at the latched buffer's time, and the recording is
+ * opened, drained and released as its {@link RecorderStateMachine} moves.
+ * <p>
+ * The SurfaceTexture, GL, the EGL surface over the video codec's input and the codecs are
+ * behind {@link Platform}, and time behind a {@link TimestampNormalizer.Clock}, so the same
+ * code runs off the device against fakes and simulated time.  One per recording; everything
+ * but {@link #frameAvailable} and {@link #audioFrameAvailable} runs on the state machine's
+ * scheduler thread.
+ *
+ * @param <C> Configuration handed to {@link Platform#open(Object)}.
+ */
+public class EncoderPipeline<C> implements RecorderStateMachine.Pipeline<C> {
+    // Gaps longer than this mean the screen was static, not that we were slow.
+    private static final long IDLE_FRAME_GAP_NANOS = 250000000L;
+
+    /**
+     * The GL and codec work of a recording.  Called on the scheduler thread unless noted.
+     */
+    public interface Platform<C> {
+        /**
+         * Creates the encoder, the EGL surface over its input and the SurfaceTexture frames
+         * arrive in.  {@link #release()} is called even if this throws.
+         *
+         * @return The SurfaceTexture.
+         */
+        FrameLoop.Texture open(C config) throws Exception;
+
+        /**
+         * Frames from here on are recorded.
+         */
+        void start();
+
+        /**
+         * Draws the latched frame into the EGL surface.
+         *
+         * @param transform Only valid for the duration of the call.
+         */
+        void drawFrame(long timestampNanos, float[] transform);
+
+        /**
+         * Stamps the frame drawn (eglPresentationTimeANDROID).
+         */
+        void setPresentationTime(long nsecs);
+
+        /**
+         * Hands the frame drawn to the encoder.
+         */
+        void swapBuffers();
+
+        /**
+         * Queues captured audio for the encoder.  (Audio capture thread.)
+         */
+        void enqueueAudio(ByteBuffer buffer, int size, boolean endOfStream);
+
+        /**
+         * Signals end of stream and blocks until the encoder has written everything it
+         * holds.
+         */
+        void drain() throws Exception;
+
+        /**
+         * Frees everything {@link #open} created, or as much of it as it got to.
+         */
+        void release();
+    }
+
+    private final RecorderStateMachine.Scheduler mScheduler;
+    private final Platform<C> mPlatform;
+    private final FrameAccounting mAccounting;
+    private final FramePacer mPacer;
+    private final TimestampNormalizer.Clock mClock;
+    private final Benchmark mBenchmark;
+    private final FrameDispatcher mDispatcher = new FrameDispatcher();
+    private final FrameLoop mFrameLoop;
+    private final FrameLoop.Renderer mRenderer = this::drawFrame;
+    private final Runnable mDrainFrames = this::drainFrames;
+    private volatile RecorderStateMachine<C> mStateMachine;
+
+    // ----- scheduler thread only -----
+    // Non-null from a successful open() until release().
+    private FrameLoop.Texture mTexture;
+    private final LatencyHistogram mFrameIntervals = new LatencyHistogram();
+    private long mLastDrawNanos;
+
+    /**
+     * @param scheduler  Runs tasks on the thread the state machine runs on.
+     * @param accounting Counts this recording's frames; reset beforehand.
+     * @param pacer      Decides which frames keep to the target frame rate.
+     */
+    public EncoderPipeline(RecorderStateMachine.Scheduler scheduler, Platform<C> platform,
+            FrameAccounting accounting, FramePacer pacer, TimestampNormalizer.Clock clock,
+            Benchmark benchmark) {
+        mScheduler = scheduler;
+        mPlatform = platform;
+        mAccounting = accounting;
+        mPacer = pacer;
+        mClock = clock;
+        mBenchmark = benchmark;
+        mFrameLoop = new FrameLoop(mDispatcher, accounting);
+    }
+
+    /**
+     * Sets the machine driving this pipeline, whose state decides what happens to frames.
+     * Call before starting it.
+     */
+    public void setStateMachine(RecorderStateMachine<C> stateMachine) {
+        mStateMachine = stateMachine;
+    }
+
+    /**
+     * A buffer was queued in the SurfaceTexture.  (SurfaceTexture callback thread.)
+     * <p>
+     * This runs at display rate, so it allocates nothing: the frame is announced through a
+     * preallocated {@link FrameDispatcher} slot, and a task is only posted when the scheduler
+     * thread isn't already due to run one.  If that thread falls behind, only the newest
+     * frame is rendered.
+     *
+     * @param timestamp When the frame was announced; only identifies the callback in traces.
+     *     Until the buffer is latched, the SurfaceTexture's timestamp is the previous one's.
+     */
+    public void frameAvailable(long timestamp) {
+        long frameId = PipelineTrace.frameId(timestamp);
+        PipelineTrace.begin(PipelineTrace.Stage.FRAME_CALLBACK, frameId);
+        mAccounting.onCaptured();
+        FrameDispatcher.Frame frame = mDispatcher.claim();
+        frame.timestampNanos = timestamp;
+        if (mDispatcher.publish()) {
+            mScheduler.execute(mDrainFrames);
+        }
+        PipelineTrace.end(PipelineTrace.Stage.FRAME_CALLBACK, frameId);
+    }
+
+    /**
+     * Queues captured audio while recording; drops it otherwise.  (Audio capture thread.)
+     */
+    public void audioFrameAvailable(ByteBuffer buffer, int size, boolean endOfStream) {
+        if (mStateMachine.getState() == RecorderStateMachine.State.RECORDING) {
+            mPlatform.enqueueAudio(buffer, size, endOfStream);
+        }
+    }
+
+    /**
+     * Returns the number of frames skipped because a newer one arrived before the scheduler
+     * thread got to them.  (Call from any thread.)
+     */
+    public long getCoalescedFrames() {
+        return mDispatcher.getCoalescedFrames();
+    }
+
+    /**
+     * Returns the 90th percentile interval between frames drawn since the last call, or 0 if
+     * no frames were lost on the way meanwhile: a slow source looks just like a slow pipeline
+     * by interval alone.
+     */
+    public long takeFrameInterval() {
+        long interval = mFrameLoop.takeLostFrames() > 0
+                ? mFrameIntervals.getValueAtPercentile(90) : 0;
+        mFrameIntervals.reset();
+        mLastDrawNanos = 0;
+        return interval;
+    }
+
+    @Override
+    public void prepare(C config) throws Exception {
+        mTexture = mPlatform.open(config);
+    }
+
+    @Override
+    public void start() {
+        mBenchmark.start();
+        takeFrameInterval();
+        mPlatform.start();
+    }
+
+    @Override
+    public void drain() throws Exception {
+        // Blocks this thread until the codecs have written everything they hold, so no more
+        // frames are drawn into the input surface after end of stream.
+        mPlatform.drain();
+    }
+
+    @Override
+    public void release() {
+        // Frames still on their way are discarded from here: the SurfaceTexture is released
+        // with the EGL context it's attached to.
+        mTexture = null;
+        mPlatform.release();
+        mBenchmark.stop();
+    }
+
+    /**
+     * Latches and renders the newest frame; see {@link FrameLoop}.  Frames can still arrive
+     * while draining and after release, when the EGL context the SurfaceTexture is attached
+     * to may be gone, so those are discarded without latching.
+     */
+    private void drainFrames() {
+        RecorderStateMachine.State state = mStateMachine.getState();
+        FrameLoop.Texture texture = mTexture;
+        if (texture == null || (state != RecorderStateMachine.State.PREPARING
+                && state != RecorderStateMachine.State.RECORDING
+                && state != RecorderStateMachine.State.PAUSED)) {
+            mFrameLoop.discard();
+            return;
+        }
+        boolean recording = state == RecorderStateMachine.State.RECORDING;
+        mFrameLoop.drain(texture, recording, mPacer, mRenderer);
+    }
+
+    /**
+     * Draws a latched frame and swaps it into the encoder, stamped with the time it was
+     * latched with.
+     */
+    private void drawFrame(long timestampNanos, float[] transform) {
+        // Timed through the platform waiting for the GPU, so this includes the GPU's work.
+        long frameStartNanos = mClock.nanoTime();
+        long frameId = PipelineTrace.frameId(timestampNanos);
+        PipelineTrace.begin(PipelineTrace.Stage.DRAW, frameId);
+        mPlatform.drawFrame(timestampNanos, transform);
+        PipelineTrace.end(PipelineTrace.Stage.DRAW, frameId);
+
+        PipelineTrace.begin(PipelineTrace.Stage.SWAP, frameId);
+        mPlatform.setPresentationTime(timestampNanos);
+        mPlatform.swapBuffers();
+        PipelineTrace.end(PipelineTrace.Stage.SWAP, frameId);
+        mAccounting.onDrawn(timestampNanos);
+
+        long frameEndNanos = mClock.nanoTime();
+        if (mLastDrawNanos != 0 && frameEndNanos - mLastDrawNanos < IDLE_FRAME_GAP_NANOS) {
+            mFrameIntervals.record(frameEndNanos - mLastDrawNanos);
+        }
+        mLastDrawNanos = frameEndNanos;
+        mBenchmark.stage(Stage.DRAW, frameEndNanos - frameStartNanos);
+        mBenchmark.tick();
+    }
+}
@@ -0,0 +1,496 @@
+package com.example.surfacerecordingdemo.recording.hardware;
+
+import androidx.annotation.Nullable;
+
+import com.example.surfacerecordingdemo.recording.AudioChunker;
+import com.example.surfacerecordingdemo.recording.Benchmark;
+import com.example.surfacerecordingdemo.recording.DataFrame;
+import com.example.surfacerecordingdemo.recording.Stage;
+import com.example.surfacerecordingdemo.recording.TimestampNormalizer;
+import com.example.surfacerecordingdemo.recording.metrics.FrameAccounting;
+import com.example.surfacerecordingdemo.recording.metrics.FrameStats;
+import com.example.surfacerecordingdemo.recording.metrics.PipelineTrace;
+import com.example.surfacerecordingdemo.recording.metrics.RecordingCounters;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The codec and muxer work behind {@link HWVideoEncoderCore}: encoded video and audio are
+ * written to the muxer as the codecs' callbacks hand them over, captured audio is copied into
+ * the audio codec's input buffers as they free up, and {@link #drain()} / {@link #release()}
+ * finish the file.
+ * <p>
+ * MediaCodec and MediaMuxer are behind {@link Codec} and {@link Muxer}, and time and the wait
+ * for end of stream behind a {@link TimestampNormalizer.Clock} and a {@link Waiter}, so the
+ * same code runs off the device against fakes and simulated time.
+ * <p>
+ * Video callbacks arrive on one thread and audio callbacks on another ("AudioHandler", which
+ * also runs {@link #feedAudioEncoder()}); muxer access from both and from {@link #release()} is
+ * serialized on a lock.
+ *
+ * @param <F> The codecs' output format, MediaFormat on the device.
+ */
+public class EncoderSession<F> {
+    /** MediaCodec.BUFFER_FLAG_CODEC_CONFIG. */
+    public static final int FLAG_CODEC_CONFIG = 2;
+    /** MediaCodec.BUFFER_FLAG_END_OF_STREAM. */
+    public static final int FLAG_END_OF_STREAM = 4;
+
+    private static final long DRAIN_TIMEOUT_MS = 3000;
+    // Each captured audio block is queued as this many chunks, to fit the encoder's buffers.
+    private static final int AUDIO_CHUNK_COUNT = 8;
+    private static final ByteBuffer NO_AUDIO = ByteBuffer.allocate(0);
+
+    /**
+     * The parts of MediaCodec a started encoder is driven through.
+     */
+    public interface Codec {
+        ByteBuffer getInputBuffer(int index);
+
+        void queueInputBuffer(int index, int offset, int size, long presentationTimeUs,
+                int flags);
+
+        ByteBuffer getOutputBuffer(int index);
+
+        void releaseOutputBuffer(int index);
+
+        void signalEndOfInputStream();
+
+        void stop();
+
+        void release();
+    }
+
+    /**
+     * The parts of MediaMuxer used once it's created.
+     */
+    public interface Muxer<F> {
+        int addTrack(F format);
+
+        void start();
+
+        void writeSampleData(int trackIndex, ByteBuffer data, int offset, int size,
+                long presentationTimeUs, int flags);
+
+        void stop();
+
+        void release();
+    }
+
+    /**
+     * How {@link #drain()} waits for a codec's end of stream.
+     */
+    public interface Waiter {
+        /**
+         * Returns true once the latch is open, or false if the timeout passed first.
+         */
+        boolean await(CountDownLatch latch, long timeoutNanos) throws InterruptedException;
+    }
+
+    /** Blocks the calling thread. */
+    public static final Waiter BLOCKING_WAITER =
+            (latch, timeoutNanos) -> latch.await(timeoutNanos, TimeUnit.NANOSECONDS);
+
+    /**
+     * Hears how the file turned out.  Called from {@link #release()}.
+     */
+    public interface Listener {
+        void onFinished(FrameStats frameStats, long durationMillis);
+
+        void onFailed(IllegalStateException error, long durationMillis);
+    }
+
+    private final TimestampNormalizer.Clock mClock;
+    private final Waiter mWaiter;
+    private final boolean mEnableAudio;
+
+    private Muxer<F> mMuxer;
+    // Set before each codec is started, so before its first callback.
+    private Codec mVideoEncoder;
+    private Codec mAudioEncoder;
+    private Executor mAudioThread;
+    private int mVTrackIndex = -1;
+    private int mATrackIndex = -1;
+    // Written on the drain threads, read on the caller's thread.
+    private volatile boolean mMuxerStarted;
+    // Set once drain() is done; outputs after that are not written.
+    private volatile boolean mStreamEnded;
+    // Counted down on each drain thread when its codec outputs end of stream.
+    private final CountDownLatch mVideoEnded = new CountDownLatch(1);
+    private final CountDownLatch mAudioEnded = new CountDownLatch(1);
+    private final Object mMuxerLock = new Object();     // guards mMuxer once encoders run
+    private long mStartedAtNanos;
+    // If the audio track is still empty at the end, a sample is made up so the muxer can stop.
+    private boolean mIsAudioEmpty;
+
+    @Nullable
+    private volatile Listener mListener;
+    @Nullable
+    private volatile Benchmark mBenchmark;
+    private volatile FrameAccounting mFrameAccounting = new FrameAccounting();
+    private volatile RecordingCounters mRecordingCounters = new RecordingCounters();
+    // Keeps the input surface's times if its producer sets them (eglPresentationTimeANDROID).
+    private final TimestampNormalizer mVideoTimestamps;
+    private final TimestampNormalizer mAudioTimestamps;
+
+    // Audio waiting for an encoder input buffer; filled by the capture thread, emptied on
+    // the AudioHandler thread by feedAudioEncoder().
+    private final Queue<DataFrame> mAudioFrameQueue = new ConcurrentLinkedQueue<>();
+    // Input buffers the audio encoder has handed over with no audio in them yet.  (AudioHandler
+    // thread only.)
+    private final ArrayDeque<Integer> mFreeAudioInputs = new ArrayDeque<>();
+    // At most one feedAudioEncoder() is queued on the audio thread at a time.
+    private final AtomicBoolean mFeedAudioPending = new AtomicBoolean();
+    private final Runnable mFeedAudio = this::feedAudioEncoder;
+    private final AudioChunker mAudioChunker = new AudioChunker(AUDIO_CHUNK_COUNT);
+    private final AudioChunker.Sink mAudioQueueSink = (chunk, size, endOfStream, presentationTimeUs) -> {
+        mRecordingCounters.onAudioQueued();
+        mAudioFrameQueue.add(new DataFrame(chunk, size, endOfStream, presentationTimeUs));
+        Executor audioThread = mAudioThread;
+        if (audioThread != null && mFeedAudioPending.compareAndSet(false, true)) {
+            audioThread.execute(mFeedAudio);
+        }
+    };
+
+    /**
+     * @param muxer          Created, with no tracks yet.
+     * @param enableAudio    True to wait for an audio track before starting the muxer.
+     * @param keepVideoTimes True if the video codec's input surface is stamped by its producer.
+     */
+    public EncoderSession(Muxer<F> muxer, boolean enableAudio, boolean keepVideoTimes,
+            TimestampNormalizer.Clock clock, Waiter waiter) {
+        mMuxer = muxer;
+        mEnableAudio = enableAudio;
+        mClock = clock;
+        mWaiter = waiter;
+        mVideoTimestamps = new TimestampNormalizer(clock, keepVideoTimes);
+        mAudioTimestamps = new TimestampNormalizer(clock, false);
+    }
+
+    /**
+     * Sets the video codec.  Call after configuring it and before starting it.
+     */
+    public void setVideoEncoder(Codec codec) {
+        mVideoEncoder = codec;
+    }
+
+    /**
+     * Sets the audio codec.  Call after configuring it and before starting it.
+     *
+     * @param audioThread Runs tasks on the thread the codec's callbacks come on.
+     */
+    public void setAudioEncoder(Codec codec, Executor audioThread) {
+        mAudioEncoder = codec;
+        mAudioThread = audioThread;
+        mIsAudioEmpty = true;
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Shares frame counts with the code drawing into the input surface, so one
+     * {@link FrameAccounting} covers the whole pipeline.  Set before frames are drawn.
+     */
+    public void setFrameAccounting(FrameAccounting accounting) {
+        mFrameAccounting = accounting;
+    }
+
+    /**
+     * Shares the totals behind live recording statistics.  Set before encoding starts.
+     */
+    public void setRecordingCounters(RecordingCounters counters) {
+        mRecordingCounters = counters;
+    }
+
+    /**
+     * Sets where encode latency, muxer writes and audio queueing delay are recorded; null to
+     * stop recording them.  (Call from any thread.)
+     */
+    public void setBenchmark(@Nullable Benchmark benchmark) {
+        mBenchmark = benchmark;
+    }
+
+    /**
+     * The video codec's output format is known: adds its track.  Should happen once, before
+     * any output.  (Video drain thread.)
+     */
+    public void onVideoFormatChanged(F format) {
+        if (mMuxerStarted) {
+            throw new IllegalStateException("format changed twice");
+        }
+        // now that we have the Magic Goodies, start the muxer
+        synchronized (mMuxerLock) {
+            mVTrackIndex = mMuxer.addTrack(format);
+            tryStartMuxer();
+        }
+    }
+
+    /**
+     * Writes an encoded video buffer, unless the muxer hasn't started or the stream has
+     * ended, and hands it back to the codec.  (Video drain thread.)
+     */
+    public void onVideoOutput(int index, int offset, int size, long presentationTimeUs,
+            int flags) {
+        long frameId = presentationTimeUs;
+        PipelineTrace.begin(PipelineTrace.Stage.ENCODER_OUTPUT, frameId);
+        try {
+            // The codec config data was fed to the muxer with the output format.
+            boolean isFrame = size != 0 && (flags & FLAG_CODEC_CONFIG) == 0;
+            if (!isFrame) {
+                mVideoEncoder.releaseOutputBuffer(index);
+                return;
+            }
+            FrameAccounting accounting = mFrameAccounting;
+            accounting.onEncoded(presentationTimeUs);
+            if (!mMuxerStarted) {
+                accounting.onDropped(FrameAccounting.Drop.MUXER_NOT_STARTED);
+            } else if (mStreamEnded) {
+                accounting.onDropped(FrameAccounting.Drop.AFTER_STOP);
+            } else {
+                Benchmark benchmark = mBenchmark;
+                if (benchmark != null) {
+                    // Frames are stamped with System.nanoTime-based times.
+                    benchmark.stage(Stage.ENCODE, mClock.nanoTime() - presentationTimeUs * 1000);
+                }
+                ByteBuffer encodedData = mVideoEncoder.getOutputBuffer(index);
+                writeSampleData(mVTrackIndex, encodedData, offset, size,
+                        mVideoTimestamps.normalize(presentationTimeUs), flags, frameId);
+                accounting.onMuxed();
+                // frameId is still the System.nanoTime-based capture time.
+                mRecordingCounters.onVideoWritten(size, mClock.nanoTime() - frameId * 1000);
+            }
+            mVideoEncoder.releaseOutputBuffer(index);
+        } finally {
+            if ((flags & FLAG_END_OF_STREAM) != 0) {
+                mVideoEnded.countDown();
+            }
+            PipelineTrace.end(PipelineTrace.Stage.ENCODER_OUTPUT, frameId);
+        }
+    }
+
+    /**
+     * The audio codec's output format is known: adds its track.  (AudioHandler thread.)
+     */
+    public void onAudioFormatChanged(F format) {
+        if (mATrackIndex != -1) {
+            throw new IllegalStateException("format changed twice");
+        }
+        synchronized (mMuxerLock) {
+            mATrackIndex = mMuxer.addTrack(format);
+            tryStartMuxer();
+        }
+    }
+
+    /**
+     * The audio codec has an empty input buffer.  Never waits for audio: this thread also
+     * delivers the output callbacks, end of stream included.  The buffer is filled as soon
+     * as a chunk is queued.  (AudioHandler thread.)
+     */
+    public void onAudioInputAvailable(int index) {
+        mFreeAudioInputs.add(index);
+        feedAudioEncoder();
+    }
+
+    /**
+     * Writes an encoded audio buffer, unless the muxer hasn't started or the stream has
+     * ended, and hands it back to the codec.  (AudioHandler thread.)
+     */
+    public void onAudioOutput(int index, int offset, int size, long presentationTimeUs,
+            int flags) {
+        try {
+            if (mMuxerStarted && !mStreamEnded && size != 0
+                    && (flags & FLAG_CODEC_CONFIG) == 0) {
+                ByteBuffer out = mAudioEncoder.getOutputBuffer(index);
+                long timeUs = mAudioTimestamps.normalize(presentationTimeUs);
+                writeSampleData(mATrackIndex, out, offset, size, timeUs, flags, timeUs);
+                mRecordingCounters.onAudioWritten(size);
+                mIsAudioEmpty = false;
+            }
+            mAudioEncoder.releaseOutputBuffer(index);
+        } finally {
+            if ((flags & FLAG_END_OF_STREAM) != 0) {
+                mAudioEnded.countDown();
+            }
+        }
+    }
+
+    /**
+     * Queues captured audio for the encoder, stamped with the current time.  Ignored without
+     * an audio encoder.  (Audio capture thread.)
+     *
+     * @param buffer      the data, read from its position
+     * @param size        size of the data
+     * @param endOfStream is this frame the end
+     */
+    public void enqueueAudio(ByteBuffer buffer, int size, boolean endOfStream) {
+        if (mAudioEncoder != null) {
+            long presentTimeUs = mClock.nanoTime() / 1000;
+            mAudioChunker.split(buffer, size, endOfStream, presentTimeUs, mAudioQueueSink);
+        }
+    }
+
+    /**
+     * Copies queued audio into free encoder input buffers, for as long as there are both.
+     * (AudioHandler thread.)
+     */
+    private void feedAudioEncoder() {
+        mFeedAudioPending.set(false);
+        Codec codec = mAudioEncoder;
+        while (codec != null && !mFreeAudioInputs.isEmpty()) {
+            DataFrame data = mAudioFrameQueue.poll();
+            if (data == null) {
+                return;
+            }
+            int index = mFreeAudioInputs.poll();
+            mRecordingCounters.onAudioDequeued();
+            Benchmark benchmark = mBenchmark;
+            if (benchmark != null) {
+                benchmark.stage(Stage.AUDIO_QUEUE,
+                        mClock.nanoTime() - data.getPresentTimeUs() * 1000);
+            }
+            ByteBuffer buffer = data.getByteBuffer();
+            int size = Math.max(0, data.getSize());
+            try {
+                ByteBuffer in = codec.getInputBuffer(index);
+                in.clear();
+                if (size > 0) {
+                    buffer.position(0);
+                    buffer.limit(size);
+                    in.put(buffer); // Here we should ensure that `size` is smaller than the capacity of the `in` buffer
+                }
+                int flags = data.getEndOfStream() ? FLAG_END_OF_STREAM : 0;
+                codec.queueInputBuffer(index, 0, size, data.getPresentTimeUs(), flags);
+            } catch (IllegalStateException e) {
+                return;     // released meanwhile
+            }
+        }
+    }
+
+    /**
+     * Finishes the streams.  Signals end of stream to both encoders and waits until each has
+     * output it, so every frame the encoders still hold is written; a codec that hasn't
+     * within {@link #DRAIN_TIMEOUT_MS} is given up on.  Call once, from a thread other than
+     * the drain threads, before {@link #release()}.
+     *
+     * @return False if a codec was given up on.
+     */
+    public boolean drain() {
+        long deadline = mClock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MS);
+        mVideoEncoder.signalEndOfInputStream();
+        if (mAudioEncoder != null) {
+            // Queued behind the audio already captured, which is encoded first.
+            mAudioQueueSink.onChunk(NO_AUDIO, 0, true, mClock.nanoTime() / 1000);
+        }
+        boolean ended = false;
+        try {
+            ended = mWaiter.await(mVideoEnded, deadline - mClock.nanoTime())
+                    && (mAudioEncoder == null
+                            || mWaiter.await(mAudioEnded, deadline - mClock.nanoTime()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mStreamEnded = true;
+        return ended;
+    }
+
+    /**
+     * Stops and releases the codecs, then finishes the file and reports it to the
+     * {@link Listener}.
+     */
+    public void release() {
+        if (mVideoEncoder != null) {
+            mVideoEncoder.stop();
+            mVideoEncoder.release();
+            mVideoEncoder = null;
+        }
+        if (mAudioEncoder != null) {
+            mAudioEncoder.stop();
+            mAudioEncoder.release();
+            mAudioEncoder = null;
+        }
+        mFrameAccounting.finish();
+
+        synchronized (mMuxerLock) {
+            releaseMuxer();
+        }
+    }
+
+    private void releaseMuxer() {
+        if (mMuxer == null) {
+            return;
+        }
+        Listener listener = mListener;
+        long durationMillis = mMuxerStarted
+                ? TimeUnit.NANOSECONDS.toMillis(mClock.nanoTime() - mStartedAtNanos) : 0;
+        try {
+            if (mIsAudioEmpty) {
+                // avoid empty audio track. if the audio track is empty , muxer.stop will failed
+                mMuxer.writeSampleData(mATrackIndex, ByteBuffer.wrap(new byte[2]), 0, 2,
+                        mClock.nanoTime() / 1000, 0);
+            }
+            mMuxer.stop();
+            if (listener != null) {
+                listener.onFinished(mFrameAccounting.snapshot(), durationMillis);
+            }
+        } catch (IllegalStateException e) {
+            if (listener != null) {
+                listener.onFailed(e, durationMillis);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        try {
+            mMuxer.release();
+        } catch (IllegalStateException ex) {
+        }
+
+        mMuxer = null;
+        mMuxerStarted = false;
+    }
+
+    /**
+     * Writes an encoded sample unless the muxer was stopped meanwhile.  (Drain threads.)
+     *
+     * @param frameId Identifies the sample in traces; see PipelineTrace#frameId.
+     */
+    private void writeSampleData(int trackIndex, ByteBuffer data, int offset, int size,
+            long presentationTimeUs, int flags, long frameId) {
+        long startNanos = mClock.nanoTime();
+        PipelineTrace.begin(PipelineTrace.Stage.MUXER_WRITE, frameId);
+        data.position(offset);
+        data.limit(offset + size);
+        synchronized (mMuxerLock) {
+            if (mMuxer != null && mMuxerStarted) {
+                mMuxer.writeSampleData(trackIndex, data, offset, size, presentationTimeUs, flags);
+            }
+        }
+        PipelineTrace.end(PipelineTrace.Stage.MUXER_WRITE, frameId);
+        Benchmark benchmark = mBenchmark;
+        if (benchmark != null) {
+            benchmark.stage(Stage.MUXER_WRITE, mClock.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Called with mMuxerLock held, from whichever drain thread adds the last track.
+     */
+    private void tryStartMuxer() {
+        if (mVTrackIndex != -1  // Video track is added
+                && (!mEnableAudio || mATrackIndex != -1) // and audio track is added
+                && !mMuxerStarted) { // and muxer not started
+            // then start the muxer
+            mMuxer.start();
+            mMuxerStarted = true;
+            mStartedAtNanos = mClock.nanoTime();
+        }
+    }
+}
@@ -26,6 +26,8 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.PowerManager;
+import android.util.Log;
 import android.util.Size;
 import android.view.Surface;
 
@@ -34,22 +36,45 @@ import androidx.annotation.RequiresApi;
 
 import com.example.surfacerecordingdemo.recording.AudioEncoderConfig;
 import com.example.surfacerecordingdemo.recording.Benchmark;
+import com.example.surfacerecordingdemo.recording.CropController;
+import com.example.surfacerecordingdemo.recording.DegradationPolicy;
+import com.example.surfacerecordingdemo.recording.DownscaleFilter;
 import com.example.surfacerecordingdemo.recording.EncoderCallback;
 import com.example.surfacerecordingdemo.recording.EncoderConfig;
+import com.example.surfacerecordingdemo.recording.FrameCodeRect;
+import com.example.surfacerecordingdemo.recording.FrameLoop;
+import com.example.surfacerecordingdemo.recording.FramePacer;
+import com.example.surfacerecordingdemo.recording.HandlerScheduler;
 import com.example.surfacerecordingdemo.recording.MainFrameRect;
+import com.example.surfacerecordingdemo.recording.PrivacyMaskFrameRect;
+import com.example.surfacerecordingdemo.recording.PrivacyMasks;
+import com.example.surfacerecordingdemo.recording.RecordingStats;
+import com.example.surfacerecordingdemo.recording.RecordingStatsPublisher;
+import com.example.surfacerecordingdemo.recording.RecordingStatsSampler;
 import com.example.surfacerecordingdemo.recording.RecordCallback;
+import com.example.surfacerecordingdemo.recording.RecorderStateMachine;
+import com.example.surfacerecordingdemo.recording.Stage;
+import com.example.surfacerecordingdemo.recording.TextOverlayFrameRect;
 import com.example.surfacerecordingdemo.recording.TextureMovieEncoder;
+import com.example.surfacerecordingdemo.recording.TimestampFormatter;
+import com.example.surfacerecordingdemo.recording.TimestampNormalizer;
 import com.example.surfacerecordingdemo.recording.WatermarkFrameRect;
 import com.example.surfacerecordingdemo.recording.gles.EglCore;
+import com.example.surfacerecordingdemo.recording.gles.GpuTimer;
 import com.example.surfacerecordingdemo.recording.gles.Texture2dProgram;
 import com.example.surfacerecordingdemo.recording.gles.WindowSurface;
+import com.example.surfacerecordingdemo.recording.metrics.FrameAccounting;
+import com.example.surfacerecordingdemo.recording.metrics.FrameStats;
+import com.example.surfacerecordingdemo.recording.metrics.RecordingCounters;
 
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
-import java.util.Timer;
+import java.util.List;
 
 import javax.microedition.khronos.opengles.GL10;
 
+import kotlinx.coroutines.flow.StateFlow;
+
 /**
  * Encode a movie from frames rendered from an external texture image.
  * <p>
@@ -73,51 +98,110 @@ import javax.microedition.khronos.opengles.GL10;
  * call TextureMovieEncoder#frameAvailable().
  * </ul>
  * <p>
+ * Start, pause, resume and stop are driven by a {@link RecorderStateMachine} on the encoder
+ * thread, so they can be called in any order from any thread.  Frame delivery and the steps of
+ * each transition live in {@link EncoderPipeline}; the GL and codec work behind them in
+ * {@link EncoderPlatform}.
+ * <p>
+ * While recording, a {@link DegradationPolicy} is sampled every second with the thermal status,
+ * recent frame intervals and encoder backlog, and scales the recording back (lower frame rate,
+ * lower bitrate, cheaper scaling, no overlays) when the device runs hot or falls behind.
+ * Privacy masks are drawn whatever the level.
+ * <p>
  * TODO: tweak the API (esp. textureId) so it's less awkward for simple use cases.
  */
 @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
-public class HWTextureMovieEncoder implements TextureMovieEncoder, Runnable, SurfaceTexture.OnFrameAvailableListener {
+public class HWTextureMovieEncoder implements TextureMovieEncoder, SurfaceTexture.OnFrameAvailableListener {
     private static final String TAG = "TextureMovieEncoder";
     private static final boolean VERBOSE = true;
 
-    private static final int MSG_START_RECORDING = 0;
-    private static final int MSG_STOP_RECORDING = 1;
-    private static final int MSG_FRAME_AVAILABLE = 2;
     private static final int MSG_SET_TEXTURE_ID = 3;
     private static final int MSG_UPDATE_SHARED_CONTEXT = 4;
-    private static final int MSG_AUDIO_FRAME_AVAILABLE = 5;
-    private static final int MSG_QUIT = 6;
+
+    private static final int MAX_CAPTION_LENGTH = 64;
+
+    // GpuTimer sections, indexing GPU_STAGES.
+    private static final int GPU_SECTION_DRAW = 0;
+    private static final int GPU_SECTION_WATERMARK = 1;
+    private static final int GPU_SECTION_SWAP = 2;
+    private static final Stage[] GPU_STAGES = {Stage.GPU_DRAW, Stage.GPU_WATERMARK, Stage.GPU_SWAP};
+    private static final int GPU_TIMER_DEPTH = 4;
+
+    private static final long DEGRADATION_INTERVAL_MS = 1000;
+    private static final int MIN_DEGRADED_FRAME_RATE = 15;
+    private static final float DEGRADED_BIT_RATE_FACTOR = 0.6f;
     // ----- accessed exclusively by encoder thread -----
     private WindowSurface mInputWindowSurface;
     private EglCore mEglCore;
     private MainFrameRect mFullScreen;
+    private GpuTimer mGpuTimer;     // null unless benchmarking on a GPU that supports it
     private WatermarkFrameRect watermarkFrameRect;
+    private TextOverlayFrameRect mTextOverlay;
+    private int mTimestampLabel;
+    private int mCaptionLabel;
+    private final TimestampFormatter mTimestampFormatter = new TimestampFormatter();
     private int mTextureId;
     private HWVideoEncoderCore mVideoEncoder;
+    // Replaced per recording; volatile so the rates can be read from any thread.
+    private volatile FramePacer mFramePacer = new FramePacer(0);
+    private final DegradationPolicy mDegradationPolicy =
+            new DegradationPolicy(new DegradationListener());
+    private final Runnable mEvaluateDegradation = this::evaluateDegradation;
+    private final Runnable mPublishStats = this::publishStats;
+    private long mStatsIntervalMs;      // 0 if stats aren't published
+    private int mFrameRate;             // as configured; 0 if unpaced
+    private int mBitRate;
+    private boolean mOverlaysSuppressed;
 
     // ----- accessed by multiple threads -----
+    // Non-null from startRecording() until the state machine reaches RELEASED.
     private volatile EncoderHandler mHandler;
-
-    private final Object mReadyFence = new Object();      // guards ready/running
-    private boolean mReady;
-    private boolean mRunning;
+    private volatile RecorderStateMachine<EncoderConfig> mStateMachine;
+    // The current or last recording's.
+    private volatile EncoderPipeline<EncoderConfig> mPipeline;
+    private HandlerThread mEncoderThread;
     private HandlerThread mVideoFrameSender;
     private Handler mVideoFrameHandler;
     private SurfaceTexture mSurfaceTexture;
     private Surface mSurface;
-    private float mTopCropped;
-    private float mBottomCropped;
-    private float mLeftCropped;
-    private float mRightCropped;
+    private final CropController mCropController =
+            new CropController(new CropController.Crop(0f, 0f, 0f, 0f));
+    private final FrameAccounting mFrameAccounting = new FrameAccounting();
+    private final RecordingCounters mRecordingCounters = new RecordingCounters();
+    private final RecordingStatsSampler mStatsSampler =
+            new RecordingStatsSampler(mRecordingCounters, mFrameAccounting, mDegradationPolicy);
+    private final RecordingStatsPublisher mStatsPublisher = new RecordingStatsPublisher();
+    private final FrameLoop.Texture mFrameTexture = new FrameLoop.Texture() {
+        @Override
+        public void updateTexImage() {
+            mSurfaceTexture.updateTexImage();
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mSurfaceTexture.getTimestamp();
+        }
+
+        @Override
+        public void getTransformMatrix(float[] matrix) {
+            mSurfaceTexture.getTransformMatrix(matrix);
+        }
+    };
+    private final PrivacyMasks mPrivacyMasks = new PrivacyMasks();
     private RecordCallback mRecordCallback;
     private EncoderCallback mCallback;
     private int mVideoWidth;
     private int mVideoHeight;
+    private int mSourceWidth;
+    private int mSourceHeight;
+    private float mDownscaleThreshold;
     private boolean mEnableWatermark;
+    private boolean mEnableTimestamp;
+    private boolean mStampFrameCodes;
+    private long mFrameCodeNumber;
+    private volatile String mOverlayText;
     private Context context;
     private AudioEncoderConfig audioEncoderConfig;
-    private Timer throttlingTimer;
-    private Boolean isShownDangerToast = false;
     private Benchmark benchmark;
 
     public HWTextureMovieEncoder(Context context, @Nullable AudioEncoderConfig audioEncoderConfig) {
@@ -129,29 +213,33 @@ public class HWTextureMovieEncoder implements TextureMovieEncoder, Runnable, Sur
     /**
      * Tells the video recorder to start recording.  (Call from non-encoder thread.)
      * <p>
-     * Creates a new thread, which will create an encoder using the provided configuration.
+     * Creates a new thread, which will create an encoder using the provided configuration and
+     * start recording config.mDelayMs later.  Ignored while a previous recording is still
+     * active.
      * <p>
-     * Returns after the recorder thread has started and is ready to accept Messages.  The
-     * encoder may not yet be fully configured.
+     * Returns immediately; the encoder may not yet be configured.
      */
-    public void startRecording(EncoderConfig config) {
-        synchronized (mReadyFence) {
-            if (mRunning) {
-                return;
-            }
-            mRunning = true;
-            new Thread(this, "TextureMovieEncoder").start();
-            while (!mReady) {
-                try {
-                    mReadyFence.wait();
-                } catch (InterruptedException ie) {
-                    // ignore
-                }
-            }
-
+    public synchronized void startRecording(EncoderConfig config) {
+        if (isRecording()) {
+            return;
         }
-
-        mHandler.sendMessage(mHandler.obtainMessage(MSG_START_RECORDING, config));
+        mEncoderThread = new HandlerThread("TextureMovieEncoder");
+        mEncoderThread.start();
+        mFrameAccounting.reset();
+        mRecordingCounters.reset();
+        mStatsPublisher.publish(RecordingStats.EMPTY);
+        mFramePacer = new FramePacer(config.mFrameRate);
+        EncoderHandler handler = new EncoderHandler(this, mEncoderThread.getLooper());
+        HandlerScheduler scheduler = new HandlerScheduler(handler);
+        EncoderPipeline<EncoderConfig> pipeline = new EncoderPipeline<>(scheduler,
+                new EncoderPlatform(), mFrameAccounting, mFramePacer,
+                TimestampNormalizer.SYSTEM_CLOCK, benchmark);
+        mStateMachine = new RecorderStateMachine<>(scheduler, pipeline,
+                new StateListener(mEncoderThread));
+        pipeline.setStateMachine(mStateMachine);
+        mPipeline = pipeline;
+        mHandler = handler;
+        mStateMachine.start(config, config.mDelayMs);
     }
 
     /**
@@ -165,83 +253,130 @@ public class HWTextureMovieEncoder implements TextureMovieEncoder, Runnable, Sur
      */
     @Override
     public void stopRecording() {
-        synchronized (mReadyFence) {
-            if (!mReady) {
-                return;
-            }
+        RecorderStateMachine<EncoderConfig> stateMachine = mStateMachine;
+        if (stateMachine != null) {
+            // We don't know when this will actually finish (or even start).  We don't want to
+            // delay the UI thread though, so we return immediately.
+            stateMachine.stop();
         }
+    }
 
+    /**
+     * Stops drawing frames into the recording until {@link #resumeRecording()}.  Frames keep
+     * being latched meanwhile, so the screen doesn't stall.  (Call from any thread.)
+     */
+    @Override
+    public void pauseRecording() {
+        RecorderStateMachine<EncoderConfig> stateMachine = mStateMachine;
+        if (stateMachine != null) {
+            stateMachine.pause();
+        }
+    }
 
-        synchronized (this) {
-            mHandler.sendMessage(mHandler.obtainMessage(MSG_STOP_RECORDING));
-            mHandler.sendMessage(mHandler.obtainMessage(MSG_QUIT));
+    /**
+     * Resumes a paused recording.  (Call from any thread.)
+     */
+    @Override
+    public void resumeRecording() {
+        RecorderStateMachine<EncoderConfig> stateMachine = mStateMachine;
+        if (stateMachine != null) {
+            stateMachine.resume();
         }
-        // We don't know when these will actually finish (or even start).  We don't want to
-        // delay the UI thread though, so we return immediately.
-        benchmark.stop();
     }
 
     /**
-     * Returns true if recording has been started.
+     * Returns true if recording has been started and the encoder has not been released yet.
      */
     @Override
     public boolean isRecording() {
-        synchronized (mReadyFence) {
-            return mRunning;
-        }
+        RecorderStateMachine<EncoderConfig> stateMachine = mStateMachine;
+        return stateMachine != null && stateMachine.isActive();
     }
 
+    /**
+     * Changes the crop, starting with the next frame.  (Call from any thread.)
+     *
+     * @param rect Fractions of the source to cut from each edge.
+     */
     @Override
     public void updateCropRect(RectF rect) {
-        if (mFullScreen != null) {
-            mFullScreen.setLeftCropped(rect.left);
-            mFullScreen.setTopCropped(rect.top);
-            mFullScreen.setRightCropped(rect.right);
-            mFullScreen.setBottomCropped(rect.bottom);
-        }
+        mCropController.setCrop(toCrop(rect));
+    }
+
+    /**
+     * Pans/zooms to a new crop over the given time.  (Call from any thread.)
+     *
+     * @param rect Fractions of the source to cut from each edge.
+     */
+    @Override
+    public void animateCropRect(RectF rect, long durationMillis) {
+        mCropController.animateTo(toCrop(rect), durationMillis);
+    }
+
+    private static CropController.Crop toCrop(RectF rect) {
+        return new CropController.Crop(rect.left, rect.top, rect.right, rect.bottom);
+    }
+
+    /**
+     * Sets a caption drawn above the timestamp on every frame.  (Call from any thread.)
+     *
+     * @param text The caption, or null to remove it.
+     */
+    @Override
+    public void setOverlayText(String text) {
+        mOverlayText = text;
+    }
+
+    /**
+     * Sets the screen regions to pixelate, starting with the next frame.  (Call from any
+     * thread.)
+     *
+     * @param rects Fractions (0-1) of the captured screen, origin at the top left; null or
+     *     empty to mask nothing.
+     */
+    @Override
+    public void setPrivacyMasks(List<RectF> rects) {
+        mPrivacyMasks.set(rects);
     }
 
     /**
      * @see #frameAvailable(SurfaceTexture, long)
      */
     public void frameAvailable(SurfaceTexture st) {
-        frameAvailable(st, st.getTimestamp());
+        frameAvailable(st, System.nanoTime());
     }
 
     /**
      * Tells the video recorder that a new frame is available.  (Call from non-encoder thread.)
      * <p>
-     * This function sends a message and returns immediately.  This isn't sufficient -- we
-     * don't want the caller to latch a new frame until we're done with this one -- but we
-     * can get away with it so long as the input frame rate is reasonable and the encoder
-     * thread doesn't stall.
+     * This function posts to the encoder thread and returns immediately.  This isn't
+     * sufficient -- we don't want the caller to latch a new frame until we're done with this
+     * one -- but we can get away with it so long as the input frame rate is reasonable and the
+     * encoder thread doesn't stall.
      * <p>
      * or have a separate "block if still busy" method that the caller can execute immediately
      * before it calls updateTexImage().  The latter is preferred because we don't want to
      * stall the caller while this thread does work.
+     * <p>
+     * Until the encoder thread latches the new buffer, the SurfaceTexture's timestamp and
+     * transform still describe the previous one, so both are read after latching; see
+     * {@link EncoderPipeline#frameAvailable(long)}.
      *
-     * @param timestamp present timestamp in nanosecond
+     * @param timestamp when the frame was announced, in System.nanoTime() nanoseconds; only
+     *     identifies the callback in traces
      */
     public void frameAvailable(SurfaceTexture st, long timestamp) {
-        synchronized (mReadyFence) {
-            if (!mReady) {
-                return;
-            }
+        if (mHandler == null) {
+            return;
         }
-        float[] transform = new float[16];
-        st.getTransformMatrix(transform);
-        mHandler.sendMessage(mHandler.obtainMessage(MSG_FRAME_AVAILABLE, (int) (timestamp >> 32), (int) timestamp, transform));
+        mPipeline.frameAvailable(timestamp);
     }
 
     @Override
     public void audioFrameAvailable(ByteBuffer buffer, int size, boolean endOfStream) {
-        synchronized (mReadyFence) {
-            if (!mReady) {
-                return;
-            }
-        }
-        if (mVideoEncoder != null) {
-            mVideoEncoder.enqueueAudioFrame(buffer, size, endOfStream, context);
+        EncoderPipeline<EncoderConfig> pipeline = mPipeline;
+        if (pipeline != null) {
+            pipeline.audioFrameAvailable(buffer, size, endOfStream);
         }
     }
 
@@ -252,41 +387,28 @@ public class HWTextureMovieEncoder implements TextureMovieEncoder, Runnable, Sur
      * TODO: do something less clumsy
      */
     public void setTextureId(int id) {
-        synchronized (mReadyFence) {
-            if (!mReady) {
-                return;
-            }
+        Handler handler = mHandler;
+        if (handler == null) {
+            return;
         }
-        mHandler.sendMessage(mHandler.obtainMessage(MSG_SET_TEXTURE_ID, id, 0, null));
+        handler.sendMessage(handler.obtainMessage(MSG_SET_TEXTURE_ID, id, 0, null));
     }
 
     /**
-     * Encoder thread entry point.  Establishes Looper/Handler and waits for messages.
-     * <p>
-     *
-     * @see Thread#run()
+     * Sets the callback for recording progress.  May be called before or during recording;
+     * an encoder that already exists gets it on the encoder thread.  (Call from any thread.)
      */
-    @Override
-    public void run() {
-        // Establish a Looper for this thread, and define a Handler for it.
-        Looper.prepare();
-        synchronized (mReadyFence) {
-            mHandler = new EncoderHandler(this);
-            mReady = true;
-            mReadyFence.notify();
-        }
-        Looper.loop();
-
-        synchronized (mReadyFence) {
-            mReady = mRunning = false;
-            mHandler = null;
-        }
-    }
-
     @Override
     public void setRecordCallback(RecordCallback recordCallback) {
         mRecordCallback = recordCallback;
-        mVideoEncoder.setRecordCallback(mRecordCallback);
+        Handler handler = mHandler;
+        if (handler != null) {
+            handler.post(() -> {
+                if (mVideoEncoder != null) {
+                    mVideoEncoder.setRecordCallback(recordCallback);
+                }
+            });
+        }
     }
 
     @Override
@@ -295,49 +417,124 @@ public class HWTextureMovieEncoder implements TextureMovieEncoder, Runnable, Sur
     }
 
     /**
-     * Starts recording.
+     * Returns the number of frames skipped because a newer one arrived before the encoder
+     * thread got to them.
      */
-    private void handleStartRecording(EncoderConfig config) {
-        prepareEncoder(config);
+    public long getCoalescedFrameCount() {
+        EncoderPipeline<EncoderConfig> pipeline = mPipeline;
+        return pipeline != null ? pipeline.getCoalescedFrames() : 0;
     }
 
     /**
-     * Handles notification of an available frame.
+     * Returns live frame counts for the current recording, or final ones for the last.
+     * (Call from any thread.)
+     */
+    public FrameStats getFrameStats() {
+        return mFrameAccounting.snapshot();
+    }
+
+    /**
+     * Returns live statistics for the current or last recording, published every
+     * {@link EncoderConfig#mStatsIntervalMs} while recording.  Collectors that fall behind
+     * skip to the newest snapshot; nothing waits on them.  (Call from any thread.)
+     */
+    @Override
+    public StateFlow<RecordingStats> getRecordingStats() {
+        return mStatsPublisher.getStats();
+    }
+
+    /**
+     * Returns how far the current recording has been scaled back.  (Call from any thread.)
+     */
+    public DegradationPolicy.Level getDegradationLevel() {
+        return mDegradationPolicy.getLevel();
+    }
+
+    /**
+     * Returns the average rate frames reached the encoder thread at during the current or
+     * last recording.
+     */
+    public float getInputFrameRate() {
+        return mFramePacer.getInputFrameRate();
+    }
+
+    /**
+     * Returns the average rate frames were drawn into the encoder at during the current or
+     * last recording, after pacing to EncoderConfig#mFrameRate.
+     */
+    public float getOutputFrameRate() {
+        return mFramePacer.getOutputFrameRate();
+    }
+
+    /**
+     * Returns the number of frames dropped by pacing during the current or last recording.
+     */
+    public long getPacedFrameCount() {
+        return mFramePacer.getDroppedFrames();
+    }
+
+    /**
+     * Draws a latched frame into the encoder's input surface.
      * <p>
      * The texture is rendered onto the encoder's input surface, along with a moving
      * box (just because we can).
-     * <p>
      *
      * @param timestampNanos The frame's timestamp, from SurfaceTexture.
      */
-    private void handleFrameAvailable(long timestampNanos, float[] transform) {
-        if (shouldStart && mVideoEncoder != null) {
-            GLES20.glFlush();
+    private void drawFrame(long timestampNanos, float[] transform) {
+        GLES20.glFlush();
+        GLES20.glFinish();
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GL10.GL_DEPTH_BUFFER_BIT);
+
+        GpuTimer gpuTimer = mGpuTimer;
+        if (gpuTimer != null) {
+            gpuTimer.beginFrame();
+            gpuTimer.begin(GPU_SECTION_DRAW);
+        }
+        mCropController.update(timestampNanos);
+        if (mFullScreen.isDownscaling() && benchmark.isEnabled()) {
+            // The GPU is idle after the glFinish() above, so waiting for it again here
+            // gives the cost of the filter passes alone.
+            long drawStartNanos = System.nanoTime();
+            mFullScreen.drawFrame(mTextureId, transform);
             GLES20.glFinish();
-
-            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GL10.GL_DEPTH_BUFFER_BIT);
-
+            benchmark.stage(Stage.DOWNSCALE, System.nanoTime() - drawStartNanos);
+        } else {
             mFullScreen.drawFrame(mTextureId, transform);
-            if (mEnableWatermark) {
-                watermarkFrameRect.drawFrame(mTextureId, transform);
+        }
+        if (gpuTimer != null) {
+            gpuTimer.end(GPU_SECTION_DRAW);
+        }
+        if (mEnableWatermark && !mOverlaysSuppressed) {
+            if (gpuTimer != null) {
+                gpuTimer.begin(GPU_SECTION_WATERMARK);
+            }
+            watermarkFrameRect.drawFrame(mTextureId, transform);
+            if (gpuTimer != null) {
+                gpuTimer.end(GPU_SECTION_WATERMARK);
             }
-
-            mInputWindowSurface.setPresentationTime(timestampNanos);
-            mInputWindowSurface.swapBuffers();
-
-            GLES20.glFlush();
-            GLES20.glFinish();
-
-            benchmark.tick();
         }
+        drawTextOverlay();
+        mFullScreen.drawFrameCode(mFrameCodeNumber++, timestampNanos);
     }
 
     /**
-     * Handles a request to stop encoding.
+     * Submits the frame drawn to the encoder, and waits for the GPU so the frame's timing
+     * includes its work.
      */
-    private void handleStopRecording() {
-        mVideoEncoder.drainEncoder(true);
-        releaseEncoder();
+    private void swapBuffers() {
+        GpuTimer gpuTimer = mGpuTimer;
+        if (gpuTimer != null) {
+            gpuTimer.begin(GPU_SECTION_SWAP);
+        }
+        mInputWindowSurface.swapBuffers();
+        if (gpuTimer != null) {
+            gpuTimer.end(GPU_SECTION_SWAP);
+            gpuTimer.endFrame();
+        }
+
+        GLES20.glFlush();
+        GLES20.glFinish();
     }
 
     /**
@@ -358,105 +555,97 @@ public class HWTextureMovieEncoder implements TextureMovieEncoder, Runnable, Sur
         // Release the EGLSurface and EGLContext.
         mInputWindowSurface.releaseEglSurface();
         mFullScreen.release(false);
+        releaseGpuTimer();
         if (watermarkFrameRect != null) {
             watermarkFrameRect.release(false);
             watermarkFrameRect = null;
         }
+        if (mTextOverlay != null) {
+            mTextOverlay.release(false);
+            mTextOverlay = null;
+        }
         mEglCore.release();
 
         // Create a new EGLContext and recreate the window surface.
-        mEglCore = new EglCore(newSharedContext, EglCore.FLAG_RECORDABLE);
+        mEglCore = new EglCore(newSharedContext, eglFlags());
         mInputWindowSurface.recreate(mEglCore);
         mInputWindowSurface.makeCurrent();
 
         // Create new programs and such for the new context.
-        mFullScreen = new MainFrameRect(new Texture2dProgram(Texture2dProgram.ProgramType.TEXTURE_EXT));
-        mFullScreen.setTopCropped(mTopCropped);
-        mFullScreen.setBottomCropped(mBottomCropped);
-        mFullScreen.setLeftCropped(mLeftCropped);
-        mFullScreen.setRightCropped(mRightCropped);
+        mFullScreen = new MainFrameRect(
+                new Texture2dProgram(Texture2dProgram.ProgramType.TEXTURE_EXT), mCropController);
+        configureDownscale();
+        configurePrivacyMask();
+        configureFrameCode();
+        configureGpuTimer();
 
         configureWatermark();
     }
 
-    private boolean shouldStart = false;
+    private void prepareEncoder(EncoderConfig config) throws Exception {
+        mCropController.setCrop(new CropController.Crop(config.mLeftCropped, config.mTopCropped,
+                config.mRightCropped, config.mBottomCropped));
+        mSourceWidth = config.mWidth;
+        mSourceHeight = config.mHeight;
+        mDownscaleThreshold = config.mDownscaleThreshold;
 
-    private void prepareEncoder(EncoderConfig config) {
-        mTopCropped = config.mTopCropped;
-        mBottomCropped = config.mBottomCropped;
-        mLeftCropped = config.mLeftCropped;
-        mRightCropped = config.mRightCropped;
-
-        mVideoHeight = (int) (config.mHeight * (1f - mTopCropped - mBottomCropped));
+        mVideoHeight = (int) (config.mHeight * (1f - config.mTopCropped - config.mBottomCropped));
         if (mVideoHeight % 2 != 0) {
             mVideoHeight += 1; // Pixels must be even
         }
 
-        mVideoWidth = (int) (config.mWidth * (1f - mLeftCropped - mRightCropped));
+        mVideoWidth = (int) (config.mWidth * (1f - config.mLeftCropped - config.mRightCropped));
         if (mVideoWidth % 2 != 0) {
             mVideoWidth += 1;
         }
 
-        try {
-            mVideoEncoder = new HWVideoEncoderCore(context, mVideoWidth, mVideoHeight, config.mBitRate, config.mOutputFile, config.mEnableAudio, audioEncoderConfig);
-            mVideoEncoder.setRecordCallback(mRecordCallback);
-
-            if (mCallback != null) {
-                mCallback.onEncoderPrepared();
-            }
-
-            mEglCore = new EglCore(config.mEglContext, EglCore.FLAG_RECORDABLE);
-            mInputWindowSurface = new WindowSurface(mEglCore, mVideoEncoder.getInputSurface(), true);
-            mInputWindowSurface.makeCurrent();
+        int frameRate = config.mFrameRate > 0 ? config.mFrameRate : EncoderConfig.DEFAULT_FRAME_RATE;
+        mVideoEncoder = new HWVideoEncoderCore(context, null, mVideoWidth, mVideoHeight, config.mBitRate, frameRate, config.mOutputFile, config.mEnableAudio, audioEncoderConfig);
+        mFrameRate = config.mFrameRate;
+        mBitRate = config.mBitRate;
+        mDegradationPolicy.reset();
+        mOverlaysSuppressed = false;
+        mVideoEncoder.setRecordCallback(mRecordCallback);
+        mVideoEncoder.setBenchmark(benchmark);
+        mVideoEncoder.setFrameAccounting(mFrameAccounting);
+        mVideoEncoder.setRecordingCounters(mRecordingCounters);
+        mStatsIntervalMs = config.mStatsIntervalMs;
 
-            mFullScreen = new MainFrameRect(
-                    new Texture2dProgram(Texture2dProgram.ProgramType.TEXTURE_EXT));
-            mFullScreen.setTopCropped(config.mTopCropped);
-            mFullScreen.setBottomCropped(config.mBottomCropped);
-            mFullScreen.setLeftCropped(mLeftCropped);
-            mFullScreen.setRightCropped(mRightCropped);
+        if (mCallback != null) {
+            mCallback.onEncoderPrepared();
+        }
 
-            mEnableWatermark = config.mEnableWatermark;
+        mEglCore = new EglCore(config.mEglContext, eglFlags());
+        mInputWindowSurface = new WindowSurface(mEglCore, mVideoEncoder.getInputSurface(), true);
+        mInputWindowSurface.makeCurrent();
 
-            configureWatermark();
+        mFullScreen = new MainFrameRect(
+                new Texture2dProgram(Texture2dProgram.ProgramType.TEXTURE_EXT),
+                mCropController);
+        configureDownscale();
+        mStampFrameCodes = config.mStampFrameCodes;
+        mFrameCodeNumber = 0;
+        configurePrivacyMask();
+        configureFrameCode();
+        configureGpuTimer();
 
-            mTextureId = mFullScreen.createTextureObject();
+        mEnableWatermark = config.mEnableWatermark;
+        mEnableTimestamp = config.mEnableTimestamp;
 
-            mVideoFrameSender = new HandlerThread("SurfaceFrameSender");
-            mVideoFrameSender.start();
-            mVideoFrameHandler = new Handler(mVideoFrameSender.getLooper());
-            mSurfaceTexture = new SurfaceTexture(mTextureId);
-            mSurfaceTexture.setOnFrameAvailableListener(this, mVideoFrameHandler); // 为了不阻塞TextureMovieEncoder ，需要额外的线程
-            mSurfaceTexture.setDefaultBufferSize(config.mWidth, config.mHeight);
-            mSurface = new Surface(mSurfaceTexture);
+        configureWatermark();
 
-            if (mCallback != null) {
-                mCallback.onInputSurfacePrepared(mSurface);
-            }
+        mTextureId = mFullScreen.createTextureObject();
 
-            mHandler.postDelayed(() -> {
-                shouldStart = true;
-                if (mCallback != null) {
-                    mCallback.onStartRecord();
-                }
-                mSurfaceTexture.updateTexImage();
-                benchmark.start();
-            }, config.mDelayMs);
-
-            mVideoEncoder.cb = new HWVideoEncoderCore.Callback() {
-                @Override
-                public void onVideoFrameProceed() {
-                    mSurfaceTexture.updateTexImage();
-                }
+        mVideoFrameSender = new HandlerThread("SurfaceFrameSender");
+        mVideoFrameSender.start();
+        mVideoFrameHandler = new Handler(mVideoFrameSender.getLooper());
+        mSurfaceTexture = new SurfaceTexture(mTextureId);
+        mSurfaceTexture.setOnFrameAvailableListener(this, mVideoFrameHandler); // 为了不阻塞TextureMovieEncoder ，需要额外的线程
+        mSurfaceTexture.setDefaultBufferSize(config.mWidth, config.mHeight);
+        mSurface = new Surface(mSurfaceTexture);
 
-                @Override
-                public void onAudioFrameProceed() {
-                }
-            };
-        } catch (Exception ex) {
-            if (mCallback != null) {
-                mCallback.onError(ex);
-            }
+        if (mCallback != null) {
+            mCallback.onInputSurfacePrepared(mSurface);
         }
     }
 
@@ -465,17 +654,212 @@ public class HWTextureMovieEncoder implements TextureMovieEncoder, Runnable, Sur
         frameAvailable(surfaceTexture);
     }
 
+    /**
+     * The encoder may have picked a size well below the captured one (see
+     * HWVideoEncoderCore#createVideoEncoder).  In that case a single bilinear tap per output
+     * pixel skips most source texels, so draw through a Lanczos filter instead.
+     */
+    private void configureDownscale() {
+        if (mDegradationPolicy.getLevel().compareTo(DegradationPolicy.Level.CHEAP_SCALING) >= 0) {
+            return;
+        }
+        int dstWidth = mInputWindowSurface.getWidth();
+        int dstHeight = mInputWindowSurface.getHeight();
+        if (DownscaleFilter.isNeeded(mVideoWidth, mVideoHeight, dstWidth, dstHeight,
+                mDownscaleThreshold)) {
+            Log.d(TAG, "Downscaling " + mVideoWidth + "x" + mVideoHeight + " to "
+                    + dstWidth + "x" + dstHeight);
+            mFullScreen.setDownscaleFilter(new DownscaleFilter(mSourceWidth, mSourceHeight,
+                    dstWidth, dstHeight));
+        }
+    }
+
+    /**
+     * Masks are drawn by MainFrameRect so they land before the watermark and text overlay,
+     * which stay readable on top.
+     */
+    private void configurePrivacyMask() {
+        mFullScreen.setPrivacyMask(new PrivacyMaskFrameRect(mPrivacyMasks,
+                mInputWindowSurface.getWidth(), mInputWindowSurface.getHeight()));
+    }
+
+    /**
+     * Frame codes are drawn last, over the overlays, and kept under every degradation level:
+     * they're what the degradation is measured with.
+     */
+    private void configureFrameCode() {
+        if (mStampFrameCodes) {
+            mFullScreen.setFrameCode(new FrameCodeRect(mInputWindowSurface.getWidth(),
+                    mInputWindowSurface.getHeight()));
+        }
+    }
+
+    /**
+     * GPU timing needs a GLES 3 context, so only ask for one when the numbers will be used.
+     */
+    private int eglFlags() {
+        return benchmark.isEnabled()
+                ? EglCore.FLAG_RECORDABLE | EglCore.FLAG_TRY_GLES3 : EglCore.FLAG_RECORDABLE;
+    }
+
+    /**
+     * Times the main draw, watermark and swap on the GPU when benchmarking, if the GPU has
+     * timer queries; otherwise only CPU-side timings are recorded.
+     */
+    private void configureGpuTimer() {
+        if (!benchmark.isEnabled()) {
+            return;
+        }
+        if (!GpuTimer.isSupported(mEglCore)) {
+            Log.d(TAG, "GPU timer queries not supported; GPU stages won't be measured");
+            return;
+        }
+        final Benchmark frameBenchmark = benchmark;
+        mGpuTimer = new GpuTimer(GPU_STAGES.length, GPU_TIMER_DEPTH,
+                (section, nanos) -> frameBenchmark.stage(GPU_STAGES[section], nanos));
+    }
+
+    private void releaseGpuTimer() {
+        if (mGpuTimer != null) {
+            mGpuTimer.release(false);
+            mGpuTimer = null;
+        }
+    }
+
     private void configureWatermark() {
         if (mEnableWatermark) {
             watermarkFrameRect = new WatermarkFrameRect(context, new Texture2dProgram(Texture2dProgram.ProgramType.TEXTURE_2D), new Size(mVideoWidth, mVideoHeight));
         }
     }
 
+    /**
+     * Draws the timestamp and caption.  The overlay is created on first use, so recordings
+     * without text pay nothing; after that only labels whose text changed are laid out again.
+     */
+    private void drawTextOverlay() {
+        if (mOverlaysSuppressed) {
+            return;
+        }
+        String caption = mOverlayText;
+        if (mTextOverlay == null) {
+            if (!mEnableTimestamp && caption == null) {
+                return;
+            }
+            configureTextOverlay();
+        }
+
+        if (mEnableTimestamp && mTimestampFormatter.update(System.currentTimeMillis())) {
+            mTextOverlay.setText(mTimestampLabel, mTimestampFormatter.getChars(),
+                    TimestampFormatter.LENGTH);
+        }
+        mTextOverlay.setText(mCaptionLabel, caption);
+        mTextOverlay.drawFrame();
+    }
+
+    private void configureTextOverlay() {
+        int width = mInputWindowSurface.getWidth();
+        int height = mInputWindowSurface.getHeight();
+        float textSize = Math.max(12f, Math.min(width, height) / 24f);
+        float margin = textSize / 2f;
+
+        mTextOverlay = new TextOverlayFrameRect(
+                new Texture2dProgram(Texture2dProgram.ProgramType.TEXTURE_2D), width, height,
+                TimestampFormatter.LENGTH + MAX_CAPTION_LENGTH);
+        mTimestampLabel = mTextOverlay.addLabel(null, textSize, margin, height - margin,
+                TimestampFormatter.LENGTH);
+        int lineHeight = mTextOverlay.getLineHeight(null, textSize);
+        mCaptionLabel = mTextOverlay.addLabel(null, textSize, margin,
+                height - margin - lineHeight, MAX_CAPTION_LENGTH);
+        // The new label is empty, so make sure the next frame fills it in.
+        mTimestampFormatter.reset();
+    }
+
+    /**
+     * Samples the load and lets the policy step the degradation level.  Reschedules itself
+     * for as long as the recording lasts.  (Encoder thread.)
+     */
+    private void evaluateDegradation() {
+        RecorderStateMachine.State state = mStateMachine.getState();
+        Handler handler = mHandler;
+        if (handler == null || (state != RecorderStateMachine.State.RECORDING
+                && state != RecorderStateMachine.State.PAUSED)) {
+            return;
+        }
+        long frameInterval = mPipeline.takeFrameInterval();
+        if (state == RecorderStateMachine.State.RECORDING) {
+            mDegradationPolicy.evaluate(getThermalStatus(), frameInterval,
+                    mFramePacer.getIntervalNanos(), mFrameAccounting.getEncoderBacklog());
+        }
+        handler.postDelayed(mEvaluateDegradation, DEGRADATION_INTERVAL_MS);
+    }
+
+    /**
+     * Publishes a stats snapshot and reschedules itself for as long as the recording lasts.
+     * (Encoder thread.)
+     */
+    private void publishStats() {
+        RecorderStateMachine.State state = mStateMachine.getState();
+        Handler handler = mHandler;
+        if (handler == null || (state != RecorderStateMachine.State.RECORDING
+                && state != RecorderStateMachine.State.PAUSED)) {
+            return;
+        }
+        mStatsPublisher.publish(mStatsSampler.sample(System.nanoTime()));
+        handler.postDelayed(mPublishStats, mStatsIntervalMs);
+    }
+
+    /**
+     * Thermal status is only reported from Android 10; before that, count the device as cool
+     * and go by the frame intervals and backlog alone.
+     */
+    private int getThermalStatus() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return DegradationPolicy.THERMAL_STATUS_NONE;
+        }
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        return powerManager != null
+                ? powerManager.getCurrentThermalStatus() : DegradationPolicy.THERMAL_STATUS_NONE;
+    }
+
+    /**
+     * Puts every degradation at or below the level into effect, and lifts the rest.  The
+     * codec's size is fixed once configured, so the ladder's size step scales more cheaply
+     * instead of encoding fewer pixels.  (Encoder thread.)
+     */
+    private void applyDegradation(DegradationPolicy.Level level) {
+        if (mVideoEncoder == null) {
+            return;
+        }
+        if (level.compareTo(DegradationPolicy.Level.REDUCED_FRAME_RATE) >= 0) {
+            mFramePacer.setFrameRate(mFrameRate > 0
+                    ? Math.max(MIN_DEGRADED_FRAME_RATE, mFrameRate * 2 / 3)
+                    : EncoderConfig.DEFAULT_FRAME_RATE);
+        } else {
+            mFramePacer.setFrameRate(mFrameRate);
+        }
+        mVideoEncoder.setBitRate(level.compareTo(DegradationPolicy.Level.REDUCED_BIT_RATE) >= 0
+                ? (int) (mBitRate * DEGRADED_BIT_RATE_FACTOR) : mBitRate);
+        if (level.compareTo(DegradationPolicy.Level.CHEAP_SCALING) >= 0) {
+            mFullScreen.setDownscaleFilter(null);
+        } else if (!mFullScreen.isDownscaling()) {
+            configureDownscale();
+        }
+        boolean suppress = level.compareTo(DegradationPolicy.Level.NO_OVERLAYS) >= 0;
+        if (mOverlaysSuppressed && !suppress) {
+            mTimestampFormatter.reset();    // the label went stale while hidden
+        }
+        mOverlaysSuppressed = suppress;
+    }
+
     private void releaseEncoder() {
         if (mVideoEncoder != null) {
             mVideoEncoder.release();
             mVideoEncoder = null;
         }
+        if (mSurfaceTexture != null) {
+            mSurfaceTexture.release();
+            mSurfaceTexture = null;
+        }
         if (mSurface != null) {
             mSurface.release();
             mSurface = null;
@@ -488,11 +872,16 @@ public class HWTextureMovieEncoder implements TextureMovieEncoder, Runnable, Sur
             mFullScreen.release(false);
             mFullScreen = null;
         }
+        releaseGpuTimer();
 
         if (watermarkFrameRect != null) {
             watermarkFrameRect.release(false);
             watermarkFrameRect = null;
         }
+        if (mTextOverlay != null) {
+            mTextOverlay.release(false);
+            mTextOverlay = null;
+        }
         if (mEglCore != null) {
             mEglCore.release();
             mEglCore = null;
@@ -508,23 +897,125 @@ public class HWTextureMovieEncoder implements TextureMovieEncoder, Runnable, Sur
 
 
     /**
-     * Encoder configuration.
-     * <p>
-     * Object is immutable, which means we can safely pass it between threads without
-     * explicit synchronization (and don't need to worry about it getting tweaked out from
-     * under us).
-     * <p>
-     * TODO: make frame rate and iframe interval configurable?  Maybe use builder pattern
-     * with reasonable defaults for those and bit rate.
+     * The GL and codec work behind each {@link EncoderPipeline} step.  Runs on the encoder
+     * thread, apart from enqueueAudio().
      */
+    private class EncoderPlatform implements EncoderPipeline.Platform<EncoderConfig> {
+        @Override
+        public FrameLoop.Texture open(EncoderConfig config) throws Exception {
+            prepareEncoder(config);
+            return mFrameTexture;
+        }
+
+        @Override
+        public void start() {
+            if (mCallback != null) {
+                mCallback.onStartRecord();
+            }
+            mHandler.postDelayed(mEvaluateDegradation, DEGRADATION_INTERVAL_MS);
+            if (mStatsIntervalMs > 0) {
+                mStatsSampler.start(System.nanoTime());
+                mHandler.postDelayed(mPublishStats, mStatsIntervalMs);
+            }
+        }
+
+        @Override
+        public void drawFrame(long timestampNanos, float[] transform) {
+            HWTextureMovieEncoder.this.drawFrame(timestampNanos, transform);
+        }
+
+        @Override
+        public void setPresentationTime(long nsecs) {
+            mInputWindowSurface.setPresentationTime(nsecs);
+        }
+
+        @Override
+        public void swapBuffers() {
+            HWTextureMovieEncoder.this.swapBuffers();
+        }
+
+        @Override
+        public void enqueueAudio(ByteBuffer buffer, int size, boolean endOfStream) {
+            HWVideoEncoderCore videoEncoder = mVideoEncoder;
+            if (videoEncoder != null) {
+                videoEncoder.enqueueAudioFrame(buffer, size, endOfStream, context);
+            }
+        }
+
+        @Override
+        public void drain() {
+            if (mVideoEncoder != null) {
+                mVideoEncoder.drainEncoder(true);
+            }
+        }
+
+        @Override
+        public void release() {
+            releaseEncoder();
+            if (mStatsIntervalMs > 0) {
+                // The final counts, drops the drained encoder never output included.
+                mStatsPublisher.publish(mStatsSampler.sample(System.nanoTime()));
+            }
+            FramePacer pacer = mFramePacer;
+            Log.d(TAG, "Frames in: " + pacer.getInputFrames() + " @ " + pacer.getInputFrameRate()
+                    + " fps, encoded: " + pacer.getOutputFrames() + " @ "
+                    + pacer.getOutputFrameRate() + " fps");
+        }
+    }
+
+    /**
+     * Reports pipeline failures and shuts the encoder thread down once released.
+     */
+    private class StateListener implements RecorderStateMachine.Listener {
+        private final HandlerThread mThread;
+
+        StateListener(HandlerThread thread) {
+            mThread = thread;
+        }
+
+        @Override
+        public void onStateChanged(RecorderStateMachine.State from,
+                RecorderStateMachine.State to) {
+            if (VERBOSE) Log.d(TAG, "Recorder " + from + " -> " + to);
+            if (to == RecorderStateMachine.State.RELEASED) {
+                synchronized (HWTextureMovieEncoder.this) {
+                    if (mEncoderThread == mThread) {
+                        mHandler = null;
+                    }
+                }
+                mThread.quitSafely();
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            Log.w(TAG, "Recorder failed", error);
+            if (mCallback != null) {
+                mCallback.onError(error);
+            }
+        }
+    }
 
     /**
-     * Handles encoder state change requests.  The handler is created on the encoder thread.
+     * Logs each step and applies it.  Runs on the encoder thread, from evaluateDegradation().
+     */
+    private class DegradationListener implements DegradationPolicy.Listener {
+        @Override
+        public void onLevelChanged(DegradationPolicy.Level from, DegradationPolicy.Level to,
+                String reason) {
+            Log.i(TAG, "Degradation " + from + " -> " + to + " (" + reason + ")");
+            applyDegradation(to);
+        }
+    }
+
+    /**
+     * Handles per-frame and configuration messages on the encoder thread.
      */
     private static class EncoderHandler extends Handler {
         private WeakReference<HWTextureMovieEncoder> mWeakEncoder;
 
-        public EncoderHandler(HWTextureMovieEncoder encoder) {
+        public EncoderHandler(HWTextureMovieEncoder encoder, Looper looper) {
+            super(looper);
             mWeakEncoder = new WeakReference<HWTextureMovieEncoder>(encoder);
         }
 
@@ -539,26 +1030,12 @@ public class HWTextureMovieEncoder implements TextureMovieEncoder, Runnable, Sur
             }
 
             switch (what) {
-                case MSG_START_RECORDING:
-                    encoder.handleStartRecording((EncoderConfig) obj);
-                    break;
-                case MSG_STOP_RECORDING:
-                    encoder.handleStopRecording();
-                    break;
-                case MSG_FRAME_AVAILABLE:
-                    long presentationTimestamp = (((long) inputMessage.arg1) << 32) |
-                            (((long) inputMessage.arg2) & 0xffffffffL);
-                    encoder.handleFrameAvailable(presentationTimestamp, (float[]) inputMessage.obj);
-                    break;
                 case MSG_SET_TEXTURE_ID:
                     encoder.handleSetTexture(inputMessage.arg1);
                     break;
                 case MSG_UPDATE_SHARED_CONTEXT:
                     encoder.handleUpdateSharedContext((EGLContext) inputMessage.obj);
                     break;
-                case MSG_QUIT:
-                    Looper.myLooper().quit();
-                    break;
                 default:
                     throw new RuntimeException("Unhandled msg what=" + what);
             }
@@ -21,9 +21,11 @@ import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
 import android.media.MediaMuxer;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
+import android.util.Log;
 import android.util.Size;
 import android.view.Surface;
 
@@ -32,17 +34,20 @@ import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
 import com.example.surfacerecordingdemo.recording.AudioEncoderConfig;
-import com.example.surfacerecordingdemo.recording.DataFrame;
+import com.example.surfacerecordingdemo.recording.Benchmark;
+import com.example.surfacerecordingdemo.recording.EncoderConfig;
 import com.example.surfacerecordingdemo.recording.RecordCallback;
+import com.example.surfacerecordingdemo.recording.TimestampNormalizer;
 import com.example.surfacerecordingdemo.recording.Utils;
 import com.example.surfacerecordingdemo.recording.VideoEncoderCore;
+import com.example.surfacerecordingdemo.recording.metrics.FrameAccounting;
+import com.example.surfacerecordingdemo.recording.metrics.FrameStats;
+import com.example.surfacerecordingdemo.recording.metrics.RecordingCounters;
 
 import java.io.File;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
 
 import static android.os.Build.VERSION_CODES.LOLLIPOP;
 
@@ -55,12 +60,19 @@ import static android.os.Build.VERSION_CODES.LOLLIPOP;
  * <p>
  * This class is not thread-safe, with one exception: it is valid to use the input surface
  * on one thread, and drain the output on a different thread.
+ * <p>
+ * Encoded video is drained on a dedicated "VideoDrain" thread (and audio on "AudioHandler"),
+ * never on the thread rendering into the input surface, so a burst of output buffers or a
+ * slow muxer write can't hold up the next frame.  What happens to each buffer is up to an
+ * {@link EncoderSession}; this class creates the codecs, muxer and threads and hands the
+ * codecs' callbacks over to it.
  */
 @RequiresApi(LOLLIPOP)
 public class HWVideoEncoderCore implements VideoEncoderCore {
+    private static final String TAG = "VideoEncoderCore";
     private Context context;
 
-    private static final int FRAME_RATE = 24;
+    private static final int FRAME_RATE = EncoderConfig.DEFAULT_FRAME_RATE;
     public static final int MAX_INPUT_SIZE = 0;
     private static final String VIDEO_MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;    // H.264 Advanced Video Coding
     private static final String AUDIO_MIME_TYPE = MediaFormat.MIMETYPE_AUDIO_AAC;
@@ -71,32 +83,34 @@ public class HWVideoEncoderCore implements VideoEncoderCore {
     private MediaMuxer mMuxer;
     private MediaCodec mVideoEncoder;
     private MediaCodec mAudioEncoder;
-    private MediaCodec.BufferInfo mVBufferInfo;
-    private MediaCodec.BufferInfo mABufferInfo;
-    private int mVTrackIndex;
-    private int mATrackIndex;
-    private boolean mMuxerStarted;
-    private boolean mStreamEnded;
-    private long mRecordStartedAt = 0;
+    private final EncoderSession<MediaFormat> mSession;
 
     private RecordCallback mCallback;
     private Handler mMainHandler;
     private Handler mVideoHandler;
     private Handler mAudioHandler;
-    // is audio empty , if true, we should add a frame of audio data to the muxer
-    private boolean mEnableAudio;
-    private boolean mIsAudioEmpty;
     private String mCoverPath;
 
-    Callback cb = null;
-
-    private BlockingQueue<DataFrame> audioFrameQueue = new LinkedBlockingDeque<>();
-
-    interface Callback {
-        void onAudioFrameProceed();
+    private final EncoderSession.Listener mSessionListener = new EncoderSession.Listener() {
+        @Override
+        public void onFinished(FrameStats frameStats, long durationMillis) {
+            if (mCallback != null) {
+                mMainHandler.post(() -> {
+                    File outFile = new File(mPath);
+                    List<File> result = new ArrayList<>();
+                    result.add(outFile);
+                    mCallback.onRecordSuccess(result, mCoverPath, durationMillis, frameStats);
+                });
+            }
+        }
 
-        void onVideoFrameProceed();
-    }
+        @Override
+        public void onFailed(IllegalStateException error, long durationMillis) {
+            if (mCallback != null) {
+                mMainHandler.post(() -> mCallback.onRecordFailed(error, durationMillis));
+            }
+        }
+    };
 
     private MediaCodec.Callback videoCallback = new MediaCodec.Callback() {
         @Override
@@ -106,49 +120,11 @@ public class HWVideoEncoderCore implements VideoEncoderCore {
         @Override
         public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
             try {
-                if (mMuxerStarted) {
-                    if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                        mStreamEnded = true;
-                    }
-
-                    if (index >= 0 && !mStreamEnded) {
-                        mVBufferInfo = info;
-
-                        ByteBuffer encodedData = mVideoEncoder.getOutputBuffer(index);
-
-                        if ((mVBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                            // The codec config data was pulled out and fed to the muxer when we got
-                            // the INFO_OUTPUT_FORMAT_CHANGED status.  Ignore it.
-                            mVBufferInfo.size = 0;
-                        }
-
-                        if (mVBufferInfo.size != 0) {
-                            // adjust the ByteBuffer values to match BufferInfo (not needed?)
-                            encodedData.position(mVBufferInfo.offset);
-                            encodedData.limit(mVBufferInfo.offset + mVBufferInfo.size);
-
-                            mVBufferInfo.presentationTimeUs = System.nanoTime() / 1000;
-
-                            mMuxer.writeSampleData(mVTrackIndex, encodedData, mVBufferInfo);
-                        }
-
-                        mVideoEncoder.releaseOutputBuffer(index, false);
-
-                        if ((mVBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                            mStreamEnded = true;
-                        }
-                    } else {
-                        mVideoEncoder.releaseOutputBuffer(index, false);
-                    }
-                } else {
-                    mVideoEncoder.releaseOutputBuffer(index, false);
-                }
-
-                if (cb != null) {
-                    cb.onVideoFrameProceed();
-                }
-            } catch (Exception e) {
-
+                mSession.onVideoOutput(index, info.offset, info.size, info.presentationTimeUs,
+                        info.flags);
+            } catch (RuntimeException e) {
+                // Typically released meanwhile.
+                Log.w(TAG, "Couldn't write video", e);
             }
         }
 
@@ -158,106 +134,29 @@ public class HWVideoEncoderCore implements VideoEncoderCore {
 
         @Override
         public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
-            // should happen before receiving buffers, and should only happen once
-            if (mMuxerStarted) {
-                throw new RuntimeException("format changed twice");
-            }
-            MediaFormat newFormat = mVideoEncoder.getOutputFormat();
-
-            // now that we have the Magic Goodies, start the muxer
-            mVTrackIndex = mMuxer.addTrack(newFormat);
-            tryStartMuxer();
+            mSession.onVideoFormatChanged(codec.getOutputFormat());
         }
     };
 
     private MediaCodec.Callback audioCallback = new MediaCodec.Callback() {
         @Override
         public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
-            try {
-                if (index >= 0) { // In case we didn't get any input buffer, it may be blocked by all output buffers being
-                    // full, thus try to drain them below if we didn't get any
-                    ByteBuffer in = mAudioEncoder.getInputBuffer(index);
-                    in.clear();
-                    DataFrame data = audioFrameQueue.take();
-                    ByteBuffer buffer = data.getByteBuffer();
-                    int size = data.getSize();
-                    boolean endOfStream = data.getEndOfStream();
-                    long presentTimeUs = data.getPresentTimeUs();
-                    if (size < 0) {
-                        size = 0;
-                    }
-                    if (buffer == null) {
-                        buffer = ByteBuffer.allocate(0);
-                        size = 0;
-                    }
-                    in.position(0);
-                    in.limit(size);
-                    buffer.position(0);
-                    buffer.limit(size);
-
-                    in.put(buffer); // Here we should ensure that `size` is smaller than the capacity of the `in` buffer
-                    int flag = endOfStream ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0;
-                    mAudioEncoder.queueInputBuffer(index, 0, size, presentTimeUs, flag);
-                } else if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                    // if input buffers are full try to drain them
-                }
-            } catch (Exception e) {
-            }
+            mSession.onAudioInputAvailable(index);
         }
 
         @Override
         public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
             try {
-                if (mMuxerStarted) {
-                    if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                        mStreamEnded = true;
-                    }
-
-                    if (index >= 0 && !mStreamEnded) {
-                        mABufferInfo = info;
-
-                        if ((mABufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                            // ignore codec config
-                            mABufferInfo.size = 0;
-                        }
-
-                        if (mABufferInfo.size != 0) {
-                            ByteBuffer out = mAudioEncoder.getOutputBuffer(index);
-                            out.position(mABufferInfo.offset);
-                            out.limit(mABufferInfo.offset + mABufferInfo.size);
-
-                            mABufferInfo.presentationTimeUs = System.nanoTime() / 1000;
-
-                            mMuxer.writeSampleData(mATrackIndex, out, mABufferInfo);
-                            mIsAudioEmpty = false;
-                        }
-
-                        mAudioEncoder.releaseOutputBuffer(index, false);
-
-                        if ((mABufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                            mStreamEnded = true;
-                        }
-                    } else {
-//                        mAudioEncoder.releaseOutputBuffer(index, false);
-                    }
-                } else {
-                    mAudioEncoder.releaseOutputBuffer(index, false);
-                }
-
-                if (cb != null) {
-                    cb.onAudioFrameProceed();
-                }
-            } catch (Exception e) {
+                mSession.onAudioOutput(index, info.offset, info.size, info.presentationTimeUs,
+                        info.flags);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Couldn't write audio", e);
             }
         }
 
         @Override
         public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
-            if (mATrackIndex != -1) {
-                throw new RuntimeException("format changed twice");
-            }
-            mATrackIndex = mMuxer.addTrack(mAudioEncoder.getOutputFormat());
-            tryStartMuxer();
+            mSession.onAudioFormatChanged(codec.getOutputFormat());
         }
 
         @Override
@@ -272,48 +171,97 @@ public class HWVideoEncoderCore implements VideoEncoderCore {
     public HWVideoEncoderCore(Context context, int width, int height, int bitRate, File outputFile, boolean enableAudio,
                               @Nullable AudioEncoderConfig audioEncoderConfig)
             throws Exception {
+        this(context, null, width, height, bitRate, FRAME_RATE, outputFile, enableAudio, audioEncoderConfig);
+    }
+
+    /**
+     * Configures encoder and muxer state.
+     * <p>
+     * With a persistent input surface (see MediaCodec#createPersistentInputSurface) the encoder
+     * is configured at exactly width x height and reads from that surface, and each frame keeps
+     * the presentation time its producer set.  Without one, the encoder picks the largest
+     * size that fits the screen and creates its own input surface.
+     *
+     * @param persistentInputSurface Surface to encode from, or null to create one.
+     */
+    public HWVideoEncoderCore(Context context, @Nullable Surface persistentInputSurface, int width, int height,
+                              int bitRate, int frameRate, File outputFile, boolean enableAudio,
+                              @Nullable AudioEncoderConfig audioEncoderConfig)
+            throws Exception {
         this.context = context;
         mMainHandler = new Handler(Looper.getMainLooper());
+        mVideoHandler = createHandler("VideoDrain");
+        boolean hasAudio = enableAudio && audioEncoderConfig != null;
 
-        mVBufferInfo = new MediaCodec.BufferInfo();
-        mABufferInfo = new MediaCodec.BufferInfo();
+        // Create a MediaMuxer.  We can't add the video track and start() the muxer here,
+        // because our MediaFormat doesn't have the Magic Goodies.  These can only be
+        // obtained from the encoder after it has started processing data.
+        //
+        // The codecs call back on their drain threads as soon as they start, so the session
+        // must be in place before either is configured.
+        mPath = outputFile.toString();
+        mMuxer = new MediaMuxer(mPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        mSession = new EncoderSession<>(new MuxerAdapter(mMuxer), hasAudio,
+                persistentInputSurface != null, TimestampNormalizer.SYSTEM_CLOCK,
+                EncoderSession.BLOCKING_WAITER);
+        mSession.setListener(mSessionListener);
+
+        try {
+            createEncoders(persistentInputSurface, width, height, bitRate, frameRate,
+                    hasAudio, audioEncoderConfig);
+        } catch (Exception e) {
+            releaseAfterFailedSetup();
+            throw e;
+        }
+    }
 
-        mVideoEncoder = createVideoEncoder(width, height, bitRate);
+    /**
+     * Undoes a partly finished constructor.  The muxer never started, so it is released
+     * without stop(), which would fail, and no result is reported.
+     */
+    private void releaseAfterFailedSetup() {
+        if (mVideoEncoder != null) {
+            mVideoEncoder.release();
+            mVideoEncoder = null;
+        }
+        if (mAudioEncoder != null) {
+            mAudioEncoder.release();
+            mAudioEncoder = null;
+        }
+        mMuxer.release();
+        mMuxer = null;
+        mVideoHandler.getLooper().quit();
+        if (mAudioHandler != null) {
+            mAudioHandler.getLooper().quit();
+        }
+    }
+
+    private void createEncoders(@Nullable Surface persistentInputSurface, int width, int height,
+                                int bitRate, int frameRate, boolean enableAudio,
+                                @Nullable AudioEncoderConfig audioEncoderConfig)
+            throws Exception {
+        if (persistentInputSurface != null) {
+            mVideoEncoder = createVideoEncoder(persistentInputSurface, width, height, bitRate, frameRate);
+        } else {
+            mVideoEncoder = createVideoEncoder(width, height, bitRate, frameRate);
+        }
 
-        if (enableAudio && audioEncoderConfig != null) {
+        if (enableAudio) {
             MediaFormat audioFormat = MediaFormat.createAudioFormat(AUDIO_MIME_TYPE, audioEncoderConfig.getSampleRate(), audioEncoderConfig.getChannel());
             audioFormat.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
             audioFormat.setInteger(MediaFormat.KEY_BIT_RATE, 128000);
             audioFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, MAX_INPUT_SIZE);
-            mIsAudioEmpty = true;
 
             mAudioEncoder = MediaCodec.createEncoderByType(AUDIO_MIME_TYPE);
             mAudioEncoder.configure(audioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
             mAudioHandler = createHandler("AudioHandler");
             mAudioEncoder.setCallback(audioCallback, mAudioHandler);
+            mSession.setAudioEncoder(new CodecAdapter(mAudioEncoder), mAudioHandler::post);
             mAudioEncoder.start();
         }
-
-        mStreamEnded = false;
-
-        // Create a MediaMuxer.  We can't add the video track and start() the muxer here,
-        // because our MediaFormat doesn't have the Magic Goodies.  These can only be
-        // obtained from the encoder after it has started processing data.
-        //
-        // We're not actually interested in multiplexing audio.  We just want to convert m
-        // the raw H.264 elementary stream we get from MediaCodec into a .mp4 file.
-        mPath = outputFile.toString();
-        mMuxer = new MediaMuxer(mPath,
-                MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-
-        mVTrackIndex = -1;
-        mATrackIndex = -1;
-        mMuxerStarted = false;
-
-        mEnableAudio = enableAudio;
     }
 
-    private MediaCodec createVideoEncoder(int width, int height, int bitRate) {
+    private MediaCodec createVideoEncoder(int width, int height, int bitRate, int frameRate) {
         float ratio = width / (float) height;
         Size screenSize = Utils.getFullScreenSize(context);
         int[] candidateWidths = new int[]{1920, 1440, 1280, 720, 640, 320};
@@ -328,8 +276,8 @@ public class HWVideoEncoderCore implements VideoEncoderCore {
                     videoFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT,
                             MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
                     videoFormat.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
-                    videoFormat.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
-                    videoFormat.setInteger(MediaFormat.KEY_CAPTURE_RATE, FRAME_RATE);
+                    videoFormat.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+                    videoFormat.setInteger(MediaFormat.KEY_CAPTURE_RATE, frameRate);
                     videoFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, IFRAME_INTERVAL);
                     videoFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, MAX_INPUT_SIZE);
 
@@ -339,7 +287,8 @@ public class HWVideoEncoderCore implements VideoEncoderCore {
                     videoEncoder.configure(videoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
 
                     mInputSurface = videoEncoder.createInputSurface();
-                    videoEncoder.setCallback(videoCallback);
+                    videoEncoder.setCallback(videoCallback, mVideoHandler);
+                    mSession.setVideoEncoder(new CodecAdapter(videoEncoder));
                     videoEncoder.start();
                     return videoEncoder;
                 } catch (Exception e) {
@@ -351,6 +300,44 @@ public class HWVideoEncoderCore implements VideoEncoderCore {
         throw new IllegalStateException("Partial recorder: can not prepare media recorder");
     }
 
+    private MediaCodec createVideoEncoder(Surface inputSurface, int width, int height, int bitRate,
+                                          int frameRate) throws Exception {
+        MediaFormat videoFormat = MediaFormat.createVideoFormat(VIDEO_MIME_TYPE, width, height);
+        videoFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+                MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        videoFormat.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        videoFormat.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        videoFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, IFRAME_INTERVAL);
+
+        MediaCodec videoEncoder = MediaCodec.createEncoderByType(VIDEO_MIME_TYPE);
+        try {
+            videoEncoder.configure(videoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            videoEncoder.setInputSurface(inputSurface);
+            mInputSurface = inputSurface;
+            videoEncoder.setCallback(videoCallback, mVideoHandler);
+            mSession.setVideoEncoder(new CodecAdapter(videoEncoder));
+            videoEncoder.start();
+        } catch (Exception e) {
+            videoEncoder.release();
+            throw e;
+        }
+        return videoEncoder;
+    }
+
+    /**
+     * Changes the target bitrate while encoding.  Takes effect within a few frames; encoders
+     * that can't adapt at runtime ignore it.
+     *
+     * @param bitRate Bits per second.
+     */
+    public void setBitRate(int bitRate) {
+        if (mVideoEncoder != null) {
+            Bundle params = new Bundle();
+            params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);
+            mVideoEncoder.setParameters(params);
+        }
+    }
+
     /**
      * Returns the encoder's input surface.
      */
@@ -362,51 +349,10 @@ public class HWVideoEncoderCore implements VideoEncoderCore {
      * Releases encoder resources.
      */
     public void release() {
-        if (mVideoEncoder != null) {
-            mVideoEncoder.stop();
-            mVideoEncoder.release();
-            mVideoEncoder = null;
-        }
-        if (mAudioEncoder != null) {
-            mAudioEncoder.stop();
-            mAudioEncoder.release();
-            mAudioEncoder = null;
-        }
-
-        if (mMuxer != null) {
-            try {
-                if (mIsAudioEmpty) {
-                    // avoid empty audio track. if the audio track is empty , muxer.stop will failed
-                    byte[] bytes = new byte[2];
-                    ByteBuffer buffer = ByteBuffer.wrap(bytes);
-                    mABufferInfo.set(0, 2, System.nanoTime() / 1000, 0);
-                    buffer.position(mABufferInfo.offset);
-                    buffer.limit(mABufferInfo.offset + mABufferInfo.size);
-                    mMuxer.writeSampleData(mATrackIndex, buffer, mABufferInfo);
-                }
-                mMuxer.stop();
-                if (mCallback != null) {
-                    mMainHandler.post(() -> {
-                        File outFile = new File(mPath);
-                        List<File> result = new ArrayList<>();
-                        result.add(outFile);
-                        mCallback.onRecordSuccess(result, mCoverPath, System.currentTimeMillis() - mRecordStartedAt);
-                    });
-                }
-            } catch (final IllegalStateException e) {
-                if (mCallback != null) {
-                    mMainHandler.post(() -> mCallback.onRecordFailed(e, System.currentTimeMillis() - mRecordStartedAt));
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-            try {
-                mMuxer.release();
-            } catch (IllegalStateException ex) {
-            }
-
-            mMuxer = null;
-        }
+        mSession.release();
+        mVideoEncoder = null;
+        mAudioEncoder = null;
+        mMuxer = null;
 
         if (mVideoHandler != null) {
             mVideoHandler.getLooper().quit();
@@ -421,19 +367,38 @@ public class HWVideoEncoderCore implements VideoEncoderCore {
     }
 
     /**
-     * Extracts all pending data from the encoder and forwards it to the muxer.
-     * <p>
-     * If endOfStream is not set, this returns when there is no more data to drain.  If it
-     * is set, we send EOS to the encoder, and then iterate until we see EOS on the output.
-     * Calling this with endOfStream set should be done once, right before stopping the muxer.
+     * @see EncoderSession#setFrameAccounting(FrameAccounting)
+     */
+    public void setFrameAccounting(FrameAccounting accounting) {
+        mSession.setFrameAccounting(accounting);
+    }
+
+    /**
+     * @see EncoderSession#setRecordingCounters(RecordingCounters)
+     */
+    public void setRecordingCounters(RecordingCounters counters) {
+        mSession.setRecordingCounters(counters);
+    }
+
+    /**
+     * Sets where encode latency, muxer writes and audio queueing delay are recorded; null to
+     * stop recording them.  (Call from any thread.)
+     */
+    public void setBenchmark(@Nullable Benchmark benchmark) {
+        mSession.setBenchmark(benchmark);
+    }
+
+    /**
+     * Finishes the streams.  Output is drained on the codec callback threads as it comes, so
+     * without endOfStream there is nothing to do.
      * <p>
-     * We're just using the muxer to get a .mp4 file (instead of a raw H.264 stream).  We're
-     * not recording audio.
+     * With endOfStream, blocks until both encoders have output everything they hold; see
+     * {@link EncoderSession#drain()}.  Call once, from a thread other than the drain threads,
+     * before {@link #release()}.
      */
     public void drainEncoder(boolean endOfStream) {
-        if (endOfStream) {
-            mVideoEncoder.signalEndOfInputStream();
-            mStreamEnded = true;
+        if (endOfStream && !mSession.drain()) {
+            Log.w(TAG, "Encoders didn't reach end of stream; dropping the rest");
         }
     }
 
@@ -445,42 +410,99 @@ public class HWVideoEncoderCore implements VideoEncoderCore {
      * @param endOfStream is this frame the end
      */
     public void enqueueAudioFrame(ByteBuffer buffer, int size, boolean endOfStream, Context context) {
-        if (mAudioEncoder != null) {
-            long presentTimeUs = System.nanoTime() / 1000;
-            int numberOfChunks = 8;
-            int chunkSize = size / numberOfChunks;
-            ByteBuffer[] chunks = splitBuffer(buffer, size, numberOfChunks);
-            for (ByteBuffer chunk : chunks) {
-                audioFrameQueue.add(new DataFrame(chunk, chunkSize, endOfStream, presentTimeUs));
-            }
-        }
+        mSession.enqueueAudio(buffer, size, endOfStream);
+    }
+
+    private Handler createHandler(String name) {
+        HandlerThread thread = new HandlerThread(name);
+        thread.start();
+        return new Handler(thread.getLooper());
     }
 
-    private ByteBuffer[] splitBuffer(ByteBuffer buffer, int size, int n) {
-        ByteBuffer[] buffers = new ByteBuffer[n];
-        int chunkSize = size / n;
-        for (int i = 0; i < n; i++) {
-            byte[] chunk = new byte[chunkSize];
-            buffer.get(chunk, 0, chunkSize);
-            buffers[i] = ByteBuffer.wrap(chunk);
+    /**
+     * A started MediaCodec, as the session drives it.
+     */
+    private static class CodecAdapter implements EncoderSession.Codec {
+        private final MediaCodec mCodec;
+
+        CodecAdapter(MediaCodec codec) {
+            mCodec = codec;
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            return mCodec.getInputBuffer(index);
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs,
+                int flags) {
+            mCodec.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+            return mCodec.getOutputBuffer(index);
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index) {
+            mCodec.releaseOutputBuffer(index, false);
+        }
+
+        @Override
+        public void signalEndOfInputStream() {
+            mCodec.signalEndOfInputStream();
+        }
+
+        @Override
+        public void stop() {
+            mCodec.stop();
+        }
+
+        @Override
+        public void release() {
+            mCodec.release();
         }
-        return buffers;
     }
 
-    private void tryStartMuxer() {
-        if (mVTrackIndex != -1  // Video track is added
-                && (!mEnableAudio || mATrackIndex != -1) // and audio track is added
-                && !mMuxerStarted) { // and muxer not started
-            // then start the muxer
+    /**
+     * MediaMuxer, as the session drives it.  Writes are serialized by the session, so one
+     * BufferInfo does for all of them.
+     */
+    private static class MuxerAdapter implements EncoderSession.Muxer<MediaFormat> {
+        private final MediaMuxer mMuxer;
+        private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+
+        MuxerAdapter(MediaMuxer muxer) {
+            mMuxer = muxer;
+        }
+
+        @Override
+        public int addTrack(MediaFormat format) {
+            return mMuxer.addTrack(format);
+        }
+
+        @Override
+        public void start() {
             mMuxer.start();
-            mMuxerStarted = true;
-            mRecordStartedAt = System.currentTimeMillis();
         }
-    }
 
-    private Handler createHandler(String name) {
-        HandlerThread thread = new HandlerThread(name);
-        thread.start();
-        return new Handler(thread.getLooper());
+        @Override
+        public void writeSampleData(int trackIndex, ByteBuffer data, int offset, int size,
+                long presentationTimeUs, int flags) {
+            mBufferInfo.set(offset, size, presentationTimeUs, flags);
+            mMuxer.writeSampleData(trackIndex, data, mBufferInfo);
+        }
+
+        @Override
+        public void stop() {
+            mMuxer.stop();
+        }
+
+        @Override
+        public void release() {
+            mMuxer.release();
+        }
     }
 }
@@ -0,0 +1,123 @@
+package com.example.surfacerecordingdemo.recording.metrics;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Converts a {@link BenchmarkRingFile} to CSV, or to Chrome trace event JSON with one counter
+ * track per metric (chrome://tracing and ui.perfetto.dev plot these).  The output format follows
+ * the extension:
+ * <pre>
+ *   java -cp classes com.example.surfacerecordingdemo.recording.metrics.BenchmarkRingConverter \
+ *       benchmark.ring benchmark.csv
+ * </pre>
+ * Samples come out oldest first.  Works on a file copied from a process that died mid-session.
+ */
+public class BenchmarkRingConverter {
+    public enum Format {
+        CSV,
+        JSON
+    }
+
+    private static final int PID = 1;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: BenchmarkRingConverter <benchmark.ring> <out.csv|out.json>");
+            System.exit(2);
+        }
+        Format format = args[1].endsWith(".json") ? Format.JSON : Format.CSV;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(args[0]));
+             Writer out = new OutputStreamWriter(new FileOutputStream(args[1]),
+                     Charset.forName("UTF-8"))) {
+            convert(in, out, format);
+        }
+    }
+
+    /**
+     * Reads a file written by {@link BenchmarkRingFile} and writes its samples.
+     *
+     * @throws IOException if the input isn't a benchmark ring file or is truncated.
+     */
+    public static void convert(InputStream stream, Writer out, Format format) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != BenchmarkRingFile.MAGIC) {
+            throw new IOException("Not a benchmark ring file");
+        }
+        int version = in.readInt();
+        if (version != BenchmarkRingFile.VERSION) {
+            throw new IOException("Unsupported benchmark ring version " + version);
+        }
+        int recordSize = in.readInt();
+        int capacity = in.readInt();
+        String[] metrics = new String[in.readInt()];
+        int headerRead = 20;
+        for (int i = 0; i < metrics.length; i++) {
+            byte[] bytes = new byte[in.readUnsignedShort()];
+            in.readFully(bytes);
+            metrics[i] = new String(bytes, Charset.forName("UTF-8"));
+            headerRead += 2 + bytes.length;
+        }
+        if (recordSize < BenchmarkRingFile.RECORD_SIZE || capacity < 1
+                || headerRead > BenchmarkRingFile.HEADER_SIZE) {
+            throw new IOException("Corrupt benchmark ring header");
+        }
+        in.readFully(new byte[BenchmarkRingFile.HEADER_SIZE - headerRead]);
+        byte[] records = new byte[recordSize * capacity];
+        in.readFully(records);
+        ByteBuffer buffer = ByteBuffer.wrap(records);
+
+        long newest = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            newest = Math.max(newest,
+                    buffer.getLong(slot * recordSize + BenchmarkRingFile.OFFSET_SEQUENCE));
+        }
+
+        if (format == Format.CSV) {
+            out.write("timestamp (us),thread,metric,value (us)\n");
+        } else {
+            out.write("{\"traceEvents\":[");
+        }
+        boolean first = true;
+        // Walk sequences rather than slots: a slot whose sequence doesn't match was never
+        // written, or was cut off mid-write.
+        for (long sequence = Math.max(1, newest - capacity + 1); sequence <= newest; sequence++) {
+            int offset = (int) ((sequence - 1) % capacity) * recordSize;
+            int metric = buffer.getInt(offset + BenchmarkRingFile.OFFSET_METRIC);
+            if (buffer.getLong(offset + BenchmarkRingFile.OFFSET_SEQUENCE) != sequence
+                    || metric < 0 || metric >= metrics.length) {
+                continue;
+            }
+            String timestamp = TraceConverter.formatMicros(
+                    buffer.getLong(offset + BenchmarkRingFile.OFFSET_TIMESTAMP));
+            String value = TraceConverter.formatMicros(
+                    buffer.getLong(offset + BenchmarkRingFile.OFFSET_VALUE));
+            int threadId = buffer.getInt(offset + BenchmarkRingFile.OFFSET_THREAD);
+
+            if (format == Format.CSV) {
+                out.write(timestamp + "," + threadId + "," + metrics[metric] + "," + value + "\n");
+            } else {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                out.write("{\"name\":" + TraceConverter.quote(metrics[metric])
+                        + ",\"cat\":\"benchmark\",\"ph\":\"C\",\"ts\":" + timestamp
+                        + ",\"pid\":" + PID + ",\"tid\":" + threadId
+                        + ",\"args\":{\"us\":" + value + "}}");
+            }
+        }
+        if (format == Format.JSON) {
+            out.write("],\"displayTimeUnit\":\"ms\"}\n");
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.surfacerecordingdemo.recording.metrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams benchmark samples into a memory-mapped file of fixed-size records, overwriting the
+ * oldest once full.
+ * <p>
+ * Each sample is written straight into the mapping as it's recorded, so memory use doesn't
+ * grow with the session and samples already recorded survive the process dying: the pages
+ * belong to the kernel, which writes them out regardless.  A background thread also forces
+ * the mapping to storage every so often, bounding what a device crash can lose.  Recording
+ * claims a slot with one atomic increment and allocates nothing.
+ * <p>
+ * {@link BenchmarkRingConverter} turns the file into CSV or JSON off the device.
+ * <p>
+ * File format (big-endian): a {@value #HEADER_SIZE}-byte header of magic, version, record
+ * size, capacity, metric count and metric names (each a 2-byte length and UTF-8 bytes), then
+ * capacity records of: sequence (long, from 1; 0 for an empty slot), timestamp (long,
+ * System.nanoTime()), value (long, ns), metric (int), thread ID (int).  The sequence is written
+ * last, so a record cut off by a crash is skipped rather than read torn.
+ */
+public class BenchmarkRingFile implements Closeable {
+    static final int MAGIC = 0x53524246;       // "SRBF"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4096;
+    static final int RECORD_SIZE = 32;
+
+    static final int OFFSET_SEQUENCE = 0;
+    static final int OFFSET_TIMESTAMP = 8;
+    static final int OFFSET_VALUE = 16;
+    static final int OFFSET_METRIC = 24;
+    static final int OFFSET_THREAD = 28;
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mBuffer;
+    private final int mCapacity;
+    private final AtomicLong mCursor = new AtomicLong();
+    private final ScheduledExecutorService mFlusher;
+    private volatile boolean mClosed;
+
+    /**
+     * Creates (or truncates) the file and maps it.
+     *
+     * @param metricNames          Name of each metric index passed to {@link #record}.
+     * @param capacity             Number of records kept.
+     * @param flushIntervalMillis  How often to force the mapping to storage.
+     */
+    public BenchmarkRingFile(File file, String[] metricNames, int capacity,
+            long flushIntervalMillis) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        mCapacity = capacity;
+        mFile = new RandomAccessFile(file, "rw");
+        try {
+            mFile.setLength(0);     // stale records from an older file would otherwise show
+            long length = HEADER_SIZE + (long) RECORD_SIZE * capacity;
+            mBuffer = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            writeHeader(metricNames);
+        } catch (IOException | RuntimeException e) {
+            mFile.close();
+            throw e;
+        }
+
+        mFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "BenchmarkFlush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mFlusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void writeHeader(String[] metricNames) {
+        Charset utf8 = Charset.forName("UTF-8");
+        mBuffer.putInt(MAGIC);
+        mBuffer.putInt(VERSION);
+        mBuffer.putInt(RECORD_SIZE);
+        mBuffer.putInt(mCapacity);
+        mBuffer.putInt(metricNames.length);
+        for (String name : metricNames) {
+            byte[] bytes = name.getBytes(utf8);
+            if (mBuffer.position() + 2 + bytes.length > HEADER_SIZE) {
+                throw new IllegalArgumentException("Metric names don't fit the header");
+            }
+            mBuffer.putShort((short) bytes.length);
+            mBuffer.put(bytes);
+        }
+    }
+
+    /**
+     * Records a sample, timestamped now, on the calling thread.  Ignored once closed.  (Call
+     * from any thread.)
+     */
+    public void record(int metric, long valueNanos) {
+        if (mClosed) {
+            return;
+        }
+        long sequence = mCursor.incrementAndGet();
+        int offset = HEADER_SIZE + (int) ((sequence - 1) % mCapacity) * RECORD_SIZE;
+        mBuffer.putLong(offset + OFFSET_SEQUENCE, 0);
+        mBuffer.putLong(offset + OFFSET_TIMESTAMP, System.nanoTime());
+        mBuffer.putLong(offset + OFFSET_VALUE, valueNanos);
+        mBuffer.putInt(offset + OFFSET_METRIC, metric);
+        mBuffer.putInt(offset + OFFSET_THREAD, (int) Thread.currentThread().getId());
+        mBuffer.putLong(offset + OFFSET_SEQUENCE, sequence);
+    }
+
+    /**
+     * Returns the number of samples recorded, including any since overwritten.
+     */
+    public long getRecordCount() {
+        return mCursor.get();
+    }
+
+    /**
+     * Forces recorded samples to storage.  Runs periodically on its own; call it to make sure
+     * at a particular point.
+     */
+    public void flush() {
+        if (!mClosed) {
+            mBuffer.force();
+        }
+    }
+
+    /**
+     * Stops the flush thread, flushes, and closes the file.  Later samples are ignored.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mFlusher.shutdown();
+        try {
+            mFlusher.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mBuffer.force();
+        mClosed = true;
+        mFile.close();
+    }
+}
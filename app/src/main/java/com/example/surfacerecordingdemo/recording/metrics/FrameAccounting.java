@@ -0,0 +1,148 @@
+package com.example.surfacerecordingdemo.recording.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts frames through capture, latch, draw, encode and mux, and every frame lost on the way
+ * by the stage and {@link Drop cause} that lost it.
+ * <p>
+ * Drawn frames are remembered by presentation time until the encoder outputs them; outputs
+ * come back in presentation order, so an output that skips past remembered frames means the
+ * encoder dropped those ({@link Drop#ENCODER_BACKPRESSURE}).
+ * <p>
+ * Each method notes which thread calls it: captures, latches and draws come from the
+ * SurfaceTexture callback and GL threads, encoder output from the codec drain thread.
+ * {@link #snapshot()} may be called from any thread at any time for live counts.
+ */
+public class FrameAccounting {
+    public enum Drop {
+        /** Announced by SurfaceTexture, but its buffer was gone by the time it was latched. */
+        LATE_LATCH,
+        /** Latched, then replaced by a newer frame before it could be drawn. */
+        COALESCED,
+        /** Skipped to hold the target frame rate (see FramePacer). */
+        PACED,
+        /** Arrived while paused, before recording started or after it stopped. */
+        NOT_RECORDING,
+        /** Drawn into the encoder, but never came out of it. */
+        ENCODER_BACKPRESSURE,
+        /** Encoded before every track was added, so the muxer could not take it. */
+        MUXER_NOT_STARTED,
+        /** Encoded after end of stream was signalled. */
+        AFTER_STOP
+    }
+
+    private static final int PENDING_CAPACITY = 256;
+    private static final int PENDING_MASK = PENDING_CAPACITY - 1;
+
+    private final AtomicLong mCaptured = new AtomicLong();
+    private final AtomicLong mDrawn = new AtomicLong();
+    private final AtomicLong mEncoded = new AtomicLong();
+    private final AtomicLong mMuxed = new AtomicLong();
+    private final AtomicLongArray mDropped = new AtomicLongArray(Drop.values().length);
+
+    // Presentation times (us) of drawn frames not yet output, oldest at mPendingHead.
+    private final long[] mPending = new long[PENDING_CAPACITY];
+    private final AtomicLong mPendingHead = new AtomicLong();
+    private final AtomicLong mPendingTail = new AtomicLong();
+
+    /**
+     * A frame was announced by the producer.  (SurfaceTexture callback thread.)
+     */
+    public void onCaptured() {
+        mCaptured.incrementAndGet();
+    }
+
+    /**
+     * A frame was drawn into the encoder's input surface.  (GL thread.)
+     *
+     * @param presentationTimeNanos The time it was stamped with.
+     */
+    public void onDrawn(long presentationTimeNanos) {
+        mDrawn.incrementAndGet();
+        long tail = mPendingTail.get();
+        if (tail - mPendingHead.get() < PENDING_CAPACITY) {
+            mPending[(int) tail & PENDING_MASK] = presentationTimeNanos / 1000;
+            mPendingTail.set(tail + 1);
+        }
+        // Otherwise the encoder is hundreds of frames behind; the frame goes untracked.
+    }
+
+    /**
+     * The encoder output a frame.  Follow with {@link #onMuxed()} or {@link #onDropped}.
+     * (Drain thread.)
+     */
+    public void onEncoded(long presentationTimeUs) {
+        mEncoded.incrementAndGet();
+        long head = mPendingHead.get();
+        long tail = mPendingTail.get();
+        while (head < tail && mPending[(int) head & PENDING_MASK] < presentationTimeUs) {
+            mDropped.incrementAndGet(Drop.ENCODER_BACKPRESSURE.ordinal());
+            head++;
+        }
+        if (head < tail && mPending[(int) head & PENDING_MASK] == presentationTimeUs) {
+            head++;
+        }
+        mPendingHead.set(head);
+    }
+
+    /**
+     * An encoded frame was written to the file.  (Drain thread.)
+     */
+    public void onMuxed() {
+        mMuxed.incrementAndGet();
+    }
+
+    public void onDropped(Drop cause) {
+        onDropped(cause, 1);
+    }
+
+    public void onDropped(Drop cause, long count) {
+        if (count > 0) {
+            mDropped.addAndGet(cause.ordinal(), count);
+        }
+    }
+
+    /**
+     * Counts drawn frames the encoder never output as dropped.  Call once the encoder has
+     * been drained and stopped.
+     */
+    public void finish() {
+        long pending = mPendingTail.get() - mPendingHead.get();
+        onDropped(Drop.ENCODER_BACKPRESSURE, pending);
+        mPendingHead.set(mPendingTail.get());
+    }
+
+    /**
+     * Returns the number of frames drawn into the encoder that it hasn't output yet.  (Any
+     * thread.)
+     */
+    public long getEncoderBacklog() {
+        return Math.max(0, mPendingTail.get() - mPendingHead.get());
+    }
+
+    /**
+     * Forgets all counts.  Only call while no frames are flowing, e.g. before recording.
+     */
+    public void reset() {
+        mCaptured.set(0);
+        mDrawn.set(0);
+        mEncoded.set(0);
+        mMuxed.set(0);
+        for (int i = 0; i < mDropped.length(); i++) {
+            mDropped.set(i, 0);
+        }
+        mPendingHead.set(0);
+        mPendingTail.set(0);
+    }
+
+    public FrameStats snapshot() {
+        long[] dropped = new long[mDropped.length()];
+        for (int i = 0; i < dropped.length; i++) {
+            dropped[i] = mDropped.get(i);
+        }
+        return new FrameStats(mCaptured.get(), mDrawn.get(), mEncoded.get(), mMuxed.get(),
+                dropped);
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.surfacerecordingdemo.recording.metrics;
+
+/**
+ * A machine-readable stamp of a frame's number and capture time, drawn into the top left
+ * corner of each encoded frame in diagnostic mode and read back from the decoded file by
+ * FrameCodeAnalyzer in the :tools module.
+ * <p>
+ * The code is 64 bits, drawn most significant first as a {@value #COLUMNS} x {@value #ROWS}
+ * grid of black (0) and white (1) square cells, left to right then top to bottom: an 8-bit
+ * marker, the low 16 bits of the frame number, the low 32 bits of the capture time in
+ * microseconds, and a CRC-8 of those six bytes.  Cells are large enough to survive the
+ * encoder (see {@link #cellSize}), and the marker and CRC reject frames whose corner isn't a
+ * readable code.
+ */
+public final class FrameCode {
+    public static final int COLUMNS = 16;
+    public static final int ROWS = 4;
+    public static final int BITS = COLUMNS * ROWS;
+
+    static final int MARKER = 0xA5;
+    private static final int MIN_CELL_SIZE = 8;
+
+    /**
+     * What a code carries, truncated to the bits it has room for.
+     */
+    public static final class Payload {
+        /** Low 16 bits of the frame number. */
+        public final int frameNumber;
+        /** Low 32 bits of the capture time, in microseconds. */
+        public final long timestampUs;
+
+        Payload(int frameNumber, long timestampUs) {
+            this.frameNumber = frameNumber;
+            this.timestampUs = timestampUs;
+        }
+    }
+
+    private FrameCode() {}  // do not instantiate
+
+    public static long encode(long frameNumber, long timestampUs) {
+        long payload = (frameNumber & 0xFFFFL) << 32 | (timestampUs & 0xFFFFFFFFL);
+        return (long) MARKER << 56 | payload << 8 | crc8(payload);
+    }
+
+    /**
+     * Returns what the code carries, or null if it isn't a valid code.
+     */
+    public static Payload decode(long code) {
+        long payload = code >>> 8 & 0xFFFFFFFFFFFFL;
+        if ((int) (code >>> 56) != MARKER || (int) (code & 0xFF) != crc8(payload)) {
+            return null;
+        }
+        return new Payload((int) (payload >>> 32), payload & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns whether a bit is set; bit 0 is the top left cell.
+     */
+    public static boolean isSet(long code, int bit) {
+        return (code >>> (BITS - 1 - bit) & 1) != 0;
+    }
+
+    /**
+     * Returns the side of a cell, in pixels, for a frame of the given size.
+     */
+    public static int cellSize(int width, int height) {
+        return Math.max(MIN_CELL_SIZE, Math.min(width, height) / 90);
+    }
+
+    // CRC-8, polynomial 0x07, over the six payload bytes, most significant first.
+    private static int crc8(long payload) {
+        int crc = 0;
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            crc ^= (int) (payload >>> shift) & 0xFF;
+            for (int i = 0; i < 8; i++) {
+                crc = (crc & 0x80) != 0 ? (crc << 1 ^ 0x07) & 0xFF : crc << 1 & 0xFF;
+            }
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.surfacerecordingdemo.recording.metrics;
+
+import java.util.Locale;
+
+/**
+ * Immutable frame counts for a recording, from {@link FrameAccounting#snapshot()}.
+ */
+public final class FrameStats {
+    public static final FrameStats EMPTY =
+            new FrameStats(0, 0, 0, 0, new long[FrameAccounting.Drop.values().length]);
+
+    private final long mCaptured;
+    private final long mDrawn;
+    private final long mEncoded;
+    private final long mMuxed;
+    private final long[] mDropped;
+
+    FrameStats(long captured, long drawn, long encoded, long muxed, long[] dropped) {
+        mCaptured = captured;
+        mDrawn = drawn;
+        mEncoded = encoded;
+        mMuxed = muxed;
+        mDropped = dropped;
+    }
+
+    /** Frames announced by the producer. */
+    public long getCaptured() {
+        return mCaptured;
+    }
+
+    /** Frames drawn into the encoder. */
+    public long getDrawn() {
+        return mDrawn;
+    }
+
+    /** Frames the encoder output. */
+    public long getEncoded() {
+        return mEncoded;
+    }
+
+    /** Frames written to the file. */
+    public long getMuxed() {
+        return mMuxed;
+    }
+
+    public long getDropped(FrameAccounting.Drop cause) {
+        return mDropped[cause.ordinal()];
+    }
+
+    /**
+     * Returns all drops, including deliberate ones (pacing, pauses).
+     */
+    public long getTotalDropped() {
+        long total = 0;
+        for (long count : mDropped) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the counts of this and another recording together.
+     */
+    public FrameStats plus(FrameStats other) {
+        long[] dropped = new long[mDropped.length];
+        for (int i = 0; i < dropped.length; i++) {
+            dropped[i] = mDropped[i] + other.mDropped[i];
+        }
+        return new FrameStats(mCaptured + other.mCaptured, mDrawn + other.mDrawn,
+                mEncoded + other.mEncoded, mMuxed + other.mMuxed, dropped);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder()
+                .append("captured=").append(mCaptured)
+                .append(" drawn=").append(mDrawn)
+                .append(" encoded=").append(mEncoded)
+                .append(" muxed=").append(mMuxed);
+        for (FrameAccounting.Drop cause : FrameAccounting.Drop.values()) {
+            long count = mDropped[cause.ordinal()];
+            if (count > 0) {
+                builder.append(' ').append(cause.name().toLowerCase(Locale.ROOT)).append('=').append(count);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.surfacerecordingdemo.recording.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size histogram of durations, for percentiles over sessions of any length.
+ * <p>
+ * Buckets are log-linear, as in HdrHistogram: values below 2 * {@value #SUB_BUCKETS} get a
+ * bucket each, and every power of two above that is split into {@value #SUB_BUCKETS} equal
+ * buckets, so a value is reported to within about 3% whatever its magnitude.  Values up to
+ * 2^{@value #MAX_MAGNITUDE} ns (about 18 minutes) are tracked; larger ones land in the top
+ * bucket but still count towards {@link #getMax()}.
+ * <p>
+ * Recording is lock-free and allocates nothing, so any number of threads may record while
+ * another reads.  Reads taken while recording continues are approximate.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_MASK = SUB_BUCKETS - 1;
+    static final int MAX_MAGNITUDE = 40;
+    private static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Records one duration.  Negative values are ignored.  (Call from any thread.)
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        mCounts.incrementAndGet(bucketOf(nanos));
+        mTotalCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+        long max = mMax.get();
+        while (nanos > max && !mMax.compareAndSet(max, nanos)) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        return mTotalCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * Returns the mean of all recorded values, or 0 if there are none.
+     */
+    public long getMean() {
+        long count = mTotalCount.get();
+        return count == 0 ? 0 : mTotalNanos.get() / count;
+    }
+
+    /**
+     * Returns the value at or below which the given percentage of recorded values lie, or 0
+     * if there are none.
+     *
+     * @param percentile 0 to 100.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = mTotalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        double fraction = Math.min(100.0, Math.max(0.0, percentile)) / 100.0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return Math.min(midpointOf(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /**
+     * Forgets everything recorded.  Values recorded concurrently may or may not survive.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mTotalCount.set(0);
+        mTotalNanos.set(0);
+        mMax.set(0);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude > MAX_MAGNITUDE) {
+            return BUCKETS - 1;
+        }
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & SUB_BUCKET_MASK);
+    }
+
+    static long lowestValueOf(int bucket) {
+        int group = bucket >>> SUB_BUCKET_BITS;
+        long sub = bucket & SUB_BUCKET_MASK;
+        if (group == 0) {
+            return sub;
+        }
+        return (SUB_BUCKETS + sub) << (group - 1);
+    }
+
+    private static long midpointOf(int bucket) {
+        int group = bucket >>> SUB_BUCKET_BITS;
+        long width = group <= 1 ? 1 : 1L << (group - 1);
+        return lowestValueOf(bucket) + (width >> 1);
+    }
+}
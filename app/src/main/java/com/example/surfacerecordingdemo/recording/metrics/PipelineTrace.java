@@ -0,0 +1,118 @@
+package com.example.surfacerecordingdemo.recording.metrics;
+
+import android.os.Build;
+import android.os.Trace;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Per-frame trace points for the recording pipeline.
+ * <p>
+ * Each {@link Stage} is bracketed with {@link #begin} / {@link #end} on the thread doing the
+ * work, tagged with a frame ID: the frame's presentation time in microseconds, which is known
+ * from the SurfaceTexture callback through to the encoder's output buffer.  While enabled,
+ * stages show up in systrace / Perfetto as android.os.Trace slices (async slices keyed by frame
+ * ID on Android 10 and later, plain sections before), and, if a {@link TraceRingBuffer} was
+ * given, are recorded there too for {@link TraceConverter}.
+ * <p>
+ * Disabled, each trace point is a single volatile read.
+ */
+public final class PipelineTrace {
+    public enum Stage {
+        /** SurfaceTexture.OnFrameAvailableListener, handing the frame to the encoder thread. */
+        FRAME_CALLBACK("frameCallback"),
+        /** Encoder thread picking up the newest frame and latching it. */
+        DISPATCH("dispatch"),
+        DRAW("draw"),
+        SWAP("swap"),
+        /** Codec callback handling an encoded video buffer. */
+        ENCODER_OUTPUT("encoderOutput"),
+        MUXER_WRITE("muxerWrite");
+
+        final String mLabel;
+
+        Stage(String label) {
+            mLabel = label;
+        }
+    }
+
+    private static volatile boolean sEnabled;
+    @Nullable
+    private static volatile TraceRingBuffer sBuffer;
+
+    private PipelineTrace() {
+    }
+
+    /**
+     * Starts tracing.  (Call from any thread.)
+     *
+     * @param buffer Where to keep events for {@link TraceConverter}, or null for
+     *     android.os.Trace only.
+     */
+    public static void enable(@Nullable TraceRingBuffer buffer) {
+        sBuffer = buffer;
+        sEnabled = true;
+    }
+
+    public static void disable() {
+        sEnabled = false;
+        sBuffer = null;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Returns a ring buffer sized for the given number of events, with the stage names filled
+     * in.
+     */
+    public static TraceRingBuffer createBuffer(int capacity) {
+        Stage[] stages = Stage.values();
+        String[] names = new String[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            names[i] = stages[i].mLabel;
+        }
+        return new TraceRingBuffer(names, capacity);
+    }
+
+    public static void begin(Stage stage, long frameId) {
+        if (!sEnabled) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(stage.mLabel, (int) frameId);
+        } else {
+            Trace.beginSection(stage.mLabel);
+        }
+        TraceRingBuffer buffer = sBuffer;
+        if (buffer != null) {
+            buffer.record(stage.ordinal(), TraceRingBuffer.PHASE_BEGIN, frameId, System.nanoTime());
+        }
+    }
+
+    /**
+     * Ends the slice {@link #begin} started; call on the same thread with the same arguments.
+     */
+    public static void end(Stage stage, long frameId) {
+        if (!sEnabled) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(stage.mLabel, (int) frameId);
+        } else {
+            Trace.endSection();
+        }
+        TraceRingBuffer buffer = sBuffer;
+        if (buffer != null) {
+            buffer.record(stage.ordinal(), TraceRingBuffer.PHASE_END, frameId, System.nanoTime());
+        }
+    }
+
+    /**
+     * Returns the frame ID for a presentation time in nanoseconds.
+     */
+    public static long frameId(long timestampNanos) {
+        return timestampNanos / 1000;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.surfacerecordingdemo.recording.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals for live recording statistics, kept with atomics only so the drain and audio
+ * threads never wait on whoever reads them.
+ * <p>
+ * Writers are the codec drain threads (samples written) and the audio input path (queue
+ * depth); any thread may read.  Everything but the latency maximum is cumulative, so readers
+ * take rates from the difference between two reads.
+ */
+public class RecordingCounters {
+    private final AtomicLong mBytesWritten = new AtomicLong();
+    private final AtomicLong mVideoFramesWritten = new AtomicLong();
+    private final AtomicLong mLatencySumNanos = new AtomicLong();
+    private final AtomicLong mMaxLatencyNanos = new AtomicLong();
+    private final AtomicInteger mAudioQueueDepth = new AtomicInteger();
+
+    /**
+     * An encoded video frame was written to the file.  (Video drain thread.)
+     *
+     * @param latencyNanos From its capture until now.
+     */
+    public void onVideoWritten(int bytes, long latencyNanos) {
+        mBytesWritten.addAndGet(bytes);
+        mLatencySumNanos.addAndGet(latencyNanos);
+        mVideoFramesWritten.incrementAndGet();
+        long max;
+        do {
+            max = mMaxLatencyNanos.get();
+        } while (latencyNanos > max && !mMaxLatencyNanos.compareAndSet(max, latencyNanos));
+    }
+
+    /**
+     * An encoded audio sample was written to the file.  (Audio drain thread.)
+     */
+    public void onAudioWritten(int bytes) {
+        mBytesWritten.addAndGet(bytes);
+    }
+
+    public void onAudioQueued() {
+        mAudioQueueDepth.incrementAndGet();
+    }
+
+    public void onAudioDequeued() {
+        mAudioQueueDepth.decrementAndGet();
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten.get();
+    }
+
+    public long getVideoFramesWritten() {
+        return mVideoFramesWritten.get();
+    }
+
+    /**
+     * Returns the sum of every written video frame's latency, in nanoseconds.
+     */
+    public long getLatencySumNanos() {
+        return mLatencySumNanos.get();
+    }
+
+    /**
+     * Returns the highest video frame latency since the last call, and starts over.
+     */
+    public long takeMaxLatencyNanos() {
+        return mMaxLatencyNanos.getAndSet(0);
+    }
+
+    public int getAudioQueueDepth() {
+        return Math.max(0, mAudioQueueDepth.get());
+    }
+
+    /**
+     * Forgets all counts.  Only call while nothing is being written, e.g. before recording.
+     */
+    public void reset() {
+        mBytesWritten.set(0);
+        mVideoFramesWritten.set(0);
+        mLatencySumNanos.set(0);
+        mMaxLatencyNanos.set(0);
+        mAudioQueueDepth.set(0);
+    }
+}
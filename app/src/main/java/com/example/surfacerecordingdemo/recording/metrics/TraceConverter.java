@@ -0,0 +1,118 @@
+package com.example.surfacerecordingdemo.recording.metrics;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Converts a {@link TraceRingBuffer} file to the Chrome trace event JSON format, which
+ * chrome://tracing and ui.perfetto.dev open directly.  Run it on a trace pulled from the device:
+ * <pre>
+ *   java -cp classes com.example.surfacerecordingdemo.recording.metrics.TraceConverter \
+ *       trace.bin trace.json
+ * </pre>
+ * Every event becomes a duration slice on its thread, tagged with its frame ID, and also an
+ * async slice keyed by that frame ID, so one frame can be followed from the SurfaceTexture
+ * callback through drawing to the encoder output across threads.
+ */
+public class TraceConverter {
+    private static final int PID = 1;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: TraceConverter <trace.bin> <trace.json>");
+            System.exit(2);
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(args[0]));
+             Writer out = new OutputStreamWriter(new FileOutputStream(args[1]),
+                     Charset.forName("UTF-8"))) {
+            convert(in, out);
+        }
+    }
+
+    /**
+     * Reads a trace written by {@link TraceRingBuffer#writeTo} and writes it as JSON.
+     *
+     * @throws IOException if the input isn't a trace or is truncated.
+     */
+    public static void convert(InputStream stream, Writer out) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != TraceRingBuffer.MAGIC) {
+            throw new IOException("Not a pipeline trace");
+        }
+        int version = in.readInt();
+        if (version != TraceRingBuffer.VERSION) {
+            throw new IOException("Unsupported trace version " + version);
+        }
+        String[] stages = new String[in.readInt()];
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = in.readUTF();
+        }
+
+        out.write("{\"traceEvents\":[");
+        boolean first = true;
+        int threadCount = in.readInt();
+        for (int i = 0; i < threadCount; i++) {
+            int threadId = in.readInt();
+            String name = in.readUTF();
+            first = separate(out, first);
+            out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":" + PID + ",\"tid\":"
+                    + threadId + ",\"args\":{\"name\":" + quote(name) + "}}");
+        }
+
+        int eventCount = in.readInt();
+        for (int i = 0; i < eventCount; i++) {
+            long timestampNanos = in.readLong();
+            long frameId = in.readLong();
+            int threadId = in.readInt();
+            int stage = in.readUnsignedByte();
+            char phase = (char) in.readUnsignedByte();
+            String name = quote(stage < stages.length ? stages[stage] : "stage" + stage);
+            String ts = formatMicros(timestampNanos);
+
+            first = separate(out, first);
+            out.write("{\"name\":" + name + ",\"cat\":\"pipeline\",\"ph\":\"" + phase
+                    + "\",\"ts\":" + ts + ",\"pid\":" + PID + ",\"tid\":" + threadId
+                    + ",\"args\":{\"frame\":" + frameId + "}}");
+            out.write(",{\"name\":" + name + ",\"cat\":\"frame\",\"ph\":\""
+                    + Character.toLowerCase(phase) + "\",\"id\":\"" + frameId + "\",\"ts\":" + ts
+                    + ",\"pid\":" + PID + ",\"tid\":" + threadId + "}");
+        }
+        out.write("],\"displayTimeUnit\":\"ms\"}\n");
+        out.flush();
+    }
+
+    private static boolean separate(Writer out, boolean first) throws IOException {
+        if (!first) {
+            out.write(',');
+        }
+        return false;
+    }
+
+    static String formatMicros(long nanos) {
+        long micros = nanos / 1000;
+        long fraction = Math.abs(nanos % 1000);
+        return micros + "." + (fraction < 10 ? "00" : fraction < 100 ? "0" : "") + fraction;
+    }
+
+    static String quote(String text) {
+        StringBuilder builder = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.surfacerecordingdemo.recording.metrics;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size, in-memory trace of begin/end events, overwriting the oldest once full.
+ * <p>
+ * Each event is a timestamp, a frame ID, the recording thread, a stage index and a phase, kept
+ * in preallocated primitive arrays: recording claims a slot with one atomic increment and
+ * allocates nothing (apart from remembering a thread's name the first time it records).
+ * <p>
+ * {@link #writeTo(OutputStream)} saves the events in a compact binary form that
+ * {@link TraceConverter} turns into Chrome / Perfetto JSON.  Write it once recording has
+ * stopped; events recorded during the write may come out torn.
+ * <p>
+ * File format (big-endian, as DataOutputStream): magic, version, stage count and names,
+ * thread count and (id, name) pairs, event count, then per event: timestamp (long, ns),
+ * frame ID (long), thread ID (int), stage (byte), phase (byte).
+ */
+public class TraceRingBuffer {
+    static final int MAGIC = 0x53525452;       // "SRTR"
+    static final int VERSION = 1;
+
+    public static final byte PHASE_BEGIN = 'B';
+    public static final byte PHASE_END = 'E';
+
+    private final String[] mStageNames;
+    private final int mCapacity;
+    private final long[] mTimestamps;
+    private final long[] mFrameIds;
+    private final int[] mThreadIds;
+    private final byte[] mStages;
+    private final byte[] mPhases;
+    private final AtomicLong mCursor = new AtomicLong();
+    private final Map<Integer, String> mThreadNames = new ConcurrentHashMap<>();
+    private final ThreadLocal<Boolean> mThreadNamed = new ThreadLocal<>();
+
+    /**
+     * @param stageNames Name of each stage index passed to {@link #record}; at most 256.
+     * @param capacity   Number of events kept.
+     */
+    public TraceRingBuffer(String[] stageNames, int capacity) {
+        if (stageNames.length > 256 || capacity < 1) {
+            throw new IllegalArgumentException();
+        }
+        mStageNames = stageNames.clone();
+        mCapacity = capacity;
+        mTimestamps = new long[capacity];
+        mFrameIds = new long[capacity];
+        mThreadIds = new int[capacity];
+        mStages = new byte[capacity];
+        mPhases = new byte[capacity];
+    }
+
+    /**
+     * Records an event on the calling thread.  (Call from any thread.)
+     *
+     * @param phase {@link #PHASE_BEGIN} or {@link #PHASE_END}.
+     */
+    public void record(int stage, byte phase, long frameId, long timestampNanos) {
+        Thread thread = Thread.currentThread();
+        int threadId = (int) thread.getId();
+        if (mThreadNamed.get() == null) {
+            mThreadNamed.set(Boolean.TRUE);
+            mThreadNames.put(threadId, thread.getName());
+        }
+        int slot = (int) (mCursor.getAndIncrement() % mCapacity);
+        mTimestamps[slot] = timestampNanos;
+        mFrameIds[slot] = frameId;
+        mThreadIds[slot] = threadId;
+        mStages[slot] = (byte) stage;
+        mPhases[slot] = phase;
+    }
+
+    /**
+     * Returns the number of events currently held.
+     */
+    public int size() {
+        return (int) Math.min(mCursor.get(), mCapacity);
+    }
+
+    public void clear() {
+        mCursor.set(0);
+    }
+
+    /**
+     * Writes the held events, oldest first.
+     */
+    public void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mStageNames.length);
+        for (String name : mStageNames) {
+            out.writeUTF(name);
+        }
+        Map<Integer, String> threadNames = new HashMap<>(mThreadNames);
+        out.writeInt(threadNames.size());
+        for (Map.Entry<Integer, String> entry : threadNames.entrySet()) {
+            out.writeInt(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+
+        long end = mCursor.get();
+        long start = Math.max(0, end - mCapacity);
+        out.writeInt((int) (end - start));
+        for (long i = start; i < end; i++) {
+            int slot = (int) (i % mCapacity);
+            out.writeLong(mTimestamps[slot]);
+            out.writeLong(mFrameIds[slot]);
+            out.writeInt(mThreadIds[slot]);
+            out.writeByte(mStages[slot]);
+            out.writeByte(mPhases[slot]);
+        }
+        out.flush();
+    }
+}
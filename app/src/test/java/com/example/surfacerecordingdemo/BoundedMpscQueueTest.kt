@@ -0,0 +1,93 @@
+package com.example.surfacerecordingdemo
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+class BoundedMpscQueueTest {
+    @Test
+    fun pollsInOfferOrder() {
+        val queue = BoundedMpscQueue<Int>(8)
+        assertNull(queue.poll())
+        // Several laps, so slots are reused.
+        for (lap in 0 until 5) {
+            for (i in 0 until 6) {
+                assertTrue(queue.offer(lap * 10 + i))
+            }
+            assertEquals(6, queue.size())
+            for (i in 0 until 6) {
+                assertEquals(lap * 10 + i, queue.poll())
+            }
+            assertNull(queue.poll())
+            assertEquals(0, queue.size())
+        }
+    }
+
+    @Test
+    fun rejectsWhenFull() {
+        val queue = BoundedMpscQueue<Int>(5)
+        assertEquals(8, queue.capacity())
+        for (i in 0 until 8) {
+            assertTrue(queue.offer(i))
+        }
+        assertFalse(queue.offer(8))
+        assertEquals(8, queue.size())
+
+        assertEquals(0, queue.poll())
+        assertTrue(queue.offer(8))
+        assertFalse(queue.offer(9))
+        for (i in 1..8) {
+            assertEquals(i, queue.poll())
+        }
+        assertNull(queue.poll())
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsZeroCapacity() {
+        BoundedMpscQueue<Int>(0)
+    }
+
+    @Test
+    fun concurrentProducersLoseAndDuplicateNothing() {
+        val producers = 4
+        val perProducer = 100_000
+        val queue = BoundedMpscQueue<Int>(64)
+        val start = CountDownLatch(1)
+        val threads = List(producers) { p ->
+            thread(name = "producer-$p") {
+                start.await()
+                for (i in 0 until perProducer) {
+                    while (!queue.offer(p * perProducer + i)) {
+                        Thread.yield()     // full; wait for the consumer
+                    }
+                }
+            }
+        }
+
+        start.countDown()
+        val seen = BooleanArray(producers * perProducer)
+        val lastByProducer = IntArray(producers) { -1 }
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30)
+        var received = 0
+        while (received < seen.size) {
+            assertTrue("timed out after $received elements", System.nanoTime() < deadline)
+            val value = queue.poll()
+            if (value == null) {
+                Thread.yield()
+                continue
+            }
+            assertFalse("duplicate $value", seen[value])
+            seen[value] = true
+            // Each producer's elements come out in the order it offered them.
+            val producer = value / perProducer
+            assertTrue(value % perProducer > lastByProducer[producer])
+            lastByProducer[producer] = value % perProducer
+            received++
+        }
+        threads.forEach { it.join() }
+        assertNull(queue.poll())
+        assertTrue(seen.all { it })
+    }
+}
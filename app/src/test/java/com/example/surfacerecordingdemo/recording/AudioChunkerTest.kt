@@ -0,0 +1,50 @@
+package com.example.surfacerecordingdemo.recording
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.nio.ByteBuffer
+
+class AudioChunkerTest {
+    private class Chunk(val bytes: ByteArray, val size: Int, val endOfStream: Boolean, val ptsUs: Long)
+
+    private val chunks = mutableListOf<Chunk>()
+    private val sink = AudioChunker.Sink { chunk, size, endOfStream, ptsUs ->
+        assertEquals(0, chunk.position())
+        assertEquals(size, chunk.limit())
+        chunks += Chunk(ByteArray(size).also { chunk.get(it) }, size, endOfStream, ptsUs)
+    }
+
+    @Test
+    fun splitsIntoEqualChunksInOrder() {
+        val block = ByteBuffer.wrap(ByteArray(16) { it.toByte() })
+        AudioChunker(4).split(block, 16, true, 1234, sink)
+
+        assertEquals(4, chunks.size)
+        for ((i, chunk) in chunks.withIndex()) {
+            assertArrayEquals(ByteArray(4) { (i * 4 + it).toByte() }, chunk.bytes)
+            assertTrue(chunk.endOfStream)
+            assertEquals(1234L, chunk.ptsUs)
+        }
+        assertEquals(16, block.position())
+    }
+
+    @Test
+    fun dropsRemainder() {
+        val block = ByteBuffer.wrap(ByteArray(19) { it.toByte() })
+        AudioChunker(4).split(block, 19, false, 0, sink)
+
+        assertEquals(listOf(4, 4, 4, 4), chunks.map { it.size })
+        assertEquals(15.toByte(), chunks.last().bytes.last())
+    }
+
+    @Test
+    fun copiesOutOfTheCallersBuffer() {
+        val bytes = ByteArray(8) { 1 }
+        var captured: ByteBuffer? = null
+        AudioChunker(1).split(ByteBuffer.wrap(bytes), 8, false, 0,
+            AudioChunker.Sink { chunk, _, _, _ -> captured = chunk })
+        bytes.fill(2)
+
+        assertEquals(1.toByte(), captured!!.get(7))
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.surfacerecordingdemo.recording
+
+import com.example.surfacerecordingdemo.recording.DegradationPolicy.Level
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class DegradationPolicyTest {
+    private val transitions = mutableListOf<Pair<Level, Level>>()
+    private val policy = DegradationPolicy { from, to, _ -> transitions += from to to }
+
+    private val target = 1_000_000_000L / 24
+
+    private fun calm() = policy.evaluate(DegradationPolicy.THERMAL_STATUS_NONE, target, target, 0)
+
+    private fun stressed() =
+        policy.evaluate(DegradationPolicy.THERMAL_STATUS_NONE, target * 2, target, 0)
+
+    @Test
+    fun calmSamplesStayAtNone() {
+        repeat(20) { calm() }
+        assertEquals(Level.NONE, policy.level)
+        assertTrue(transitions.isEmpty())
+    }
+
+    @Test
+    fun severeThermalStepsDownEverySample() {
+        repeat(2) { policy.evaluate(DegradationPolicy.THERMAL_STATUS_SEVERE, 0, target, 0) }
+        assertEquals(Level.REDUCED_BIT_RATE, policy.level)
+        repeat(10) { policy.evaluate(DegradationPolicy.THERMAL_STATUS_SEVERE, 0, target, 0) }
+        assertEquals(Level.NO_OVERLAYS, policy.level)
+        assertEquals(Level.values().size - 1, transitions.size)
+    }
+
+    @Test
+    fun stressNeedsConsecutiveSamples() {
+        stressed()
+        calm()
+        stressed()
+        assertEquals(Level.NONE, policy.level)
+        stressed()
+        assertEquals(Level.REDUCED_FRAME_RATE, policy.level)
+    }
+
+    @Test
+    fun backlogCountsAsStress() {
+        repeat(DegradationPolicy.STRESSED_SAMPLES_TO_DEGRADE) {
+            policy.evaluate(DegradationPolicy.THERMAL_STATUS_NONE, target, target,
+                DegradationPolicy.STRESSED_BACKLOG + 1)
+        }
+        assertEquals(Level.REDUCED_FRAME_RATE, policy.level)
+    }
+
+    @Test
+    fun recoversOneStepPerCalmRun() {
+        repeat(3) { policy.evaluate(DegradationPolicy.THERMAL_STATUS_SEVERE, 0, target, 0) }
+        assertEquals(Level.CHEAP_SCALING, policy.level)
+
+        repeat(DegradationPolicy.CALM_SAMPLES_TO_RECOVER - 1) { calm() }
+        assertEquals(Level.CHEAP_SCALING, policy.level)
+        calm()
+        assertEquals(Level.REDUCED_BIT_RATE, policy.level)
+        repeat(DegradationPolicy.CALM_SAMPLES_TO_RECOVER * 2) { calm() }
+        assertEquals(Level.NONE, policy.level)
+    }
+
+    @Test
+    fun inBetweenSamplesHoldAndRestartTheCount() {
+        stressed()
+        stressed()
+        assertEquals(Level.REDUCED_FRAME_RATE, policy.level)
+
+        // Moderately late frames are neither calm nor stressed.
+        repeat(DegradationPolicy.CALM_SAMPLES_TO_RECOVER - 1) { calm() }
+        policy.evaluate(DegradationPolicy.THERMAL_STATUS_NONE, target * 5 / 4, target, 0)
+        calm()
+        assertEquals(Level.REDUCED_FRAME_RATE, policy.level)
+    }
+
+    @Test
+    fun resetReturnsToNone() {
+        repeat(3) { policy.evaluate(DegradationPolicy.THERMAL_STATUS_SEVERE, 0, target, 0) }
+        policy.reset()
+        assertEquals(Level.NONE, policy.level)
+        calm()
+        assertEquals(Level.NONE, policy.level)
+    }
+}
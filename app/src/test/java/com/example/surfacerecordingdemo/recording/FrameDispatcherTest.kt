@@ -0,0 +1,109 @@
+package com.example.surfacerecordingdemo.recording
+
+import org.junit.Assert.*
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+class FrameDispatcherTest {
+    @Test
+    fun newestFrameWins() {
+        val dispatcher = FrameDispatcher()
+        for (i in 1..3L) {
+            dispatcher.claim().timestampNanos = i
+            dispatcher.publish()
+        }
+
+        dispatcher.beginDrain()
+        val frame = dispatcher.poll()!!
+        assertEquals(3L, frame.timestampNanos)
+        assertEquals(3L, frame.sequence)
+        assertNull(dispatcher.poll())
+        assertEquals(2L, dispatcher.coalescedFrames)
+    }
+
+    @Test
+    fun signalsOncePerDrain() {
+        val dispatcher = FrameDispatcher()
+        dispatcher.claim()
+        assertTrue(dispatcher.publish())
+        dispatcher.claim()
+        assertFalse(dispatcher.publish())
+
+        dispatcher.beginDrain()
+        dispatcher.poll()
+        dispatcher.claim()
+        assertTrue(dispatcher.publish())
+    }
+
+    @Test
+    fun polledFrameIsNotOverwritten() {
+        val dispatcher = FrameDispatcher()
+        dispatcher.claim().timestampNanos = 1
+        dispatcher.publish()
+        val frame = dispatcher.poll()!!
+
+        // The producer keeps going while the consumer still holds its frame.
+        for (i in 2..5L) {
+            dispatcher.claim().timestampNanos = i
+            dispatcher.publish()
+        }
+        assertEquals(1L, frame.timestampNanos)
+        assertEquals(5L, dispatcher.poll()!!.timestampNanos)
+    }
+
+    @Test
+    fun clearRestartsSequence() {
+        val dispatcher = FrameDispatcher()
+        dispatcher.claim()
+        dispatcher.publish()
+        dispatcher.claim()
+        dispatcher.publish()
+        dispatcher.clear()
+
+        assertNull(dispatcher.poll())
+        assertEquals(0L, dispatcher.coalescedFrames)
+        dispatcher.claim()
+        dispatcher.publish()
+        assertEquals(1L, dispatcher.poll()!!.sequence)
+    }
+
+    @Test
+    fun steadyStateAllocatesNothing() {
+        val bean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(bean != null && bean.isThreadAllocatedMemorySupported)
+        bean!!.isThreadAllocatedMemoryEnabled = true
+        val threadId = Thread.currentThread().id
+        val dispatcher = FrameDispatcher()
+
+        // Warm up so class loading and JIT compilation are not counted.
+        runFrames(dispatcher, 20000)
+        val before = bean.getThreadAllocatedBytes(threadId)
+        runFrames(dispatcher, FRAMES)
+        val allocated = bean.getThreadAllocatedBytes(threadId) - before
+
+        // A single float[16] per frame would be over 6 MB; allow for the probe itself.
+        assertTrue("allocated $allocated bytes over $FRAMES frames", allocated < 1024)
+    }
+
+    private fun runFrames(dispatcher: FrameDispatcher, count: Int) {
+        var i = 0
+        while (i < count) {
+            // Publish twice per poll so the coalescing path is exercised too.
+            for (j in 0 until 2) {
+                val frame = dispatcher.claim()
+                frame.timestampNanos = i.toLong()
+                frame.transform[0] = 1f
+                if (dispatcher.publish()) {
+                    dispatcher.beginDrain()
+                }
+            }
+            dispatcher.poll()
+            i++
+        }
+    }
+
+    companion object {
+        private const val FRAMES = 100000
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.surfacerecordingdemo.recording
+
+import com.example.surfacerecordingdemo.recording.harness.FakeSurfaceTexture
+import com.example.surfacerecordingdemo.recording.metrics.FrameAccounting
+import com.example.surfacerecordingdemo.recording.metrics.FrameAccounting.Drop
+import org.junit.Assert.*
+import org.junit.Test
+
+class FrameLoopTest {
+    private val dispatcher = FrameDispatcher()
+    private val accounting = FrameAccounting()
+    private val loop = FrameLoop(dispatcher, accounting)
+    private val texture = FakeSurfaceTexture()
+    private val pacer = FramePacer(0)
+    private val drawn = mutableListOf<Long>()
+    private val renderer = FrameLoop.Renderer { timestampNanos, _ -> drawn += timestampNanos }
+
+    /**
+     * As onFrameAvailable(): a buffer is queued, then the frame announced.  The texture's
+     * timestamp only moves when a buffer is latched, so the announcing thread sees the previous
+     * buffer's time (0 for the first).
+     */
+    private fun capture(timestampNanos: Long) {
+        texture.queueBuffer(timestampNanos)
+        accounting.onCaptured()
+        dispatcher.claim().timestampNanos = texture.timestamp
+        dispatcher.publish()
+    }
+
+    @Test
+    fun drawsAndPacesByTheLatchedBuffersTime() {
+        val pacer = FramePacer(30)
+        val period = 16_666_667L
+        for (i in 1..10) {
+            capture(i * period)
+            loop.drain(texture, true, pacer, renderer)
+        }
+
+        // 60 fps in, every other frame drawn, each with its own buffer's time.
+        assertEquals(listOf(1L, 3L, 5L, 7L, 9L).map { it * period }, drawn)
+        assertEquals(60f, pacer.inputFrameRate, 0.1f)
+        assertEquals(5, pacer.outputFrames)
+    }
+
+    @Test
+    fun discardLeavesTextureAloneAndCountsFrames() {
+        capture(1_000)
+        loop.drain(texture, true, pacer, renderer)
+        capture(2_000)
+        capture(3_000)
+
+        val unlatchable = object : FrameLoop.Texture {
+            override fun updateTexImage() = fail("latched after release")
+            override fun getTimestamp(): Long = throw AssertionError("read after release")
+            override fun getTransformMatrix(matrix: FloatArray) = fail("read after release")
+        }
+        loop.discard()
+        loop.drain(unlatchable, true, pacer, renderer)     // nothing left to latch
+
+        assertEquals(listOf(1_000L), drawn)
+        assertEquals(2, accounting.snapshot().getDropped(Drop.NOT_RECORDING))
+    }
+}
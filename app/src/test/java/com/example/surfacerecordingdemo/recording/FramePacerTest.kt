@@ -0,0 +1,83 @@
+package com.example.surfacerecordingdemo.recording
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class FramePacerTest {
+    @Test
+    fun pacesFastInputToTarget() {
+        val pacer = FramePacer(24)
+        val accepted = feed(pacer, 120, 10.0)
+
+        assertEquals(240.0, accepted.toDouble(), 1.0)
+        assertEquals(120f, pacer.inputFrameRate, 0.5f)
+        assertEquals(24f, pacer.outputFrameRate, 0.2f)
+        assertEquals(pacer.inputFrames - pacer.outputFrames, pacer.droppedFrames)
+    }
+
+    @Test
+    fun keepsEveryFrameAtTargetRateDespiteJitter() {
+        val pacer = FramePacer(30)
+        val period = NANOS / 30
+        var timestamp = 0L
+        for (i in 0 until 300) {
+            // Alternate early and late by up to 4 ms.
+            val jitter = if (i % 2 == 0) -4_000_000L else 4_000_000L
+            assertTrue("frame $i", pacer.accept(timestamp + jitter + 10_000_000L))
+            timestamp += period
+        }
+        assertEquals(0L, pacer.droppedFrames)
+    }
+
+    @Test
+    fun outputNeverExceedsTarget() {
+        for (inputRate in intArrayOf(25, 30, 48, 60, 90, 144)) {
+            val pacer = FramePacer(24)
+            val accepted = feed(pacer, inputRate, 5.0)
+            assertTrue("$inputRate Hz gave $accepted", accepted <= 24 * 5 + 1)
+            assertTrue("$inputRate Hz gave $accepted", accepted >= 24 * 5 - 2)
+        }
+    }
+
+    @Test
+    fun resyncsAfterGap() {
+        val pacer = FramePacer(30)
+        assertTrue(pacer.accept(0))
+        // Two seconds of nothing, then frames at 60 Hz: no burst to catch up.
+        val resumed = 2 * NANOS
+        assertTrue(pacer.accept(resumed))
+        assertFalse(pacer.accept(resumed + NANOS / 60))
+        assertTrue(pacer.accept(resumed + 2 * NANOS / 60))
+    }
+
+    @Test
+    fun zeroRateAcceptsEverything() {
+        val pacer = FramePacer(0)
+        assertEquals(600, feed(pacer, 120, 5.0))
+    }
+
+    @Test
+    fun resetClearsCounts() {
+        val pacer = FramePacer(24)
+        feed(pacer, 60, 1.0)
+        pacer.reset()
+        assertEquals(0L, pacer.inputFrames)
+        assertEquals(0f, pacer.outputFrameRate, 0f)
+        assertTrue(pacer.accept(5 * NANOS))
+    }
+
+    private fun feed(pacer: FramePacer, inputRate: Int, seconds: Double): Int {
+        var accepted = 0
+        val frames = (inputRate * seconds).toInt()
+        for (i in 0 until frames) {
+            if (pacer.accept(i * NANOS / inputRate)) {
+                accepted++
+            }
+        }
+        return accepted
+    }
+
+    companion object {
+        private const val NANOS = 1_000_000_000L
+    }
+}
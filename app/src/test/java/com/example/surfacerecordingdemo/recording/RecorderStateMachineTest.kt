@@ -0,0 +1,219 @@
+package com.example.surfacerecordingdemo.recording
+
+import com.example.surfacerecordingdemo.recording.RecorderStateMachine.State
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.PriorityQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class RecorderStateMachineTest {
+    /** Runs tasks in order on the test thread, with delays against a virtual clock. */
+    private class ManualScheduler : RecorderStateMachine.Scheduler {
+        private class Task(val dueMillis: Long, val order: Long, val runnable: Runnable)
+
+        private val tasks = PriorityQueue<Task>(compareBy<Task>({ it.dueMillis }, { it.order }))
+        private var order = 0L
+        var nowMillis = 0L
+            private set
+
+        override fun execute(task: Runnable) = executeDelayed(task, 0)
+
+        override fun executeDelayed(task: Runnable, delayMillis: Long) {
+            tasks.add(Task(nowMillis + delayMillis, order++, task))
+        }
+
+        /** Runs everything due by now. */
+        fun runPending() {
+            while (tasks.isNotEmpty() && tasks.peek()!!.dueMillis <= nowMillis) {
+                tasks.poll()!!.runnable.run()
+            }
+        }
+
+        fun advanceBy(millis: Long) {
+            nowMillis += millis
+            runPending()
+        }
+    }
+
+    private class FakePipeline : RecorderStateMachine.Pipeline<String> {
+        val calls = mutableListOf<String>()
+        var prepareError: Exception? = null
+
+        override fun prepare(config: String) {
+            calls += "prepare $config"
+            prepareError?.let { throw it }
+        }
+
+        override fun start() {
+            calls += "start"
+        }
+
+        override fun drain() {
+            calls += "drain"
+        }
+
+        override fun release() {
+            calls += "release"
+        }
+    }
+
+    private class RecordingListener : RecorderStateMachine.Listener {
+        val transitions = mutableListOf<State>()
+        val errors = mutableListOf<Throwable>()
+
+        override fun onStateChanged(from: State, to: State) {
+            transitions += to
+        }
+
+        override fun onError(error: Throwable) {
+            errors += error
+        }
+    }
+
+    private val scheduler = ManualScheduler()
+    private val pipeline = FakePipeline()
+    private val listener = RecordingListener()
+    private val machine = RecorderStateMachine(scheduler, pipeline, listener)
+
+    @Test
+    fun startsAfterDelay() {
+        machine.start("config", 500)
+        scheduler.runPending()
+        assertEquals(State.PREPARING, machine.state)
+        assertTrue(machine.isActive)
+
+        scheduler.advanceBy(499)
+        assertEquals(State.PREPARING, machine.state)
+        scheduler.advanceBy(1)
+        assertEquals(State.RECORDING, machine.state)
+        assertEquals(listOf("prepare config", "start"), pipeline.calls)
+    }
+
+    @Test
+    fun fullLifecycle() {
+        machine.start("config", 0)
+        machine.pause()
+        scheduler.runPending()
+        // The pause was queued before the delayed start ran, so it didn't apply.
+        assertEquals(State.RECORDING, machine.state)
+
+        machine.pause()
+        scheduler.runPending()
+        assertEquals(State.PAUSED, machine.state)
+        machine.resume()
+        scheduler.runPending()
+        assertEquals(State.RECORDING, machine.state)
+
+        machine.stop()
+        scheduler.runPending()
+        assertEquals(State.RELEASED, machine.state)
+        assertFalse(machine.isActive)
+        assertEquals(
+            listOf(State.PREPARING, State.RECORDING, State.PAUSED, State.RECORDING,
+                State.DRAINING, State.RELEASED),
+            listener.transitions)
+        assertEquals(listOf("prepare config", "start", "drain", "release"), pipeline.calls)
+    }
+
+    @Test
+    fun stopDuringStartDelayNeverStarts() {
+        machine.start("config", 1000)
+        scheduler.runPending()
+        machine.stop()
+        scheduler.advanceBy(2000)
+
+        assertEquals(State.RELEASED, machine.state)
+        assertEquals(listOf("prepare config", "drain", "release"), pipeline.calls)
+    }
+
+    @Test
+    fun stopWhilePausedDrains() {
+        machine.start("config", 0)
+        scheduler.runPending()
+        machine.pause()
+        machine.stop()
+        scheduler.runPending()
+
+        assertEquals(State.RELEASED, machine.state)
+        assertEquals(listOf("prepare config", "start", "drain", "release"), pipeline.calls)
+    }
+
+    @Test
+    fun prepareFailureReleases() {
+        val error = IllegalStateException("no encoder")
+        pipeline.prepareError = error
+        machine.start("config", 0)
+        scheduler.advanceBy(1000)
+
+        assertEquals(State.RELEASED, machine.state)
+        assertEquals(listOf<Throwable>(error), listener.errors)
+        assertEquals(listOf("prepare config", "release"), pipeline.calls)
+    }
+
+    @Test
+    fun commandsAfterReleaseAreIgnored() {
+        machine.start("config", 0)
+        machine.stop()
+        scheduler.runPending()
+        machine.stop()
+        machine.start("again", 0)
+        machine.resume()
+        scheduler.runPending()
+
+        assertEquals(State.RELEASED, machine.state)
+        assertEquals(1, pipeline.calls.count { it == "release" })
+        assertFalse(pipeline.calls.contains("prepare again"))
+    }
+
+    @Test
+    fun stopBeforeStartReleases() {
+        machine.stop()
+        scheduler.runPending()
+
+        assertEquals(State.RELEASED, machine.state)
+        assertEquals(listOf("release"), pipeline.calls)
+    }
+
+    @Test
+    fun concurrentCommandsStayConsistent() {
+        // Serialise commands from many threads through a single-threaded executor, as the
+        // encoder's Handler does.
+        val executor = Executors.newSingleThreadScheduledExecutor()
+        val states = mutableListOf<State>()
+        val machine = RecorderStateMachine(object : RecorderStateMachine.Scheduler {
+            override fun execute(task: Runnable) = executor.execute(task)
+            override fun executeDelayed(task: Runnable, delayMillis: Long) {
+                executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS)
+            }
+        }, FakePipeline(), object : RecorderStateMachine.Listener {
+            override fun onStateChanged(from: State, to: State) {
+                states += to
+            }
+
+            override fun onError(error: Throwable) = fail(error.toString())
+        })
+
+        machine.start("config", 0)
+        val threads = (0 until 8).map { i ->
+            Thread {
+                repeat(1000) {
+                    if (i % 2 == 0) machine.pause() else machine.resume()
+                }
+            }
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+        machine.stop()
+        executor.shutdown()
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS))
+
+        assertEquals(State.RELEASED, machine.state)
+        assertEquals(State.DRAINING, states[states.size - 2])
+        // Every transition between PREPARING and DRAINING was a legal pause/resume toggle.
+        for (k in 1 until states.size - 2) {
+            assertTrue(states[k] == State.RECORDING || states[k] == State.PAUSED)
+            assertNotEquals(states[k - 1], states[k])
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.surfacerecordingdemo.recording
+
+import com.example.surfacerecordingdemo.recording.metrics.FrameAccounting
+import com.example.surfacerecordingdemo.recording.metrics.RecordingCounters
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+class RecordingStatsSamplerTest {
+    private val counters = RecordingCounters()
+    private val accounting = FrameAccounting()
+    private val policy = DegradationPolicy { _, _, _ -> }
+    private val sampler = RecordingStatsSampler(counters, accounting, policy)
+
+    private val second = 1_000_000_000L
+
+    @Test
+    fun ratesCoverTheIntervalSinceTheLastSample() {
+        counters.onVideoWritten(1_000, 0)     // before start; not part of the first interval
+        sampler.start(0)
+
+        repeat(30) { counters.onVideoWritten(10_000, 20_000_000) }
+        counters.onAudioWritten(5_000)
+        var stats = sampler.sample(second)
+        assertEquals(30f, stats.encodedFrameRate, 0.01f)
+        assertEquals(305_000L * 8, stats.bitRate)
+        assertEquals(306_000, stats.bytesWritten)
+        assertEquals(20_000_000, stats.averageLatencyNanos)
+
+        repeat(15) { counters.onVideoWritten(20_000, 40_000_000) }
+        stats = sampler.sample(second * 3)
+        assertEquals(7.5f, stats.encodedFrameRate, 0.01f)
+        assertEquals(300_000L * 8 / 2, stats.bitRate)
+        assertEquals(606_000, stats.bytesWritten)
+        assertEquals(40_000_000, stats.averageLatencyNanos)
+        assertEquals(second * 3, stats.elapsedNanos)
+    }
+
+    @Test
+    fun maxLatencyStartsOverEachSample() {
+        sampler.start(0)
+        counters.onVideoWritten(1, 50_000_000)
+        counters.onVideoWritten(1, 10_000_000)
+        assertEquals(50_000_000, sampler.sample(second).maxLatencyNanos)
+
+        counters.onVideoWritten(1, 30_000_000)
+        assertEquals(30_000_000, sampler.sample(second * 2).maxLatencyNanos)
+        assertEquals(0, sampler.sample(second * 3).maxLatencyNanos)
+    }
+
+    @Test
+    fun idleIntervalReportsZeroRatesAndLatency() {
+        sampler.start(0)
+        val stats = sampler.sample(second)
+        assertEquals(0f, stats.encodedFrameRate, 0f)
+        assertEquals(0, stats.bitRate)
+        assertEquals(0, stats.averageLatencyNanos)
+    }
+
+    @Test
+    fun snapshotsCarryDropsQueueDepthAndLevel() {
+        sampler.start(0)
+        accounting.onDropped(FrameAccounting.Drop.COALESCED, 3)
+        repeat(4) { counters.onAudioQueued() }
+        counters.onAudioDequeued()
+        repeat(2) { policy.evaluate(DegradationPolicy.THERMAL_STATUS_SEVERE, 0, 0, 0) }
+
+        val stats = sampler.sample(second)
+        assertEquals(3, stats.frames.getDropped(FrameAccounting.Drop.COALESCED))
+        assertEquals(3, stats.audioQueueDepth)
+        assertEquals(DegradationPolicy.Level.REDUCED_BIT_RATE, stats.degradationLevel)
+    }
+
+    @Test
+    fun laterSegmentAddsToEarlierTotals() {
+        sampler.start(0)
+        repeat(10) { counters.onVideoWritten(1_000, 0) }
+        accounting.onDropped(FrameAccounting.Drop.PACED, 2)
+        val earlier = sampler.sample(second * 2)
+
+        counters.reset()
+        accounting.reset()
+        sampler.start(0)
+        repeat(5) { counters.onVideoWritten(1_000, 0) }
+        accounting.onDropped(FrameAccounting.Drop.PACED, 1)
+        val stats = sampler.sample(second).continuing(earlier)
+
+        assertEquals(15_000, stats.bytesWritten)
+        assertEquals(second * 3, stats.elapsedNanos)
+        assertEquals(3, stats.frames.getDropped(FrameAccounting.Drop.PACED))
+        assertEquals(5f, stats.encodedFrameRate, 0.01f)
+    }
+
+    @Test
+    fun concurrentWritersAreAllCounted() {
+        sampler.start(0)
+        val done = CountDownLatch(4)
+        repeat(4) { writer ->
+            thread {
+                repeat(10_000) { counters.onVideoWritten(1, writer * 1_000L + 1) }
+                done.countDown()
+            }
+        }
+        done.await(10, TimeUnit.SECONDS)
+
+        val stats = sampler.sample(second)
+        assertEquals(40_000, stats.bytesWritten)
+        assertEquals(3_001, stats.maxLatencyNanos)
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.surfacerecordingdemo.recording
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class TimestampNormalizerTest {
+    private var nowNanos = 0L
+    private val clock = TimestampNormalizer.Clock { nowNanos }
+
+    @Test
+    fun restampsFromClock() {
+        val normalizer = TimestampNormalizer(clock, false)
+        nowNanos = 5_000_000
+        assertEquals(5_000L, normalizer.normalize(123))
+    }
+
+    @Test
+    fun keepsProducerTimes() {
+        val normalizer = TimestampNormalizer(clock, true)
+        assertEquals(123L, normalizer.normalize(123))
+        assertEquals(456L, normalizer.normalize(456))
+    }
+
+    @Test
+    fun neverGoesBackwardsOrRepeats() {
+        val normalizer = TimestampNormalizer(clock, true)
+        assertEquals(1000L, normalizer.normalize(1000))
+        assertEquals(1001L, normalizer.normalize(900))
+        assertEquals(1002L, normalizer.normalize(1001))
+
+        val restamping = TimestampNormalizer(clock, false)
+        nowNanos = 2_000_000
+        assertEquals(2000L, restamping.normalize(0))
+        assertEquals(2001L, restamping.normalize(0))
+    }
+
+    @Test
+    fun resetForgetsLastTime() {
+        val normalizer = TimestampNormalizer(clock, true)
+        normalizer.normalize(1000)
+        normalizer.reset()
+        assertEquals(10L, normalizer.normalize(10))
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.surfacerecordingdemo.recording.gles
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class MvpMathTest {
+    private val aspect = 16f / 9f
+
+    @Test
+    fun multiplyByIdentity() {
+        val identity = FloatArray(16).also { MvpMath.setIdentity(it) }
+        val m = FloatArray(16) { it.toFloat() }
+        val result = FloatArray(16)
+
+        MvpMath.multiply(result, m, identity)
+        assertArrayEquals(m, result, 0f)
+        MvpMath.multiply(result, identity, m)
+        assertArrayEquals(m, result, 0f)
+    }
+
+    @Test
+    fun multiplyIsColumnMajor() {
+        val translate = FloatArray(16).also { MvpMath.setIdentity(it) }
+        MvpMath.translate(translate, 1f, 2f, 3f)
+        val scale = FloatArray(16).also { MvpMath.setIdentity(it) }
+        MvpMath.scale(scale, 2f, 2f, 2f)
+        val result = FloatArray(16)
+
+        // Scale first, then translate: the translation itself isn't scaled.
+        MvpMath.multiply(result, translate, scale)
+        assertEquals(2f, result[0], 0f)
+        assertEquals(1f, result[12], 0f)
+        assertEquals(3f, result[14], 0f)
+    }
+
+    @Test
+    fun rotateZIsCounterClockwise() {
+        val m = FloatArray(16).also { MvpMath.setIdentity(it) }
+        MvpMath.rotateZ(m, 90f)
+        // The X axis now points up Y.
+        assertEquals(0f, m[0], EPSILON)
+        assertEquals(1f, m[1], EPSILON)
+        assertEquals(-1f, m[4], EPSILON)
+        assertEquals(0f, m[5], EPSILON)
+    }
+
+    @Test
+    fun landscapeVpMatrix() {
+        val expected = floatArrayOf(
+            1 / aspect, 0f, 0f, 0f,
+            0f, 1f, 0f, 0f,
+            0f, 0f, -1f, 0f,
+            0f, 0f, 1f, 1f)
+        assertArrayEquals(expected, MvpMath.initMvpMatrix(0, aspect), EPSILON)
+    }
+
+    @Test
+    fun portraitVpMatrixMovesScaleAcross() {
+        val vp = MvpMath.initMvpMatrix(90, aspect)
+        assertEquals(0f, vp[0], 0f)
+        assertEquals(1 / aspect, Math.abs(vp[4]), EPSILON)
+    }
+
+    @Test
+    fun filterIsSizedRelativeToTheFrame() {
+        val vp = MvpMath.initMvpMatrix(0, aspect)
+        val mvp = MvpMath.createFilterMvpMatrix(vp, 0.2f, 0.1f, 0.5f, 0.5f, 0f)
+        assertEquals(0.2f, mvp[0], EPSILON)
+        assertEquals(0.1f, mvp[5], EPSILON)
+        assertEquals(0f, mvp[12], EPSILON)
+        assertEquals(0f, mvp[13], EPSILON)
+    }
+
+    @Test
+    fun filterPositionIsFromTopLeft() {
+        val vp = MvpMath.initMvpMatrix(0, aspect)
+        val topRight = MvpMath.createFilterMvpMatrix(vp, 0.2f, 0.1f, 1f, 0f, 0f)
+        assertEquals(1f, topRight[12], EPSILON)
+        assertEquals(1f, topRight[13], EPSILON)
+    }
+
+    private companion object {
+        const val EPSILON = 1e-6f
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.surfacerecordingdemo.recording.harness
+
+import com.example.surfacerecordingdemo.recording.FrameLoop
+import com.example.surfacerecordingdemo.recording.gles.MvpMath
+import com.example.surfacerecordingdemo.recording.hardware.EncoderSession
+import java.nio.ByteBuffer
+
+/**
+ * SurfaceTexture's BufferQueue: the producer queues timestamped buffers, at most [maxBuffers]
+ * deep, and the oldest is dropped when a new one arrives on a full queue.  Like the real one,
+ * it can't be latched or read once released, and buffers queued after that are lost.
+ */
+class FakeSurfaceTexture(private val maxBuffers: Int = 3) : FrameLoop.Texture {
+    private val queue = java.util.ArrayDeque<Long>()
+    private var latched = 0L
+
+    var isReleased = false
+        private set
+
+    fun queueBuffer(timestampNanos: Long) {
+        if (isReleased) {
+            return
+        }
+        if (queue.size == maxBuffers) {
+            queue.pollFirst()
+        }
+        queue.addLast(timestampNanos)
+    }
+
+    fun release() {
+        isReleased = true
+        queue.clear()
+    }
+
+    override fun updateTexImage() {
+        checkNotReleased()
+        queue.pollFirst()?.let { latched = it }
+    }
+
+    override fun getTimestamp(): Long {
+        checkNotReleased()
+        return latched
+    }
+
+    override fun getTransformMatrix(matrix: FloatArray) {
+        checkNotReleased()
+        MvpMath.setIdentity(matrix)
+    }
+
+    private fun checkNotReleased() = check(!isReleased) { "SurfaceTexture released" }
+}
+
+/**
+ * A MediaCodec in asynchronous mode whose callbacks come on [worker].  Each input comes out
+ * [latencyNanos] later, in order, as [frameSize] bytes for frames from the input surface and as
+ * its own size for buffers.
+ *
+ * Frames swapped into the surface while it already holds [capacity] are lost inside it, as when
+ * a real codec's input backs up.  With [inputBuffers] it takes input through buffers instead,
+ * each handed back once its output is out.  A codec that doesn't [endStream] never outputs end
+ * of stream.  Like the real one it throws IllegalStateException once stopped, and delivers no
+ * callbacks after that.
+ */
+class FakeCodec(
+    private val worker: Simulation.Worker,
+    private val clock: Simulation,
+    private val latencyNanos: Long,
+    private val capacity: Int = Int.MAX_VALUE,
+    private val inputBuffers: Int = 0,
+    private val frameSize: Int = 4096,
+    private val endStream: Boolean = true
+) : EncoderSession.Codec {
+    /** MediaCodec.Callback; the format is just the codec's name. */
+    interface Callback {
+        fun onInputBufferAvailable(index: Int)
+
+        fun onOutputBufferAvailable(index: Int, offset: Int, size: Int, presentationTimeUs: Long,
+            flags: Int)
+
+        fun onOutputFormatChanged(format: String)
+    }
+
+    private val inputs = List(inputBuffers) { ByteBuffer.allocate(INPUT_BUFFER_SIZE) }
+    private val outputs = ArrayList<ByteBuffer>()
+    private val freeOutputs = java.util.ArrayDeque<Int>()
+    private val heldOutputs = HashSet<Int>()
+    private val heldInputs = HashSet<Int>()
+    private lateinit var callback: Callback
+    private var inSurface = 0
+    private var lastOutputNanos = 0L
+    private var inputEnded = false
+    private var stopped = false
+
+    /** Frames and buffers taken with data in them. */
+    var inputCount = 0L
+        private set
+
+    fun start(format: String, callback: Callback) {
+        this.callback = callback
+        worker.post(0, Runnable {
+            if (!stopped) {
+                callback.onOutputFormatChanged(format)
+                for (index in inputs.indices) {
+                    heldInputs += index
+                    callback.onInputBufferAvailable(index)
+                }
+            }
+        })
+    }
+
+    /** A frame was swapped into the input surface (eglSwapBuffers). */
+    fun queueFrame(presentationTimeUs: Long) {
+        if (stopped || inputEnded || inSurface == capacity) {
+            return
+        }
+        inSurface++
+        inputCount++
+        emit(presentationTimeUs, frameSize, 0) { inSurface-- }
+    }
+
+    override fun getInputBuffer(index: Int): ByteBuffer {
+        checkStarted()
+        check(index in heldInputs) { "Input buffer $index isn't the caller's" }
+        return inputs[index]
+    }
+
+    override fun queueInputBuffer(index: Int, offset: Int, size: Int, presentationTimeUs: Long,
+        flags: Int) {
+        checkStarted()
+        check(index in heldInputs) { "Input buffer $index isn't the caller's" }
+        check(!inputEnded) { "Input after end of stream" }
+        heldInputs -= index
+        if (size > 0) {
+            inputCount++
+        }
+        val endOfStream = flags and EncoderSession.FLAG_END_OF_STREAM != 0
+        inputEnded = endOfStream
+        if (!endOfStream || endStream) {
+            emit(presentationTimeUs, size, flags) {
+                heldInputs += index
+                callback.onInputBufferAvailable(index)
+            }
+        }
+    }
+
+    override fun getOutputBuffer(index: Int): ByteBuffer {
+        checkStarted()
+        check(index in heldOutputs) { "Output buffer $index isn't the caller's" }
+        return outputs[index]
+    }
+
+    override fun releaseOutputBuffer(index: Int) {
+        checkStarted()
+        check(heldOutputs.remove(index)) { "Output buffer $index isn't the caller's" }
+        freeOutputs += index
+    }
+
+    override fun signalEndOfInputStream() {
+        checkStarted()
+        check(inputs.isEmpty()) { "Not a surface input codec" }
+        inputEnded = true
+        if (endStream) {
+            emit(clock.nanoTime() / 1000, 0, EncoderSession.FLAG_END_OF_STREAM) {}
+        }
+    }
+
+    override fun stop() {
+        stopped = true
+    }
+
+    override fun release() {
+        stopped = true
+    }
+
+    /** Outputs a sample [latencyNanos] from now, after those before it. */
+    private fun emit(presentationTimeUs: Long, size: Int, flags: Int, onConsumed: () -> Unit) {
+        val outputNanos = maxOf(clock.nanoTime() + latencyNanos, lastOutputNanos)
+        lastOutputNanos = outputNanos
+        worker.post(outputNanos - clock.nanoTime(), Runnable {
+            if (stopped) {
+                return@Runnable
+            }
+            onConsumed()
+            val index = freeOutputs.pollFirst() ?: outputs.size.also { outputs += ByteBuffer.allocate(0) }
+            if (outputs[index].capacity() < size) {
+                outputs[index] = ByteBuffer.allocate(size)
+            }
+            outputs[index].clear().limit(size)
+            heldOutputs += index
+            callback.onOutputBufferAvailable(index, 0, size, presentationTimeUs, flags)
+        })
+    }
+
+    private fun checkStarted() = check(!stopped) { "Codec stopped" }
+
+    private companion object {
+        const val INPUT_BUFFER_SIZE = 4096
+    }
+}
+
+/**
+ * MediaMuxer's bookkeeping: tracks are added before start and samples written after, and like
+ * the real one it rejects a track whose presentation times go backwards and fails to stop if it
+ * never started.
+ */
+class FakeMuxer : EncoderSession.Muxer<String> {
+    private val tracks = ArrayList<String>()
+    private val lastTimesUs = ArrayList<Long>()
+    private val samples = ArrayList<Long>()
+    private var started = false
+    private var stopped = false
+
+    override fun addTrack(format: String): Int {
+        check(!started) { "Track added after start" }
+        tracks += format
+        lastTimesUs += Long.MIN_VALUE
+        samples += 0L
+        return tracks.size - 1
+    }
+
+    override fun start() {
+        check(!started && tracks.isNotEmpty()) { "Can't start" }
+        started = true
+    }
+
+    override fun writeSampleData(trackIndex: Int, data: ByteBuffer, offset: Int, size: Int,
+        presentationTimeUs: Long, flags: Int) {
+        check(started && !stopped) { "Muxer isn't started" }
+        require(trackIndex in tracks.indices) { "No track $trackIndex" }
+        require(data.limit() - offset >= size) { "Sample is past the buffer" }
+        check(presentationTimeUs > lastTimesUs[trackIndex]) {
+            "Track $trackIndex went back from ${lastTimesUs[trackIndex]} to $presentationTimeUs"
+        }
+        lastTimesUs[trackIndex] = presentationTimeUs
+        samples[trackIndex]++
+    }
+
+    /** Returns how many samples the track [format] was added with has, or 0 if none. */
+    fun getSampleCount(format: String): Long {
+        val track = tracks.indexOf(format)
+        return if (track < 0) 0 else samples[track]
+    }
+
+    override fun stop() {
+        check(started && !stopped) { "Muxer isn't started" }
+        stopped = true
+    }
+
+    override fun release() {
+        stopped = true
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.surfacerecordingdemo.recording.harness
+
+import com.example.surfacerecordingdemo.recording.Benchmark
+import com.example.surfacerecordingdemo.recording.FrameLoop
+import com.example.surfacerecordingdemo.recording.FramePacer
+import com.example.surfacerecordingdemo.recording.RecorderStateMachine
+import com.example.surfacerecordingdemo.recording.RecorderStateMachine.State
+import com.example.surfacerecordingdemo.recording.Stage
+import com.example.surfacerecordingdemo.recording.hardware.EncoderPipeline
+import com.example.surfacerecordingdemo.recording.hardware.EncoderSession
+import com.example.surfacerecordingdemo.recording.metrics.FrameAccounting
+import com.example.surfacerecordingdemo.recording.metrics.FrameStats
+import com.example.surfacerecordingdemo.recording.metrics.LatencyHistogram
+import com.example.surfacerecordingdemo.recording.metrics.RecordingCounters
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+import java.util.EnumMap
+
+/**
+ * Runs a recording headless: the real [RecorderStateMachine], [EncoderPipeline] and
+ * [EncoderSession] HWTextureMovieEncoder and HWVideoEncoderCore are built from, with the
+ * platform swapped for in-process fakes and time for a [Simulation], so a run is deterministic
+ * and takes no longer than the code does.
+ *
+ * SurfaceTexture, GL and EGL, MediaCodec and MediaMuxer are [FakeSurfaceTexture], a draw that
+ * takes [Config.drawNanos], [FakeCodec] and [FakeMuxer].  The threads are workers of the same
+ * names: a frame source standing in for the screen behind the SurfaceTexture, an audio source
+ * for AudioRecord, the encoder thread, and the codecs' callback threads.
+ */
+class PipelineHarness(private val config: Config) {
+    data class Config(
+        /** Rate the synthetic source produces frames at. */
+        val sourceFrameRate: Int = 60,
+        /** EncoderConfig#mFrameRate; 0 for unpaced. */
+        val targetFrameRate: Int = 30,
+        val durationMillis: Long = 500,
+        /** Between prepare and start, while frames are drawn but not recorded. */
+        val startDelayMillis: Long = 0,
+        /** Time the encoder thread spends drawing each frame. */
+        val drawNanos: Long = 1_000_000,
+        val encodeLatencyNanos: Long = 5_000_000,
+        val codecCapacity: Int = 8,
+        /** False for a video codec that never outputs end of stream. */
+        val videoEndsStream: Boolean = true,
+        /** 0 to record without audio. */
+        val audioBlocksPerSecond: Int = 50,
+        /** 20 ms of 44.1 kHz 16-bit stereo at the default block rate. */
+        val audioBlockSize: Int = 3528,
+        val audioInputBuffers: Int = 4
+    )
+
+    data class Report(
+        /** Simulated time spent recording. */
+        val elapsedNanos: Long,
+        val frames: FrameStats,
+        val outputFrameRate: Float,
+        /** From a frame's capture until the codec outputs it. */
+        val encode: LatencyHistogram,
+        /** The encoder thread's time per frame drawn. */
+        val draw: LatencyHistogram,
+        /** From an audio chunk being queued until the audio codec takes it. */
+        val audioQueue: LatencyHistogram,
+        val audioBlocksQueued: Long,
+        val audioChunksMuxed: Long,
+        /** True if both codecs output end of stream before the drain timed out. */
+        val drained: Boolean,
+        /** True if the muxer stopped cleanly. */
+        val finished: Boolean,
+        /**
+         * Bytes allocated per simulated second while recording, or -1.  Includes the
+         * simulation's own bookkeeping, a small object per task.
+         */
+        val allocationRate: Long
+    ) {
+        override fun toString(): String {
+            fun row(name: String, h: LatencyHistogram) = "$name: n=${h.count} " +
+                "p50=${h.getValueAtPercentile(50.0) / 1000}us " +
+                "p99=${h.getValueAtPercentile(99.0) / 1000}us max=${h.max / 1000}us"
+            return listOf(
+                "elapsed: ${elapsedNanos / 1_000_000}ms, output ${"%.1f".format(outputFrameRate)} fps",
+                "frames: $frames",
+                row("encode", encode),
+                row("draw", draw),
+                row("audio queue", audioQueue),
+                "audio: $audioBlocksQueued blocks queued, $audioChunksMuxed chunks muxed",
+                "drained: $drained, finished: $finished",
+                "allocation rate: ${if (allocationRate < 0) "n/a" else "${allocationRate / 1024} KiB/s"}"
+            ).joinToString("\n")
+        }
+    }
+
+    /** Keeps each stage's histogram. */
+    private class StageHistograms : Benchmark {
+        val histograms = EnumMap<Stage, LatencyHistogram>(Stage::class.java).apply {
+            Stage.values().forEach { put(it, LatencyHistogram()) }
+        }
+
+        override val isEnabled = true
+
+        override fun start() {}
+
+        override fun tick() {}
+
+        override fun stop() {}
+
+        override fun stage(stage: Stage, durationNanos: Long) {
+            histograms.getValue(stage).record(durationNanos)
+        }
+    }
+
+    private val sim = Simulation()
+    private val encoderThread = sim.Worker("TextureMovieEncoder")
+    private val frameSource = sim.Worker("FrameSource")
+    private val audioSource = sim.Worker("AudioRecord")
+    private val videoDrain = sim.Worker("VideoHandler")
+    private val audioHandler = sim.Worker("AudioHandler")
+
+    private val accounting = FrameAccounting()
+    private val counters = RecordingCounters()
+    private val benchmark = StageHistograms()
+    private val pacer = FramePacer(config.targetFrameRate)
+    private val muxer = FakeMuxer()
+    private val pcmBlock = ByteBuffer.allocateDirect(config.audioBlockSize)
+    private val framePeriodNanos = 1_000_000_000L / config.sourceFrameRate
+    private val pipeline = EncoderPipeline(encoderThread, FakePlatform(), accounting, pacer, sim,
+        benchmark)
+    private val stateMachine = RecorderStateMachine(encoderThread, pipeline,
+        object : RecorderStateMachine.Listener {
+            override fun onStateChanged(from: State, to: State) {}
+
+            override fun onError(error: Throwable) {
+                this@PipelineHarness.error = error
+            }
+        })
+
+    private var error: Throwable? = null
+    private var drained = false
+    private var finished = false
+    private var audioBlocksQueued = 0L
+
+    /**
+     * As HWTextureMovieEncoder's EncoderPlatform over HWVideoEncoderCore: open() starts the
+     * codecs, and the screen and microphone with them.
+     */
+    private inner class FakePlatform : EncoderPipeline.Platform<Config> {
+        private var texture: FakeSurfaceTexture? = null
+        private var session: EncoderSession<String>? = null
+        private var videoCodec: FakeCodec? = null
+        private var presentationTimeNanos = 0L
+
+        override fun open(config: Config): FrameLoop.Texture {
+            val audio = config.audioBlocksPerSecond > 0
+            val session = EncoderSession(muxer, audio, true, sim,
+                EncoderSession.Waiter { latch, timeoutNanos ->
+                    sim.await(timeoutNanos) { latch.count == 0L }
+                })
+            this.session = session
+            session.setFrameAccounting(accounting)
+            session.setRecordingCounters(counters)
+            session.setBenchmark(benchmark)
+            session.setListener(object : EncoderSession.Listener {
+                override fun onFinished(frameStats: FrameStats, durationMillis: Long) {
+                    finished = true
+                }
+
+                override fun onFailed(error: IllegalStateException, durationMillis: Long) {
+                    this@PipelineHarness.error = error
+                }
+            })
+
+            val video = FakeCodec(videoDrain, sim, config.encodeLatencyNanos,
+                capacity = config.codecCapacity, endStream = config.videoEndsStream)
+            videoCodec = video
+            session.setVideoEncoder(video)
+            video.start(VIDEO_FORMAT, object : FakeCodec.Callback {
+                override fun onInputBufferAvailable(index: Int) {}
+
+                override fun onOutputBufferAvailable(index: Int, offset: Int, size: Int,
+                    presentationTimeUs: Long, flags: Int) =
+                    session.onVideoOutput(index, offset, size, presentationTimeUs, flags)
+
+                override fun onOutputFormatChanged(format: String) =
+                    session.onVideoFormatChanged(format)
+            })
+            if (audio) {
+                val audioCodec = FakeCodec(audioHandler, sim, config.encodeLatencyNanos,
+                    inputBuffers = config.audioInputBuffers)
+                session.setAudioEncoder(audioCodec, audioHandler)
+                audioCodec.start(AUDIO_FORMAT, object : FakeCodec.Callback {
+                    override fun onInputBufferAvailable(index: Int) =
+                        session.onAudioInputAvailable(index)
+
+                    override fun onOutputBufferAvailable(index: Int, offset: Int, size: Int,
+                        presentationTimeUs: Long, flags: Int) =
+                        session.onAudioOutput(index, offset, size, presentationTimeUs, flags)
+
+                    override fun onOutputFormatChanged(format: String) =
+                        session.onAudioFormatChanged(format)
+                })
+                audioSource.post(1_000_000_000L / config.audioBlocksPerSecond,
+                    Runnable(::produceAudio))
+            }
+
+            val texture = FakeSurfaceTexture()
+            this.texture = texture
+            frameSource.post(framePeriodNanos, Runnable { produceFrame(texture) })
+            return texture
+        }
+
+        override fun start() {}
+
+        override fun drawFrame(timestampNanos: Long, transform: FloatArray) {
+            sim.spend(config.drawNanos)
+        }
+
+        override fun setPresentationTime(nsecs: Long) {
+            presentationTimeNanos = nsecs
+        }
+
+        override fun swapBuffers() {
+            videoCodec?.queueFrame(presentationTimeNanos / 1000)
+        }
+
+        override fun enqueueAudio(buffer: ByteBuffer, size: Int, endOfStream: Boolean) {
+            audioBlocksQueued++
+            session?.enqueueAudio(buffer, size, endOfStream)
+        }
+
+        override fun drain() {
+            drained = session?.drain() ?: false
+        }
+
+        override fun release() {
+            session?.release()
+            session = null
+            videoCodec = null
+            texture?.release()
+            texture = null
+        }
+    }
+
+    /** As the SurfaceTexture's producer, then onFrameAvailable(), until it's released. */
+    private fun produceFrame(texture: FakeSurfaceTexture) {
+        if (texture.isReleased) {
+            return
+        }
+        texture.queueBuffer(sim.nanoTime())
+        pipeline.frameAvailable(sim.nanoTime())
+        frameSource.post(framePeriodNanos, Runnable { produceFrame(texture) })
+    }
+
+    /** As AudioRecord's read loop, until the recording is released. */
+    private fun produceAudio() {
+        if (stateMachine.state == State.RELEASED) {
+            return
+        }
+        pcmBlock.clear()
+        pipeline.audioFrameAvailable(pcmBlock, config.audioBlockSize, false)
+        audioSource.post(1_000_000_000L / config.audioBlocksPerSecond, Runnable(::produceAudio))
+    }
+
+    /**
+     * Records for [Config.durationMillis] of simulated time and returns what happened.  Call
+     * once.
+     */
+    fun run(): Report {
+        pipeline.setStateMachine(stateMachine)
+        stateMachine.start(config, config.startDelayMillis)
+        sim.runUntil(TIMEOUT_NANOS) { stateMachine.state == State.RECORDING || error != null }
+        error?.let { throw it }
+
+        val start = sim.nanoTime()
+        val allocatedAtStart = allocatedBytes()
+        sim.runFor(config.durationMillis * 1_000_000)
+        val allocated = allocatedBytes() - allocatedAtStart
+        val elapsed = sim.nanoTime() - start
+
+        stateMachine.stop()
+        sim.runUntil(TIMEOUT_NANOS) { stateMachine.state == State.RELEASED }
+        // Frames announced while stopping are drained after release.
+        sim.runFor(TIMEOUT_NANOS)
+        error?.let { throw it }
+
+        return Report(
+            elapsed,
+            accounting.snapshot(),
+            pacer.outputFrameRate,
+            benchmark.histograms.getValue(Stage.ENCODE),
+            benchmark.histograms.getValue(Stage.DRAW),
+            benchmark.histograms.getValue(Stage.AUDIO_QUEUE),
+            audioBlocksQueued,
+            muxer.getSampleCount(AUDIO_FORMAT),
+            drained,
+            finished,
+            if (allocatedAtStart < 0) -1 else allocated * 1_000_000_000L / elapsed
+        )
+    }
+
+    /** Bytes allocated so far by this thread, which runs the simulation, or -1. */
+    private fun allocatedBytes(): Long {
+        val bean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        if (bean == null || !bean.isThreadAllocatedMemorySupported) {
+            return -1
+        }
+        bean.isThreadAllocatedMemoryEnabled = true
+        return bean.getThreadAllocatedBytes(Thread.currentThread().id)
+    }
+
+    private companion object {
+        const val VIDEO_FORMAT = "video/avc"
+        const val AUDIO_FORMAT = "audio/mp4a-latm"
+        const val TIMEOUT_NANOS = 10_000_000_000L
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.surfacerecordingdemo.recording.harness
+
+import com.example.surfacerecordingdemo.recording.metrics.FrameAccounting.Drop
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * Runs the headless pipeline in a few regimes.  Time is simulated, so a run comes out the same
+ * every time and these can assert on what was paced, coalesced or lost; every run also checks
+ * that each frame and audio chunk is accounted for.  The reports are the measurements; run with
+ * -PpipelineHarness.verbose to print them.
+ */
+class PipelineHarnessTest {
+    private val verbose = java.lang.Boolean.getBoolean("pipelineHarness.verbose")
+
+    private fun run(config: PipelineHarness.Config): PipelineHarness.Report {
+        val report = PipelineHarness(config).run()
+        if (verbose) {
+            println("--- $config\n$report")
+        }
+        assertAccountedFor(report)
+        return report
+    }
+
+    private fun assertAccountedFor(report: PipelineHarness.Report) {
+        val frames = report.frames
+        // Every frame announced was drawn or dropped on the way.
+        assertEquals(frames.toString(), frames.captured, frames.drawn +
+            listOf(Drop.LATE_LATCH, Drop.COALESCED, Drop.PACED, Drop.NOT_RECORDING)
+                .sumOf { frames.getDropped(it) })
+        // Every frame drawn was muxed or dropped after.
+        assertEquals(frames.toString(), frames.drawn, frames.muxed +
+            listOf(Drop.ENCODER_BACKPRESSURE, Drop.MUXER_NOT_STARTED, Drop.AFTER_STOP)
+                .sumOf { frames.getDropped(it) })
+        assertTrue(report.finished)
+    }
+
+    @Test
+    fun pacedRecordingWithRoomyCodecHasNoBackpressure() {
+        val report = run(PipelineHarness.Config(sourceFrameRate = 60, targetFrameRate = 30,
+            durationMillis = 600, codecCapacity = Int.MAX_VALUE))
+
+        assertEquals(30f, report.outputFrameRate, 1f)
+        assertEquals(0, report.frames.getDropped(Drop.ENCODER_BACKPRESSURE))
+        assertTrue(report.drained)
+    }
+
+    @Test
+    fun framesArePresentedAtTheirOwnCaptureTime() {
+        val config = PipelineHarness.Config(targetFrameRate = 0, audioBlocksPerSecond = 0)
+        val report = run(config)
+
+        // Stamped with an earlier buffer's time, a frame would look a frame period slower.
+        // Presentation times are in microseconds, so up to one is lost.
+        val expected = config.drawNanos + config.encodeLatencyNanos
+        assertEquals(expected.toDouble(), report.encode.max.toDouble(), 1000.0)
+        assertEquals(expected.toDouble(), report.encode.mean.toDouble(), 1000.0)
+        assertEquals(report.frames.muxed, report.encode.count)
+    }
+
+    @Test
+    fun slowCodecLosesFramesToBackpressure() {
+        val report = run(PipelineHarness.Config(targetFrameRate = 0, codecCapacity = 2,
+            encodeLatencyNanos = 100_000_000, audioBlocksPerSecond = 0))
+
+        assertTrue(report.frames.toString(), report.frames.getDropped(Drop.ENCODER_BACKPRESSURE) > 0)
+        assertEquals(0, report.frames.getDropped(Drop.PACED))
+    }
+
+    @Test
+    fun slowDrawCoalescesFrames() {
+        val report = run(PipelineHarness.Config(sourceFrameRate = 60, targetFrameRate = 0,
+            drawNanos = 40_000_000, audioBlocksPerSecond = 0))
+
+        assertEquals(25f, report.outputFrameRate, 1f)
+        assertTrue(report.frames.toString(), report.frames.getDropped(Drop.LATE_LATCH) +
+            report.frames.getDropped(Drop.COALESCED) > 0)
+        assertEquals(0, report.frames.getDropped(Drop.PACED))
+    }
+
+    @Test
+    fun framesOutsideRecordingAreNotLatched() {
+        // Frames keep coming during the start delay and while the slow codec drains; those
+        // drained after release would throw latching the released texture.
+        val report = run(PipelineHarness.Config(startDelayMillis = 100,
+            encodeLatencyNanos = 100_000_000, audioBlocksPerSecond = 0))
+
+        assertTrue(report.frames.toString(), report.frames.getDropped(Drop.NOT_RECORDING) >= 12)
+    }
+
+    @Test
+    fun codecThatNeverEndsIsGivenUpOn() {
+        val report = run(PipelineHarness.Config(videoEndsStream = false))
+
+        assertFalse(report.drained)
+    }
+
+    @Test
+    fun everyAudioChunkIsMuxed() {
+        val report = run(PipelineHarness.Config(audioBlocksPerSecond = 100))
+
+        // Each block is queued as eight chunks.
+        assertTrue(report.audioBlocksQueued > 0)
+        assertEquals(report.audioBlocksQueued * 8, report.audioChunksMuxed)
+    }
+}
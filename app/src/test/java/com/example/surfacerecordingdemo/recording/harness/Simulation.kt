@@ -0,0 +1,122 @@
+package com.example.surfacerecordingdemo.recording.harness
+
+import com.example.surfacerecordingdemo.recording.RecorderStateMachine
+import com.example.surfacerecordingdemo.recording.TimestampNormalizer
+import java.util.PriorityQueue
+import java.util.concurrent.Executor
+
+/**
+ * Simulated time and threads, so a pipeline run comes out the same every time.
+ *
+ * Each thread is a [Worker] whose tasks run one at a time, in time order, all on the caller's
+ * thread.  A task takes no time unless it [spend]s some, which keeps its worker busy: tasks
+ * posted to a busy worker wait for it.  Workers keep their own time, so [nanoTime] is the
+ * running task's and can go back between tasks on different workers.  A task can [await]
+ * another worker, as a thread blocking on a latch would.
+ */
+class Simulation : TimestampNormalizer.Clock {
+    inner class Worker(private val name: String) : RecorderStateMachine.Scheduler, Executor {
+        internal var busyUntil = 0L
+
+        override fun execute(task: Runnable) = post(0, task)
+
+        override fun executeDelayed(task: Runnable, delayMillis: Long) =
+            post(delayMillis * 1_000_000, task)
+
+        /** Runs [task] on this worker [delayNanos] from now. */
+        fun post(delayNanos: Long, task: Runnable) {
+            tasks += Task(now + delayNanos, sequence++, this, task)
+        }
+
+        override fun toString() = name
+    }
+
+    private class Task(val time: Long, val sequence: Long, val worker: Worker, val runnable: Runnable)
+
+    private val tasks = PriorityQueue<Task>(compareBy<Task>({ it.time }, { it.sequence }))
+    private val blocked = HashSet<Worker>()
+    private var sequence = 0L
+    private var now = 0L
+    private var current: Worker? = null
+
+    override fun nanoTime() = now
+
+    /** The running task works for [nanos]. */
+    fun spend(nanos: Long) {
+        now += nanos
+    }
+
+    /** Runs the tasks due in the next [nanos]. */
+    fun runFor(nanos: Long) {
+        val end = now + nanos
+        while (runNext(end)) {
+            // next
+        }
+        now = end
+    }
+
+    /** Runs tasks until [condition] holds, or fails if it doesn't within [timeoutNanos]. */
+    fun runUntil(timeoutNanos: Long, condition: () -> Boolean) {
+        val end = now + timeoutNanos
+        while (!condition()) {
+            check(runNext(end)) { "Nothing left to run before ${end / 1_000_000} ms" }
+        }
+    }
+
+    /**
+     * Blocks the running task's worker until [condition] holds, running other workers' tasks
+     * meanwhile.  Returns false if it didn't within [timeoutNanos].
+     */
+    fun await(timeoutNanos: Long, condition: () -> Boolean): Boolean {
+        val worker = checkNotNull(current) { "Only a task can wait" }
+        val deadline = now + timeoutNanos
+        var resumeAt = now
+        var satisfied = condition()
+        blocked += worker
+        try {
+            while (!satisfied && runNext(deadline)) {
+                resumeAt = maxOf(resumeAt, now)
+                satisfied = condition()
+            }
+        } finally {
+            blocked -= worker
+            current = worker
+        }
+        now = if (satisfied) resumeAt else deadline
+        return satisfied
+    }
+
+    /** Runs the next task due by [end], if there is one. */
+    private fun runNext(end: Long): Boolean {
+        val waiting = ArrayList<Task>()
+        try {
+            while (true) {
+                val task = tasks.peek()
+                if (task == null || task.time > end) {
+                    return false
+                }
+                tasks.poll()
+                val worker = task.worker
+                when {
+                    worker in blocked -> waiting += task
+                    task.time < worker.busyUntil ->
+                        tasks += Task(worker.busyUntil, task.sequence, worker, task.runnable)
+                    else -> {
+                        val caller = current
+                        now = task.time
+                        current = worker
+                        try {
+                            task.runnable.run()
+                        } finally {
+                            worker.busyUntil = now
+                            current = caller
+                        }
+                        return true
+                    }
+                }
+            }
+        } finally {
+            tasks += waiting
+        }
+    }
+}
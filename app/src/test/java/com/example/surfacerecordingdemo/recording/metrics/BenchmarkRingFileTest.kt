@@ -0,0 +1,122 @@
+package com.example.surfacerecordingdemo.recording.metrics
+
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.io.StringWriter
+
+class BenchmarkRingFileTest {
+    private val metrics = arrayOf("frame_interval", "draw")
+    private val file = File.createTempFile("benchmark", ".ring")
+
+    @After
+    fun deleteFile() {
+        file.delete()
+    }
+
+    @Test
+    fun convertsSamplesToCsv() {
+        BenchmarkRingFile(file, metrics, 16, 1000).use {
+            it.record(0, 16_666_667)
+            it.record(1, 2_500)
+        }
+
+        val lines = convert(BenchmarkRingConverter.Format.CSV).trim().lines()
+        assertEquals("timestamp (us),thread,metric,value (us)", lines[0])
+        assertEquals(3, lines.size)
+        assertTrue(lines[1], lines[1].endsWith(",frame_interval,16666.667"))
+        assertTrue(lines[2], lines[2].endsWith(",draw,2.500"))
+        assertTrue(lines[1].contains(",${Thread.currentThread().id},"))
+    }
+
+    @Test
+    fun convertsSamplesToCounterJson() {
+        BenchmarkRingFile(file, metrics, 16, 1000).use { it.record(1, 1_000) }
+
+        val json = convert(BenchmarkRingConverter.Format.JSON)
+        assertTrue(json, json.startsWith("{\"traceEvents\":[{\"name\":\"draw\""))
+        assertTrue(json, json.contains("\"ph\":\"C\""))
+        assertTrue(json, json.contains("\"args\":{\"us\":1.000}"))
+        assertEquals(json.count { it == '{' }, json.count { it == '}' })
+    }
+
+    @Test
+    fun keepsNewestSamplesWhenFull() {
+        BenchmarkRingFile(file, metrics, 4, 1000).use { ring ->
+            for (i in 1..10L) {
+                ring.record(1, i * 1000)
+            }
+            assertEquals(10, ring.recordCount)
+        }
+
+        val values = convert(BenchmarkRingConverter.Format.CSV).trim().lines().drop(1)
+            .map { it.substringAfterLast(',') }
+        assertEquals(listOf("7.000", "8.000", "9.000", "10.000"), values)
+    }
+
+    @Test
+    fun samplesSurviveWithoutClose() {
+        // As if the process died: the mapping was written but never closed or flushed.
+        val ring = BenchmarkRingFile(file, metrics, 8, 60_000)
+        ring.record(0, 5_000)
+        ring.record(1, 6_000)
+
+        assertEquals(3, convert(BenchmarkRingConverter.Format.CSV).trim().lines().size)
+        ring.close()
+    }
+
+    @Test
+    fun skipsRecordCutOffMidWrite() {
+        BenchmarkRingFile(file, metrics, 4, 1000).use { ring ->
+            repeat(3) { ring.record(1, 1_000) }
+        }
+        // Clear the last record's sequence, as if the crash came before it was published.
+        RandomAccessFile(file, "rw").use {
+            it.seek((BenchmarkRingFile.HEADER_SIZE + 2 * BenchmarkRingFile.RECORD_SIZE).toLong())
+            it.writeLong(0)
+        }
+
+        assertEquals(3, convert(BenchmarkRingConverter.Format.CSV).trim().lines().size)
+    }
+
+    @Test
+    fun samplesFromManyThreadsAreAllKept() {
+        BenchmarkRingFile(file, metrics, 4000, 10).use { ring ->
+            val threads = (0 until 4).map {
+                Thread {
+                    for (i in 0 until 1000L) {
+                        ring.record(0, i)
+                    }
+                }
+            }
+            threads.forEach { it.start() }
+            threads.forEach { it.join() }
+        }
+
+        assertEquals(4001, convert(BenchmarkRingConverter.Format.CSV).trim().lines().size)
+    }
+
+    @Test
+    fun ignoresSamplesAfterClose() {
+        val ring = BenchmarkRingFile(file, metrics, 4, 1000)
+        ring.close()
+        ring.record(0, 1)
+        assertEquals(1, convert(BenchmarkRingConverter.Format.CSV).trim().lines().size)
+    }
+
+    @Test(expected = IOException::class)
+    fun rejectsOtherFiles() {
+        BenchmarkRingConverter.convert(ByteArrayInputStream(ByteArray(16)), StringWriter(),
+            BenchmarkRingConverter.Format.CSV)
+    }
+
+    private fun convert(format: BenchmarkRingConverter.Format): String {
+        val out = StringWriter()
+        file.inputStream().buffered().use { BenchmarkRingConverter.convert(it, out, format) }
+        return out.toString()
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.surfacerecordingdemo.recording.metrics
+
+import com.example.surfacerecordingdemo.recording.metrics.FrameAccounting.Drop
+import org.junit.Assert.*
+import org.junit.Test
+
+class FrameAccountingTest {
+    private val accounting = FrameAccounting()
+
+    @Test
+    fun everyFrameMuxed() {
+        for (i in 1..10L) {
+            accounting.onCaptured()
+            accounting.onDrawn(i * MS)
+            accounting.onEncoded(i * 1000)
+            accounting.onMuxed()
+        }
+        accounting.finish()
+
+        val stats = accounting.snapshot()
+        assertEquals(10L, stats.captured)
+        assertEquals(10L, stats.drawn)
+        assertEquals(10L, stats.encoded)
+        assertEquals(10L, stats.muxed)
+        assertEquals(0L, stats.totalDropped)
+    }
+
+    @Test
+    fun skippedOutputsAreEncoderDrops() {
+        for (i in 1..5L) {
+            accounting.onDrawn(i * MS)
+        }
+        // Frames 2 and 3 never come out.
+        accounting.onEncoded(1000)
+        accounting.onEncoded(4000)
+        assertEquals(2L, accounting.snapshot().getDropped(Drop.ENCODER_BACKPRESSURE))
+
+        // Frame 5 is still in flight when the encoder stops.
+        accounting.finish()
+        assertEquals(3L, accounting.snapshot().getDropped(Drop.ENCODER_BACKPRESSURE))
+    }
+
+    @Test
+    fun countsDropsByCause() {
+        accounting.onDropped(Drop.LATE_LATCH, 2)
+        accounting.onDropped(Drop.COALESCED, 0)
+        accounting.onDropped(Drop.PACED)
+        accounting.onDropped(Drop.MUXER_NOT_STARTED)
+
+        val stats = accounting.snapshot()
+        assertEquals(2L, stats.getDropped(Drop.LATE_LATCH))
+        assertEquals(0L, stats.getDropped(Drop.COALESCED))
+        assertEquals(4L, stats.totalDropped)
+        assertEquals("captured=0 drawn=0 encoded=0 muxed=0 late_latch=2 paced=1 muxer_not_started=1",
+            stats.toString())
+    }
+
+    @Test
+    fun untrackedFramesDoNotConfuseMatching() {
+        // More in flight than the accounting remembers: the excess goes untracked.
+        for (i in 1..300L) {
+            accounting.onDrawn(i * MS)
+        }
+        for (i in 1..300L) {
+            accounting.onEncoded(i * 1000)
+        }
+        accounting.finish()
+        assertEquals(0L, accounting.snapshot().getDropped(Drop.ENCODER_BACKPRESSURE))
+    }
+
+    @Test
+    fun resetClearsEverything() {
+        accounting.onCaptured()
+        accounting.onDrawn(MS)
+        accounting.onDropped(Drop.PACED)
+        accounting.reset()
+        accounting.finish()
+
+        val stats = accounting.snapshot()
+        assertEquals(0L, stats.captured)
+        assertEquals(0L, stats.totalDropped)
+    }
+
+    companion object {
+        private const val MS = 1_000_000L
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.surfacerecordingdemo.recording.metrics
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class FrameCodeTest {
+    @Test
+    fun roundTripsTruncatedFields() {
+        val payload = FrameCode.decode(FrameCode.encode(0x1_2345, 0x1_8765_4321))!!
+        assertEquals(0x2345, payload.frameNumber)
+        assertEquals(0x8765_4321, payload.timestampUs)
+    }
+
+    @Test
+    fun rejectsCorruptCodes() {
+        val code = FrameCode.encode(7, 123_456)
+        for (bit in 0 until FrameCode.BITS) {
+            assertNull("bit $bit", FrameCode.decode(code xor (1L shl bit)))
+        }
+        assertNull(FrameCode.decode(0))
+        assertNull(FrameCode.decode(-1))
+    }
+}
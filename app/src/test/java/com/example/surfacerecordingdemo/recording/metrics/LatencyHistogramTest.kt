@@ -0,0 +1,87 @@
+package com.example.surfacerecordingdemo.recording.metrics
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.Random
+
+class LatencyHistogramTest {
+    @Test
+    fun bucketsAreContiguousAndOrdered() {
+        var previous = -1
+        var value = 0L
+        while (value < 1L shl (LatencyHistogram.MAX_MAGNITUDE + 1)) {
+            val bucket = LatencyHistogram.bucketOf(value)
+            assertTrue(bucket >= previous)
+            assertTrue(LatencyHistogram.lowestValueOf(bucket) <= value)
+            previous = bucket
+            value = if (value < 4096) value + 1 else value + value / 37
+        }
+    }
+
+    @Test
+    fun percentilesWithinRelativeError() {
+        val histogram = LatencyHistogram()
+        val random = Random(42)
+        val values = LongArray(100_000) {
+            // Log-uniform between 1 us and 1 s.
+            Math.pow(10.0, 3 + random.nextDouble() * 6).toLong()
+        }
+        values.forEach { histogram.record(it) }
+        values.sort()
+
+        for (p in doubleArrayOf(50.0, 90.0, 99.0, 99.9)) {
+            val exact = values[(Math.ceil(p / 100 * values.size) - 1).toInt()]
+            val reported = histogram.getValueAtPercentile(p)
+            assertEquals("p$p", exact.toDouble(), reported.toDouble(), exact * 0.04)
+        }
+        assertEquals(values.last(), histogram.max)
+        assertEquals(values.size.toLong(), histogram.count)
+    }
+
+    @Test
+    fun smallValuesAreExact() {
+        val histogram = LatencyHistogram()
+        for (v in 1..10L) {
+            histogram.record(v)
+        }
+        assertEquals(5L, histogram.getValueAtPercentile(50.0))
+        assertEquals(10L, histogram.getValueAtPercentile(100.0))
+        assertEquals(5L, histogram.mean)
+    }
+
+    @Test
+    fun hugeValuesAreClampedButMaxIsExact() {
+        val histogram = LatencyHistogram()
+        histogram.record(Long.MAX_VALUE)
+        histogram.record(-1)
+        assertEquals(1L, histogram.count)
+        assertEquals(Long.MAX_VALUE, histogram.max)
+        assertTrue(histogram.getValueAtPercentile(100.0) > 0)
+    }
+
+    @Test
+    fun resetEmpties() {
+        val histogram = LatencyHistogram()
+        histogram.record(1_000_000)
+        histogram.reset()
+        assertEquals(0L, histogram.count)
+        assertEquals(0L, histogram.max)
+        assertEquals(0L, histogram.getValueAtPercentile(99.0))
+    }
+
+    @Test
+    fun concurrentRecordsAreAllCounted() {
+        val histogram = LatencyHistogram()
+        val threads = (1..4).map { t ->
+            Thread {
+                for (i in 0 until 50_000) {
+                    histogram.record(i * t.toLong())
+                }
+            }
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+        assertEquals(200_000L, histogram.count)
+        assertEquals(49_999L * 4, histogram.max)
+    }
+}
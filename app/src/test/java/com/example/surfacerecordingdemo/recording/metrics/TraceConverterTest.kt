@@ -0,0 +1,80 @@
+package com.example.surfacerecordingdemo.recording.metrics
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.StringWriter
+
+class TraceConverterTest {
+    private val stages = arrayOf("draw", "swap")
+
+    @Test
+    fun convertsEventsToChromeJson() {
+        val buffer = TraceRingBuffer(stages, 16)
+        buffer.record(0, TraceRingBuffer.PHASE_BEGIN, 42, 1_000_500)
+        buffer.record(0, TraceRingBuffer.PHASE_END, 42, 2_000_000)
+        buffer.record(1, TraceRingBuffer.PHASE_BEGIN, 42, 2_000_001)
+
+        val json = convert(buffer)
+
+        assertTrue(json, json.startsWith("{\"traceEvents\":["))
+        assertTrue(json, json.contains("\"name\":\"thread_name\""))
+        assertTrue(json, json.contains("\"name\":\"${Thread.currentThread().name}\""))
+        assertTrue(json, json.contains(
+            "{\"name\":\"draw\",\"cat\":\"pipeline\",\"ph\":\"B\",\"ts\":1000.500"))
+        assertTrue(json, json.contains("\"name\":\"draw\",\"cat\":\"frame\",\"ph\":\"e\",\"id\":\"42\""))
+        assertTrue(json, json.contains("\"ts\":2000.001"))
+        assertTrue(json, json.contains("\"args\":{\"frame\":42}"))
+        assertEquals(json.count { it == '{' }, json.count { it == '}' })
+    }
+
+    @Test
+    fun keepsNewestEventsWhenFull() {
+        val buffer = TraceRingBuffer(stages, 4)
+        for (i in 0 until 10L) {
+            buffer.record(0, TraceRingBuffer.PHASE_BEGIN, i, i * 1000)
+        }
+        assertEquals(4, buffer.size())
+
+        val json = convert(buffer)
+        assertFalse(json.contains("\"frame\":5}"))
+        for (i in 6 until 10) {
+            assertTrue(json.contains("\"frame\":$i}"))
+        }
+    }
+
+    @Test
+    fun eventsFromManyThreadsAreAllKept() {
+        val buffer = TraceRingBuffer(stages, 4000)
+        val threads = (0 until 4).map { t ->
+            Thread({
+                for (i in 0 until 1000L) {
+                    buffer.record(1, TraceRingBuffer.PHASE_END, i, System.nanoTime())
+                }
+            }, "worker-$t")
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+
+        val json = convert(buffer)
+        assertEquals(4000, buffer.size())
+        for (t in 0 until 4) {
+            assertTrue(json.contains("\"name\":\"worker-$t\""))
+        }
+    }
+
+    @Test(expected = IOException::class)
+    fun rejectsOtherFiles() {
+        TraceConverter.convert(ByteArrayInputStream(ByteArray(16)), StringWriter())
+    }
+
+    private fun convert(buffer: TraceRingBuffer): String {
+        val bytes = ByteArrayOutputStream()
+        buffer.writeTo(bytes)
+        val json = StringWriter()
+        TraceConverter.convert(ByteArrayInputStream(bytes.toByteArray()), json)
+        return json.toString()
+    }
+}
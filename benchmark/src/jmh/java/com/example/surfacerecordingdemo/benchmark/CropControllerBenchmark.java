@@ -0,0 +1,57 @@
+package com.example.surfacerecordingdemo.benchmark;
+
+import com.example.surfacerecordingdemo.recording.CropController;
+import com.example.surfacerecordingdemo.recording.gles.MvpMath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-frame crop work on the encoder thread: CropController#update during a pan/zoom,
+ * then MainFrameRect#drawFrame multiplying the crop into the SurfaceTexture transform.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CropControllerBenchmark {
+    private static final long FRAME_NANOS = 16666667L;
+    private static final long ANIMATION_MILLIS = 1000;
+    private static final long ANIMATION_NANOS = ANIMATION_MILLIS * 1000000L;
+
+    private final float[] mTexMatrix = new float[16];
+    private final float[] mResult = new float[16];
+    private CropController mController;
+    private long mFrameTimeNanos;
+    private boolean mZoomedIn;
+
+    @Setup
+    public void setUp() {
+        mController = new CropController(new CropController.Crop(0f, 0f, 0f, 0f));
+        // A SurfaceTexture transform flips t.
+        MvpMath.setIdentity(mTexMatrix);
+        mTexMatrix[5] = -1f;
+        mTexMatrix[13] = 1f;
+    }
+
+    @Benchmark
+    public float[] updateAndMultiply() {
+        // Keep a transition running so every frame interpolates, as during a pan/zoom.
+        if (mFrameTimeNanos % ANIMATION_NANOS < FRAME_NANOS) {
+            mZoomedIn = !mZoomedIn;
+            float crop = mZoomedIn ? 0.25f : 0f;
+            mController.animateTo(new CropController.Crop(crop, crop, crop, crop),
+                    ANIMATION_MILLIS);
+        }
+        mFrameTimeNanos += FRAME_NANOS;
+        mController.update(mFrameTimeNanos);
+        MvpMath.multiply(mResult, mTexMatrix, mController.getCropMatrix());
+        return mResult;
+    }
+}
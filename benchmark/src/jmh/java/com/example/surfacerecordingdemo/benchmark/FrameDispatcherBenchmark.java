@@ -0,0 +1,61 @@
+package com.example.surfacerecordingdemo.benchmark;
+
+import com.example.surfacerecordingdemo.recording.FrameDispatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handing frames from the SurfaceTexture callback thread to the encoder thread, alone and with
+ * the two threads contending.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameDispatcherBenchmark {
+    @State(Scope.Thread)
+    public static class Uncontended {
+        final FrameDispatcher mDispatcher = new FrameDispatcher();
+        long mTimestamp;
+    }
+
+    @State(Scope.Group)
+    public static class Contended {
+        final FrameDispatcher mDispatcher = new FrameDispatcher();
+        long mTimestamp;    // producer only
+    }
+
+    @Benchmark
+    public FrameDispatcher.Frame publishThenPoll(Uncontended state) {
+        FrameDispatcher dispatcher = state.mDispatcher;
+        dispatcher.claim().timestampNanos = state.mTimestamp++;
+        dispatcher.publish();
+        dispatcher.beginDrain();
+        return dispatcher.poll();
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public boolean publish(Contended state) {
+        FrameDispatcher dispatcher = state.mDispatcher;
+        dispatcher.claim().timestampNanos = state.mTimestamp++;
+        return dispatcher.publish();
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public FrameDispatcher.Frame poll(Contended state) {
+        FrameDispatcher dispatcher = state.mDispatcher;
+        dispatcher.beginDrain();
+        return dispatcher.poll();
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.surfacerecordingdemo.benchmark;
+
+import com.example.surfacerecordingdemo.recording.gles.MvpMath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overlay MVP matrices, as GlUtil#initMvpMatrix / GlUtil#createFilterMvpMatrix build them for
+ * the watermark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MvpMathBenchmark {
+    @Param({"0", "90"})
+    public int rotation;
+
+    private float[] mVpMatrix;
+    private final float[] mLhs = new float[16];
+    private final float[] mRhs = new float[16];
+    private final float[] mResult = new float[16];
+
+    @Setup
+    public void setUp() {
+        mVpMatrix = MvpMath.initMvpMatrix(rotation, 16f / 9f);
+        for (int i = 0; i < 16; i++) {
+            mLhs[i] = i * 0.5f;
+            mRhs[i] = 16 - i;
+        }
+    }
+
+    @Benchmark
+    public float[] initMvpMatrix() {
+        return MvpMath.initMvpMatrix(rotation, 16f / 9f);
+    }
+
+    @Benchmark
+    public float[] createFilterMvpMatrix() {
+        return MvpMath.createFilterMvpMatrix(mVpMatrix, 0.2f, 0.1f, 0.85f, 0.9f, 0f);
+    }
+
+    @Benchmark
+    public float[] multiply() {
+        MvpMath.multiply(mResult, mLhs, mRhs);
+        return mResult;
+    }
+}
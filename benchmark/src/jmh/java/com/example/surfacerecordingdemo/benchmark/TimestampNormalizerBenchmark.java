@@ -0,0 +1,37 @@
+package com.example.surfacerecordingdemo.benchmark;
+
+import com.example.surfacerecordingdemo.recording.TimestampNormalizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stamping one muxer sample, restamped from the clock (the texture encoder's video and all
+ * audio) or keeping the encoder's time (persistent input surfaces).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TimestampNormalizerBenchmark {
+    private final TimestampNormalizer mRestamping =
+            new TimestampNormalizer(TimestampNormalizer.SYSTEM_CLOCK, false);
+    private final TimestampNormalizer mKeeping =
+            new TimestampNormalizer(TimestampNormalizer.SYSTEM_CLOCK, true);
+    private long mPresentationTimeUs;
+
+    @Benchmark
+    public long restamp() {
+        return mRestamping.normalize(mPresentationTimeUs += 41666);
+    }
+
+    @Benchmark
+    public long keep() {
+        return mKeeping.normalize(mPresentationTimeUs += 41666);
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.surfacerecordingdemo.recording.metrics;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Reads the {@link FrameCode}s back out of a recording made with
+ * EncoderConfig#mStampFrameCodes and reports what happened to the frames on the way into the
+ * file: latency, duplicates, missing frames and reordering.  It works on frames and timestamps
+ * that ffmpeg extracts from the recording:
+ * <pre>
+ *   ffmpeg -i rec.mp4 -vsync passthrough frames/%06d.png
+ *   ffprobe -v error -select_streams v -show_entries frame=pts_time -of csv=p=0 rec.mp4 &gt; pts.txt
+ *   ./gradlew :tools:jar
+ *   java -cp tools/build/libs/tools.jar \
+ *       com.example.surfacerecordingdemo.recording.metrics.FrameCodeAnalyzer frames pts.txt
+ * </pre>
+ * A frame's latency is the time its sample was written to the file less its capture time.
+ * Muxed timestamps are relative to the first sample, so latencies are reported above the
+ * fastest frame's: the spread, not the absolute glass-to-file time.
+ * <p>
+ * Frame numbers only count frames that were drawn, so missing frames are ones lost between
+ * drawing and the file.  Frames lost before drawing (coalesced, late or paced) show up as
+ * longer capture intervals instead.
+ */
+public class FrameCodeAnalyzer {
+    private static final int READ_THRESHOLD = 128;
+
+    /**
+     * What the analyzer found.  Latencies and intervals are in nanoseconds, like
+     * {@link LatencyHistogram} everywhere else.
+     */
+    public static final class Report {
+        public final int frames;
+        /** Frames without a readable code. */
+        public final int unreadable;
+        /** Frames whose number had already been seen. */
+        public final int duplicates;
+        /** Numbers never seen between the first and last frame. */
+        public final long missing;
+        /** Frames numbered lower than one before them. */
+        public final int reordered;
+        /** Latency above the fastest frame's. */
+        public final LatencyHistogram latency;
+        /** Between the capture times of successive frames, in file order. */
+        public final LatencyHistogram captureIntervals;
+
+        Report(int frames, int unreadable, int duplicates, long missing, int reordered,
+                LatencyHistogram latency, LatencyHistogram captureIntervals) {
+            this.frames = frames;
+            this.unreadable = unreadable;
+            this.duplicates = duplicates;
+            this.missing = missing;
+            this.reordered = reordered;
+            this.latency = latency;
+            this.captureIntervals = captureIntervals;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "frames: %d (unreadable %d)%n"
+                            + "duplicates: %d, missing: %d, reordered: %d%n"
+                            + "latency above fastest: %s%n"
+                            + "capture interval: %s",
+                    frames, unreadable, duplicates, missing, reordered,
+                    summarize(latency), summarize(captureIntervals));
+        }
+
+        private static String summarize(LatencyHistogram h) {
+            return String.format(Locale.US, "n=%d p50=%dus p99=%dus max=%dus", h.getCount(),
+                    h.getValueAtPercentile(50) / 1000, h.getValueAtPercentile(99) / 1000,
+                    h.getMax() / 1000);
+        }
+    }
+
+    private final BitSet mSeen = new BitSet();
+    private long[] mLatenciesUs = new long[256];
+    private final LatencyHistogram mCaptureIntervals = new LatencyHistogram();
+    private int mFrames;
+    private int mReadable;
+    private int mUnreadable;
+    private int mDuplicates;
+    private long mMissing;
+    private int mReordered;
+    // Codes carry truncated values; these unwrap them against the previous readable frame.
+    private int mLastNumberBits;
+    private long mLastNumber;
+    private long mFirstNumber;
+    private long mHighestNumber;
+    private long mLastCaptureBits;
+    private long mLastCaptureUs;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: FrameCodeAnalyzer <frames dir> <pts.txt>");
+            System.exit(2);
+        }
+        File[] frames = new File(args[0]).listFiles((dir, name) -> name.endsWith(".png"));
+        if (frames == null) {
+            throw new IOException("Can't list " + args[0]);
+        }
+        Arrays.sort(frames);
+        List<String> pts = Files.readAllLines(new File(args[1]).toPath(),
+                Charset.forName("UTF-8"));
+        if (pts.size() < frames.length) {
+            throw new IOException(frames.length + " frames but " + pts.size() + " timestamps");
+        }
+
+        FrameCodeAnalyzer analyzer = new FrameCodeAnalyzer();
+        for (int i = 0; i < frames.length; i++) {
+            BufferedImage image = ImageIO.read(frames[i]);
+            if (image == null) {
+                throw new IOException("Can't read " + frames[i]);
+            }
+            long ptsUs = Math.round(Double.parseDouble(pts.get(i).trim()) * 1e6);
+            analyzer.add(ptsUs, read(image));
+        }
+        System.out.println(analyzer.finish());
+    }
+
+    /**
+     * Reads the code in a decoded frame's top left corner.
+     *
+     * @return What the code carries, or null if there's no readable code.
+     */
+    public static FrameCode.Payload read(BufferedImage image) {
+        int cellSize = FrameCode.cellSize(image.getWidth(), image.getHeight());
+        long code = 0;
+        for (int bit = 0; bit < FrameCode.BITS; bit++) {
+            // Sample cell centers, away from the edges the encoder blurs.
+            int x = bit % FrameCode.COLUMNS * cellSize + cellSize / 2;
+            int y = bit / FrameCode.COLUMNS * cellSize + cellSize / 2;
+            int rgb = image.getRGB(x, y);
+            int luma = ((rgb >> 16 & 0xFF) * 299 + (rgb >> 8 & 0xFF) * 587
+                    + (rgb & 0xFF) * 114) / 1000;
+            code = code << 1 | (luma >= READ_THRESHOLD ? 1 : 0);
+        }
+        return FrameCode.decode(code);
+    }
+
+    /**
+     * Adds the next frame in the file.
+     *
+     * @param ptsUs   The frame's presentation time in the file.
+     * @param payload What its code carries, or null if it had no readable code.
+     */
+    public void add(long ptsUs, FrameCode.Payload payload) {
+        mFrames++;
+        if (payload == null) {
+            mUnreadable++;
+            return;
+        }
+
+        long number;
+        long captureUs;
+        if (mReadable == 0) {
+            number = mFirstNumber = mHighestNumber = payload.frameNumber;
+            captureUs = payload.timestampUs;
+        } else {
+            number = mLastNumber + (short) (payload.frameNumber - mLastNumberBits);
+            captureUs = mLastCaptureUs + (int) (payload.timestampUs - mLastCaptureBits);
+            mCaptureIntervals.record(Math.max(0, captureUs - mLastCaptureUs) * 1000);
+        }
+        mLastNumberBits = payload.frameNumber;
+        mLastNumber = number;
+        mLastCaptureBits = payload.timestampUs;
+        mLastCaptureUs = captureUs;
+
+        int index = (int) (number - mFirstNumber);
+        if (index >= 0 && mSeen.get(index)) {
+            mDuplicates++;
+            return;
+        }
+        if (index >= 0) {
+            mSeen.set(index);
+        }
+        if (number > mHighestNumber) {
+            mMissing += number - mHighestNumber - 1;
+            mHighestNumber = number;
+        } else if (mReadable > 0) {
+            mReordered++;
+            if (index >= 0) {
+                mMissing--;     // it filled a gap counted earlier
+            }
+        }
+
+        if (mReadable == mLatenciesUs.length) {
+            mLatenciesUs = Arrays.copyOf(mLatenciesUs, mReadable * 2);
+        }
+        mLatenciesUs[mReadable++] = ptsUs - captureUs;
+    }
+
+    /**
+     * Returns the report on every frame added.
+     */
+    public Report finish() {
+        LatencyHistogram latency = new LatencyHistogram();
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < mReadable; i++) {
+            fastest = Math.min(fastest, mLatenciesUs[i]);
+        }
+        for (int i = 0; i < mReadable; i++) {
+            latency.record((mLatenciesUs[i] - fastest) * 1000);
+        }
+        return new Report(mFrames, mUnreadable, mDuplicates, mMissing, mReordered, latency,
+                mCaptureIntervals);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.surfacerecordingdemo.recording.metrics
+
+import org.junit.Assert.*
+import org.junit.Test
+import java.awt.image.BufferedImage
+
+class FrameCodeAnalyzerTest {
+    @Test
+    fun readsCodeFromDecodedFrame() {
+        val image = frame(1280, 720, FrameCode.encode(42, 99_000), noise = 40)
+        val payload = FrameCodeAnalyzer.read(image)!!
+        assertEquals(42, payload.frameNumber)
+        assertEquals(99_000, payload.timestampUs)
+
+        assertNull(FrameCodeAnalyzer.read(BufferedImage(1280, 720, BufferedImage.TYPE_INT_RGB)))
+    }
+
+    @Test
+    fun reportsDuplicatesGapsAndReordering() {
+        val analyzer = FrameCodeAnalyzer()
+        // Frames 0-9 captured 33 ms apart and written 20 ms after capture, except: 3 is
+        // written twice, 5 never arrives, 8 comes before 7, and 6 is 10 ms late.
+        val order = listOf(0, 1, 2, 3, 3, 4, 6, 8, 7, 9)
+        for (n in order) {
+            val captureUs = 5_000_000L + n * 33_000
+            val writtenUs = captureUs + 20_000 + if (n == 6) 10_000 else 0
+            // Muxed timestamps start from zero.
+            analyzer.add(writtenUs - 5_020_000, payload(n, captureUs))
+        }
+        analyzer.add(400_000, null)
+
+        val report = analyzer.finish()
+        assertEquals(11, report.frames)
+        assertEquals(1, report.unreadable)
+        assertEquals(1, report.duplicates)
+        assertEquals(1, report.missing)
+        assertEquals(1, report.reordered)
+        assertEquals(9, report.latency.count)
+        assertEquals(0, report.latency.getValueAtPercentile(50.0) / 1_000_000)
+        assertEquals(10, report.latency.max / 1_000_000)
+    }
+
+    @Test
+    fun unwrapsTruncatedFields() {
+        val analyzer = FrameCodeAnalyzer()
+        val firstNumber = 0xFFFE
+        val firstCaptureUs = 0xFFFF_FFFFL - 20_000
+        for (i in 0 until 4) {
+            val captureUs = firstCaptureUs + i * 16_667
+            analyzer.add(i * 16_667L, payload(firstNumber + i, captureUs))
+        }
+
+        val report = analyzer.finish()
+        assertEquals(0, report.missing)
+        assertEquals(0, report.reordered)
+        assertEquals(0, report.duplicates)
+        assertEquals(16, report.captureIntervals.max / 1_000_000)
+        assertEquals(0, report.latency.max)
+    }
+
+    private fun payload(frameNumber: Int, timestampUs: Long) =
+        FrameCode.decode(FrameCode.encode(frameNumber.toLong(), timestampUs))!!
+
+    /** A gray frame with the code drawn as FrameCodeRect does, plus some encoder noise. */
+    private fun frame(width: Int, height: Int, code: Long, noise: Int): BufferedImage {
+        val image = BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+        val cell = FrameCode.cellSize(width, height)
+        val random = java.util.Random(1)
+        for (y in 0 until height) {
+            for (x in 0 until width) {
+                val column = x / cell
+                val row = y / cell
+                val base = when {
+                    column >= FrameCode.COLUMNS || row >= FrameCode.ROWS -> 128
+                    FrameCode.isSet(code, row * FrameCode.COLUMNS + column) -> 255
+                    else -> 0
+                }
+                val v = (base + random.nextInt(2 * noise + 1) - noise).coerceIn(0, 255)
+                image.setRGB(x, y, v shl 16 or (v shl 8) or v)
+            }
+        }
+        return image
+    }
+}